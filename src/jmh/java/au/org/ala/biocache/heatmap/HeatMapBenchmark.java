@@ -0,0 +1,60 @@
+package au.org.ala.biocache.heatmap;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generation of the static Australian density and points map images.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class HeatMapBenchmark {
+
+    @Param({"1000", "100000"})
+    public int numberOfPoints;
+
+    private double[] points;
+    private File output;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(42);
+
+        // longitude, latitude pairs within the default extents
+        points = new double[numberOfPoints * 2];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = 110.911 + random.nextDouble() * (156.113 - 110.911);
+            points[i + 1] = -44.778 + random.nextDouble() * (-9.221 + 44.778);
+        }
+
+        output = File.createTempFile("heatmap", ".png");
+        output.deleteOnExit();
+    }
+
+    @TearDown
+    public void tearDown() {
+        output.delete();
+    }
+
+    @Benchmark
+    public HeatMap density() throws Exception {
+        HeatMap heatMap = new HeatMap();
+        heatMap.generateClasses(points);
+        heatMap.drawOutput(output.getPath(), true);
+        return heatMap;
+    }
+
+    @Benchmark
+    public HeatMap points() throws Exception {
+        HeatMap heatMap = new HeatMap();
+        heatMap.setLegendImage(null);
+        heatMap.generatePoints(points, new Color(0xdf4a21), "occurrences");
+        heatMap.drawOutput(output.getPath(), false);
+        return heatMap;
+    }
+}
@@ -0,0 +1,121 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dto.DownloadDetailsDTO;
+import au.org.ala.biocache.dto.DownloadHeaders;
+import au.org.ala.biocache.dto.DownloadRequestDTO;
+import au.org.ala.biocache.dto.DownloadStats;
+import au.org.ala.biocache.util.RecordWriter;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static au.org.ala.biocache.dto.OccurrenceIndex.*;
+
+/**
+ * Assembly of download rows from index tuples, without analysis layer intersections or species lists.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class ProcessDownloadBenchmark {
+
+    private static final int ROWS = 10000;
+
+    private static final String[] FIELDS = {ID, DATA_RESOURCE_UID, DATA_PROVIDER_UID, INSTITUTION_UID, COLLECTION_UID,
+            LICENSE, "scientificName", "vernacularName", "taxonRank", "kingdom", "family", "genus", "decimalLatitude",
+            "decimalLongitude", "coordinateUncertaintyInMeters", EVENT_DATE, YEAR, MONTH, "basisOfRecord",
+            "recordedBy", "stateProvince", "country", "speciesGroup", "multimedia"};
+
+    private static final String[] QA_IDS = {"COORDINATE_ROUNDED", "GEODETIC_DATUM_ASSUMED_WGS84",
+            "COUNTRY_DERIVED_FROM_COORDINATES", "RECORDED_DATE_INVALID", "TAXON_MATCH_FUZZY"};
+
+    private List<Tuple> tuples;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+
+        tuples = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put(ID, UUID.nameUUIDFromBytes(String.valueOf(i).getBytes()).toString());
+            fields.put(DATA_RESOURCE_UID, "dr" + random.nextInt(100));
+            fields.put(DATA_PROVIDER_UID, "dp" + random.nextInt(20));
+            fields.put(INSTITUTION_UID, "in" + random.nextInt(20));
+            fields.put(COLLECTION_UID, "co" + random.nextInt(50));
+            fields.put(LICENSE, "CC-BY 4.0 (Int)");
+            fields.put("scientificName", "Eucalyptus species " + random.nextInt(1000));
+            fields.put("vernacularName", "Gum " + random.nextInt(1000));
+            fields.put("taxonRank", "species");
+            fields.put("kingdom", "Plantae");
+            fields.put("family", "Myrtaceae");
+            fields.put("genus", "Eucalyptus");
+            fields.put("decimalLatitude", random.nextDouble() * -40 - 5);
+            fields.put("decimalLongitude", random.nextDouble() * 40 + 110);
+            fields.put("coordinateUncertaintyInMeters", (double) random.nextInt(10000));
+            fields.put(EVENT_DATE, new Date(random.nextInt(Integer.MAX_VALUE) * 1000L));
+            fields.put(YEAR, 1900 + random.nextInt(120));
+            fields.put(MONTH, String.valueOf(1 + random.nextInt(12)));
+            fields.put("basisOfRecord", "HUMAN_OBSERVATION");
+            fields.put("recordedBy", Arrays.asList("Collector " + random.nextInt(100), "Collector " + random.nextInt(100)));
+            fields.put("stateProvince", "New South Wales");
+            fields.put("country", "Australia");
+            fields.put("speciesGroup", Arrays.asList("Plants", "Dicots"));
+            if (random.nextBoolean()) {
+                fields.put("multimedia", Collections.singletonList("Image"));
+            }
+            fields.put("assertions", Arrays.asList(QA_IDS[random.nextInt(QA_IDS.length)], QA_IDS[random.nextInt(QA_IDS.length)]));
+            tuples.add(new Tuple(fields));
+        }
+    }
+
+    /**
+     * Process ROWS tuples. Records per second is the score * ROWS.
+     */
+    @Benchmark
+    public void process(Blackhole blackhole) {
+        DownloadHeaders headers = new DownloadHeaders(FIELDS, FIELDS, new String[0], new String[0], new String[0], new String[0]);
+        headers.qaIds = QA_IDS;
+        headers.qaLabels = QA_IDS;
+
+        DownloadDetailsDTO downloadDetails = new DownloadDetailsDTO(new DownloadRequestDTO(), null, "127.0.0.1", "jmh",
+                DownloadDetailsDTO.DownloadType.RECORDS_INDEX);
+
+        ProcessDownload processDownload = new ProcessDownload(new DownloadStats(), headers, new BlackholeRecordWriter(blackhole),
+                downloadDetails, false, Long.MAX_VALUE, null, null);
+
+        for (Tuple tuple : tuples) {
+            processDownload.process(tuple);
+        }
+        processDownload.flush();
+    }
+
+    private static class BlackholeRecordWriter implements RecordWriter {
+        private final Blackhole blackhole;
+
+        BlackholeRecordWriter(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void initialise() {
+        }
+
+        @Override
+        public void write(String[] record) {
+            blackhole.consume(record);
+        }
+
+        @Override
+        public boolean finalised() {
+            return false;
+        }
+
+        @Override
+        public void finalise() {
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.biocache.dao.QidCacheDAO;
+import au.org.ala.biocache.dto.FacetThemes;
+import au.org.ala.biocache.dto.SpatialSearchRequestDTO;
+import au.org.ala.biocache.service.*;
+import au.org.ala.biocache.util.solr.FieldMappingUtil;
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.names.ws.client.ALANameUsageMatchServiceClient;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.support.ReloadableResourceBundleMessageSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Formatting of search queries and filters for the index, with mocked name matching and no qids.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class QueryFormatUtilsBenchmark {
+
+    @Param({"text", "fields", "lsid", "wkt"})
+    public String queryType;
+
+    private QueryFormatUtils queryFormatUtils;
+
+    @Setup
+    public void setup() throws Exception {
+        ALANameUsageMatchServiceClient nameUsageMatchService = mock(ALANameUsageMatchServiceClient.class);
+        when(nameUsageMatchService.get(anyString())).thenReturn(NameUsageMatch.builder()
+                .success(true)
+                .lft(0)
+                .rgt(1)
+                .rank("SPECIES")
+                .scientificName("species scientific name")
+                .build());
+
+        ReloadableResourceBundleMessageSource messageSource = new ReloadableResourceBundleMessageSource();
+        messageSource.setDefaultEncoding("UTF-8");
+        messageSource.setCacheSeconds(-1);
+        messageSource.setBasenames("classpath:/messages");
+
+        SearchUtils searchUtils = new SearchUtils();
+        ReflectionTestUtils.setField(searchUtils, "collectionCache", mock(CollectionsCache.class));
+        ReflectionTestUtils.setField(searchUtils, "nameUsageMatchService", nameUsageMatchService);
+        ReflectionTestUtils.setField(searchUtils, "messageSource", messageSource);
+
+        FieldMappingUtil fieldMappingUtil = new FieldMappingUtil();
+        ReflectionTestUtils.invokeMethod(fieldMappingUtil, "setPipelinesFieldConfig",
+                System.getProperty("user.dir") + "/config/pipelines-field-config.json");
+
+        queryFormatUtils = new QueryFormatUtils();
+        queryFormatUtils.searchUtils = searchUtils;
+        queryFormatUtils.messageSource = messageSource;
+        queryFormatUtils.speciesLookupService = mock(SpeciesLookupService.class);
+        queryFormatUtils.layersService = mock(LayersService.class);
+        queryFormatUtils.qidCacheDao = mock(QidCacheDAO.class);
+        queryFormatUtils.rangeBasedFacets = mock(RangeBasedFacets.class);
+        queryFormatUtils.listsService = mock(ListsService.class);
+        queryFormatUtils.authService = mock(AuthService.class);
+        queryFormatUtils.dataQualityService = mock(DataQualityService.class);
+        queryFormatUtils.fieldMappingUtil = fieldMappingUtil;
+        queryFormatUtils.preparedWktCache = new PreparedWktCache();
+        queryFormatUtils.wktDisplayString = " - within user defined polygon";
+
+        new FacetThemes("", null, 30, 30, true);
+    }
+
+    private SpatialSearchRequestDTO request() {
+        SpatialSearchRequestDTO request = new SpatialSearchRequestDTO();
+        switch (queryType) {
+            case "text":
+                request.setQ("water");
+                break;
+            case "fields":
+                request.setQ("taxon_name:\"Eucalyptus globulus\" AND state:\"New South Wales\"");
+                request.setFq(new String[]{"basis_of_record:PreservedSpecimen", "occurrence_year:[1990-01-01T00:00:00Z TO *]",
+                        "-assertions:(badlyFormedBasisOfRecord coordinatesOutOfRange)", "month:03 OR month:04"});
+                break;
+            case "lsid":
+                request.setQ("lsid:urn:lsid:biodiversity.org.au:afd.taxon:31a9b8b8-4e8f-4343-a15f-2ed24e0bf1ae");
+                break;
+            default:
+                request.setQ("*:*");
+                request.setWkt("POLYGON((140 -37,151 -37,151 -26,140 -26,140 -37))");
+        }
+        return request;
+    }
+
+    @Benchmark
+    public SpatialSearchRequestDTO formatSearchQuery() throws Exception {
+        SpatialSearchRequestDTO request = request();
+        queryFormatUtils.formatSearchQuery(request, true);
+        return request;
+    }
+}
@@ -0,0 +1,43 @@
+package au.org.ala.biocache.util.solr;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Translation of legacy field names and values in queries, field lists and facets.
+ * Uses the field mappings in config/pipelines-field-config.json.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class FieldMappingUtilBenchmark {
+
+    private FieldMappingUtil fieldMappingUtil;
+
+    @Param({
+            "taxon_name:*",
+            "taxon_name:* assertions:badlyFormedBasisOfRecord AND -(common_name:\"test\")",
+            "(state:\"New South Wales\" OR state:Victoria) AND month:08 AND -assertions:(badlyFormedBasisOfRecord coordinatesOutOfRange) AND occurrence_year:[1990-01-01T00:00:00Z TO *]"
+    })
+    public String query;
+
+    private String[] fields = {"taxon_name", "common_name", "state", "month", "occurrence_year", "data_resource_uid",
+            "species_guid", "basis_of_record", "assertions", "species_group"};
+
+    @Setup
+    public void setup() throws Exception {
+        fieldMappingUtil = new FieldMappingUtil();
+        fieldMappingUtil.setPipelinesFieldConfig(System.getProperty("user.dir") + "/config/pipelines-field-config.json");
+    }
+
+    @Benchmark
+    public String translateQueryFields() {
+        return fieldMappingUtil.translateQueryFields(query);
+    }
+
+    @Benchmark
+    public String[] translateFieldArray() {
+        return fieldMappingUtil.translateFieldArray(fields);
+    }
+}
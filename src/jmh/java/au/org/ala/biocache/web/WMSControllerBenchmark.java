@@ -0,0 +1,89 @@
+package au.org.ala.biocache.web;
+
+import au.org.ala.biocache.dto.HeatmapDTO;
+import au.org.ala.biocache.util.ImgObj;
+import au.org.ala.biocache.util.PngEncoder;
+import au.org.ala.biocache.util.Projection;
+import au.org.ala.biocache.util.WmsEnv;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering and encoding of a 256x256 EPSG:3857 WMS tile from a synthetic heatmap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class WMSControllerBenchmark {
+
+    private static final int TILE_SIZE = 256;
+    private static final int CELLS = 256;
+
+    /**
+     * points: one point per heatmap cell. grid: cells aggregated into 16 pixel grid squares.
+     */
+    @Param({"points", "grid"})
+    public String mode;
+
+    /**
+     * Fraction of heatmap cells with occurrences.
+     */
+    @Param({"0.05", "0.5"})
+    public double density;
+
+    private WMSController controller;
+    private HeatmapDTO heatmap;
+    private WmsEnv vars;
+    private double[] tilebbox;
+
+    @Setup
+    public void setup() throws Exception {
+        controller = new WMSController();
+
+        Random random = new Random(42);
+        List<List<Integer>> rows = new ArrayList<>(CELLS);
+        for (int row = 0; row < CELLS; row++) {
+            List<Integer> columns = null;
+            for (int column = 0; column < CELLS; column++) {
+                if (random.nextDouble() < density) {
+                    if (columns == null) {
+                        columns = new ArrayList<>(CELLS);
+                        for (int i = 0; i < CELLS; i++) columns.add(0);
+                    }
+                    columns.set(column, 1 + random.nextInt(1000));
+                }
+            }
+            rows.add(columns);
+        }
+        List<List<List<Integer>>> layers = new ArrayList<>();
+        layers.add(rows);
+
+        boolean grid = "grid".equals(mode);
+        heatmap = new HeatmapDTO(8, layers, null, grid ? 16 : 1, CELLS, CELLS, 140.0, -40.0, 150.0, -30.0);
+
+        tilebbox = new double[]{140, -40, 150, -30};
+        Projection.WGS84_TO_WEB_MERCATOR.transform(tilebbox, 2);
+        heatmap.setTileExtents(new double[]{140, -40, 150, -30});
+
+        vars = new WmsEnv(grid ? "colormode:grid;name:circle;size:4;opacity:1" : "color:df4a21;name:circle;size:4;opacity:0.8", "");
+    }
+
+    @Benchmark
+    public ImgObj render() {
+        ImgObj tile = controller.renderHeatmap(heatmap, vars, vars.size * 2, true, "0x000000",
+                TILE_SIZE, TILE_SIZE, Projection.WGS84_TO_WEB_MERCATOR, tilebbox, null);
+        tile.g.dispose();
+        return tile;
+    }
+
+    @Benchmark
+    public void renderAndEncode() throws Exception {
+        ImgObj tile = render();
+        PngEncoder.write(tile.img, NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+}
@@ -0,0 +1,75 @@
+package au.org.ala.biocache.writer;
+
+import au.org.ala.biocache.util.RecordWriter;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSV and TSV encoding of download rows.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class RecordWriterBenchmark {
+
+    private static final int ROWS = 10000;
+    private static final int COLUMNS = 40;
+
+    @Param({"csv", "tsv"})
+    public String format;
+
+    private String[] header;
+    private String[][] rows;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+
+        header = new String[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            header[i] = "field" + i;
+        }
+
+        // a mix of empty, numeric, plain and quoted values
+        rows = new String[ROWS][COLUMNS];
+        for (String[] row : rows) {
+            for (int i = 0; i < COLUMNS; i++) {
+                switch (random.nextInt(5)) {
+                    case 0:
+                        row[i] = "";
+                        break;
+                    case 1:
+                        row[i] = String.valueOf(random.nextDouble() * 180 - 90);
+                        break;
+                    case 2:
+                        row[i] = "Eucalyptus globulus subsp. " + random.nextInt(1000);
+                        break;
+                    case 3:
+                        row[i] = "value, with \"quotes\"\tand\ttabs";
+                        break;
+                    default:
+                        row[i] = "multi line\nvalue " + random.nextInt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write ROWS records. Records per second is the score * ROWS.
+     */
+    @Benchmark
+    public RecordWriter write() throws Exception {
+        RecordWriterError writer = "csv".equals(format) ?
+                new CSVRecordWriter(NullOutputStream.NULL_OUTPUT_STREAM, header) :
+                new TSVRecordWriter(NullOutputStream.NULL_OUTPUT_STREAM, header);
+        writer.initialise();
+        for (String[] row : rows) {
+            writer.write(row);
+        }
+        writer.finalise();
+        return writer;
+    }
+}
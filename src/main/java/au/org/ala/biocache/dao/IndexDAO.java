@@ -4,6 +4,7 @@ import au.org.ala.biocache.dto.IndexFieldDTO;
 import au.org.ala.biocache.stream.ProcessInterface;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.StreamingResponseCallback;
 import org.apache.solr.client.solrj.response.FieldStatsInfo;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.params.SolrParams;
@@ -48,6 +49,12 @@ public interface IndexDAO {
 
     QueryResponse runSolrQuery(SolrQuery solrQuery) throws Exception;
 
+    /**
+     * Run a SOLR query and pass each document to the callback as it is read. The documents are not retained in
+     * the response.
+     */
+    QueryResponse runSolrQuery(SolrQuery solrQuery, StreamingResponseCallback callback) throws Exception;
+
     void indexFromMap(List<Map<String, Object>> maps) throws IOException, SolrServerException;
 
     int streamingQuery(SolrQuery query, ProcessInterface procSearch, ProcessInterface procFacet, SolrQuery endemicFacetSuperset) throws SolrServerException;
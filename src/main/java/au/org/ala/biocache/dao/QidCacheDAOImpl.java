@@ -19,8 +19,7 @@ import au.org.ala.biocache.dto.SpatialSearchRequestDTO;
 import au.org.ala.biocache.service.DataQualityService;
 import au.org.ala.biocache.util.QidMissingException;
 import au.org.ala.biocache.util.QidSizeException;
-import au.org.ala.biocache.util.SpatialUtils;
-import org.apache.commons.lang.StringUtils;
+import au.org.ala.biocache.util.PreparedWktCache;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
@@ -64,15 +63,12 @@ public class QidCacheDAOImpl implements QidCacheDAO {
     @Value("${qid.cache.largestCacheableSize:5242880}")
     long largestCacheableSize;
 
-    /**
-     * Limit WKT complexity to reduce index query time for qids.
-     */
-    @Value("${qid.wkt.maxPoints:5000}")
-    private int maxWktPoints;
-
     @Inject
     private DataQualityService dataQualityService;
 
+    @Inject
+    private PreparedWktCache preparedWktCache;
+
     /**
      * in memory store of params
      */
@@ -431,13 +427,9 @@ public class QidCacheDAOImpl implements QidCacheDAO {
         return null;
     }
 
-    @Cacheable("fixWkt")
     @Override
     public String fixWkt(String wkt) throws Exception {
-        if (StringUtils.isNotEmpty(wkt)) {
-            return SpatialUtils.simplifyWkt(wkt, maxWktPoints);
-        }
-        return wkt;
+        return preparedWktCache.fixWkt(wkt);
     }
 
     /**
@@ -19,10 +19,10 @@ import au.org.ala.biocache.stream.ProcessInterface;
 import au.org.ala.biocache.util.LegendItem;
 import au.org.ala.biocache.util.QidMissingException;
 import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.SimpleOrderedMap;
 
 import javax.servlet.ServletOutputStream;
 import java.io.OutputStream;
@@ -30,6 +30,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.function.ObjLongConsumer;
 
 /**
  * DAO for searching occurrence records held in the biocache.
@@ -49,6 +50,27 @@ public interface SearchDAO {
      */
     List<FieldResultDTO> getSubquerySpeciesOnly(SpatialSearchRequestDTO subQuery, SpatialSearchRequestDTO parentQuery) throws Exception;
 
+    /**
+     * Passes each value and count of the species that only occur in the subQuery, and not in the
+     * parentQuery, to the consumer as it is read from the index.
+     *
+     * @param subQuery
+     * @param parentQuery
+     * @param consumer    accepts (value, count)
+     * @throws Exception
+     */
+    void streamSubquerySpeciesOnly(SpatialSearchRequestDTO subQuery, SpatialSearchRequestDTO parentQuery, ObjLongConsumer<String> consumer) throws Exception;
+
+    /**
+     * Passes each value and count of the requested facets to the consumer as it is read from the index.
+     * All values are streamed, the facet limit is ignored.
+     *
+     * @param searchParams
+     * @param consumer     accepts (value, count)
+     * @throws Exception
+     */
+    void streamFacetValues(SpatialSearchRequestDTO searchParams, ObjLongConsumer<String> consumer) throws Exception;
+
     /**
      * Find all occurrences for a given (full text) query, latitude, longitude & radius (km). I.e.
      * a full-text spatial query.  The result will include the sensitive coordinates if available.
@@ -59,6 +81,18 @@ public interface SearchDAO {
      */
     SearchResultDTO findByFulltextSpatialQuery(SpatialSearchRequestDTO requestParams, boolean includeSensitive, Map<String, String[]> extraParams) throws Exception;
 
+    /**
+     * Writes the JSON search results of findByFulltextSpatialQuery to the output stream. Occurrences are written
+     * as they are read from SOLR and are not held in memory.
+     *
+     * @param requestParams
+     * @param includeSensitive
+     * @param extraParams
+     * @param out
+     * @throws Exception
+     */
+    void writeSearchResultsToStream(SpatialSearchRequestDTO requestParams, boolean includeSensitive, Map<String, String[]> extraParams, OutputStream out) throws Exception;
+
     /**
      * Writes the species count in the specified circle to the output stream.
      *
@@ -91,6 +125,16 @@ public interface SearchDAO {
      */
     void writeCoordinatesToStream(SpatialSearchRequestDTO searchParams, OutputStream out) throws Exception;
 
+    /**
+     * Write the distinct coordinates out to the supplied stream as they are read from the index.
+     *
+     * @param searchParams
+     * @param precision    number of decimal places to round the coordinates to, or null for the indexed coordinates
+     * @param out
+     * @throws Exception
+     */
+    void writeCoordinatesToStream(SpatialSearchRequestDTO searchParams, Integer precision, OutputStream out) throws Exception;
+
     /**
      * Write facet content to supplied output stream
      *
@@ -290,6 +334,28 @@ public interface SearchDAO {
     List<FieldStatsItem> searchStat(SpatialSearchRequestDTO searchParams, String field, String facet,
                                     Collection<String> statType) throws Exception;
 
+    /**
+     * Perform one json.facet query with the query and filters of searchParams.
+     * <p>
+     * Field names in jsonFacet are not translated.
+     *
+     * @param searchParams
+     * @param jsonFacet    the json.facet request
+     * @return the facets of the response, null when there are none
+     * @throws Exception
+     */
+    SimpleOrderedMap searchJsonFacet(SpatialSearchRequestDTO searchParams, Map<String, Object> jsonFacet) throws Exception;
+
+    /**
+     * Create the FieldResultDTO for a facet value, with the same label and fq as the facet results of a search.
+     *
+     * @param facetName
+     * @param value     facet value, null for records without a value
+     * @param count
+     * @return
+     */
+    FieldResultDTO createFacetFieldResult(String facetName, String value, long count);
+
     /**
      * Return legend items for a query and facet.
      * <p>
@@ -377,15 +443,22 @@ public interface SearchDAO {
     boolean isInitialized() throws InterruptedException;
 
     /**
-     * Retrieve an OccurrencePoint (distinct list of points - lat-long to 4 decimal places) for a given search
-     * without convertion to List of OccurrencePoint
+     * Retrieve the distinct points and occurrence counts of a point-* field within a bounding box.
+     * <p>
+     * The bounding box may extend beyond -180 or 180 longitude. Points across the date line are returned with
+     * longitudes shifted into the requested extents.
      *
-     * @param searchParams
-     * @param pointType
+     * @param query         formatted query
+     * @param filterQueries formatted filter queries
+     * @param pointType     point-* field name
+     * @param minx
+     * @param miny
+     * @param maxx
+     * @param maxy
      * @return
      * @throws Exception
      */
-    FacetField getFacetPointsShort(SpatialSearchRequestDTO searchParams, String pointType, Double minx, Double miny, Double maxx, Double maxy) throws Exception;
+    PointCountsDTO getPointCounts(String query, String[] filterQueries, String pointType, Double minx, Double miny, Double maxx, Double maxy) throws Exception;
 
     SolrDocument getOcc(String recordUuid);
 }
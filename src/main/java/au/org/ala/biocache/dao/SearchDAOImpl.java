@@ -14,22 +14,24 @@
  ***************************************************************************/
 package au.org.ala.biocache.dao;
 
-import au.com.bytecode.opencsv.CSVReader;
 import au.org.ala.biocache.dto.*;
 import au.org.ala.biocache.service.*;
 import au.org.ala.biocache.stream.*;
 import au.org.ala.biocache.util.*;
 import au.org.ala.biocache.util.solr.FieldMappingUtil;
 import au.org.ala.biocache.writer.CSVRecordWriter;
+import au.org.ala.biocache.writer.ParquetRecordWriter;
 import au.org.ala.biocache.writer.RecordWriterError;
 import au.org.ala.biocache.writer.TSVRecordWriter;
 import au.org.ala.ws.security.profile.AlaUserProfile;
-import org.apache.commons.io.output.ByteArrayOutputStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.io.Tuple;
 import org.apache.solr.client.solrj.response.*;
 import org.apache.solr.client.solrj.response.FacetField.Count;
 import org.apache.solr.client.solrj.response.RangeFacet.Numeric;
@@ -38,9 +40,13 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
 import org.slf4j.MDC;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.support.AbstractMessageSource;
@@ -49,8 +55,8 @@ import org.springframework.stereotype.Component;
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.servlet.ServletOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.OutputStream;
-import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.charset.StandardCharsets;
@@ -58,6 +64,7 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjLongConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -148,6 +155,12 @@ public class SearchDAOImpl implements SearchDAO {
     protected Pattern elpField = Pattern.compile("(,|^)el.p(,|$)");
     protected Pattern allDwcField = Pattern.compile("(,|^)allDwc(,|$)");
 
+    /**
+     * Row group size, in bytes, of parquet downloads. A row group is held in memory until it is complete.
+     */
+    @Value("${download.parquet.rowGroupSize:33554432}")
+    protected Long downloadParquetRowGroupSize = 33554432L;
+
     @Value("${download.unzipped.limit:10000}")
     public Integer unzippedLimit;
 
@@ -162,6 +175,9 @@ public class SearchDAOImpl implements SearchDAO {
     @Inject
     protected QueryFormatUtils queryFormatUtils;
 
+    @Inject
+    protected DensityPyramidService densityPyramidService;
+
     @Inject
     public FieldMappingUtil fieldMappingUtil;
 
@@ -182,6 +198,12 @@ public class SearchDAOImpl implements SearchDAO {
 
     @Inject
     protected RangeBasedFacets rangeBasedFacets;
+
+    /**
+     * Serialises streamed search results. It is the same ObjectMapper as the JSON responses when it is available.
+     */
+    @Autowired(required = false)
+    protected ObjectMapper objectMapper = new ObjectMapper();
     @Inject
     public ListsService listsService;
 
@@ -224,6 +246,48 @@ public class SearchDAOImpl implements SearchDAO {
      */
     private volatile ExecutorService solrOnlineExecutor = null;
 
+    /**
+     * Number of threads, shared by all facet downloads, for species details lookups.
+     */
+    @Value("${download.taxon.lookup.threads:4}")
+    protected Integer taxonLookupThreads = 4;
+
+    /**
+     * Maximum number of species details lookups in progress for a single facet download.
+     */
+    @Value("${download.taxon.lookup.inflight:4}")
+    protected Integer taxonLookupInFlight = 4;
+
+    @Value("${download.taxon.lookup.batch.min:10}")
+    protected Integer taxonLookupMinBatch = 10;
+
+    /**
+     * The guids of a batch are sent in the request URI. 30 is the batch size that was used before batches adapted.
+     */
+    @Value("${download.taxon.lookup.batch.max:30}")
+    protected Integer taxonLookupMaxBatch = 30;
+
+    private volatile ExecutorService taxonLookupExecutor = null;
+
+    /**
+     * Answer species counts by circle from cached grid cell species counts for the cells inside the circle and SOLR
+     * for the remainder of the circle.
+     */
+    @Value("${circle.grid.enabled:false}")
+    protected boolean circleGridEnabled = false;
+
+    /**
+     * Grid cell size in decimal degrees.
+     */
+    @Value("${circle.grid.size:0.02}")
+    protected double circleGridSize = 0.02;
+
+    /**
+     * Circles with more grid cells in their bounding box are answered by SOLR only.
+     */
+    @Value("${circle.grid.maxCells:400}")
+    protected int circleGridMaxCells = 400;
+
     /**
      * should we check download limits
      */
@@ -328,17 +392,76 @@ public class SearchDAOImpl implements SearchDAO {
      * e.g. subQuery is the area of interest. parentQuery is all species.
      */
     public List<FieldResultDTO> getSubquerySpeciesOnly(SpatialSearchRequestDTO subQuery, SpatialSearchRequestDTO parentQuery) throws Exception {
-        SolrQuery subset = initSolrQuery(subQuery, false, null);
-        SolrQuery superset = initSolrQuery(parentQuery, false, null);
-
-        List<FieldResultDTO> output = new ArrayList();
-        indexDao.streamingQuery(subset, null, new EndemicFacet(output, subQuery.getFacets()[0]), superset);
+        List<FieldResultDTO> output = new ArrayList<>();
+        streamSubquerySpeciesOnly(subQuery, parentQuery, (value, count) -> output.add(new FieldResultDTO(value, value, count)));
 
         return output;
     }
 
+    @Override
+    public void streamSubquerySpeciesOnly(SpatialSearchRequestDTO subQuery, SpatialSearchRequestDTO parentQuery, ObjLongConsumer<String> consumer) throws Exception {
+        getSubquerySpeciesOnlyCounts(subQuery, parentQuery).forEach(consumer);
+    }
+
+    /**
+     * The facet values of the subQuery that have all of their parentQuery occurrences in the subQuery.
+     * <p>
+     * The areas that are queried repeat, so the result is cached in "endemicCache" and the parentQuery facet counts,
+     * usually the same for every area, are cached in "endemicSupersetCache". A new subQuery then only streams its
+     * own facet and compares each count with the cached parentQuery count.
+     * <p>
+     * Results are keyed on the index version so old entries are not used after an index update.
+     */
+    private FacetCountsDTO getSubquerySpeciesOnlyCounts(SpatialSearchRequestDTO subQuery, SpatialSearchRequestDTO parentQuery) throws Exception {
+        String facet = parentQuery.getFacets()[0];
+        String indexVersion = String.valueOf(indexDao.getIndexVersion(false));
+
+        Cache cache = cacheManager != null ? cacheManager.getCache("endemicCache") : null;
+        String cacheKey = indexVersion + "|" + facet + "|" + subQuery + "|" + parentQuery;
+        Cache.ValueWrapper cached = cache != null ? cache.get(cacheKey) : null;
+        if (cached != null) {
+            return (FacetCountsDTO) cached.get();
+        }
+
+        FacetCountsDTO superset = getEndemicSupersetCounts(parentQuery, facet, indexVersion);
+
+        subQuery.setFacets(new String[]{facet});
+        subQuery.setFsort("count");
+        FacetCountsDTO.Builder endemic = new FacetCountsDTO.Builder();
+        streamFacetValues(subQuery, (value, count) -> {
+            // all occurrences of the value are in the subQuery
+            if (value != null && count == superset.getCount(value)) {
+                endemic.accept(value, count);
+            }
+        });
+
+        FacetCountsDTO result = endemic.build();
+        if (cache != null) {
+            cache.put(cacheKey, result);
+        }
+        return result;
+    }
+
+    private FacetCountsDTO getEndemicSupersetCounts(SpatialSearchRequestDTO parentQuery, String facet, String indexVersion) throws Exception {
+        Cache cache = cacheManager != null ? cacheManager.getCache("endemicSupersetCache") : null;
+        String cacheKey = indexVersion + "|" + facet + "|" + parentQuery;
+        Cache.ValueWrapper cached = cache != null ? cache.get(cacheKey) : null;
+        if (cached != null) {
+            return (FacetCountsDTO) cached.get();
+        }
+
+        parentQuery.setFsort("count");
+        FacetCountsDTO.Builder builder = new FacetCountsDTO.Builder();
+        streamFacetValues(parentQuery, builder);
+
+        FacetCountsDTO result = builder.build();
+        if (cache != null) {
+            cache.put(cacheKey, result);
+        }
+        return result;
+    }
+
     public void writeEndemicFacetToStream(SpatialSearchRequestDTO subQuery, SpatialSearchRequestDTO parentQuery, boolean includeCount, boolean lookupName, boolean includeSynonyms, boolean includeLists, OutputStream out) throws Exception {
-        List<FieldResultDTO> list = getSubquerySpeciesOnly(subQuery, parentQuery);
         String facet = parentQuery.getFacets()[0];
 
         // shouldLookup is valid for 1.0 and 2.0 SOLR schema
@@ -357,42 +480,26 @@ public class SearchDAOImpl implements SearchDAO {
         try {
             writer.initialise();
 
-            boolean addedNullFacet = false;
+            TaxonDetailsWriter taxonDetailsWriter = shouldLookup ? getTaxonDetailsWriter(includeCount, includeSynonyms, includeLists, writer) : null;
 
-            List<String> guids = new ArrayList<String>();
-            List<Long> counts = new ArrayList<Long>();
-
-            for (FieldResultDTO ff : list) {
-                //only add null facet once
-                if (ff.getLabel() == null) addedNullFacet = true;
-                if (ff.getCount() == 0 || (ff.getLabel() == null && addedNullFacet)) continue;
+            // rows are written as they are read from the index
+            streamSubquerySpeciesOnly(subQuery, parentQuery, (value, count) -> {
+                if (value == null) {
+                    return;
+                }
 
                 //process the "species_guid_ facet by looking up the list of guids
-                if (shouldLookup) {
-                    guids.add(ff.getLabel());
-                    if (includeCount) {
-                        counts.add(ff.getCount());
-                    }
-
-                    //Only want to send a sub set of the list so that the URI is not too long for BIE
-                    if (guids.size() == 30) {
-                        //now get the list of species from the web service TODO may need to move this code
-                        //handle null values being returned from the service...
-                        writeTaxonDetailsToStream(guids, counts, includeCount, includeSynonyms, includeLists, writer);
-                        guids.clear();
-                        counts.clear();
-                    }
+                if (taxonDetailsWriter != null) {
+                    taxonDetailsWriter.add(value, count);
                 } else {
                     //default processing of facets
-                    String name = ff.getLabel() != null ? ff.getLabel() : "";
-                    String[] row = includeCount ? new String[]{name, Long.toString(ff.getCount())} : new String[]{name};
-                    writer.write(row);
+                    writer.write(includeCount ? new String[]{value, Long.toString(count)} : new String[]{value});
                 }
-            }
+            });
 
-            if (shouldLookup) {
+            if (taxonDetailsWriter != null) {
                 //now write any guids that remain at the end of the looping
-                writeTaxonDetailsToStream(guids, counts, includeCount, includeSynonyms, includeLists, writer);
+                taxonDetailsWriter.flush();
             }
         } finally {
             writer.finalise();
@@ -403,31 +510,28 @@ public class SearchDAOImpl implements SearchDAO {
      * Returns the values and counts for a single facet field.
      */
     public List<FieldResultDTO> getValuesForFacet(SpatialSearchRequestDTO requestParams) throws Exception {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        writeFacetToStream(requestParams, true, false, false, false, outputStream, null);
-        outputStream.flush();
-        outputStream.close();
-        CSVReader csvReader = new CSVReader(new StringReader(outputStream.toString(StandardCharsets.UTF_8)));
         List<FieldResultDTO> list = new ArrayList<FieldResultDTO>();
-        boolean first = true;
-        String[] line;
-        while ((line = csvReader.readNext()) != null) {
-            if (first) {
-                first = false;
-            } else if (line.length == 2) {
-                String name = line[0];
-                list.add(
-                        new FieldResultDTO(
-                                name,
-                                name,
-                                Long.parseLong(line[1])
-                        )
-                );
-            }
-        }
+        streamFacetValues(requestParams, (value, count) -> {
+            String name = value != null ? value : "";
+            list.add(new FieldResultDTO(name, name, count));
+        });
         return list;
     }
 
+    @Override
+    public void streamFacetValues(SpatialSearchRequestDTO searchParams, ObjLongConsumer<String> consumer) throws Exception {
+        //set to unlimited facets
+        searchParams.setFlimit(-1);
+
+        SolrQuery solrQuery = initSolrQuery(searchParams, false, null);
+
+        //don't want any results returned
+        solrQuery.setRows(0);
+        solrQuery.setFacetLimit(searchParams.getFlimit());
+
+        indexDao.streamingQuery(solrQuery, null, new ProcessFacetValues(consumer), null);
+    }
+
     /**
      * Main search query method.
      *
@@ -465,6 +569,38 @@ public class SearchDAOImpl implements SearchDAO {
         return searchResults;
     }
 
+    /**
+     * @see au.org.ala.biocache.dao.SearchDAO#writeSearchResultsToStream(SpatialSearchRequestDTO, boolean, Map, OutputStream)
+     */
+    @Override
+    public void writeSearchResultsToStream(SpatialSearchRequestDTO searchParams, boolean includeSensitive,
+                                           Map<String, String[]> extraParams, OutputStream out) throws Exception {
+        SpatialSearchRequestDTO original = new SpatialSearchRequestDTO();
+        BeanUtils.copyProperties(searchParams, original);
+        Map[] fqMaps = queryFormatUtils.formatSearchQuery(searchParams, true);
+        SolrQuery solrQuery = initSolrQuery(searchParams, true, extraParams); // general search settings
+
+        Class resultClass = includeSensitive ? au.org.ala.biocache.dto.SensitiveOccurrenceIndex.class : OccurrenceIndex.class;
+
+        StreamSearchAsJSON stream = new StreamSearchAsJSON(this, initSearchResult(original, solrQuery),
+                resultClass, objectMapper, out);
+
+        // the response has the facets, the occurrences have been written
+        QueryResponse qr = indexDao.runSolrQuery(solrQuery, stream);
+
+        SearchResultDTO searchResults = processSolrResponse(original, qr, solrQuery, resultClass);
+        searchResults.setQueryTitle(searchParams.getDisplayString());
+        searchResults.setUrlParameters(original.getUrlParams());
+        searchResults.setActiveFacetMap(fqMaps[0]);
+        searchResults.setActiveFacetObj(fqMaps[1]);
+
+        stream.finish(searchResults);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("streamed spatial search query: " + solrQuery.toQueryString());
+        }
+    }
+
     /**
      * @see au.org.ala.biocache.dao.SearchDAO#writeSpeciesCountByCircleToStream(SpatialSearchRequestDTO, String, javax.servlet.ServletOutputStream)
      */
@@ -476,11 +612,139 @@ public class SearchDAOImpl implements SearchDAO {
         }
         searchParams.setFlimit(-1);
 
+        if (circleGridEnabled && searchParams.getLat() != null && searchParams.getLon() != null && searchParams.getRadius() != null
+                && writeSpeciesCountByCircleFromGrid(searchParams, out)) {
+            return 0;
+        }
+
         getSpeciesCountsTSVCircle(searchParams, out);
 
         return 0;
     }
 
+    /**
+     * Write the species counts of a circle from the cached species counts of the grid cells inside the circle and a
+     * SOLR facet for the remainder of the circle.
+     * <p>
+     * Cell species counts are cached in "circleGridCache" by index version, query without the circle, and cell so
+     * that nearby circles reuse them. Cells that are not cached are requested together in one json.facet request.
+     * The merged counts are written in the fsort order of the SOLR facet, count or index.
+     *
+     * @return false when the circle has no interior cells, or is too large, or the query has a wkt, and nothing is written
+     */
+    private boolean writeSpeciesCountByCircleFromGrid(SpatialSearchRequestDTO searchParams, OutputStream out) throws Exception {
+        Geometry circle = new WKTReader().read(queryFormatUtils.createCircleWkt(searchParams.getLon(), searchParams.getLat(), searchParams.getRadius()));
+        CircleGrid grid = CircleGrid.create(circle, circleGridSize, circleGridMaxCells);
+        if (grid == null || grid.getInteriorCells().isEmpty()) {
+            return false;
+        }
+
+        String facet = searchParams.getFacets()[0];
+
+        // the same query without the circle
+        SpatialSearchRequestDTO cellParams = new SpatialSearchRequestDTO();
+        BeanUtils.copyProperties(searchParams, cellParams);
+        cellParams.setLat(null);
+        cellParams.setLon(null);
+        cellParams.setRadius(null);
+        cellParams.setFormattedQuery(null);
+        // cell counts do not depend on the sort order
+        cellParams.setFsort("");
+
+        // a wkt, of the request or of a qid, is replaced by the circle in the SOLR query, see QueryFormatUtils.
+        // The cell counts would be limited to the wkt.
+        queryFormatUtils.formatSearchQuery(cellParams);
+        if (StringUtils.isNotEmpty(cellParams.getWkt())) {
+            return false;
+        }
+
+        String queryKey = indexDao.getIndexVersion(false) + "|" + facet + "|" + cellParams;
+
+        Map<String, Long> counts = new HashMap<>();
+
+        Cache cache = cacheManager != null ? cacheManager.getCache("circleGridCache") : null;
+        List<int[]> missing = new ArrayList<>();
+        for (int[] cell : grid.getInteriorCells()) {
+            Cache.ValueWrapper cached = cache != null ? cache.get(queryKey + "|" + grid.getCellKey(cell)) : null;
+            if (cached != null) {
+                ((FacetCountsDTO) cached.get()).forEach((value, count) -> counts.merge(value, count, Long::sum));
+            } else {
+                missing.add(cell);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Map<String, Object> terms = new LinkedHashMap<>();
+            terms.put("type", "terms");
+            terms.put("field", fieldMappingUtil.translateFieldName(facet));
+            terms.put("limit", -1);
+            terms.put("mincount", 1);
+            if (StringUtils.isNotEmpty(cellParams.getFprefix())) {
+                terms.put("prefix", cellParams.getFprefix());
+            }
+
+            Map<String, Object> jsonFacet = new LinkedHashMap<>();
+            for (int i = 0; i < missing.size(); i++) {
+                Map<String, Object> cellFacet = new LinkedHashMap<>();
+                cellFacet.put("type", "query");
+                cellFacet.put("q", fieldMappingUtil.translateQueryFields(grid.getCellQuery(missing.get(i))));
+                cellFacet.put("facet", Collections.singletonMap("s", terms));
+                jsonFacet.put("c" + i, cellFacet);
+            }
+
+            SimpleOrderedMap facets = searchJsonFacet(cellParams, jsonFacet);
+
+            for (int i = 0; i < missing.size(); i++) {
+                FacetCountsDTO.Builder builder = new FacetCountsDTO.Builder();
+                for (SimpleOrderedMap bucket : SearchUtils.getList(facets, "c" + i, "s", "buckets")) {
+                    Object value = bucket.get("val");
+                    builder.accept(value != null ? value.toString() : null, ((Number) bucket.get("count")).longValue());
+                }
+                FacetCountsDTO cellCounts = builder.build();
+                cellCounts.forEach((value, count) -> counts.merge(value, count, Long::sum));
+
+                if (cache != null) {
+                    cache.put(queryKey + "|" + grid.getCellKey(missing.get(i)), cellCounts);
+                }
+            }
+        }
+
+        // the circle without the interior cells
+        SolrQuery borderQuery = initSolrQuery(searchParams, false, null);
+        borderQuery.setFacetMissing(false);
+        borderQuery.setFacetSort("count");
+        borderQuery.addFilterQuery(grid.getBorderFq());
+        indexDao.streamingQuery(borderQuery, null, new ProcessFacetValues((value, count) -> {
+            if (value != null) {
+                counts.merge(value, count, Long::sum);
+            }
+        }), null);
+
+        // same order as the SOLR facet, see initSolrQuery
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(counts.entrySet());
+        if ("index".equals(searchParams.getFsort())) {
+            sorted.sort(Map.Entry.comparingByKey());
+        } else {
+            sorted.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        }
+
+        String facetField = fieldMappingUtil.translateFieldName(facet);
+        StreamTaxaAsTSVCircle procFacet = new StreamTaxaAsTSVCircle(this, searchUtils, searchParams, out);
+        for (Map.Entry<String, Long> entry : sorted) {
+            Map<Object, Object> fields = new HashMap<>();
+            fields.put(facetField, entry.getKey());
+            fields.put("count(*)", entry.getValue());
+            procFacet.process(new Tuple(fields));
+        }
+        procFacet.flush();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("species count by circle: " + grid.getInteriorCells().size() + " interior cells, " + missing.size() + " not cached");
+        }
+
+        return true;
+    }
+
     /**
      * Writes the values for the first supplied facet to output stream
      *
@@ -526,6 +790,35 @@ public class SearchDAOImpl implements SearchDAO {
         }
     }
 
+    /**
+     * Create a writer of species details rows that looks up batches of guids in parallel and writes the rows in order.
+     *
+     * @param includeCounts   Whether or not to include the occurrence counts in the download
+     * @param includeSynonyms whether or not to include the synonyms in the download
+     * @param includeLists    whether or not to include the species lists in the download
+     * @param writer          The CSV writer to write to.
+     * @return
+     */
+    public TaxonDetailsWriter getTaxonDetailsWriter(boolean includeCounts, boolean includeSynonyms, boolean includeLists, CSVRecordWriter writer) {
+        return new TaxonDetailsWriter(speciesLookupService, getTaxonLookupExecutor(), taxonLookupInFlight,
+                taxonLookupMinBatch, taxonLookupMaxBatch, includeCounts, includeSynonyms, includeLists, writer);
+    }
+
+    private ExecutorService getTaxonLookupExecutor() {
+        if (taxonLookupThreads <= 0) {
+            return null;
+        }
+        if (taxonLookupExecutor == null) {
+            synchronized (this) {
+                if (taxonLookupExecutor == null) {
+                    taxonLookupExecutor = Executors.newFixedThreadPool(taxonLookupThreads,
+                            new ThreadFactoryBuilder().setNameFormat("taxon-lookup-%d").setDaemon(true).build());
+                }
+            }
+        }
+        return taxonLookupExecutor;
+    }
+
     /**
      * Writes all the distinct latitude and longitude in the index to the supplied
      * output stream.
@@ -535,28 +828,34 @@ public class SearchDAOImpl implements SearchDAO {
      */
     @Deprecated
     public void writeCoordinatesToStream(SpatialSearchRequestDTO searchParams, OutputStream out) throws Exception {
+        writeCoordinatesToStream(searchParams, null, out);
+    }
+
+    @Override
+    public void writeCoordinatesToStream(SpatialSearchRequestDTO searchParams, Integer precision, OutputStream out) throws Exception {
         SolrQuery solrQuery = initSolrQuery(searchParams, false, null);
 
         //We want all the facets so we can dump all the coordinates
+        solrQuery.setFacet(true);
         solrQuery.setFacetLimit(-1);
-        solrQuery.setFacetSort("count");
         solrQuery.setRows(0);
-        solrQuery.setQuery(searchParams.getQ());
 
-        QueryResponse qr = indexDao.runSolrQuery(solrQuery);
-        if (qr.getResults().size() > 0) {
-            FacetField ff = qr.getFacetField(searchParams.getFacets()[0]);
-            if (ff != null && ff.getValueCount() > 0) {
-                out.write("latitude,longitude\n".getBytes(StandardCharsets.UTF_8));
-                //write the facets to file
-                for (FacetField.Count value : ff.getValues()) {
-                    if (value.getName() != null && value.getCount() > 0) {
-                        out.write(value.getName().getBytes(StandardCharsets.UTF_8));
-                        out.write("\n".getBytes(StandardCharsets.UTF_8));
-                    }
-                }
-            }
+        StreamCoordinates procFacet;
+        OutputStream bufferedOut = new BufferedOutputStream(out, 64 * 1024);
+        if (precision == null) {
+            String facet = searchParams.getFacets() != null && searchParams.getFacets().length > 0 ? searchParams.getFacets()[0] : OccurrenceIndex.LAT_LNG;
+            solrQuery.set("facet.field", facet);
+            solrQuery.setFacetSort("count");
+            procFacet = new StreamCoordinates(bufferedOut, fieldMappingUtil.translateFieldName(facet));
+        } else {
+            // nested buckets in latitude order so that rounded duplicates are found one latitude at a time
+            solrQuery.set("facet.field", OccurrenceIndex.LATITUDE + "," + OccurrenceIndex.LONGITUDE);
+            solrQuery.setFacetSort("index");
+            procFacet = new StreamCoordinates(bufferedOut, fieldMappingUtil.translateFieldName(OccurrenceIndex.LATITUDE),
+                    fieldMappingUtil.translateFieldName(OccurrenceIndex.LONGITUDE), precision);
         }
+
+        indexDao.streamingQuery(solrQuery, null, procFacet, null);
     }
 
     /**
@@ -635,16 +934,63 @@ public class SearchDAOImpl implements SearchDAO {
         return downloadHeaders;
     }
 
-    private RecordWriter createRecordWriter(DownloadRequestDTO downloadParams, DownloadHeaders downloadHeaders, OutputStream out) {
-        RecordWriterError recordWriter = downloadParams.getFileType().equals("csv") ?
-                new CSVRecordWriter(out, downloadHeaders.joinedHeader(), downloadParams.getSep(), downloadParams.getEsc()) :
-                new TSVRecordWriter(out, downloadHeaders.joinedHeader());
+    private RecordWriter createRecordWriter(DownloadRequestDTO downloadParams, DownloadHeaders downloadHeaders, OutputStream out) throws Exception {
+        RecordWriterError recordWriter;
+        if ("parquet".equals(downloadParams.getFileType())) {
+            recordWriter = new ParquetRecordWriter(out, downloadHeaders.joinedHeader(), getColumnTypes(downloadHeaders),
+                    downloadParams.getIncludeMisc() ? downloadHeaders.miscLabels : null, downloadParquetRowGroupSize);
+        } else if ("csv".equals(downloadParams.getFileType())) {
+            recordWriter = new CSVRecordWriter(out, downloadHeaders.joinedHeader(), downloadParams.getSep(), downloadParams.getEsc());
+        } else {
+            recordWriter = new TSVRecordWriter(out, downloadHeaders.joinedHeader());
+        }
 
         recordWriter.initialise();
 
         return recordWriter;
     }
 
+    /**
+     * Column types of a download. Single value numeric and boolean index fields are typed, assertion columns are
+     * boolean and all other columns are strings.
+     */
+    private ParquetRecordWriter.ColumnType[] getColumnTypes(DownloadHeaders downloadHeaders) throws Exception {
+        String[] header = downloadHeaders.joinedHeader();
+        ParquetRecordWriter.ColumnType[] types = new ParquetRecordWriter.ColumnType[header.length];
+        Arrays.fill(types, ParquetRecordWriter.ColumnType.STRING);
+
+        Map<String, IndexFieldDTO> indexedFields = indexDao.getIndexedFieldsMap();
+        for (int i = 0; i < downloadHeaders.labels.length && i < downloadHeaders.included.length; i++) {
+            IndexFieldDTO field = indexedFields.get(downloadHeaders.included[i]);
+            if (field != null && !field.isMultivalue() && field.getDataType() != null) {
+                switch (field.getDataType()) {
+                    case "int":
+                    case "tint":
+                    case "long":
+                    case "tlong":
+                        types[i] = ParquetRecordWriter.ColumnType.LONG;
+                        break;
+                    case "float":
+                    case "tfloat":
+                    case "double":
+                    case "tdouble":
+                        types[i] = ParquetRecordWriter.ColumnType.DOUBLE;
+                        break;
+                    case "boolean":
+                        types[i] = ParquetRecordWriter.ColumnType.BOOLEAN;
+                        break;
+                }
+            }
+        }
+
+        // assertion columns are "true" or "false"
+        for (int i = header.length - downloadHeaders.qaLabels.length; i < header.length; i++) {
+            types[i] = ParquetRecordWriter.ColumnType.BOOLEAN;
+        }
+
+        return types;
+    }
+
     private Callable prepareDownloadRunner(DownloadRequestDTO downloadParams, DownloadHeaders downloadHeaders,
                                            DownloadDetailsDTO dd, DownloadStats downloadStats,
                                            RecordWriter recordWriter) throws QidMissingException {
@@ -1029,59 +1375,117 @@ public class SearchDAOImpl implements SearchDAO {
         if (logger.isDebugEnabled()) {
             logger.debug("Attempting to find the counts for " + queryParams);
         }
-        TaxaRankCountDTO trDTO = null;
 
         queryParams.setPageSize(0);
-        queryParams.setFacet(true);
-        queryParams.setFsort("count");
-        queryParams.setFlimit(-1);
+        queryParams.setFacet(false);
+
+        // results are only valid for the index version they were calculated from
+        Cache cache = cacheManager != null ? cacheManager.getCache("breakdownCache") : null;
+        String cacheKey = indexDao.getIndexVersion(false) + "|" + queryParams;
+        Cache.ValueWrapper cached = cache != null ? cache.get(cacheKey) : null;
+        if (cached != null) {
+            return (TaxaRankCountDTO) cached.get();
+        }
+
         SolrQuery solrQuery = initSolrQuery(queryParams, false, null);
-        solrQuery.setFacetMissing(false);   // do not return missing facet
 
         //add the rank:name as a fq if necessary
         if (StringUtils.isNotEmpty(queryParams.getName()) && StringUtils.isNotEmpty(queryParams.getRank())) {
             solrQuery.addFilterQuery(queryParams.getRank() + ":" + queryParams.getName());
         }
-        //add the ranks as facets
+
+        boolean hasMax = queryParams.getMax() != null && queryParams.getMax() > 0;
+        List<String> ranks;
         if (queryParams.getLevel() == null) {
-            List<String> ranks = queryParams.getRank() != null ? searchUtils.getNextRanks(queryParams.getRank(), queryParams.getName() == null) : searchUtils.getRanks();
+            ranks = new ArrayList<>(queryParams.getRank() != null ? searchUtils.getNextRanks(queryParams.getRank(), queryParams.getName() == null) : searchUtils.getRanks());
 
-            if (queryParams.getMax() != null && queryParams.getMax() > 0) {
+            if (hasMax) {
                 //reverse the facets so that they are returned in rank reverse order species, genus, family etc
                 Collections.reverse(ranks);
             }
+        } else {
+            //the user has supplied the "exact" level at which to perform the breakdown
+            ranks = Collections.singletonList(queryParams.getLevel());
+        }
+
+        // One request for the number of values of every candidate rank and the values of the rank that is
+        // expected to be used. A rank with <= max values is complete when the limit is max. When a rank
+        // is supplied the first candidate is used when it has any values, so it has no limit.
+        StringBuilder jsonFacet = new StringBuilder("{");
+        for (int i = 0; i < ranks.size(); i++) {
+            int limit;
+            if (queryParams.getLevel() != null || (i == 0 && queryParams.getRank() != null)) {
+                limit = -1;
+            } else {
+                limit = hasMax ? queryParams.getMax() : 0;
+            }
+
+            if (i > 0) jsonFacet.append(",");
+            jsonFacet.append("r").append(i).append(":{type:terms,numBuckets:true,mincount:1,sort:\"count desc\",limit:")
+                    .append(limit).append(",field:").append(fieldMappingUtil.translateFieldName(ranks.get(i))).append("}");
+        }
+        jsonFacet.append("}");
+        solrQuery.add("json.facet", jsonFacet.toString());
 
+        QueryResponse qr = indexDao.query(solrQuery);
+
+        TaxaRankCountDTO trDTO = null;
+        if (qr.getResults().getNumFound() > 0) {
             // need to get the return level that the number of facets are <=max ranks need to be processed in reverse order until max is satisfied
             // or the first rank with the number of facets > 0 when the rank is specified
-            for (String r : ranks) {
-                long count = estimateUniqueValues(queryParams, r);
-                if ((queryParams.getMax() != null && queryParams.getMax() > 0 && count <= queryParams.getMax()) ||
+            for (int i = 0; i < ranks.size(); i++) {
+                SimpleOrderedMap facet = SearchUtils.getMap(qr.getResponse(), "facets", "r" + i);
+                List<SimpleOrderedMap> buckets = SearchUtils.getList(facet, "buckets");
+                long count = facet != null && facet.get("numBuckets") != null ? toLong(facet.get("numBuckets")) : buckets.size();
+
+                if (queryParams.getLevel() != null || (hasMax && count <= queryParams.getMax()) ||
                         (queryParams.getRank() != null && count > 0)) {
-                    solrQuery.addFacetField(r);
+                    String rank = ranks.get(i);
+                    trDTO = new TaxaRankCountDTO(rank);
+
+                    if (buckets.size() < count) {
+                        // rare, a later candidate is used when a rank is supplied
+                        trDTO.setTaxa(getBreakdownValues(solrQuery, rank));
+                    } else {
+                        List<FieldResultDTO> fDTOs = new ArrayList<FieldResultDTO>();
+                        for (SimpleOrderedMap bucket : buckets) {
+                            String name = String.valueOf(bucket.get("val"));
+                            fDTOs.add(new FieldResultDTO(name, rank + "." + name, toLong(bucket.get("count"))));
+                        }
+                        trDTO.setTaxa(fDTOs);
+                    }
                     break;
                 }
             }
-        } else {
-            //the user has supplied the "exact" level at which to perform the breakdown
-            solrQuery.addFacetField(queryParams.getLevel());
         }
-        QueryResponse qr = indexDao.runSolrQuery(solrQuery);
 
-        // process results for the 1 facetField requested
-        if (qr.getResults().getNumFound() > 0 && qr.getFacetFields().size() > 0) {
-            FacetField ff = qr.getFacetFields().get(0);
-            trDTO = new TaxaRankCountDTO(ff.getName());
+        if (cache != null) {
+            cache.put(cacheKey, trDTO);
+        }
 
-            List<FieldResultDTO> fDTOs = new ArrayList<FieldResultDTO>();
+        return trDTO;
+    }
+
+    private List<FieldResultDTO> getBreakdownValues(SolrQuery breakdownQuery, String rank) throws Exception {
+        SolrQuery solrQuery = breakdownQuery.getCopy();
+        solrQuery.remove("json.facet");
+        solrQuery.setFacet(true);
+        solrQuery.setFacetMinCount(1);
+        solrQuery.setFacetLimit(-1);
+        solrQuery.setFacetSort("count");
+        solrQuery.addFacetField(rank);
+
+        List<FieldResultDTO> fDTOs = new ArrayList<FieldResultDTO>();
+        QueryResponse qr = indexDao.runSolrQuery(solrQuery);
+        FacetField ff = qr.getFacetField(rank);
+        if (ff != null) {
             for (Count count : ff.getValues()) {
                 if (count.getCount() > 0) {
-                    FieldResultDTO f = new FieldResultDTO(count.getName(), count.getFacetField().getName() + "." + count.getName(), count.getCount());
-                    fDTOs.add(f);
+                    fDTOs.add(new FieldResultDTO(count.getName(), rank + "." + count.getName(), count.getCount()));
                 }
             }
-            trDTO.setTaxa(fDTOs);
         }
-        return trDTO;
+        return fDTOs;
     }
 
     /**
@@ -1093,7 +1497,7 @@ public class SearchDAOImpl implements SearchDAO {
      * @return
      */
     private SearchResultDTO processSolrResponse(SearchRequestDTO params, QueryResponse qr, SolrQuery solrQuery, Class resultClass) {
-        SearchResultDTO searchResult = new SearchResultDTO();
+        SearchResultDTO searchResult = initSearchResult(params, solrQuery);
         SolrDocumentList sdl = qr.getResults();
         // Iterator it = qr.getResults().iterator() // Use for download
         List<FacetField> facets = qr.getFacetFields();
@@ -1111,17 +1515,6 @@ public class SearchDAOImpl implements SearchDAO {
         //facet results
         searchResult.setTotalRecords(sdl.getNumFound());        // TODO: PIPELINES: SolrDocumentList::getNumFound entry point
         searchResult.setStartIndex(sdl.getStart());             // TODO: PIPELINES: SolrDocumentList::getStart entry point
-        searchResult.setPageSize(solrQuery.getRows()); //pageSize
-        searchResult.setStatus("OK");
-        String[] solrSort = StringUtils.split(solrQuery.getSortField(), " "); // e.g. "taxon_name asc"
-        if (logger.isDebugEnabled()) {
-            logger.debug("sortField post-split: " + StringUtils.join(solrSort, "|"));
-        }
-        if (solrSort != null && solrSort.length == 2) {
-            searchResult.setSort(solrSort[0]); // sortField
-            searchResult.setDir(solrSort[1]); // sortDirection
-        }
-        searchResult.setQuery(params.getUrlParams()); //this needs to be the original URL>>>>
         searchResult.setOccurrences(results);
 
         List<FacetResultDTO> facetResults = buildFacetResults(facets);
@@ -1183,6 +1576,25 @@ public class SearchDAOImpl implements SearchDAO {
         return searchResult;
     }
 
+    /**
+     * The search result properties that are known before the query is run.
+     */
+    private SearchResultDTO initSearchResult(SearchRequestDTO params, SolrQuery solrQuery) {
+        SearchResultDTO searchResult = new SearchResultDTO();
+        searchResult.setPageSize(solrQuery.getRows()); //pageSize
+        searchResult.setStatus("OK");
+        String[] solrSort = StringUtils.split(solrQuery.getSortField(), " "); // e.g. "taxon_name asc"
+        if (logger.isDebugEnabled()) {
+            logger.debug("sortField post-split: " + StringUtils.join(solrSort, "|"));
+        }
+        if (solrSort != null && solrSort.length == 2) {
+            searchResult.setSort(solrSort[0]); // sortField
+            searchResult.setDir(solrSort[1]); // sortDirection
+        }
+        searchResult.setQuery(params.getUrlParams()); //this needs to be the original URL>>>>
+        return searchResult;
+    }
+
     /**
      * Build the facet results.
      *
@@ -1236,29 +1648,10 @@ public class SearchDAOImpl implements SearchDAO {
                 //check to see if the facet field is an uid value that needs substitution
                 if (entryCount == 0) continue;
 
-                if (countEntryName == null) {
-
-                    String label = "";
-                    if (messageSource != null) {
-                        label = messageSource.getMessage(fieldMappingUtil.translateFieldName(facetName) + ".novalue", null, "Not supplied", null);
-                    }
-                    r.add(new FieldResultDTO(label, facetName + ".novalue", entryCount, "-" + facetName + ":*"));
+                if (countEntryName != null && countEntryName.equals(DECADE_PRE_1850_LABEL)) {
+                    r.add(0, createFacetFieldResult(facetName, countEntryName, entryCount));
                 } else {
-                    if (countEntryName.equals(DECADE_PRE_1850_LABEL)) {
-                        r.add(0, new FieldResultDTO(
-                                getFacetValueDisplayName(fieldMappingUtil.translateFieldName(facetName), countEntryName),
-                                facetName + "." + countEntryName,
-                                entryCount,
-                                getFormattedFqQuery(facetName, countEntryName)
-                        ));
-                    } else {
-                        r.add(new FieldResultDTO(
-                                getFacetValueDisplayName(fieldMappingUtil.translateFieldName(facetName), countEntryName),
-                                facetName + "." + countEntryName,
-                                entryCount,
-                                getFormattedFqQuery(facetName, countEntryName)
-                        ));
-                    }
+                    r.add(createFacetFieldResult(facetName, countEntryName, entryCount));
                 }
             }
             // only add facets if there are more than one facet result
@@ -1269,7 +1662,25 @@ public class SearchDAOImpl implements SearchDAO {
         }
     }
 
-    private void updateImageUrls(OccurrenceIndex oi) {
+    @Override
+    public FieldResultDTO createFacetFieldResult(String facetName, String value, long count) {
+        if (value == null) {
+            String label = "";
+            if (messageSource != null) {
+                label = messageSource.getMessage(fieldMappingUtil.translateFieldName(facetName) + ".novalue", null, "Not supplied", null);
+            }
+            return new FieldResultDTO(label, facetName + ".novalue", count, "-" + facetName + ":*");
+        } else {
+            return new FieldResultDTO(
+                    getFacetValueDisplayName(fieldMappingUtil.translateFieldName(facetName), value),
+                    facetName + "." + value,
+                    count,
+                    getFormattedFqQuery(facetName, value)
+            );
+        }
+    }
+
+    public void updateImageUrls(OccurrenceIndex oi) {
 
         if (!StringUtils.isNotBlank(oi.getImage()))
             return;
@@ -2204,6 +2615,21 @@ public class SearchDAOImpl implements SearchDAO {
         return output;
     }
 
+    @Override
+    public SimpleOrderedMap searchJsonFacet(SpatialSearchRequestDTO searchParams, Map<String, Object> jsonFacet) throws Exception {
+        searchParams.setFacet(false);
+        searchParams.setPageSize(0);
+
+        SolrQuery query = initSolrQuery(searchParams, false, null);
+        query.setRows(0);
+        query.setFields();
+        query.add("json.facet", objectMapper.writeValueAsString(jsonFacet));
+
+        QueryResponse response = indexDao.runSolrQuery(query);
+
+        return SearchUtils.getMap(response.getResponse(), "facets");
+    }
+
     /**
      * @see au.org.ala.biocache.dao.SearchDAO#getColours
      */
@@ -2370,6 +2796,13 @@ public class SearchDAOImpl implements SearchDAO {
 
         // single layers
         if (gridSizeInPixels > 1 || legend == null || legend.isEmpty()) {
+            // use the density pyramid when there is one for the query
+            HeatmapDTO pyramidHeatmap = densityPyramidService.getHeatMap(query, filterQueries,
+                    heatmapGridLevel(minx, miny, maxx, maxy), minx, miny, maxx, maxy, legend, gridSizeInPixels);
+            if (pyramidHeatmap != null) {
+                return pyramidHeatmap;
+            }
+
             // single layer
             QueryResponse qr = null;
             SolrQuery solrQuery =
@@ -2465,6 +2898,39 @@ public class SearchDAOImpl implements SearchDAO {
         return null;
     }
 
+    /**
+     * Get the facet.heatmap.gridLevel for extents.
+     *
+     * @param minx may be greater than maxx when the extents cross the date line
+     * @param miny
+     * @param maxx
+     * @param maxy
+     * @return
+     */
+    private int heatmapGridLevel(double minx, double miny, double maxx, double maxy) {
+        // Calculate the tile width in degrees. minx and maxx may independently wrap the date line (180 degrees).
+        double tileWidth = maxx > minx ? maxx - minx : maxx - (minx - 360);
+
+        // This is the map for the tile width (or tile height) and the facet.heatmap.gridLevel.
+        // gridLevel must be between 1 and 26 inclusive for the SOLR quad index.
+        // At the gridLevel 1 it is a 1x1 cell for the whole world (360 degrees x 180 degrees)
+        // Add 7 grid levels to get a heatmap of size 2^7 x 2^7 grid cells (128x128) - approximately
+        double[] solrGridLevelMap = new double[]{360, 180, 90, 45, 22.5, 11.25, 5.625, 2.8125, 1.40625, 0.703125, 0.3515625, 0.17578125, 0.087890625, 0.0439453125, 0.02197265625, 0.010986328125, 0.0054931640625, 0.00274658203125, 0.001373291015625, 0.0006866455078125};
+        int zoomLevelByWidth = 0;
+        while (zoomLevelByWidth < solrGridLevelMap.length && tileWidth < solrGridLevelMap[zoomLevelByWidth]) {
+            zoomLevelByWidth++;
+        }
+
+        int zoomLevelByHeight = 0;
+        while (zoomLevelByHeight + 1 < solrGridLevelMap.length && maxy - miny < solrGridLevelMap[zoomLevelByHeight + 1]) {
+            zoomLevelByHeight++;
+        }
+
+        // Add 7 to the min zoom level to get the most appropriate number of cells
+        int gridLevel = Math.min(zoomLevelByWidth, zoomLevelByHeight) + 7;
+        return gridLevel;
+    }
+
     private SolrQuery createHeatmapQuery(
             String query,
             String[] filterQueries,
@@ -2488,26 +2954,7 @@ public class SearchDAOImpl implements SearchDAO {
         String geom = "[\"" + minx + " " + miny + "\" TO \"" + maxx + " " + maxy + "\"]";
         solrQuery.set("facet.heatmap.geom", geom);
 
-        // Calculate the tile width in degrees. minx and maxx may independently wrap the date line (180 degrees).
-        double tileWidth = maxx > minx ? maxx - minx : maxx - (minx - 360);
-
-        // This is the map for the tile width (or tile height) and the facet.heatmap.gridLevel.
-        // gridLevel must be between 1 and 26 inclusive for the SOLR quad index.
-        // At the gridLevel 1 it is a 1x1 cell for the whole world (360 degrees x 180 degrees)
-        // Add 7 grid levels to get a heatmap of size 2^7 x 2^7 grid cells (128x128) - approximately
-        double[] solrGridLevelMap = new double[]{360, 180, 90, 45, 22.5, 11.25, 5.625, 2.8125, 1.40625, 0.703125, 0.3515625, 0.17578125, 0.087890625, 0.0439453125, 0.02197265625, 0.010986328125, 0.0054931640625, 0.00274658203125, 0.001373291015625, 0.0006866455078125};
-        int zoomLevelByWidth = 0;
-        while (zoomLevelByWidth < solrGridLevelMap.length && tileWidth < solrGridLevelMap[zoomLevelByWidth]) {
-            zoomLevelByWidth++;
-        }
-
-        int zoomLevelByHeight = 0;
-        while (zoomLevelByHeight + 1 < solrGridLevelMap.length && maxy - miny < solrGridLevelMap[zoomLevelByHeight + 1]) {
-            zoomLevelByHeight++;
-        }
-
-        // Add 7 to the min zoom level to get the most appropriate number of cells
-        int gridLevel = Math.min(zoomLevelByWidth, zoomLevelByHeight) + 7;
+        int gridLevel = heatmapGridLevel(minx, miny, maxx, maxy);
         solrQuery.set(
                 "facet.heatmap.gridLevel",
                 String.valueOf(gridLevel)); // good for points, probably
@@ -2572,44 +3019,44 @@ public class SearchDAOImpl implements SearchDAO {
     }
 
     /**
-     * @see au.org.ala.biocache.dao.SearchDAO#getFacetPointsShort(au.org.ala.biocache.dto.SpatialSearchRequestDTO, String, Double, Double, Double, Double)
+     * @see au.org.ala.biocache.dao.SearchDAO#getPointCounts(String, String[], String, Double, Double, Double, Double)
      */
     @Override
-    public FacetField getFacetPointsShort(SpatialSearchRequestDTO searchParams, String pointType, Double minx, Double miny, Double maxx, Double maxy) throws Exception {
+    @Cacheable("hexbinCache")
+    public PointCountsDTO getPointCounts(String query, String[] filterQueries, String pointType, Double minx, Double miny, Double maxx, Double maxy) throws Exception {
 
         // limit miny maxy to -90 90
         if (miny < -90) miny = -90.0;
         if (maxy > 90) maxy = 90.0;
 
-        // fix date line
-        while (maxx > 180) {
-            maxx = 180.0;
-        }
-        while (minx < -180) {
-            minx = -180.0;
-        }
-
         SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setRequestHandler("standard");
-        solrQuery.setQuery(searchParams.getFormattedQuery());
-        solrQuery.setFilterQueries(searchParams.getFormattedFq());
-        solrQuery.addFilterQuery("decimalLongitude:[" + minx + " TO " + maxx + "]");
+        solrQuery.setQuery(query);
+        solrQuery.setFilterQueries(filterQueries);
         solrQuery.addFilterQuery("decimalLatitude:[" + miny + " TO " + maxy + "]");
+
+        // fix date line, the part across the date line is included in the same request
+        if (maxx - minx >= 360) {
+            solrQuery.addFilterQuery("decimalLongitude:[-180 TO 180]");
+        } else if (minx < -180) {
+            solrQuery.addFilterQuery("decimalLongitude:[" + (minx + 360) + " TO 180] OR decimalLongitude:[-180 TO " + maxx + "]");
+        } else if (maxx > 180) {
+            solrQuery.addFilterQuery("decimalLongitude:[" + minx + " TO 180] OR decimalLongitude:[-180 TO " + (maxx - 360) + "]");
+        } else {
+            solrQuery.addFilterQuery("decimalLongitude:[" + minx + " TO " + maxx + "]");
+        }
+
         solrQuery.setRows(0);
         solrQuery.setFacet(true);
         solrQuery.addFacetField(pointType);
         solrQuery.setFacetMinCount(1);
-        solrQuery.setFacetLimit(searchParams.getFlimit());
-
-        QueryResponse qr = query(solrQuery); // can throw exception
+        solrQuery.setFacetLimit(-1);
+        solrQuery.setFacetSort("count");
 
-        List<FacetField> facets = qr.getFacetFields();
+        PointCountsDTO points = new PointCountsDTO();
+        indexDao.streamingQuery(solrQuery, null, new PointFacet(points, minx, maxx), null);
+        points.trimToSize();
 
-        // return first facet, there should only be 1
-        if (facets != null && !facets.isEmpty()) {
-            return facets.get(0);
-        }
-        return null;
+        return points;
     }
 
     public SolrDocument getOcc(String recordUuid) {
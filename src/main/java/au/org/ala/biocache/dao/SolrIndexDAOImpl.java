@@ -11,6 +11,9 @@ import au.org.ala.biocache.util.DwcTermDetails;
 import au.org.ala.biocache.util.solr.FieldMappedSolrClient;
 import au.org.ala.biocache.util.solr.FieldMappingUtil;
 import com.fasterxml.jackson.core.type.TypeReference;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.client.config.RequestConfig;
@@ -23,6 +26,7 @@ import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.StreamingResponseCallback;
 import org.apache.solr.client.solrj.impl.*;
 import org.apache.solr.client.solrj.io.SolrClientCache;
 import org.apache.solr.client.solrj.io.Tuple;
@@ -33,6 +37,8 @@ import org.apache.solr.client.solrj.response.FieldStatsInfo;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.FacetParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
@@ -41,7 +47,9 @@ import org.gbif.dwc.terms.DcTerm;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.Term;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.BeanUtils;
 import org.springframework.context.support.AbstractMessageSource;
 import org.springframework.stereotype.Component;
 
@@ -49,6 +57,10 @@ import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -77,10 +89,21 @@ public class SolrIndexDAOImpl implements IndexDAO {
      * Lock object used to synchronize updates to the solr index version
      */
     private final Object solrIndexVersionLock = new Object();
+    /**
+     * Lock object used to synchronize updates to the field metadata. This is not the solrIndexVersionLock because
+     * the first index version request waits for the field metadata while holding that lock.
+     */
+    private final Object indexFieldsLock = new Object();
 
     @Inject
     private FieldMappingUtil fieldMappingUtil;
 
+    /**
+     * Metrics of SOLR requests. Not required so that the DAO can be used without a registry.
+     */
+    @Autowired(required = false)
+    protected MeterRegistry meterRegistry = Metrics.globalRegistry;
+
     /*
      * The csv header for updating solr
      */
@@ -133,6 +156,17 @@ public class SolrIndexDAOImpl implements IndexDAO {
     @Value("${solr.server.retry.wait:1000}")
     protected long retryWait = 1000;
 
+    /**
+     * Concurrent identical queries that return no documents share one SOLR request.
+     */
+    @Value("${solr.query.coalesce:true}")
+    protected Boolean coalesceQueries = true;
+
+    /**
+     * SOLR requests in progress by coalesceKey.
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<QueryResponse>> inFlightQueries = new ConcurrentHashMap<>();
+
     @Value("${solr.collection:biocache}")
     protected String solrCollection;
 
@@ -290,8 +324,119 @@ public class SolrIndexDAOImpl implements IndexDAO {
         }
     }
 
+    /**
+     * Query SOLR, recording the wall time and SOLR QTime of the request by request class.
+     * <p>
+     * When solr.query.coalesce is enabled a query with rows=0 that is identical to a query in progress waits for, and
+     * returns, the response of the query in progress. Queries that return documents are not coalesced because callers
+     * change the documents of their response.
+     */
     @Override
     public QueryResponse query(SolrParams query) throws Exception {
+        String type = requestClass(query);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            boolean coalesce = coalesceQueries && query.getInt(CommonParams.ROWS, CommonParams.ROWS_DEFAULT) == 0;
+            QueryResponse qr = coalesce ? coalescedQuery(query, type) : queryWithRetry(query);
+            if (qr != null) {
+                if (qr.getHeader() != null) {
+                    meterRegistry.timer("biocache.solr.qtime", "type", type).record(qr.getQTime(), TimeUnit.MILLISECONDS);
+                }
+                outcome = "success";
+            }
+            return qr;
+        } finally {
+            sample.stop(meterRegistry.timer("biocache.solr.query", "type", type, "outcome", outcome));
+        }
+    }
+
+    /**
+     * Classify a request for metrics.
+     *
+     * @return one of heatmap, stats, facet, search, count
+     */
+    static String requestClass(SolrParams query) {
+        if (query.get(FacetParams.FACET_HEATMAP) != null) {
+            return "heatmap";
+        } else if (query.getBool("stats", false)) {
+            return "stats";
+        } else if (query.getBool(FacetParams.FACET, false)) {
+            return "facet";
+        } else if (query.getInt(CommonParams.ROWS, CommonParams.ROWS_DEFAULT) > 0) {
+            return "search";
+        } else {
+            return "count";
+        }
+    }
+
+    /**
+     * Single flight query. The first caller makes the SOLR request, concurrent callers with the same coalesceKey
+     * receive the same response or exception.
+     */
+    private QueryResponse coalescedQuery(SolrParams query, String type) throws Exception {
+        String key = coalesceKey(query);
+
+        CompletableFuture<QueryResponse> future = new CompletableFuture<>();
+        CompletableFuture<QueryResponse> inFlight = inFlightQueries.putIfAbsent(key, future);
+
+        if (inFlight != null) {
+            meterRegistry.counter("biocache.solr.coalesced", "type", type).increment();
+            try {
+                return inFlight.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            QueryResponse qr = queryWithRetry(query);
+            future.complete(qr);
+            return qr;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightQueries.remove(key, future);
+        }
+    }
+
+    /**
+     * Request tracing parameters that do not change the response.
+     */
+    private static final Set<String> COALESCE_IGNORED_PARAMS = new HashSet<>(Arrays.asList("XRequestID"));
+
+    /**
+     * Key of a query that does not depend on the order of the parameter names or on request tracing parameters. The
+     * order of the values of a parameter is retained.
+     */
+    static String coalesceKey(SolrParams query) {
+        List<String> names = new ArrayList<>();
+        query.getParameterNamesIterator().forEachRemaining(name -> {
+            if (!COALESCE_IGNORED_PARAMS.contains(name)) {
+                names.add(name);
+            }
+        });
+        Collections.sort(names);
+
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            String[] values = query.getParams(name);
+            if (values != null) {
+                for (String value : values) {
+                    // length prefixed so that no name or value can be confused with a delimiter
+                    sb.append(name.length()).append(':').append(name);
+                    sb.append(value == null ? -1 : value.length()).append(':').append(value == null ? "" : value);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private QueryResponse queryWithRetry(SolrParams query) throws Exception {
         int retry = 0;
 
         QueryResponse qr = null;
@@ -460,31 +605,174 @@ public class SolrIndexDAOImpl implements IndexDAO {
     }
 
     /**
-     * Gets the details about the SOLR fields using the LukeRequestHandler: See
-     * http://wiki.apache.org/solr/LukeRequestHandler for more information
+     * Gets the details about the SOLR fields.
+     * <p>
+     * Without fields this is the structural field metadata, see {@link #getIndexedFields()}.
+     * <p>
+     * With fields the number of distinct values of each field is added from the LukeRequestHandler: See
+     * http://wiki.apache.org/solr/LukeRequestHandler for more information. These statistics are only requested for
+     * fields that do not have them for the current index version, and are persisted with the field metadata.
+     *
      * @return
      */
     @Override
     public Set<IndexFieldDTO> getIndexFieldDetails(String... fields) throws Exception {
+        if (fields == null || fields.length == 0) {
+            return getIndexedFields();
+        }
+
+        Map<String, IndexFieldDTO> fieldMap = getIndexedFieldsMap();
+        Map<String, Integer> statistics = getFieldStatistics(fields);
+
+        Set<IndexFieldDTO> result = new HashSet<>();
+        for (String fieldName : fields) {
+            IndexFieldDTO field = fieldMap.get(fieldName);
+            if (field != null) {
+                // copy so that the statistics are not added to the shared field metadata
+                IndexFieldDTO copy = new IndexFieldDTO();
+                BeanUtils.copyProperties(field, copy);
+                copy.setNumberDistinctValues(statistics.get(fieldName));
+                result.add(copy);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of distinct values of the fields, for the current index version.
+     */
+    Map<String, Integer> getFieldStatistics(String... fields) throws Exception {
+        Map<String, Integer> statistics = fieldStatistics;
+        Long version = indexFieldVersions.get(STATISTICS_VERSION);
+        if (version == null || version != solrIndexVersion) {
+            statistics = new HashMap<>();
+        }
+
+        List<String> missing = new ArrayList<>();
+        for (String fieldName : fields) {
+            if (!statistics.containsKey(fieldName)) {
+                missing.add(fieldName);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            ModifiableSolrParams params = new ModifiableSolrParams();
+            params.set("qt", "/admin/luke");
+            params.set("fl", String.join(",", missing));
+            params.set("numTerms", "1");
+
+            QueryResponse response = query(params);
+            long responseVersion = (long) ((NamedList) response.getResponse().get("index")).get("version");
+
+            // a new copy so that the RestartDataService sees the change
+            Map<String, Integer> updated = new HashMap<>();
+            if (responseVersion == solrIndexVersion) {
+                updated.putAll(statistics);
+            }
+            NamedList<NamedList<Object>> fieldInfo = (NamedList) response.getResponse().get("fields");
+            for (String fieldName : missing) {
+                NamedList<Object> info = fieldInfo != null ? fieldInfo.get(fieldName) : null;
+                updated.put(fieldName, info != null ? (Integer) info.get("distinct") : null);
+            }
+
+            synchronized (indexFieldsLock) {
+                Map<String, Long> versions = new HashMap<>(indexFieldVersions);
+                versions.put(STATISTICS_VERSION, responseVersion);
+                fieldStatistics = new HashMap<>(updated);
+                indexFieldVersions = new HashMap<>(versions);
+            }
+            statistics = updated;
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Get the SOLR index version without any field information.
+     */
+    private long queryIndexVersion() throws Exception {
         ModifiableSolrParams params = new ModifiableSolrParams();
         params.set("qt", "/admin/luke");
+        params.set("show", "index");
+        params.set("numTerms", "0");
 
-        params.set("tr", "luke.xsl");
-        if (fields != null) {
-            params.set("fl", String.join(",", fields));
-            params.set("numTerms", "1");
-        } else {
-            // TODO: We should be caching the result locally without calling Solr in this case, as it is
-            // called very often
-            params.set("numTerms", "0");
+        QueryResponse response = query(params);
+
+        return (long) ((NamedList) response.getResponse().get("index")).get("version");
+    }
+
+    /**
+     * Hash of the configuration that loadIndexFields adds to the SOLR fields: the deprecated field mappings, the
+     * hidden fields and the layer names.
+     */
+    long getIndexFieldsOverlayVersion() {
+        List<String> overlay = new ArrayList<>();
+        fieldMappingUtil.getFieldMappingStream()
+                .map((Pair<String, String> fieldMapping) -> fieldMapping.getKey() + "=" + fieldMapping.getValue())
+                .sorted()
+                .forEach(overlay::add);
+        overlay.add(indexFieldsToHide);
+        new TreeMap<>(layersService.getLayerNameMap()).forEach((key, value) -> overlay.add(key + "=" + value));
+        return overlay.hashCode();
+    }
+
+    /**
+     * Refresh the structural field metadata when the index version changes.
+     * <p>
+     * The index version is requested first, without any field information. The field list is only rebuilt when the
+     * version or the overlay version differs from that of the current, or persisted, field metadata, or when forced.
+     */
+    void refreshIndexFields(boolean force) throws Exception {
+        long version = queryIndexVersion();
+        long overlayVersion = getIndexFieldsOverlayVersion();
+
+        synchronized (indexFieldsLock) {
+            solrIndexVersion = version;
+            solrIndexVersionTime = System.currentTimeMillis();
+
+            Long fieldsVersion = indexFieldVersions.get(FIELDS_VERSION);
+            Long fieldsOverlayVersion = indexFieldVersions.get(OVERLAY_VERSION);
+            if (!force && fieldsVersion != null && fieldsVersion == version
+                    && fieldsOverlayVersion != null && fieldsOverlayVersion == overlayVersion
+                    && !indexFieldMap.isEmpty()) {
+                if (indexFields.isEmpty()) {
+                    // field metadata persisted before a restart
+                    indexFields = new ConcurrentHashSet<>();
+                    indexFields.addAll(indexFieldMap.values());
+                }
+                return;
+            }
+        }
+
+        Map<String, IndexFieldDTO> resultMap = loadIndexFields();
+        if (!resultMap.isEmpty()) {
+            synchronized (indexFieldsLock) {
+                Set<IndexFieldDTO> result = new ConcurrentHashSet<>();
+                result.addAll(resultMap.values());
+
+                Map<String, Long> versions = new HashMap<>(indexFieldVersions);
+                versions.put(FIELDS_VERSION, solrIndexVersion);
+                versions.put(OVERLAY_VERSION, overlayVersion);
+
+                indexFields = result;
+                indexFieldMap = new HashMap<>(resultMap);
+                indexFieldVersions = new HashMap<>(versions);
+            }
         }
+    }
+
+    /**
+     * Build the structural field metadata from the LukeRequestHandler field list, without term statistics, and the
+     * schema.
+     */
+    private Map<String, IndexFieldDTO> loadIndexFields() throws Exception {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("qt", "/admin/luke");
+        params.set("tr", "luke.xsl");
+        params.set("numTerms", "0");
         QueryResponse response = query(params);
 
         Map<String, IndexFieldDTO> indexFieldMap = new java.util.Hashtable<>();
-//        Set<IndexFieldDTO> indexFields =
-//                fields != null
-//                        ? new java.util.LinkedHashSet<IndexFieldDTO>()
-//                        : new java.util.TreeSet<IndexFieldDTO>();
 
         parseLukeResponse(response, indexFieldMap);
 
@@ -531,14 +819,7 @@ public class SolrIndexDAOImpl implements IndexDAO {
             indexFieldMap.put(item.getKey(), field);
         }
 
-        if (fields != null && fields.length > 0) {
-            return Arrays.stream(fields)
-                    .map(fieldName -> indexFieldMap.get(fieldName))
-                    .filter(indexField -> indexField != null)
-                    .collect(Collectors.toSet());
-        }
-
-        return indexFieldMap.entrySet().stream().map(Map.Entry::getValue).collect(Collectors.toSet());
+        return indexFieldMap;
     }
 
     @Override
@@ -609,7 +890,7 @@ public class SolrIndexDAOImpl implements IndexDAO {
                             @Override
                             public void run() {
                                 try {
-                                    getIndexFieldDetails();
+                                    refreshIndexFields(false);
                                 } catch (Exception e) {
                                     logger.error("Failed to update solrIndexVersion", e);
                                 }
@@ -657,6 +938,32 @@ public class SolrIndexDAOImpl implements IndexDAO {
                     },
                     HashMap.class);
 
+    private static final String FIELDS_VERSION = "fields";
+    private static final String STATISTICS_VERSION = "statistics";
+    private static final String OVERLAY_VERSION = "overlay";
+
+    /**
+     * Index versions of the persisted indexFieldMap and fieldStatistics, and the overlay version of the indexFieldMap.
+     */
+    private volatile Map<String, Long> indexFieldVersions =
+            RestartDataService.get(
+                    this,
+                    "indexFieldVersions",
+                    new TypeReference<HashMap<String, Long>>() {
+                    },
+                    HashMap.class);
+
+    /**
+     * Number of distinct values of the fields that have been requested, for the statistics index version.
+     */
+    private volatile Map<String, Integer> fieldStatistics =
+            RestartDataService.get(
+                    this,
+                    "fieldStatistics",
+                    new TypeReference<HashMap<String, Integer>>() {
+                    },
+                    HashMap.class);
+
     private volatile Set<String> schemaFields = new HashSet();
 
     private IndexFieldDTO formatIndexField(String fieldName, String fieldType, String schema, Integer distinctCount, Map indexToJsonMap) {
@@ -884,15 +1191,8 @@ public class SolrIndexDAOImpl implements IndexDAO {
             synchronized (solrIndexVersionLock) {
                 result = indexFields;
                 if (result.size() == 0 || update) {
-                    result = getIndexFieldDetails();
-                    if (result != null && result.size() > 0) {
-                        Map<String, IndexFieldDTO> resultMap = new HashMap<String, IndexFieldDTO>();
-                        for (IndexFieldDTO field : result) {
-                            resultMap.put(field.getName(), field);
-                        }
-                        indexFields = result;
-                        indexFieldMap = resultMap;
-                    }
+                    refreshIndexFields(update);
+                    result = indexFields;
                 }
             }
         }
@@ -969,6 +1269,41 @@ public class SolrIndexDAOImpl implements IndexDAO {
         return qr;
     }
 
+    /**
+     * Streamed queries are not retried or coalesced because the callback may have consumed documents.
+     */
+    @Override
+    public QueryResponse runSolrQuery(SolrQuery solrQuery, StreamingResponseCallback callback) throws Exception {
+
+        if (MDC.get("X-Request-ID") != null) {
+            solrQuery.setParam("XRequestID", MDC.get("X-Request-ID"));
+        }
+        solrQuery.setFacetMissing(true);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Solr streaming query: " + solrQuery.toString());
+        }
+
+        String type = requestClass(solrQuery);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            QueryResponse qr;
+            if (solrClient instanceof FieldMappedSolrClient) {
+                qr = ((FieldMappedSolrClient) solrClient).queryAndStreamResponse(null, solrQuery, SolrRequest.METHOD.POST, callback);
+            } else {
+                qr = solrClient.queryAndStreamResponse(solrQuery, callback);
+            }
+            if (qr.getHeader() != null) {
+                meterRegistry.timer("biocache.solr.qtime", "type", type).record(qr.getQTime(), TimeUnit.MILLISECONDS);
+            }
+            outcome = "success";
+            return qr;
+        } finally {
+            sample.stop(meterRegistry.timer("biocache.solr.query", "type", type, "outcome", outcome));
+        }
+    }
+
     // read values mapping to csv headers
     private List<Object> getValues(Map<String, Object> map) {
         String userAssertionStatus = (String) map.getOrDefault("userAssertions", String.valueOf(AssertionStatus.QA_NONE));
@@ -1118,28 +1453,43 @@ public class SolrIndexDAOImpl implements IndexDAO {
 
             // do search
             if (procSearch != null && query.getRows() != 0) {
-                try (TupleStream solrStream = openStream(buildSearchExpr(query));) {
+                ModifiableSolrParams searchExpr = buildSearchExpr(query);
+                String type = searchExpr.get("qt").substring(1);
+                Timer.Sample sample = Timer.start(meterRegistry);
+                try (TupleStream solrStream = openStream(searchExpr);) {
                     Tuple tuple;
                     while (!(tuple = solrStream.read()).EOF && (tupleCount < query.getRows() || query.getRows() < 0)) {
                         tupleCount++;
                         procSearch.process(tuple);
                     }
                     procSearch.flush();
+                } finally {
+                    sample.stop(meterRegistry.timer("biocache.solr.stream", "type", type));
+                    meterRegistry.counter("biocache.solr.stream.tuples", "type", type).increment(tupleCount);
                 }
             }
 
             // do facets
             if (procFacet != null && query.getFacetFields() != null) {
-                // process one at a time
-                for (String facetField : query.getFacetFields()) {
-                    try (TupleStream solrStream = createTupleStream(query, endemicFacetSuperset, facetField);) {
-                        Tuple tuple;
-                        while (!(tuple = solrStream.read()).EOF) {
-                            procFacet.process(tuple);
+                String type = endemicFacetSuperset == null ? "facet" : "endemic";
+                Timer.Sample sample = Timer.start(meterRegistry);
+                long facetCount = 0;
+                try {
+                    // process one at a time
+                    for (String facetField : query.getFacetFields()) {
+                        try (TupleStream solrStream = createTupleStream(query, endemicFacetSuperset, facetField);) {
+                            Tuple tuple;
+                            while (!(tuple = solrStream.read()).EOF) {
+                                facetCount++;
+                                procFacet.process(tuple);
+                            }
                         }
                     }
+                    procFacet.flush();
+                } finally {
+                    sample.stop(meterRegistry.timer("biocache.solr.stream", "type", type));
+                    meterRegistry.counter("biocache.solr.stream.tuples", "type", type).increment(facetCount);
                 }
-                procFacet.flush();
             }
         } catch (HttpSolrClient.RemoteSolrException e) {
             logError(query, "SolrException query failed", e.getMessage());
@@ -1232,14 +1582,19 @@ public class SolrIndexDAOImpl implements IndexDAO {
             }
         }
 
-        cexpr.append(", buckets=\"").append(fieldMappingUtil.translateFieldName(facetName)).append("\"");
+        // facetName may be a comma delimited list of fields for nested buckets
+        String[] buckets = facetName.split(",");
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = fieldMappingUtil.translateFieldName(buckets[i].trim());
+        }
+        cexpr.append(", buckets=\"").append(StringUtils.join(buckets, ",")).append("\"");
 
         // translate the 'count' and 'index' facet.sort values for streaming facet()
         if (query.getFacetSortString() != null && query.getFacetSortString().endsWith(" asc") || query.getFacetSortString().endsWith(" desc")) {
             // use the streaming facet() compatible sort string
             cexpr.append(", bucketSorts=\"").append(query.getFacetSortString()).append("\"");
         } else if ("index".equals(query.getFacetSortString())) {
-            cexpr.append(", bucketSorts=\"").append(facetName).append(" asc\"");
+            cexpr.append(", bucketSorts=\"").append(StringUtils.join(buckets, " asc,")).append(" asc\"");
         } else {
             // default to count sort
             cexpr.append(", bucketSorts=\"count(*) desc\", count(*)");
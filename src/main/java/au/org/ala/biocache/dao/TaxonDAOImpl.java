@@ -14,26 +14,19 @@
  ***************************************************************************/
 package au.org.ala.biocache.dao;
 
-import au.com.bytecode.opencsv.CSVReader;
-import au.org.ala.biocache.dto.FieldResultDTO;
 import au.org.ala.biocache.dto.OccurrenceIndex;
-import au.org.ala.biocache.dto.SpatialSearchRequestDTO;
-import org.apache.commons.io.output.ByteArrayOutputStream;
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.PivotField;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.util.NamedList;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
-import java.io.StringReader;
 import java.io.Writer;
 import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 
 @Component("taxonDao")
@@ -47,109 +40,83 @@ public class TaxonDAOImpl implements TaxonDAO {
     @Inject
     private IndexDAO indexDAO;
 
-    public void extractBySpeciesGroups(String metadataUrl, String q, String[] fq, Writer writer) throws Exception{
+    /**
+     * Ranks of the extractHierarchy layers
+     */
+    private static final String[] HIERARCHY_RANKS = {
+            OccurrenceIndex.KINGDOM,
+            OccurrenceIndex.PHYLUM,
+            OccurrenceIndex.CLASS,
+            OccurrenceIndex.ORDER,
+            OccurrenceIndex.FAMILY,
+            OccurrenceIndex.GENUS,
+            OccurrenceIndex.SPECIES
+    };
 
-        List<FacetField.Count> speciesGroups = extractFacet(q, fq, OccurrenceIndex.SPECIES_GROUP);
-        for(FacetField.Count spg: speciesGroups){
-            if (spg.getName() != null) {
-                List<FacetField.Count> orders = extractFacet(q, (String[]) ArrayUtils.add(fq, OccurrenceIndex.SPECIES_GROUP + ":\"" + spg.getName() + "\""), OccurrenceIndex.ORDER);
-                for (FacetField.Count o : orders) {
-                    if (o.getName() != null) {
-                        outputNestedMappableLayerStart(OccurrenceIndex.ORDER, o.getName(), writer);
-                        List<FacetField.Count> families = extractFacet(q, (String[]) ArrayUtils.add(fq, OccurrenceIndex.ORDER + ":" + o.getName()), OccurrenceIndex.FAMILY);
-                        for (FacetField.Count f : families) {
-                            if (f.getName() != null) {
-                                outputNestedMappableLayerStart(OccurrenceIndex.FAMILY, f.getName(), writer);
-                                List<FacetField.Count> genera = extractFacet(q, (String[]) ArrayUtils.addAll(fq, new String[]{OccurrenceIndex.FAMILY + ":" + f.getName(), OccurrenceIndex.SPECIES_GROUP + ":\"" + spg.getName() + "\""}), OccurrenceIndex.GENUS);
-                                for (FacetField.Count g : genera) {
-                                    if (g.getName() != null) {
-                                        outputNestedMappableLayerStart(OccurrenceIndex.GENUS, g.getName(), writer);
-                                        List<FacetField.Count> species = extractFacet(q, (String[]) ArrayUtils.addAll(fq, new String[]{OccurrenceIndex.GENUS + ":" + g.getName(), OccurrenceIndex.SPECIES_GROUP + ":\"" + spg.getName() + "\"", OccurrenceIndex.FAMILY + ":" + f.getName()}), OccurrenceIndex.SPECIES);
-                                        for (FacetField.Count s : species) {
-                                            if (s.getName() != null) {
-                                                outputLayer(metadataUrl, OccurrenceIndex.SPECIES, s.getName(), writer);
-                                            }
-                                        }
-                                        outputNestedLayerEnd(writer);
-                                    }
-                                }
-                                outputNestedLayerEnd(writer);
-                            }
-                        }
-                        outputNestedLayerEnd(writer);
-                    }
-                }
-                outputNestedLayerEnd(writer);
-            }
-        }
+    /**
+     * Ranks of the extractBySpeciesGroups layers
+     */
+    private static final String[] SPECIES_GROUP_RANKS = {
+            OccurrenceIndex.SPECIES_GROUP,
+            OccurrenceIndex.ORDER,
+            OccurrenceIndex.FAMILY,
+            OccurrenceIndex.GENUS,
+            OccurrenceIndex.SPECIES
+    };
+
+    public void extractBySpeciesGroups(String metadataUrl, String q, String[] fq, Writer writer) throws Exception{
+        outputHierarchy(metadataUrl, extractPivot(q, fq, SPECIES_GROUP_RANKS), SPECIES_GROUP_RANKS, 0, writer);
     }
 
     @Override
     public void extractHierarchy(String metadataUrl, String q, String[] fq, Writer writer) throws Exception {
+        outputHierarchy(metadataUrl, extractPivot(q, fq, HIERARCHY_RANKS), HIERARCHY_RANKS, 0, writer);
+    }
+
+    /**
+     * Write the nested layers of a pivot facet. The first rank is a layer group, the last rank is a layer and the
+     * ranks between are mappable layer groups.
+     */
+    private void outputHierarchy(String metadataUrl, List<PivotField> pivots, String[] ranks, int depth, Writer writer) throws Exception {
+        if (pivots == null) {
+            return;
+        }
 
-        List<FacetField.Count> kingdoms = extractFacet(q, fq, OccurrenceIndex.KINGDOM);
-        for(FacetField.Count k: kingdoms){
-            if (k.getName() != null) {
-                outputNestedLayerStart(k.getName(), writer);
-                List<FacetField.Count> phyla = extractFacet(q, (String[]) ArrayUtils.add(fq, OccurrenceIndex.KINGDOM + ":" + k.getName()), OccurrenceIndex.PHYLUM);
-                for (FacetField.Count p : phyla) {
-                    if (p.getName() != null) {
-                        outputNestedMappableLayerStart(OccurrenceIndex.PHYLUM, p.getName(), writer);
-                        List<FacetField.Count> classes = extractFacet(q, (String[]) ArrayUtils.add(fq, OccurrenceIndex.PHYLUM + ":" + p.getName()), OccurrenceIndex.CLASS);
-                        for (FacetField.Count c : classes) {
-                            if (c.getName() != null) {
-                                outputNestedMappableLayerStart(OccurrenceIndex.CLASS, c.getName(), writer);
-                                List<FacetField.Count> orders = extractFacet(q, (String[]) ArrayUtils.add(fq, OccurrenceIndex.CLASS + ":" + c.getName()), OccurrenceIndex.ORDER);
-                                for (FacetField.Count o : orders) {
-                                    if (o.getName() != null) {
-                                        outputNestedMappableLayerStart(OccurrenceIndex.ORDER, o.getName(), writer);
-                                        List<FacetField.Count> families = extractFacet(q, (String[]) ArrayUtils.addAll(fq, new String[]{OccurrenceIndex.ORDER + ":" + o.getName(), OccurrenceIndex.KINGDOM + ":" + k.getName()}), OccurrenceIndex.FAMILY);
-                                        for (FacetField.Count f : families) {
-                                            if (f.getName() != null) {
-                                                outputNestedMappableLayerStart(OccurrenceIndex.FAMILY, f.getName(), writer);
-                                                List<FacetField.Count> genera = extractFacet(q, (String[]) ArrayUtils.addAll(fq, new String[]{OccurrenceIndex.FAMILY + ":" + f.getName(), OccurrenceIndex.KINGDOM + ":" + k.getName()}), OccurrenceIndex.GENUS);
-                                                for (FacetField.Count g : genera) {
-                                                    if (g.getName() != null) {
-                                                        outputNestedMappableLayerStart(OccurrenceIndex.GENUS, g.getName(), writer);
-                                                        List<FacetField.Count> species = extractFacet(q, (String[]) ArrayUtils.addAll(fq, new String[]{OccurrenceIndex.GENUS + ":" + g.getName(), OccurrenceIndex.KINGDOM + ":" + k.getName(), OccurrenceIndex.FAMILY + ":" + f.getName()}), OccurrenceIndex.SPECIES);
-                                                        for (FacetField.Count s : species) {
-                                                            if (s.getName() != null) {
-                                                                outputLayer(metadataUrl, OccurrenceIndex.SPECIES, s.getName(), writer);
-                                                            }
-                                                        }
-                                                        outputNestedLayerEnd(writer);
-                                                    }
-                                                }
-                                                outputNestedLayerEnd(writer);
-                                            }
-                                        }
-                                        outputNestedLayerEnd(writer);
-                                    }
-                                }
-                                outputNestedLayerEnd(writer);
-                            }
-                        }
-                        outputNestedLayerEnd(writer);
-                    }
+        for (PivotField pivot : pivots) {
+            if (pivot.getValue() == null) {
+                continue;
+            }
+            String name = pivot.getValue().toString();
+
+            if (depth == ranks.length - 1) {
+                outputLayer(metadataUrl, ranks[depth], name, writer);
+            } else {
+                if (depth == 0) {
+                    outputNestedLayerStart(name, writer);
+                } else {
+                    outputNestedMappableLayerStart(ranks[depth], name, writer);
                 }
+                outputHierarchy(metadataUrl, pivot.getPivot(), ranks, depth + 1, writer);
                 outputNestedLayerEnd(writer);
             }
+
+            // write each top level layer group when it is complete
+            if (depth == 0) {
+                writer.flush();
+            }
         }
     }
 
     void outputNestedMappableLayerStart(String rank, String taxon, Writer out) throws Exception {
         out.write("<Layer queryable=\"1\"><Name>" + rank + ":" + taxon + "</Name><Title>" + taxon + "</Title>");
-        out.flush();
     }
 
     void outputNestedLayerStart(String layerName, Writer out) throws Exception {
         out.write("<Layer><Name>"+layerName + "</Name><Title>"+layerName + "</Title>\n\t");
-        out.flush();
     }
 
     void outputNestedLayerEnd(Writer out) throws Exception {
         out.write("</Layer>");
-        out.flush();
     }
 
     void outputLayer(String metadataUrlRoot, String rank, String taxon, Writer out) throws Exception {
@@ -163,30 +130,32 @@ public class TaxonDAOImpl implements TaxonDAO {
                 " xlink:href=\""+metadataUrlRoot+"?q="+rank+":"+ URLEncoder.encode(taxon,"UTF-8") +"\"/>\n" +
                 "</MetadataURL>"+
                 "</Layer>");
-        out.flush();
     }
 
-    private List<FacetField.Count> extractFacet(String queryString, String[] filterQueries, String facetName) throws Exception {
-
-        // TODO: PIPELINES: query mapping needs to be performed!!!
+    /**
+     * One pivot facet request for all ranks. Each level is sorted by name.
+     *
+     * @return pivots of the first rank
+     */
+    private List<PivotField> extractPivot(String queryString, String[] filterQueries, String[] ranks) throws Exception {
 
         SolrQuery query = new SolrQuery(queryString);
         query.setFacet(true);
-        query.addFacetField(facetName);
+        query.addFacetPivotField(StringUtils.join(ranks, ","));
+        query.add("facet.pivot.mincount", "1");
         query.setRows(0);
-        query.setFacetLimit(200000);
+        query.setFacetLimit(-1);
         query.setStart(0);
         query.setFacetMinCount(1);
         query.setFacetSort("index");
-        //query.setFacet
         if(filterQueries != null){
             for(String fq: filterQueries) query.addFilterQuery(fq);
         }
         QueryResponse response = indexDAO.query(query);
-        List<FacetField.Count> fc = response.getFacetField(facetName).getValues();
-        if(fc == null){
-            fc = new ArrayList<FacetField.Count>();
+        NamedList<List<PivotField>> pivots = response.getFacetPivot();
+        if (pivots == null || pivots.size() == 0 || pivots.getVal(0) == null) {
+            return new ArrayList<>();
         }
-        return fc;
+        return pivots.getVal(0);
     }
 }
@@ -5,6 +5,7 @@ import org.apache.commons.lang.ArrayUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 public class DownloadHeaders {
@@ -36,8 +37,9 @@ public class DownloadHeaders {
     // qa (assertions) SOLR values
     public String[] qaIds = new String[0];
 
-    // column headers of the miscellanious SOLR field (contains a JSON map). Populated during the download.
-    public List<String> miscLabels = new ArrayList();
+    // column headers of the miscellanious SOLR field (contains a JSON map). Populated during the download, and
+    // copy on write because the record writer reads it while new labels are appended.
+    public List<String> miscLabels = new CopyOnWriteArrayList<>();
 
     public DownloadHeaders(String[] included, String[] labels, String[] analysisLabels, String[] analysisIds, String[] speciesListLabels, String[] speciesListIds) {
         this.originalIncluded = Arrays.stream(included).collect(Collectors.toList()).toArray(new String[0]);
@@ -48,8 +48,8 @@ public class DownloadRequestParams extends SpatialSearchRequestParams {
     @Parameter(name="sourceTypeId", description = "Source ID See https://logger.ala.org.au/service/logger/sources",  schema = @Schema(type = "string", defaultValue = "0"))
     Integer sourceTypeId = null;
 
-    @Parameter(name="fileType", description = "File type. CSV or TSV", schema = @Schema(type = "string", allowableValues = {"csv", "tsv"}))
-    @Pattern(regexp="(csv|tsv)")
+    @Parameter(name="fileType", description = "File type. CSV, TSV or Parquet", schema = @Schema(type = "string", allowableValues = {"csv", "tsv", "parquet"}))
+    @Pattern(regexp="(csv|tsv|parquet)")
     String fileType = "csv";
 
     @Parameter(name="layersServiceUrl", description = "URL to layersService to include intersections with layers that are not indexed", hidden = true)
@@ -0,0 +1,93 @@
+package au.org.ala.biocache.dto;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Compact facet values and counts of a single facet field, sorted by value.
+ * <p>
+ * Values are held in one sorted array and the counts in a parallel primitive array so a large facet, e.g. all
+ * species, can be cached and a value's count found with a binary search.
+ */
+public class FacetCountsDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] values;
+    private final long[] counts;
+
+    private FacetCountsDTO(String[] values, long[] counts) {
+        this.values = values;
+        this.counts = counts;
+    }
+
+    /**
+     * @return the count of the value or 0 when it is not present
+     */
+    public long getCount(String value) {
+        int i = value == null ? -1 : Arrays.binarySearch(values, value);
+        return i >= 0 ? counts[i] : 0;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Visit each value and count in value order.
+     */
+    public void forEach(ObjLongConsumer<String> consumer) {
+        for (int i = 0; i < values.length; i++) {
+            consumer.accept(values[i], counts[i]);
+        }
+    }
+
+    /**
+     * Collects facet values and counts in any order. Null values are ignored.
+     */
+    public static class Builder implements ObjLongConsumer<String> {
+
+        private String[] values = new String[256];
+        private long[] counts = new long[256];
+        private int size = 0;
+        private boolean sorted = true;
+
+        @Override
+        public void accept(String value, long count) {
+            if (value == null) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            if (size > 0 && sorted && values[size - 1].compareTo(value) > 0) {
+                sorted = false;
+            }
+            values[size] = value;
+            counts[size] = count;
+            size++;
+        }
+
+        public FacetCountsDTO build() {
+            String[] sortedValues = Arrays.copyOf(values, size);
+            long[] sortedCounts = Arrays.copyOf(counts, size);
+
+            if (!sorted) {
+                Integer[] order = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, Comparator.comparing(i -> values[i]));
+                for (int i = 0; i < size; i++) {
+                    sortedValues[i] = values[order[i]];
+                    sortedCounts[i] = counts[order[i]];
+                }
+            }
+
+            return new FacetCountsDTO(sortedValues, sortedCounts);
+        }
+    }
+}
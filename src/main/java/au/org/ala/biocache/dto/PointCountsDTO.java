@@ -0,0 +1,80 @@
+package au.org.ala.biocache.dto;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Occurrence counts for distinct coordinates held in primitive arrays.
+ * <p>
+ * Coordinates are interleaved longitude, latitude pairs so that they can be passed directly to a
+ * {@link au.org.ala.biocache.util.Projection}.
+ */
+public class PointCountsDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private double[] coordinates;
+    private int[] counts;
+    private int size;
+
+    public PointCountsDTO() {
+        this(1024);
+    }
+
+    public PointCountsDTO(int capacity) {
+        coordinates = new double[capacity * 2];
+        counts = new int[capacity];
+    }
+
+    public void add(double longitude, double latitude, int count) {
+        if (size == counts.length) {
+            int capacity = Math.max(16, size * 2);
+            coordinates = Arrays.copyOf(coordinates, capacity * 2);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        coordinates[size * 2] = longitude;
+        coordinates[size * 2 + 1] = latitude;
+        counts[size] = count;
+        size++;
+    }
+
+    /**
+     * Release unused capacity, e.g. before the points are cached.
+     */
+    public void trimToSize() {
+        if (size < counts.length) {
+            coordinates = Arrays.copyOf(coordinates, size * 2);
+            counts = Arrays.copyOf(counts, size);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return longitude, latitude pairs. Only the first size() pairs are valid.
+     */
+    public double[] getCoordinates() {
+        return coordinates;
+    }
+
+    /**
+     * @return occurrence counts. Only the first size() values are valid.
+     */
+    public int[] getCounts() {
+        return counts;
+    }
+
+    public double getLongitude(int i) {
+        return coordinates[i * 2];
+    }
+
+    public double getLatitude(int i) {
+        return coordinates[i * 2 + 1];
+    }
+
+    public int getCount(int i) {
+        return counts[i];
+    }
+}
@@ -0,0 +1,113 @@
+package au.org.ala.biocache.dto;
+
+import java.io.Serializable;
+
+/**
+ * Occurrence counts of a scatterplot binned into a fixed size 2D histogram, one bin per image pixel.
+ * <p>
+ * Column 0 is the minimum x value and row 0 is the maximum y value, i.e. the same as the image. Bins are int counts,
+ * saturating at Integer.MAX_VALUE, to halve the size of a cached histogram.
+ */
+public class ScatterplotDensityDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double minX;
+    private final double maxX;
+    private final double minY;
+    private final double maxY;
+    private final int width;
+    private final int height;
+    private final int[] counts;
+    private long total;
+
+    public ScatterplotDensityDTO(double minX, double maxX, double minY, double maxY, int width, int height) {
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.width = width;
+        this.height = height;
+        this.counts = new int[width * height];
+    }
+
+    public void add(double x, double y, long count) {
+        int i = row(y) * width + column(x);
+        counts[i] = (int) Math.min(Integer.MAX_VALUE, counts[i] + count);
+        total += count;
+    }
+
+    /**
+     * @return the sum of the counts of the bins within the pixel rectangle, inclusive
+     */
+    public long getCount(int px1, int py1, int px2, int py2) {
+        int c1 = clamp(Math.min(px1, px2), width);
+        int c2 = clamp(Math.max(px1, px2), width);
+        int r1 = clamp(Math.min(py1, py2), height);
+        int r2 = clamp(Math.max(py1, py2), height);
+
+        long sum = 0;
+        for (int row = r1; row <= r2; row++) {
+            for (int col = c1; col <= c2; col++) {
+                sum += counts[row * width + col];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return the x value at the left edge of the pixel column
+     */
+    public double getX(int px) {
+        return minX + px * (maxX - minX) / width;
+    }
+
+    /**
+     * @return the y value at the top edge of the pixel row
+     */
+    public double getY(int py) {
+        return maxY - py * (maxY - minY) / height;
+    }
+
+    public long getMaxCount() {
+        int max = 0;
+        for (int count : counts) {
+            max = Math.max(max, count);
+        }
+        return max;
+    }
+
+    public long getCount(int px, int py) {
+        return counts[py * width + px];
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    private int column(double x) {
+        if (maxX <= minX) {
+            return 0;
+        }
+        return clamp((int) ((x - minX) / (maxX - minX) * width), width);
+    }
+
+    private int row(double y) {
+        if (maxY <= minY) {
+            return 0;
+        }
+        return clamp((int) ((maxY - y) / (maxY - minY) * height), height);
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+}
@@ -16,6 +16,8 @@ package au.org.ala.biocache.dto;
 
 import io.swagger.v3.oas.annotations.media.Schema;
 
+import java.util.Arrays;
+
 /**
  * Group result for a SOLR search
  */
@@ -38,6 +40,10 @@ public class SpeciesCountDTO {
      * age of this index
      */
     private long age = System.currentTimeMillis();
+    /**
+     * running total of counts, sums[i] is the total of counts[0..i-1]
+     */
+    private long[] sums;
 
 
     /**
@@ -47,6 +53,7 @@ public class SpeciesCountDTO {
         this.lft = lft;
         this.counts = counts;
         this.indexVersion = indexVersion;
+        this.sums = sums(counts);
     }
 
     /**
@@ -69,6 +76,7 @@ public class SpeciesCountDTO {
 
     public void setCounts(long[] counts) {
         this.counts = counts;
+        this.sums = sums(counts);
     }
 
     public long getIndexVersion() {
@@ -86,4 +94,38 @@ public class SpeciesCountDTO {
     public void setAge(long age) {
         this.age = age;
     }
+
+    /**
+     * Total count of the lft values in the range left to right, inclusive.
+     *
+     * @param left  minimum lft
+     * @param right maximum lft
+     * @return sum of the counts
+     */
+    public long getCount(long left, long right) {
+        if (lft == null || sums == null || left > right) {
+            return 0;
+        }
+
+        // lft values are unique
+        int from = Arrays.binarySearch(lft, left);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        int to = Arrays.binarySearch(lft, right);
+        to = to < 0 ? -to - 1 : to + 1;
+
+        return sums[to] - sums[from];
+    }
+
+    private static long[] sums(long[] counts) {
+        if (counts == null) {
+            return null;
+        }
+        long[] sums = new long[counts.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            sums[i + 1] = sums[i] + counts[i];
+        }
+        return sums;
+    }
 }
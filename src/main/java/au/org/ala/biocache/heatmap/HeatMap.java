@@ -14,15 +14,18 @@
  ***************************************************************************/
 package au.org.ala.biocache.heatmap;
 
+import au.org.ala.biocache.util.PngEncoder;
 import org.apache.log4j.Logger;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.geom.Ellipse2D;
 import java.awt.image.*;
-import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 
@@ -430,9 +433,8 @@ public class HeatMap {
     }
 
     public void drawLegend(String outfile) {
-        File legOut = new File(outfile);
-        try {
-            ImageIO.write(legendImage, "png", legOut);
+        try (OutputStream legOut = new BufferedOutputStream(new FileOutputStream(outfile))) {
+            PngEncoder.write(legendImage, legOut);
         } catch (Exception e) {
             logger.error("Unable to write legendImage: " + e.getMessage(), e);
         }
@@ -454,8 +456,9 @@ public class HeatMap {
             Graphics2D g = (Graphics2D) backgroundImage.getGraphics();
             g.drawImage(makeColorTransparent(heatmapImage, Color.WHITE), 0, 0, null);
 
-            File hmOut = new File(outputFilePath);
-            ImageIO.write(backgroundImage, "png", hmOut);
+            try (OutputStream hmOut = new BufferedOutputStream(new FileOutputStream(outputFilePath))) {
+                PngEncoder.write(backgroundImage, hmOut);
+            }
 
         } catch (IOException ex) {
             logger.error("An error occurred drawing output to outfile: '"  + outputFilePath
@@ -5,8 +5,12 @@ import au.org.ala.biocache.dto.SpatialSearchRequestDTO;
 import au.org.ala.dataquality.api.QualityServiceRpcApi;
 import au.org.ala.dataquality.model.QualityProfile;
 import com.google.common.annotations.VisibleForTesting;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
@@ -16,6 +20,7 @@ import retrofit2.Call;
 import retrofit2.HttpException;
 import retrofit2.Response;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -23,7 +28,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
@@ -42,10 +46,32 @@ public class DataQualityService {
 
     private final Map<String, Map<String, String>> cache = new ConcurrentHashMap<>();
     private final Map<String, QualityProfile> cacheProfile = new ConcurrentHashMap<>();
+    // canonical fq lists by profile and disabled filter labels
+    private final Map<String, String[]> compiledFilters = new ConcurrentHashMap<>();
 
     @Inject
     private QualityServiceRpcApi qualityServiceRpcApi;
 
+    /**
+     * Metrics of compiled filter reuse. Not required so that the service can be used without a registry.
+     */
+    @Autowired(required = false)
+    protected MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+    // registered again with the injected registry by registerMetrics()
+    private Counter compiledHits = compiledCounter("hit");
+    private Counter compiledMisses = compiledCounter("miss");
+
+    @PostConstruct
+    public void registerMetrics() {
+        compiledHits = compiledCounter("hit");
+        compiledMisses = compiledCounter("miss");
+    }
+
+    private Counter compiledCounter(String result) {
+        return meterRegistry.counter("biocache.filters.compiled", "type", "quality", "result", result);
+    }
+
     /**
      * Whether data quality filters are enabled
      */
@@ -57,6 +83,7 @@ public class DataQualityService {
     public void clearCache() {
         cache.clear();
         cacheProfile.clear();
+        compiledFilters.clear();
     }
 
     /**
@@ -98,16 +125,67 @@ public class DataQualityService {
             return new LinkedHashMap<>();
         }
 
-        Map<String, String> filtersByLabel = cache.get(searchRequestDTO.getQualityProfile());
-        if (filtersByLabel == null) {
-            filtersByLabel = getEnabledFiltersByLabel(searchRequestDTO.getQualityProfile());
-            cache.put(searchRequestDTO.getQualityProfile(), filtersByLabel);
-        }
+        Map<String, String> filtersByLabel = getProfileFiltersByLabel(searchRequestDTO.getQualityProfile());
 
+        // keep the profile order
         return filtersByLabel.entrySet()
                 .stream()
                 .filter((Map.Entry<String, String> entry) -> !searchRequestDTO.getDisableQualityFilter().contains(entry.getKey()))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    /**
+     * Get the fqs of the enabled filters for the search params, as for {@link #getEnabledFiltersByLabel(SearchRequestDTO)}.
+     * <p>
+     * The fqs are compiled once per profile and set of disabled filters. They are trimmed, without duplicates and in
+     * profile order so that every request with the same profile sends identical fq strings and reuses the SOLR
+     * filterCache entries.
+     *
+     * @param searchRequestDTO The search request params
+     * @return The enabled filter queries for this request
+     */
+    public String[] getEnabledFilters(SearchRequestDTO searchRequestDTO) {
+        if (searchRequestDTO.isDisableAllQualityFilters()
+                || !dataQualityEnabled
+                || StringUtils.isBlank(searchRequestDTO.getQualityProfile())) {
+            return new String[0];
+        }
+
+        Map<String, String> filtersByLabel = getProfileFiltersByLabel(searchRequestDTO.getQualityProfile());
+
+        // only disabled labels that are in the profile change the result
+        String disabled = filtersByLabel.keySet().stream()
+                .filter(searchRequestDTO.getDisableQualityFilter()::contains)
+                .sorted()
+                .collect(Collectors.joining(","));
+        String key = searchRequestDTO.getQualityProfile() + "|" + disabled;
+
+        String[] compiled = compiledFilters.get(key);
+        if (compiled == null) {
+            compiledMisses.increment();
+
+            compiled = getEnabledFiltersByLabel(searchRequestDTO).values()
+                    .stream()
+                    .map(StringUtils::trimToEmpty)
+                    .filter(StringUtils::isNotEmpty)
+                    .distinct()
+                    .toArray(String[]::new);
+            compiledFilters.put(key, compiled);
+        } else {
+            compiledHits.increment();
+        }
+
+        // callers may add to or modify the array
+        return compiled.clone();
+    }
+
+    private Map<String, String> getProfileFiltersByLabel(String qualityProfile) {
+        Map<String, String> filtersByLabel = cache.get(qualityProfile);
+        if (filtersByLabel == null) {
+            filtersByLabel = getEnabledFiltersByLabel(qualityProfile);
+            cache.put(qualityProfile, filtersByLabel);
+        }
+        return filtersByLabel;
     }
 
     /**
@@ -229,10 +307,10 @@ public class DataQualityService {
             fqs = new String[0];
         }
         int fqsLength = fqs.length;
-        Collection<String> qualityFilters = this.getEnabledFiltersByLabel(requestParams).values();
+        String[] qualityFilters = this.getEnabledFilters(requestParams);
 
-        fqs = Arrays.copyOf(fqs, fqsLength + qualityFilters.size());
-        System.arraycopy(qualityFilters.toArray(new String[0]), 0, fqs, fqsLength, qualityFilters.size());
+        fqs = Arrays.copyOf(fqs, fqsLength + qualityFilters.length);
+        System.arraycopy(qualityFilters, 0, fqs, fqsLength, qualityFilters.length);
         return fqs;
     }
 }
@@ -0,0 +1,274 @@
+/**************************************************************************
+ *  Copyright (C) 2010 Atlas of Living Australia
+ *  All Rights Reserved.
+ *
+ *  The contents of this file are subject to the Mozilla Public
+ *  License Version 1.1 (the "License"); you may not use this file
+ *  except in compliance with the License. You may obtain a copy of
+ *  the License at http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  rights and limitations under the License.
+ ***************************************************************************/
+package au.org.ala.biocache.service;
+
+import au.org.ala.biocache.dao.IndexDAO;
+import au.org.ala.biocache.dto.HeatmapDTO;
+import au.org.ala.biocache.dto.SpatialSearchRequestDTO;
+import au.org.ala.biocache.util.DensityPyramid;
+import au.org.ala.biocache.util.LegendItem;
+import au.org.ala.biocache.util.QueryFormatUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static au.org.ala.biocache.dto.OccurrenceIndex.spatialFieldWMS;
+
+/**
+ * Serves WMS heatmaps of frequently requested queries from pre-aggregated density pyramids.
+ * <p>
+ * The queries are configured with wms.pyramid.queries. A pyramid is built in the background for each query, from
+ * SOLR facet.heatmap requests at wms.pyramid.gridLevel, and stored in wms.pyramid.dir as [query hash]-[index version].
+ * When the SOLR index version changes the pyramids that are out of date are rebuilt one at a time. The previous
+ * pyramid is served until its replacement is ready.
+ */
+@Component("densityPyramidService")
+public class DensityPyramidService {
+
+    private final static Logger logger = Logger.getLogger(DensityPyramidService.class);
+
+    /**
+     * Number of columns and rows of each SOLR heatmap request when building a pyramid.
+     */
+    private static final int BLOCK_SIZE = 256;
+
+    @Inject
+    protected IndexDAO indexDao;
+
+    @Inject
+    protected QueryFormatUtils queryFormatUtils;
+
+    @Value("${wms.pyramid.enabled:false}")
+    protected Boolean enabled;
+
+    @Value("${wms.pyramid.dir:/data/biocache/pyramid}")
+    protected String pyramidDir;
+
+    /**
+     * Pipe delimited list of queries (q) that have pyramids.
+     */
+    @Value("${wms.pyramid.queries:*:*}")
+    protected String pyramidQueries;
+
+    /**
+     * Finest grid level of the pyramids. Each increment quadruples the build time and the maximum file size.
+     */
+    @Value("${wms.pyramid.gridLevel:11}")
+    protected Integer pyramidGridLevel;
+
+    /**
+     * Pyramids by hash of the formatted query and filter queries
+     */
+    private final Map<String, DensityPyramid> pyramids = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean building = new AtomicBoolean(false);
+
+    /**
+     * Get the heatmap for a formatted query from a pyramid.
+     *
+     * @param query         formatted query
+     * @param filterQueries formatted filter queries
+     * @param gridLevel     SOLR facet.heatmap.gridLevel
+     * @param minx          may be greater than maxx when the extents cross the date line
+     * @param miny
+     * @param maxx
+     * @param maxy
+     * @param legend
+     * @param gridSizeInPixels
+     * @return the heatmap, or null when there is no pyramid for the query or grid level
+     */
+    public HeatmapDTO getHeatMap(String query, String[] filterQueries, int gridLevel, double minx, double miny,
+                                 double maxx, double maxy, List<LegendItem> legend, int gridSizeInPixels) {
+        if (!enabled || pyramids.isEmpty()) {
+            return null;
+        }
+
+        try {
+            DensityPyramid pyramid = pyramids.get(key(query, filterQueries));
+            if (pyramid != null && pyramid.hasGridLevel(gridLevel)) {
+                return pyramid.getHeatmap(gridLevel, minx, miny, maxx, maxy, legend, gridSizeInPixels);
+            }
+        } catch (Exception e) {
+            logger.error("failed to read density pyramid for query: " + query, e);
+        }
+        return null;
+    }
+
+    /**
+     * Build or load the pyramids that do not match the current index version.
+     */
+    @Scheduled(fixedDelayString = "${wms.pyramid.refresh:600000}")
+    public void refresh() {
+        if (!enabled || !building.compareAndSet(false, true)) {
+            return;
+        }
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    long indexVersion = indexDao.getIndexVersion(false);
+                    for (String q : pyramidQueries.split("\\|")) {
+                        if (StringUtils.isNotBlank(q)) {
+                            try {
+                                update(q.trim(), indexVersion);
+                            } catch (Exception e) {
+                                logger.error("failed to build density pyramid for query: " + q, e);
+                            }
+                        }
+                    }
+                } finally {
+                    building.set(false);
+                }
+            }
+        };
+        thread.setName("density-pyramid");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void update(String q, long indexVersion) throws Exception {
+        SpatialSearchRequestDTO params = new SpatialSearchRequestDTO();
+        params.setQ(q);
+        queryFormatUtils.formatSearchQuery(params, true);
+
+        String key = key(params.getFormattedQuery(), params.getFormattedFq());
+        DensityPyramid current = pyramids.get(key);
+        if (current != null && current.getIndexVersion() == indexVersion) {
+            return;
+        }
+
+        File dir = new File(pyramidDir);
+        dir.mkdirs();
+        File file = new File(dir, key + "-" + indexVersion);
+
+        if (!file.exists()) {
+            long start = System.currentTimeMillis();
+
+            File tmp = new File(dir, key + "-" + indexVersion + ".tmp");
+            DensityPyramid.write(tmp, indexVersion, pyramidGridLevel,
+                    counts(params.getFormattedQuery(), params.getFormattedFq(), pyramidGridLevel));
+            if (!tmp.renameTo(file)) {
+                throw new Exception("failed to rename " + tmp.getPath());
+            }
+
+            logger.info("built density pyramid for query: " + q + " in " + (System.currentTimeMillis() - start) + "ms");
+        }
+
+        pyramids.put(key, DensityPyramid.open(file));
+
+        // remove pyramids of previous index versions
+        File[] old = dir.listFiles((d, name) -> name.startsWith(key + "-") && !name.equals(file.getName()));
+        if (old != null) {
+            for (File f : old) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Get the counts of the world at a grid level with SOLR facet.heatmap requests of BLOCK_SIZE x BLOCK_SIZE cells.
+     *
+     * @return 2^gridLevel x 2^gridLevel counts, row major with row 0 at 90 latitude
+     */
+    private int[] counts(String query, String[] filterQueries, int gridLevel) throws Exception {
+        int size = 1 << gridLevel;
+        double cellWidth = 360.0 / size;
+        double cellHeight = 180.0 / size;
+        int block = Math.min(size, BLOCK_SIZE);
+
+        int[] counts = new int[size * size];
+        for (int row = 0; row < size; row += block) {
+            for (int column = 0; column < size; column += block) {
+                double minx = -180 + column * cellWidth;
+                double maxx = -180 + (column + block) * cellWidth;
+                double maxy = 90 - row * cellHeight;
+                double miny = 90 - (row + block) * cellHeight;
+
+                SolrQuery solrQuery = new SolrQuery();
+                solrQuery.setRequestHandler("standard");
+                solrQuery.setQuery(query);
+                solrQuery.setFilterQueries(filterQueries);
+                solrQuery.setRows(0);
+                solrQuery.setFacet(true);
+                solrQuery.setFacetLimit(-1);
+                solrQuery.set("facet.heatmap", spatialFieldWMS);
+                solrQuery.set("facet.heatmap.geom", "[\"" + minx + " " + miny + "\" TO \"" + maxx + " " + maxy + "\"]");
+                solrQuery.set("facet.heatmap.gridLevel", String.valueOf(gridLevel));
+                solrQuery.set("facet.heatmap.maxCells", String.valueOf((block + 2) * (block + 2)));
+
+                QueryResponse qr = indexDao.query(solrQuery);
+
+                SimpleOrderedMap facetHeatMaps = (SimpleOrderedMap)
+                        ((SimpleOrderedMap) qr.getResponse().get("facet_counts")).get("facet_heatmaps");
+                if (facetHeatMaps == null) {
+                    continue;
+                }
+                SimpleOrderedMap heatmap = (SimpleOrderedMap) facetHeatMaps.get(spatialFieldWMS);
+                List<List<Integer>> layer = (List<List<Integer>>) heatmap.get("counts_ints2D");
+                if (layer == null) {
+                    continue;
+                }
+
+                // the returned cells may extend beyond the requested extents
+                int column0 = (int) Math.round(((Double) heatmap.get("minX") + 180) / cellWidth);
+                int row0 = (int) Math.round((90 - (Double) heatmap.get("maxY")) / cellHeight);
+                for (int r = 0; r < layer.size(); r++) {
+                    List<Integer> values = layer.get(r);
+                    int y = row0 + r;
+                    if (values == null || y < 0 || y >= size) {
+                        continue;
+                    }
+                    for (int c = 0; c < values.size(); c++) {
+                        int x = column0 + c;
+                        if (x >= 0 && x < size) {
+                            counts[y * size + x] = values.get(c);
+                        }
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    static String key(String query, String[] filterQueries) throws Exception {
+        StringBuilder sb = new StringBuilder(query == null ? "" : query);
+        if (filterQueries != null) {
+            Arrays.stream(filterQueries).filter(StringUtils::isNotEmpty).sorted().forEach(fq -> sb.append('\n').append(fq));
+        }
+
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
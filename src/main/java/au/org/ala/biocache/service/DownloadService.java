@@ -29,11 +29,16 @@ import au.org.ala.doi.CreateDoiResponse;
 import au.org.ala.ws.security.profile.AlaUserProfile;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
 import org.ala.client.model.LogEventVO;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.velocity.Template;
@@ -42,6 +47,7 @@ import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.RuntimeSingleton;
 import org.json.simple.parser.ParseException;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextClosedEvent;
@@ -251,11 +257,27 @@ public class DownloadService implements ApplicationListener<ContextClosedEvent>
 
     ConcurrentHashMap<String, ThreadPoolExecutor> userExecutors;
 
+    /**
+     * Metrics of downloads. Not required so that the service can be used without a registry.
+     */
+    @Autowired(required = false)
+    protected MeterRegistry meterRegistry = Metrics.globalRegistry;
+
     @PostConstruct
     public void init() throws ParseException {
 
         userExecutors = new ConcurrentHashMap<String, ThreadPoolExecutor>();
 
+        // offline download queues, summed over the user executors so that the number of series is bounded
+        Gauge.builder("biocache.download.queue.size", this, s -> s.sumExecutors(ex -> ex.getQueue().size()))
+                .description("offline downloads waiting in all user queues").register(meterRegistry);
+        Gauge.builder("biocache.download.queue.max", this, s -> s.maxExecutors(ex -> ex.getQueue().size()))
+                .description("offline downloads waiting in the longest user queue").register(meterRegistry);
+        Gauge.builder("biocache.download.active", this, s -> s.sumExecutors(ThreadPoolExecutor::getActiveCount))
+                .description("offline downloads running").register(meterRegistry);
+        Gauge.builder("biocache.download.executors", this, s -> s.userExecutors.size())
+                .description("users with an offline download executor").register(meterRegistry);
+
         // Re-start downloads that did not finish
         new Thread() {
             @Override
@@ -302,6 +324,14 @@ public class DownloadService implements ApplicationListener<ContextClosedEvent>
         }
     }
 
+    private double sumExecutors(java.util.function.ToIntFunction<ThreadPoolExecutor> value) {
+        return userExecutors.values().stream().mapToInt(value).sum();
+    }
+
+    private double maxExecutors(java.util.function.ToIntFunction<ThreadPoolExecutor> value) {
+        return userExecutors.values().stream().mapToInt(value).max().orElse(0);
+    }
+
     private boolean isAuthorisedSystem(DownloadDetailsDTO dd) {
         // TODO: this is required when the deprecated /occurrence/download is removed. Use JWT scope to test for permission.
         return false;
@@ -381,6 +411,38 @@ public class DownloadService implements ApplicationListener<ContextClosedEvent>
                                    ExecutorService parallelExecutor,
                                    List<CreateDoiResponse> doiResponseList)
             throws Exception {
+        CountingOutputStream countingOut = new CountingOutputStream(out);
+        long startRecords = dd.getRecordsDownloaded().get();
+        long start = System.nanoTime();
+        try {
+            writeQueryToCountingStream(dd, countingOut, limit, zip, parallelExecutor, doiResponseList);
+        } finally {
+            recordDownloadMetrics(dd, dd.getRecordsDownloaded().get() - startRecords, countingOut.getByteCount(),
+                    System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Record the rows, bytes and throughput of a download, by download type.
+     */
+    private void recordDownloadMetrics(DownloadDetailsDTO dd, long rows, long bytes, long nanos) {
+        Tags tags = Tags.of("type", dd.getDownloadType() != null ? dd.getDownloadType().name() : "UNKNOWN");
+        double seconds = Math.max(nanos, 1) / 1e9;
+
+        meterRegistry.timer("biocache.download.duration", tags).record(nanos, TimeUnit.NANOSECONDS);
+        meterRegistry.counter("biocache.download.rows", tags).increment(rows);
+        meterRegistry.counter("biocache.download.bytes", tags).increment(bytes);
+        meterRegistry.summary("biocache.download.rows.rate", tags).record(rows / seconds);
+        meterRegistry.summary("biocache.download.bytes.rate", tags).record(bytes / seconds);
+    }
+
+    private void writeQueryToCountingStream(DownloadDetailsDTO dd,
+                                            OutputStream out,
+                                            boolean limit,
+                                            boolean zip,
+                                            ExecutorService parallelExecutor,
+                                            List<CreateDoiResponse> doiResponseList)
+            throws Exception {
         DownloadRequestDTO requestParams = dd.getRequestParams();
         String filename = dd.getRequestParams().getFile();
         String originalParams = dd.getRequestParams().toString();
@@ -641,6 +703,9 @@ public class DownloadService implements ApplicationListener<ContextClosedEvent>
                                    ExecutorService parallelQueryExecutor) throws Exception {
         String filename = requestParams.getFile();
 
+        // a parquet file cannot be combined with the plain text citation and readme entries
+        zip = zip || "parquet".equals(requestParams.getFileType());
+
         response.setHeader("Cache-Control", "must-revalidate");
         response.setHeader("Pragma", "must-revalidate");
 
@@ -1106,12 +1171,17 @@ public class DownloadService implements ApplicationListener<ContextClosedEvent>
     protected class DownloadRunnable implements Runnable {
         public DownloadDetailsDTO currentDownload;
 
+        // System.nanoTime() when queued
+        private final long queued = System.nanoTime();
+
         DownloadRunnable(DownloadDetailsDTO dd) {
             this.currentDownload = dd;
         }
 
         @Override
         public void run() {
+            meterRegistry.timer("biocache.download.queue.wait").record(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+
             if (logger.isInfoEnabled()) {
                 logger.info("Starting to download the offline request: " + currentDownload);
             }
@@ -5,6 +5,7 @@ import au.org.ala.names.ws.client.ALANameUsageMatchServiceClient;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.support.AbstractMessageSource;
 
@@ -30,6 +31,14 @@ public class NameMatchSpeciesLookupService implements SpeciesLookupService {
     @Inject
     private ALANameUsageMatchServiceClient nameUsageMatchService = null;
 
+    /**
+     * Maximum number of guid to name match results held for species details, shared by all downloads.
+     */
+    @Value("${species.details.cache.size:200000}")
+    protected Integer detailsCacheSize = 200000;
+
+    private volatile Map<String, NameUsageMatch> detailsCache;
+
     private String[] baseHeader;
     private String[] countBaseHeader;
     private String[] synonymHeader;
@@ -54,7 +63,6 @@ public class NameMatchSpeciesLookupService implements SpeciesLookupService {
         return nameUsageMatchService.getName(guid, true);
     }
 
-    @Cacheable("namematching")
     @Override
     public List<String[]> getSpeciesDetails(List<String> guids, List<Long> counts, boolean includeCounts, boolean includeSynonyms, boolean includeLists) {
         List<String[]> results = new ArrayList<String[]>(guids.size());
@@ -68,7 +76,7 @@ public class NameMatchSpeciesLookupService implements SpeciesLookupService {
             return g;
         }).collect(Collectors.toList());
 
-        List<NameUsageMatch> matches = nameUsageMatchService.getAll(guidsFiltered, true);
+        List<NameUsageMatch> matches = getMatches(guidsFiltered);
 
         for (int i = 0; i < matches.size(); i++) {
             NameUsageMatch nsr = matches.get(i);
@@ -158,6 +166,64 @@ public class NameMatchSpeciesLookupService implements SpeciesLookupService {
         return results;
     }
 
+    /**
+     * Get the name matches for guids. Only the guids that are not in the details cache are requested.
+     *
+     * @param guids
+     * @return matches in the same order as guids
+     */
+    private List<NameUsageMatch> getMatches(List<String> guids) {
+        Map<String, NameUsageMatch> cache = getDetailsCache();
+
+        NameUsageMatch[] matches = new NameUsageMatch[guids.size()];
+        List<String> missing = new ArrayList<>();
+        List<Integer> missingIdx = new ArrayList<>();
+        synchronized (cache) {
+            for (int i = 0; i < guids.size(); i++) {
+                String guid = guids.get(i);
+                NameUsageMatch match = guid == null ? null : cache.get(guid);
+                if (match != null) {
+                    matches[i] = match;
+                } else {
+                    missing.add(guid);
+                    missingIdx.add(i);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<NameUsageMatch> found = nameUsageMatchService.getAll(missing, true);
+            synchronized (cache) {
+                for (int i = 0; i < missing.size() && i < found.size(); i++) {
+                    NameUsageMatch match = found.get(i);
+                    matches[missingIdx.get(i)] = match;
+                    if (match != null && missing.get(i) != null) {
+                        cache.put(missing.get(i), match);
+                    }
+                }
+            }
+        }
+
+        return Arrays.asList(matches);
+    }
+
+    private Map<String, NameUsageMatch> getDetailsCache() {
+        if (detailsCache == null) {
+            synchronized (this) {
+                if (detailsCache == null) {
+                    int maxSize = Math.max(1, detailsCacheSize);
+                    detailsCache = new LinkedHashMap<String, NameUsageMatch>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String, NameUsageMatch> eldest) {
+                            return size() > maxSize;
+                        }
+                    };
+                }
+            }
+        }
+        return detailsCache;
+    }
+
     @Override
     public String[] getHeaderDetails(String field, boolean includeCounts, boolean includeSynonyms) {
 
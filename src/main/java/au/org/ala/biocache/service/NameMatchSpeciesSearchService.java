@@ -34,38 +34,37 @@ public class NameMatchSpeciesSearchService implements SpeciesSearchService {
     @Inject
     protected OccurrenceUtils occurrenceUtils;
 
+    @Inject
+    protected TaxonAutocompleteService taxonAutocompleteService;
+
     @Override
     public Map search(String query, String[] filterQuery, int max, boolean includeSynonyms, boolean includeAll, boolean includeCounts) {
 
         // TODO: better method of dealing with records with 0 occurrences being removed.
         int maxFind = includeAll ? max : max + 1000;
 
-        List<Map> results = nameUsageMatchService.autocomplete(ClientUtils.escapeQueryChars(query), maxFind, includeSynonyms);
+        // use the local index of taxa in the occurrence index when it is available
+        boolean local = taxonAutocompleteService.isReady();
+        List<Map> results = local ?
+                taxonAutocompleteService.autocomplete(query, maxFind, includeSynonyms) :
+                nameUsageMatchService.autocomplete(ClientUtils.escapeQueryChars(query), maxFind, includeSynonyms);
 
         List<Map> output = new ArrayList();
 
         SpeciesCountDTO countlist = includeCounts ? speciesCountsService.getCounts(filterQuery) : null;
 
-        //sort by rank, then score, then name
-        Collections.sort(results, new Comparator<Map>() {
-            @Override
-            public int compare(Map o1, Map o2) {
-                //exact match is above everything, hopefully
-                int sort = new Double(
-                            (
-                                (Double) o2.get("score") * (10000 - (Integer) o2.get("rankId"))
-                            )
-                        ).compareTo(
-                                (Double) o1.get("score") * (10000 - (Integer) o1.get("rankId")
-                        )
-                );
-
-                if (sort == 0)
-                    return ((String) o1.get("name")).compareTo((String) o2.get("name"));
-                else
-                    return sort;
-            }
-        });
+        if (local) {
+            //sort by score, then rank, then name
+            results.sort(Comparator.comparingDouble((Map m) -> (Double) m.get("score"))
+                    .reversed()
+                    .thenComparingInt(m -> (Integer) m.get("rankId"))
+                    .thenComparing(m -> (String) m.get("name")));
+        } else {
+            //sort by rank, then score, then name
+            results.sort(Comparator.comparingDouble((Map m) -> (Double) m.get("score") * (10000 - (Integer) m.get("rankId")))
+                    .reversed()
+                    .thenComparing(m -> (String) m.get("name")));
+        }
 
         int resultsTotal = 0;
 
@@ -196,7 +195,8 @@ public class NameMatchSpeciesSearchService implements SpeciesSearchService {
         }
         formatted.put("highlight", highlight);
 
-        if (m.get("commonname") == null) {
+        // commonnames is present when the common names are already known
+        if (m.get("commonname") == null && !m.containsKey("commonnames")) {
             Set<String> commonNames = nameUsageMatchService.getCommonNamesForLSID((String) m.get("lsid"), 1000);
             if (!commonNames.isEmpty()) {
                 m.put("commonname", commonNames.iterator().next());
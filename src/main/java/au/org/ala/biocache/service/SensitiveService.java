@@ -14,15 +14,20 @@
  ***************************************************************************/
 package au.org.ala.biocache.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.apache.log4j.Logger;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component("sensitiveService")
 public class SensitiveService {
@@ -52,16 +57,47 @@ public class SensitiveService {
             "}}")
     protected String sensitiveAccessRoles20 = "{}";
 
-    private JSONObject sensitiveAccessRolesToSolrFilters20;
+    /**
+     * Metrics of compiled filter reuse. Not required so that the service can be used without a registry.
+     */
+    @Autowired(required = false)
+    protected MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+    // registered again with the injected registry by init()
+    private Counter compiledHits = compiledCounter("hit");
+    private Counter compiledMisses = compiledCounter("miss");
+
+    // sensitive role to trimmed filter, sorted by role
+    private SortedMap<String, String> sensitiveAccessRolesToSolrFilters20;
+
+    // compiled fq by the sorted sensitive roles of a user
+    private final Map<String, String> compiledFq = new ConcurrentHashMap<>();
 
     @PostConstruct
     public void init() throws ParseException {
         // Simple JSON initialisation, let's follow the default Spring semantics
-        sensitiveAccessRolesToSolrFilters20 = (JSONObject) new JSONParser().parse(sensitiveAccessRoles20);
+        JSONObject json = (JSONObject) new JSONParser().parse(sensitiveAccessRoles20);
+
+        SortedMap<String, String> filters = new TreeMap<>();
+        for (Object role : json.keySet()) {
+            filters.put(role.toString(), json.get(role).toString().trim());
+        }
+        sensitiveAccessRolesToSolrFilters20 = filters;
+        compiledFq.clear();
+
+        compiledHits = compiledCounter("hit");
+        compiledMisses = compiledCounter("miss");
+    }
+
+    private Counter compiledCounter(String result) {
+        return meterRegistry.counter("biocache.filters.compiled", "type", "sensitive", "result", result);
     }
 
     /**
      * Generates the Solr filter to query sensitive data for the user sensitive roles
+     * <p>
+     * The filter is compiled once for each set of sensitive roles. Roles are in sorted order so users with the same
+     * sensitive roles get an identical filter string, and reuse the SOLR filterCache entry.
      *
      * @return A String with a Solr filter
      */
@@ -71,22 +107,35 @@ public class SensitiveService {
             return null;
         }
 
-        List<String> sensitiveRoles = new ArrayList<>(sensitiveAccessRolesToSolrFilters20.keySet());
-        sensitiveRoles.retainAll(userRoles);
-
-        String sensitiveFq = "";
-
-        for (String sensitiveRole : sensitiveRoles) {
-            if (sensitiveFq.length() > 0) {
-                sensitiveFq += " OR ";
+        List<String> sensitiveRoles = new ArrayList<>();
+        for (String role : sensitiveAccessRolesToSolrFilters20.keySet()) {
+            if (userRoles.contains(role)) {
+                sensitiveRoles.add(role);
             }
-            sensitiveFq += "(" + sensitiveAccessRolesToSolrFilters20.get(sensitiveRole) + ")";
         }
 
-        if (sensitiveFq.length() == 0) {
+        if (sensitiveRoles.isEmpty()) {
             return null;
         }
 
+        String key = String.join(",", sensitiveRoles);
+        String sensitiveFq = compiledFq.get(key);
+        if (sensitiveFq == null) {
+            compiledMisses.increment();
+
+            StringBuilder sb = new StringBuilder();
+            for (String sensitiveRole : sensitiveRoles) {
+                if (sb.length() > 0) {
+                    sb.append(" OR ");
+                }
+                sb.append("(").append(sensitiveAccessRolesToSolrFilters20.get(sensitiveRole)).append(")");
+            }
+            sensitiveFq = sb.toString();
+            compiledFq.put(key, sensitiveFq);
+        } else {
+            compiledHits.increment();
+        }
+
         return sensitiveFq;
     }
 }
@@ -16,25 +16,36 @@ package au.org.ala.biocache.service;
 
 import au.org.ala.biocache.dao.IndexDAO;
 import au.org.ala.biocache.dao.SearchDAO;
-import au.org.ala.biocache.dto.*;
-import org.apache.commons.collections.map.LRUMap;
-import org.apache.commons.lang.StringUtils;
+import au.org.ala.biocache.dto.SpatialSearchRequestDTO;
+import au.org.ala.biocache.dto.SpeciesCountDTO;
+import au.org.ala.biocache.stream.ProcessInterface;
 import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.io.Tuple;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
-import java.util.*;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Caches species counts using left/right values and an optional fq term.
+ * <p>
+ * Counts are immutable sorted arrays that are replaced when they are refreshed, so readers do not wait for a
+ * refresh. A refresh is only made when the index version has changed and the counts are older than cacheMinAge.
  *
  * Created by Adam Collins on 21/09/15.
  */
 @Component("SpeciesCountsService")
 public class SpeciesCountsService {
 
+    private static final Logger logger = Logger.getLogger(SpeciesCountsService.class);
+
     /**
      * Fulltext search DAO
      */
@@ -45,7 +56,7 @@ public class SpeciesCountsService {
     protected IndexDAO indexDao;
 
     /**
-     * Refresh cache every 30 minutes.
+     * Refresh outdated counts in the background and return the outdated counts.
      */
     @Value("${species.counts.async.updates:false}")
     protected Boolean asyncUpdates;
@@ -56,20 +67,27 @@ public class SpeciesCountsService {
     @Value("${species.counts.cache.minage:1800000}")
     protected Long cacheMinAge;
 
+    /**
+     * Maximum number of cached filter queries.
+     */
+    @Value("${species.counts.cache.size:100}")
+    protected Integer cacheSize = 100;
+
     /**
      * Permit disabling of cached species counts
      */
     @Value("${autocomplete.species.counts.enabled:true}")
     private Boolean enabled;
 
-    //left and left counts by q, fq, qc
-    final Object cacheLock = new Object();
-    LRUMap cache = new LRUMap();
-    final Object updatelock = new Object();
+    //left and left counts by fq
+    final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
 
-    //record of updates in queue
-    final Object updatingLock = new Object();
-    Map<Integer, Boolean> updatingList = new ConcurrentHashMap<Integer, Boolean>();
+    //background updates are made one at a time
+    private final ExecutorService updateExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "species-counts-update");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * retrieve left + count + index version
@@ -79,55 +97,28 @@ public class SpeciesCountsService {
     public SpeciesCountDTO getCounts(String[] filterQuery) {
         if (!enabled) return null;
 
-        //lft counts for the query
-        SpatialSearchRequestDTO params = new SpatialSearchRequestDTO();
-        StringBuilder fq = new StringBuilder();
-        if (filterQuery == null || filterQuery.length == 0) {
-            params.setQ("*:*");
-            fq.append("*:*");
-        } else {
-            params.setQ(filterQuery[0]);
-            fq.append(filterQuery[0]);
-            if (filterQuery.length > 1) {
-                String[] fqs = Arrays.copyOfRange(filterQuery, 1, filterQuery.length);
-                params.setFacets(fqs);
-                for (String s : fqs) {
-                    fq.append(s);
-                }
-            }
-        }
-        params.setPageSize(0);
-        params.setFacet(true);
-        params.setFacets(new String[]{"lft"});
-        params.setFlimit(-1);
-
-        //hash code
-        int hashCode = fq.toString().hashCode();
-
-        SpeciesCountDTO counts;
-        synchronized (cacheLock) {
-            counts = (SpeciesCountDTO) cache.get(hashCode);
+        String key = cacheKey(filterQuery);
+        CacheEntry entry = cache.get(key);
+        if (entry == null) {
+            evict();
+            entry = cache.computeIfAbsent(key, k -> new CacheEntry());
         }
-
-        //refresh if cache missing and not refreshed recently (cacheMinAge)
-        long indexVersion = indexDao.getIndexVersion(false);
-        if (counts == null || (cacheMinAge + counts.getAge() < System.currentTimeMillis() && indexVersion != counts.getIndexVersion())) {
-            //old counts that need one update scheduled
-            synchronized (updatingLock) {
-                Boolean updating = updatingList.get(hashCode);
-
-                if (updating == null) {
-                    updatingList.put(hashCode, true);
-
-                    if (asyncUpdates){
-                        Thread updateThread = new UpdateThread(this, hashCode, params);
-                        updateThread.start();
-                    } else {
-                        //run synchronously...
-                        UpdateThread updateThread = new UpdateThread(this, hashCode, params);
-                        updateThread.update();
-                        counts = (SpeciesCountDTO) cache.get(hashCode);
-                    }
+        entry.lastAccess = System.currentTimeMillis();
+
+        SpeciesCountDTO counts = entry.counts;
+
+        //refresh if cache missing or not refreshed recently (cacheMinAge) and the index has changed
+        if (counts == null || (cacheMinAge + counts.getAge() < System.currentTimeMillis() &&
+                indexDao.getIndexVersion(false) != counts.getIndexVersion())) {
+
+            //only one update for each fq, other requests use the existing counts
+            if (entry.updating.compareAndSet(false, true)) {
+                CacheEntry updateEntry = entry;
+                if (asyncUpdates) {
+                    updateExecutor.execute(() -> update(updateEntry, filterQuery));
+                } else {
+                    update(updateEntry, filterQuery);
+                    counts = entry.counts;
                 }
             }
         }
@@ -140,111 +131,152 @@ public class SpeciesCountsService {
     }
 
     public long getCount(SpeciesCountDTO counts, long left, long right) {
-        if (counts == null || counts.getLft() == null) {
+        if (counts == null) {
             return 0;
         }
-        long[] lft = counts.getLft();
-        long[] count = counts.getCounts();
-
-        int pos = java.util.Arrays.binarySearch(lft, left);
-        if (pos < 0) {
-            pos = -1 * pos - 1;
-        }
-
-        long sum = 0;
-        while (pos < lft.length && lft[pos] <= right) {
-            sum += count[pos++];
-        }
-        return sum;
+        return counts.getCount(left, right);
     }
 
     public void resetCache() {
-        synchronized (cacheLock) {
-            cache.clear();
-        }
+        cache.clear();
     }
 
-}
+    @PreDestroy
+    public void destroy() {
+        updateExecutor.shutdownNow();
+    }
+
+    private void update(CacheEntry entry, String[] filterQuery) {
+        try {
+            SpatialSearchRequestDTO params = new SpatialSearchRequestDTO();
+            if (filterQuery == null || filterQuery.length == 0) {
+                params.setQ("*:*");
+            } else {
+                params.setQ(filterQuery[0]);
+                if (filterQuery.length > 1) {
+                    params.setFq(Arrays.copyOfRange(filterQuery, 1, filterQuery.length));
+                }
+            }
+            params.setPageSize(0);
+            params.setFacet(true);
+            params.setFacets(new String[]{"lft"});
+            params.setFlimit(-1);
+            params.setFsort("count");
 
-class UpdateThread extends Thread {
+            if (logger.isDebugEnabled()) {
+                logger.debug("updating species counts for query: " + params.toString());
+            }
 
-    private static final Logger logger = Logger.getLogger(UpdateThread.class);
+            long indexVersion = indexDao.getIndexVersion(false);
+            LftCounts lftCounts = new LftCounts();
+            searchDAO.streamingQuery(params, null, lftCounts);
+
+            entry.counts = lftCounts.toSpeciesCounts(indexVersion);
+        } catch (Exception e) {
+            logger.error("Failed to update species counts for : " + Arrays.toString(filterQuery) + " " + e.getMessage(), e);
+        } finally {
+            entry.updating.set(false);
+        }
+    }
 
-    SpeciesCountsService speciesCountsService;
-    int hashCode;
-    SpatialSearchRequestDTO params;
+    /**
+     * Remove the least recently used entry when the cache is full.
+     */
+    private void evict() {
+        while (cache.size() >= cacheSize) {
+            String oldest = null;
+            long oldestAccess = Long.MAX_VALUE;
+            for (Map.Entry<String, CacheEntry> e : cache.entrySet()) {
+                if (e.getValue().lastAccess < oldestAccess) {
+                    oldestAccess = e.getValue().lastAccess;
+                    oldest = e.getKey();
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            cache.remove(oldest);
+        }
+    }
 
-    public UpdateThread(SpeciesCountsService speciesCountsService, int hashCode, SpatialSearchRequestDTO params) {
-        this.speciesCountsService = speciesCountsService;
-        this.hashCode = hashCode;
-        this.params = params;
+    /**
+     * The q and fq terms, length prefixed so that different terms cannot have the same key.
+     */
+    static String cacheKey(String[] filterQuery) {
+        if (filterQuery == null || filterQuery.length == 0) {
+            return "*:*";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String fq : filterQuery) {
+            String term = fq == null ? "" : fq;
+            sb.append(term.length()).append(':').append(term);
+        }
+        return sb.toString();
     }
 
-    @Override
-    public void run() {
-        update();
+    static class CacheEntry {
+        volatile SpeciesCountDTO counts;
+        volatile long lastAccess = System.currentTimeMillis();
+        final AtomicBoolean updating = new AtomicBoolean(false);
     }
 
-    public void update() {
-        synchronized (speciesCountsService.updatelock) {
-            //check if another has already updated this query
-            synchronized (speciesCountsService.cacheLock) {
-                if (speciesCountsService.cache.get(hashCode) != null) {
-                    //remove this from the update list
-                    synchronized (speciesCountsService.updatingLock) {
-                        speciesCountsService.updatingList.remove(hashCode);
-                    }
-                    return;
+    /**
+     * Collects the streamed lft facet into primitive arrays.
+     */
+    static class LftCounts implements ProcessInterface {
+        long[] lft = new long[1024];
+        long[] counts = new long[1024];
+        int size = 0;
+
+        @Override
+        public boolean process(Tuple tuple) {
+            Object left = null;
+            Object count = null;
+            for (Object o : tuple.getMap().entrySet()) {
+                Map.Entry e = (Map.Entry) o;
+                if ("count(*)".equals(e.getKey())) {
+                    count = e.getValue();
+                } else {
+                    left = e.getValue();
                 }
             }
 
-            //not found, update now
             try {
-                logger.debug("updating species counts for query: " + params.toString());
-                SearchResultDTO qr = speciesCountsService.searchDAO.findByFulltextSpatialQuery(params, false, null);
-
-                //get lft and count
-                Map<Long, Long> map = new HashMap<Long, Long>();
-                for (FacetResultDTO fr : qr.getFacetResults()) {
-                    for (FieldResultDTO r : fr.getFieldResult()) {
-                        if (StringUtils.isNotEmpty(r.getLabel())) {
-                            try {
-                                map.put(Long.parseLong(r.getLabel()), r.getCount());
-                            } catch (NumberFormatException e){
-                                //for non numeric
-                            }
-                        }
-                    }
-                }
+                if (left != null && count != null && !"".equals(left)) {
+                    long l = left instanceof Number ? ((Number) left).longValue() : Long.parseLong(left.toString());
 
-                //sort keys
-                long[] left = new long[map.size()];
-                List<Long> keys = new ArrayList<Long>(map.keySet());
-                for (int i = 0; i < left.length; i++) {
-                    left[i] = keys.get(i);
-                }
-                java.util.Arrays.sort(left);
-
-                //get sorted values
-                long[] leftCount = new long[map.size()];
-                for (int i = 0; i < leftCount.length; i++) {
-                    leftCount[i] = map.get(left[i]);
+                    if (size == lft.length) {
+                        lft = Arrays.copyOf(lft, size * 2);
+                        counts = Arrays.copyOf(counts, size * 2);
+                    }
+                    lft[size] = l;
+                    counts[size] = ((Number) count).longValue();
+                    size++;
                 }
+            } catch (NumberFormatException e) {
+                //for non numeric
+            }
+            return true;
+        }
 
-                SpeciesCountDTO counts = new SpeciesCountDTO(left, leftCount, speciesCountsService.indexDao.getIndexVersion(false));
+        @Override
+        public boolean flush() {
+            return true;
+        }
 
-                //store in map
-                synchronized (speciesCountsService.cacheLock) {
-                    speciesCountsService.cache.put(hashCode, counts);
-                }
+        /**
+         * @return counts sorted by lft
+         */
+        SpeciesCountDTO toSpeciesCounts(long indexVersion) {
+            long[] sortedLft = Arrays.copyOf(lft, size);
+            Arrays.sort(sortedLft);
 
-            } catch (Exception e) {
-                logger.error("Failed to update species counts for : " + params.toString() + " " + e.getMessage(), e);
+            long[] sortedCounts = new long[size];
+            for (int i = 0; i < size; i++) {
+                sortedCounts[Arrays.binarySearch(sortedLft, lft[i])] += counts[i];
             }
-        }
-        //remove this from the update list
-        synchronized (speciesCountsService.updatingLock) {
-            speciesCountsService.updatingList.remove(hashCode);
+
+            return new SpeciesCountDTO(sortedLft, sortedCounts, indexVersion);
         }
     }
-}
\ No newline at end of file
+}
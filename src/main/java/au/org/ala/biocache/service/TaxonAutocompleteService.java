@@ -0,0 +1,300 @@
+package au.org.ala.biocache.service;
+
+import au.org.ala.biocache.dao.IndexDAO;
+import au.org.ala.biocache.stream.ProcessInterface;
+import au.org.ala.biocache.util.TaxonNameIndex;
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.names.ws.client.ALANameUsageMatchServiceClient;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static au.org.ala.biocache.dto.OccurrenceIndex.*;
+
+/**
+ * Local autocomplete of taxon names, vernacular names and synonyms of the taxa in the occurrence index.
+ * <p>
+ * The taxa are the distinct taxon and classification LSIDs in the index. Their details (name, rank, nested set
+ * values, classification and vernacular name) are resolved once with the name matching service. Synonyms are the
+ * distinct raw scientific names, used by at least autocomplete.index.synonyms.minCount records, that differ from the
+ * accepted name. The index is rebuilt in the background when the index version changes.
+ * <p>
+ * Search results have the same structure as ALANameUsageMatchServiceClient.autocomplete so that they can be used
+ * in its place.
+ */
+@Component("taxonAutocompleteService")
+public class TaxonAutocompleteService {
+
+    private final static Logger logger = Logger.getLogger(TaxonAutocompleteService.class);
+
+    private static final String[] TAXON_ID_FIELDS = {TAXON_CONCEPT_ID, "kingdomID", "phylumID", "classID", "orderID",
+            "familyID", "genusID", "speciesID"};
+
+    private static final String RAW_SCIENTIFIC_NAME = "raw_scientificName";
+
+    @Inject
+    protected IndexDAO indexDao;
+
+    @Inject
+    private ALANameUsageMatchServiceClient nameUsageMatchService;
+
+    @Value("${autocomplete.index.enabled:false}")
+    protected Boolean enabled;
+
+    /**
+     * Number of LSIDs in each name matching request when building the index. The LSIDs are sent in the request URI,
+     * 30 is the batch size used by species downloads.
+     */
+    @Value("${autocomplete.index.batchSize:30}")
+    protected Integer batchSize;
+
+    @Value("${autocomplete.index.synonyms.minCount:5}")
+    protected Integer synonymMinCount;
+
+    private volatile TaxonNameIndex index;
+    private volatile long indexVersion = -1;
+
+    private final AtomicBoolean building = new AtomicBoolean(false);
+
+    /**
+     * @return true when the local index can be searched
+     */
+    public boolean isReady() {
+        return enabled && index != null;
+    }
+
+    /**
+     * Search the local index.
+     *
+     * @param query           search term
+     * @param max             maximum number of results
+     * @param includeSynonyms include synonym matches
+     * @return results in the ALANameUsageMatchServiceClient.autocomplete format, best first
+     */
+    public List<Map> autocomplete(String query, int max, boolean includeSynonyms) {
+        TaxonNameIndex idx = index;
+        List<Map> results = new ArrayList<>();
+        if (idx == null) {
+            return results;
+        }
+
+        for (TaxonNameIndex.Match match : idx.search(query, max, includeSynonyms)) {
+            TaxonDetails details = (TaxonDetails) idx.getValue(match.taxon);
+
+            Map m = new HashMap();
+            m.put("lsid", idx.getLsid(match.taxon));
+            m.put("name", idx.getName(match.taxon));
+            m.put("score", (double) match.score);
+            m.put("rankId", idx.getRankId(match.taxon));
+            m.put("rank", details.rank);
+            m.put("left", details.left);
+            m.put("right", details.right);
+            m.put("cl", details.classification);
+
+            // commonnames is set so that a missing common name is not looked up
+            m.put("commonname", details.commonName);
+            m.put("commonnames", details.commonName != null ? Collections.singleton(details.commonName) : Collections.emptySet());
+
+            List<Map> synonymMatch = new ArrayList<>();
+            if (match.match == TaxonNameIndex.MATCH_SYNONYM) {
+                m.put("match", "synonym");
+                Map synonym = new HashMap();
+                synonym.put("match", "scientificName");
+                synonym.put("name", match.label);
+                synonymMatch.add(synonym);
+            } else {
+                m.put("match", match.match == TaxonNameIndex.MATCH_VERNACULAR_NAME ? "vernacularName" : "scientificName");
+            }
+            m.put("synonymMatch", synonymMatch);
+
+            results.add(m);
+        }
+        return results;
+    }
+
+    /**
+     * Rebuild the index when the index version has changed.
+     */
+    @Scheduled(fixedDelayString = "${autocomplete.index.refresh:600000}")
+    public void refresh() {
+        if (!enabled || !building.compareAndSet(false, true)) {
+            return;
+        }
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    long version = indexDao.getIndexVersion(false);
+                    if (version != indexVersion) {
+                        long start = System.currentTimeMillis();
+                        index = build();
+                        indexVersion = version;
+                        logger.info("built taxon autocomplete index of " + index.size() + " taxa in "
+                                + (System.currentTimeMillis() - start) + "ms");
+                    }
+                } catch (Exception e) {
+                    logger.error("failed to build taxon autocomplete index", e);
+                } finally {
+                    building.set(false);
+                }
+            }
+        };
+        thread.setName("taxon-autocomplete-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Look up a batch of LSIDs. A batch that fails is split in half and looked up again, down to single LSIDs, so a
+     * failing request does not stop the index build.
+     *
+     * @return the matches in the order of the LSIDs, null for an LSID that could not be looked up
+     */
+    private List<NameUsageMatch> getAll(List<String> lsids) {
+        try {
+            return nameUsageMatchService.getAll(lsids, true);
+        } catch (Exception e) {
+            if (lsids.size() == 1) {
+                logger.warn("failed to look up " + lsids.get(0) + " for the taxon autocomplete index: " + e.getMessage());
+                return Collections.singletonList(null);
+            }
+
+            logger.warn("failed to look up " + lsids.size() + " LSIDs for the taxon autocomplete index, retrying in smaller batches: " + e.getMessage());
+            int half = lsids.size() / 2;
+            List<NameUsageMatch> matches = new ArrayList<>(lsids.size());
+            matches.addAll(getAll(lsids.subList(0, half)));
+            matches.addAll(getAll(lsids.subList(half, lsids.size())));
+            return matches;
+        }
+    }
+
+    private TaxonNameIndex build() throws Exception {
+        // distinct taxa and the largest record count of each, which includes child taxa for classification fields
+        Map<String, Long> counts = new HashMap<>();
+        facet(TAXON_ID_FIELDS, tuple -> {
+            String lsid = null;
+            long count = 0;
+            for (Object value : tuple.getMap().values()) {
+                if (value instanceof String) {
+                    lsid = (String) value;
+                } else if (value instanceof Number) {
+                    count = ((Number) value).longValue();
+                }
+            }
+            if (StringUtils.isNotEmpty(lsid)) {
+                counts.merge(lsid, count, Math::max);
+            }
+        });
+
+        TaxonNameIndex.Builder builder = new TaxonNameIndex.Builder();
+        Map<String, Integer> taxa = new HashMap<>();
+        Map<String, String> names = new HashMap<>();
+
+        List<String> lsids = new ArrayList<>(counts.keySet());
+        for (int i = 0; i < lsids.size(); i += batchSize) {
+            List<String> batch = lsids.subList(i, Math.min(lsids.size(), i + batchSize));
+            List<NameUsageMatch> matches = getAll(batch);
+            for (int j = 0; j < batch.size() && j < matches.size(); j++) {
+                NameUsageMatch nsr = matches.get(j);
+                if (nsr == null || !nsr.isSuccess() || nsr.getLft() == null || nsr.getRgt() == null) {
+                    continue;
+                }
+                String lsid = batch.get(j);
+
+                TaxonDetails details = new TaxonDetails();
+                details.rank = nsr.getRank();
+                details.left = String.valueOf(nsr.getLft());
+                details.right = String.valueOf(nsr.getRgt());
+                details.commonName = StringUtils.trimToNull(nsr.getVernacularName());
+                details.classification = classification(nsr);
+
+                int rankId = nsr.getRankID() != null ? nsr.getRankID() : 10000;
+                int taxon = builder.addTaxon(lsid, nsr.getScientificName(), rankId, counts.get(lsid), details);
+                if (details.commonName != null) {
+                    builder.addName(taxon, details.commonName, TaxonNameIndex.MATCH_VERNACULAR_NAME);
+                }
+                taxa.put(lsid, taxon);
+                names.put(lsid, TaxonNameIndex.normalise(nsr.getScientificName()));
+            }
+        }
+
+        // raw scientific names that differ from the accepted name
+        facet(new String[]{RAW_SCIENTIFIC_NAME + "," + TAXON_CONCEPT_ID}, tuple -> {
+            String name = tuple.getString(RAW_SCIENTIFIC_NAME);
+            String lsid = tuple.getString(TAXON_CONCEPT_ID);
+            Long count = tuple.getLong("count(*)");
+            Integer taxon = lsid != null ? taxa.get(lsid) : null;
+            if (taxon != null && StringUtils.isNotEmpty(name) && count != null && count >= synonymMinCount
+                    && !TaxonNameIndex.normalise(name).equals(names.get(lsid))) {
+                builder.addName(taxon, name, TaxonNameIndex.MATCH_SYNONYM);
+            }
+        });
+
+        return builder.build();
+    }
+
+    /**
+     * Stream the unfiltered facet buckets of each field.
+     */
+    private void facet(String[] fields, java.util.function.Consumer<Tuple> consumer) throws Exception {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery("*:*");
+        solrQuery.setRows(0);
+        solrQuery.setFacet(true);
+        solrQuery.addFacetField(fields);
+        solrQuery.setFacetLimit(-1);
+        solrQuery.setFacetSort("count");
+
+        indexDao.streamingQuery(solrQuery, null, new ProcessInterface() {
+            @Override
+            public boolean process(Tuple tuple) {
+                consumer.accept(tuple);
+                return true;
+            }
+
+            @Override
+            public boolean flush() {
+                return true;
+            }
+        }, null);
+    }
+
+    /**
+     * @return classification in the ALANameUsageMatchServiceClient.autocomplete "cl" format
+     */
+    private Map<String, String> classification(NameUsageMatch nsr) {
+        Map<String, String> cl = new HashMap<>();
+        cl.put("kid", nsr.getKingdomID());
+        cl.put("pid", nsr.getPhylumID());
+        cl.put("cid", nsr.getClassID());
+        cl.put("oid", nsr.getOrderID());
+        cl.put("fid", nsr.getFamilyID());
+        cl.put("gid", nsr.getGenusID());
+        cl.put("sid", nsr.getSpeciesID());
+        cl.put("kingdom", nsr.getKingdom());
+        cl.put("phylum", nsr.getPhylum());
+        cl.put("klass", nsr.getClasss());
+        cl.put("order", nsr.getOrder());
+        cl.put("family", nsr.getFamily());
+        cl.put("genus", nsr.getGenus());
+        cl.put("authorship", nsr.getScientificNameAuthorship());
+        return Collections.unmodifiableMap(cl);
+    }
+
+    private static class TaxonDetails {
+        String rank;
+        String left;
+        String right;
+        String commonName;
+        Map<String, String> classification;
+    }
+}
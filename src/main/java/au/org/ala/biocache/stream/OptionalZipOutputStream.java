@@ -26,6 +26,9 @@ public class OptionalZipOutputStream extends OutputStream {
     private int splitCount;
     private Integer maxMB;
 
+    // next split entry, it is added when something is written to it so there is no empty last entry
+    private String pendingEntry;
+
     /**
      * Determine when a file has reached the maxMB.
      *
@@ -48,7 +51,7 @@ public class OptionalZipOutputStream extends OutputStream {
 
                 splitCount++;
                 String[] parts = currentEntry.split("\\.(?=[^\\.]+$)");
-                zop.putNextEntry(new java.util.zip.ZipEntry(parts[0] + "_part" + splitCount + "." + parts[1]));
+                pendingEntry = parts[0] + "_part" + splitCount + "." + parts[1];
                 isNewFile = true;
             }
         }
@@ -69,6 +72,7 @@ public class OptionalZipOutputStream extends OutputStream {
         currentEntry = name;
         currentEntryLength = 0;
         splitCount = 1;
+        pendingEntry = null;
 
         if (type == Type.zipped) {
             zop.putNextEntry(new java.util.zip.ZipEntry(name));
@@ -80,15 +84,24 @@ public class OptionalZipOutputStream extends OutputStream {
 
     public void closeEntry() throws IOException {
         if (type == Type.zipped) {
+            pendingEntry = null;
             zop.closeEntry();
         } else {
             out.write("\n".getBytes(StandardCharsets.UTF_8));
         }
     }
 
+    private void startPendingEntry() throws IOException {
+        if (pendingEntry != null) {
+            zop.putNextEntry(new java.util.zip.ZipEntry(pendingEntry));
+            pendingEntry = null;
+        }
+    }
+
     @Override
     public void write(int b) throws IOException {
         if (type == Type.zipped) {
+            startPendingEntry();
             zop.write(b);
         } else {
             out.write(b);
@@ -98,12 +111,23 @@ public class OptionalZipOutputStream extends OutputStream {
     @Override
     public void write(byte [] b) throws IOException {
         if (type == Type.zipped) {
+            startPendingEntry();
             zop.write(b);
         } else {
             out.write(b);
         }
     }
 
+    @Override
+    public void write(byte [] b, int off, int len) throws IOException {
+        if (type == Type.zipped) {
+            startPendingEntry();
+            zop.write(b, off, len);
+        } else {
+            out.write(b, off, len);
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (type == Type.zipped) {
@@ -0,0 +1,64 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dto.PointCountsDTO;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.io.Tuple;
+
+/**
+ * Collects streamed point-* facet buckets ("latitude,longitude" and count) into a {@link PointCountsDTO}.
+ * <p>
+ * Longitudes outside of minx to maxx are shifted by 360 degrees so that points across the date line are
+ * returned in the coordinate space of the requested extents.
+ */
+public class PointFacet implements ProcessInterface {
+
+    private final static Logger logger = Logger.getLogger(PointFacet.class);
+
+    PointCountsDTO points;
+    double minx;
+    double maxx;
+
+    public PointFacet(PointCountsDTO points, double minx, double maxx) {
+        this.points = points;
+        this.minx = minx;
+        this.maxx = maxx;
+    }
+
+    public boolean process(Tuple tuple) {
+        String name = null;
+        long count = 0;
+        for (Object value : tuple.getMap().values()) {
+            if (value instanceof String) {
+                name = (String) value;
+            } else if (value instanceof Number) {
+                count = ((Number) value).longValue();
+            }
+        }
+
+        if (name != null && count > 0) {
+            int p = name.indexOf(',');
+            if (p > 0) {
+                try {
+                    double lat = Double.parseDouble(name.substring(0, p));
+                    double lng = Double.parseDouble(name.substring(p + 1));
+
+                    if (lng < minx) {
+                        lng += 360;
+                    } else if (lng > maxx) {
+                        lng -= 360;
+                    }
+
+                    points.add(lng, lat, (int) Math.min(count, Integer.MAX_VALUE));
+                } catch (NumberFormatException e) {
+                    logger.debug("invalid point facet value: " + name);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    public boolean flush() {
+        return true;
+    }
+}
@@ -0,0 +1,62 @@
+package au.org.ala.biocache.stream;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.io.Tuple;
+
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Passes each (value, count) pair of a facet or endemic facet stream to a consumer as it is read.
+ * <p>
+ * Values with a count of 0 are skipped.
+ */
+public class ProcessFacetValues implements ProcessInterface {
+
+    private final static Logger logger = Logger.getLogger(ProcessFacetValues.class);
+
+    static final String COUNT = "count(*)";
+
+    // the subset count of an endemic facet tuple
+    static final String ENDEMIC_COUNT = "count1";
+
+    final ObjLongConsumer<String> consumer;
+
+    public ProcessFacetValues(ObjLongConsumer<String> consumer) {
+        this.consumer = consumer;
+    }
+
+    public boolean process(Tuple tuple) {
+        if (tuple == null) {
+            return true;
+        }
+
+        // the bucket field name is translated, so take the value from the only field that is not a count
+        String value = null;
+        Object count = null;
+        for (Object entry : tuple.getMap().entrySet()) {
+            Map.Entry e = (Map.Entry) entry;
+            if (COUNT.equals(e.getKey())) {
+                count = e.getValue();
+            } else if (!ENDEMIC_COUNT.equals(e.getKey()) && e.getValue() != null) {
+                value = e.getValue().toString();
+            }
+        }
+
+        if (!(count instanceof Number)) {
+            logger.warn("Facet tuple without a count: " + tuple.getMap());
+            return false;
+        }
+
+        long n = ((Number) count).longValue();
+        if (n > 0) {
+            consumer.accept(value, n);
+        }
+
+        return true;
+    }
+
+    public boolean flush() {
+        return true;
+    }
+}
@@ -0,0 +1,37 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dto.ScatterplotDensityDTO;
+import org.apache.solr.client.solrj.io.Tuple;
+
+/**
+ * Bins streamed x, y facet buckets into a {@link ScatterplotDensityDTO} as they are read.
+ */
+public class ScatterplotDensity implements ProcessInterface {
+
+    ScatterplotDensityDTO density;
+    String x;
+    String y;
+
+    public ScatterplotDensity(ScatterplotDensityDTO density, String x, String y) {
+        this.density = density;
+        this.x = x;
+        this.y = y;
+    }
+
+    public boolean process(Tuple tuple) {
+        if (tuple != null) {
+            Double a = tuple.getDouble(x);
+            Double b = tuple.getDouble(y);
+            if (a != null && b != null) {
+                Long count = tuple.getLong("count(*)");
+                density.add(a, b, count != null ? count : 1);
+            }
+        }
+
+        return true;
+    }
+
+    public boolean flush() {
+        return true;
+    }
+}
@@ -0,0 +1,143 @@
+package au.org.ala.biocache.stream;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.io.Tuple;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes streamed coordinate facet buckets as "latitude,longitude" CSV lines.
+ * <p>
+ * Without a precision each bucket of the "lat_long" facet is written as it is read.
+ * <p>
+ * With a precision the buckets are nested latitude, longitude facets in ascending latitude order. The coordinates
+ * are rounded to the precision and duplicates are removed. Only the longitudes of the current rounded latitude are
+ * held to find duplicates, so memory is bounded by the precision and not by the number of coordinates.
+ * <p>
+ * The header is written with the first line, nothing is written when there are no coordinates.
+ */
+public class StreamCoordinates implements ProcessInterface {
+
+    private final static Logger logger = Logger.getLogger(StreamCoordinates.class);
+
+    private static final byte[] HEADER = "latitude,longitude\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte NEWLINE = '\n';
+
+    final OutputStream out;
+    final String latLngField;
+    final String latitudeField;
+    final String longitudeField;
+    final double scale;
+
+    // rounded longitudes already written for the current rounded latitude
+    final Set<Double> bandLongitudes = new HashSet<>();
+    double bandLatitude = Double.NaN;
+
+    boolean started = false;
+    long lineCount = 0;
+
+    /**
+     * Write each "lat_long" facet value.
+     *
+     * @param out         output, it is not closed
+     * @param latLngField the SOLR field name of the "lat_long" facet
+     */
+    public StreamCoordinates(OutputStream out, String latLngField) {
+        this.out = out;
+        this.latLngField = latLngField;
+        this.latitudeField = null;
+        this.longitudeField = null;
+        this.scale = 0;
+    }
+
+    /**
+     * Write distinct coordinates rounded to a number of decimal places.
+     *
+     * @param out            output, it is not closed
+     * @param latitudeField  the SOLR field name of the outer facet bucket
+     * @param longitudeField the SOLR field name of the inner facet bucket
+     * @param precision      number of decimal places
+     */
+    public StreamCoordinates(OutputStream out, String latitudeField, String longitudeField, int precision) {
+        this.out = out;
+        this.latLngField = null;
+        this.latitudeField = latitudeField;
+        this.longitudeField = longitudeField;
+        this.scale = Math.pow(10, precision);
+    }
+
+    public boolean process(Tuple tuple) {
+        try {
+            if (latLngField != null) {
+                String value = tuple.getString(latLngField);
+                if (value != null && !value.isEmpty()) {
+                    writeLine(value);
+                }
+            } else {
+                Double latitude = tuple.getDouble(latitudeField);
+                Double longitude = tuple.getDouble(longitudeField);
+                if (latitude != null && longitude != null) {
+                    double lat = round(latitude);
+                    double lng = round(longitude);
+
+                    // latitudes are sorted, so a rounded latitude is never seen again after it changes
+                    if (lat != bandLatitude) {
+                        bandLatitude = lat;
+                        bandLongitudes.clear();
+                    }
+                    if (bandLongitudes.add(lng)) {
+                        writeLine(format(lat) + "," + format(lng));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // stop reading the stream, e.g. when the client has disconnected
+            throw new UncheckedIOException(e);
+        }
+
+        return true;
+    }
+
+    public boolean flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("wrote " + lineCount + " coordinates");
+        }
+
+        return true;
+    }
+
+    private double round(double value) {
+        // + 0.0 so that -0.0 is written as 0.0
+        return Math.round(value * scale) / scale + 0.0;
+    }
+
+    /**
+     * Double.toString without scientific notation, which it uses for values below 0.001.
+     */
+    static String format(double value) {
+        String s = Double.toString(value);
+        return s.indexOf('E') < 0 ? s : BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    private void writeLine(String value) throws IOException {
+        if (!started) {
+            started = true;
+            out.write(HEADER);
+        }
+        out.write(value.getBytes(StandardCharsets.UTF_8));
+        out.write(NEWLINE);
+        lineCount++;
+    }
+}
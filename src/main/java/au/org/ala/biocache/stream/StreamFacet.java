@@ -12,8 +12,6 @@ import org.apache.solr.client.solrj.io.Tuple;
 import org.bouncycastle.util.Arrays;
 
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
 
 public class StreamFacet implements ProcessInterface {
 
@@ -34,8 +32,7 @@ public class StreamFacet implements ProcessInterface {
 
     CSVRecordWriter writer;
     boolean shouldLookupAttribution;
-    List<String> guids = null;
-    List<Long> counts = null;
+    TaxonDetailsWriter taxonDetailsWriter = null;
 
     long missingCount;
 
@@ -83,8 +80,7 @@ public class StreamFacet implements ProcessInterface {
         this.writer.initialise();
 
         if (shouldLookupTaxon) {
-            guids = new ArrayList<String>();
-            counts = new ArrayList<Long>();
+            taxonDetailsWriter = searchDAO.getTaxonDetailsWriter(includeCount, includeSynonyms, includeLists, writer);
         }
     }
 
@@ -101,22 +97,8 @@ public class StreamFacet implements ProcessInterface {
 
         try {
             //process the "species_guid_ facet by looking up the list of guids
-            if (guids != null) {
-                guids.add(name);
-                if (includeCount) {
-                    counts.add(count);
-                }
-
-                //Only want to send a sub set of the list so that the URI is not too long for BIE
-                if (guids.size() == 30) {
-                   try {
-                       searchDAO.writeTaxonDetailsToStream(guids, counts, includeCount, includeSynonyms, includeLists, writer);
-                   } catch (Exception e) {
-                       logger.error("failed to write taxon details to stream: " + e.getMessage(), e);
-                   }
-                    guids.clear();
-                    counts.clear();
-                }
+            if (taxonDetailsWriter != null) {
+                taxonDetailsWriter.add(name, count);
             } else {
                 if (shouldLookupAttribution) {
                     writer.write(includeCount ? new String[]{name,
@@ -138,17 +120,12 @@ public class StreamFacet implements ProcessInterface {
 
     public boolean flush() {
         // Finish guids batch and add missingCount
-        if (guids != null) {
+        if (taxonDetailsWriter != null) {
             if (missingCount > 0) {
-                guids.add("");
-                counts.add(missingCount);
-            }
-            try {
-                //now write any guids that remain at the end of the looping
-                searchDAO.writeTaxonDetailsToStream(guids, counts, includeCount, includeSynonyms, includeLists, writer);
-            } catch (Exception e) {
-                logger.error(e);
+                taxonDetailsWriter.add("", missingCount);
             }
+            //now write any guids that remain at the end of the looping
+            taxonDetailsWriter.flush();
         } else if (missingCount > 0) {
             writer.write(includeCount ? new String[]{"", Long.toString(missingCount)} : new String[]{""});
         }
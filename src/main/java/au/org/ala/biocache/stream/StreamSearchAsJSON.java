@@ -0,0 +1,143 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dao.SearchDAOImpl;
+import au.org.ala.biocache.dto.OccurrenceIndex;
+import au.org.ala.biocache.dto.SearchResultDTO;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.StreamingResponseCallback;
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.common.SolrDocument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a SearchResultDTO as JSON while the SOLR response is read.
+ * <p>
+ * The properties known before the query, and the record counts, are written first. Each occurrence is written
+ * when it is read. The remaining properties, e.g. facets, are written by finish(SearchResultDTO) when the
+ * response is complete. The properties are the same as a serialised SearchResultDTO, only the order differs.
+ */
+public class StreamSearchAsJSON extends StreamingResponseCallback {
+
+    private final static Logger logger = Logger.getLogger(StreamSearchAsJSON.class);
+
+    private static final String OCCURRENCES = "occurrences";
+
+    final SearchDAOImpl searchDAO;
+    final SearchResultDTO searchResult;
+    final Class resultClass;
+    final ObjectMapper objectMapper;
+    final DocumentObjectBinder binder = new DocumentObjectBinder();
+    final JsonGenerator jsonGenerator;
+
+    // properties that have been written
+    final Set<String> written = new HashSet<>();
+    boolean started = false;
+    long recordCount = 0;
+
+    /**
+     * @param searchDAO    for the image URLs
+     * @param searchResult the properties that are known before the query
+     * @param resultClass  OccurrenceIndex or SensitiveOccurrenceIndex
+     * @param objectMapper JSON serialisation
+     * @param outputStream output, it is not closed
+     */
+    public StreamSearchAsJSON(SearchDAOImpl searchDAO, SearchResultDTO searchResult, Class resultClass,
+                              ObjectMapper objectMapper, OutputStream outputStream) throws IOException {
+        this.searchDAO = searchDAO;
+        this.searchResult = searchResult;
+        this.resultClass = resultClass;
+        this.objectMapper = objectMapper;
+
+        jsonGenerator = objectMapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+        jsonGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    @Override
+    public void streamDocListInfo(long numFound, long start, Float maxScore) {
+        searchResult.setTotalRecords(numFound);
+        searchResult.setStartIndex(start);
+
+        try {
+            start(searchResult);
+
+            // the first bytes are sent before the first occurrence is read
+            jsonGenerator.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void streamSolrDocument(SolrDocument doc) {
+        try {
+            OccurrenceIndex oi = (OccurrenceIndex) binder.getBean(resultClass, doc);
+            searchDAO.updateImageUrls(oi);
+
+            jsonGenerator.writeObject(oi);
+            recordCount++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write the properties that have not been written and end the JSON object.
+     *
+     * @param completeResult the search result without occurrences
+     */
+    public void finish(SearchResultDTO completeResult) throws IOException {
+        if (!started) {
+            start(completeResult);
+        }
+        jsonGenerator.writeEndArray();
+
+        writeFields(completeResult, true);
+
+        jsonGenerator.writeEndObject();
+        jsonGenerator.flush();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("streamed " + recordCount + " occurrences");
+        }
+    }
+
+    private void start(SearchResultDTO result) throws IOException {
+        started = true;
+
+        jsonGenerator.writeStartObject();
+        // null properties may be known when the response is complete
+        writeFields(result, false);
+        jsonGenerator.writeArrayFieldStart(OCCURRENCES);
+    }
+
+    /**
+     * Write the properties that have not been written.
+     *
+     * @param includeNulls write null properties, when the object mapper serialises them
+     */
+    private void writeFields(SearchResultDTO result, boolean includeNulls) throws IOException {
+        ObjectNode node = objectMapper.valueToTree(result);
+
+        Iterator<Map.Entry<String, JsonNode>> it = node.fields();
+        while (it.hasNext()) {
+            Map.Entry<String, JsonNode> field = it.next();
+            if (!OCCURRENCES.equals(field.getKey()) && (includeNulls || !field.getValue().isNull())
+                    && written.add(field.getKey())) {
+                jsonGenerator.writeFieldName(field.getKey());
+                jsonGenerator.writeTree(field.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.service.SpeciesLookupService;
+import au.org.ala.biocache.writer.CSVRecordWriter;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes species details rows for a stream of taxon guids.
+ * <p>
+ * Guids are collected into batches and several batches are looked up at once on the executor. Rows are written in
+ * the same order as the guids were added. The batch size grows while lookups are fast and shrinks when they are slow.
+ * <p>
+ * A batch that fails is split in half and each half is looked up again, down to single guids, so one failing guid or a
+ * request that is too large for the name matching service does not lose the rows of the whole batch. The batch size
+ * then stays below the smallest size that failed.
+ */
+public class TaxonDetailsWriter {
+
+    private final static Logger logger = Logger.getLogger(TaxonDetailsWriter.class);
+
+    /**
+     * Target duration of a single batch lookup.
+     */
+    private static final long TARGET_BATCH_MILLIS = 2000;
+
+    private final SpeciesLookupService speciesLookupService;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final boolean includeCounts;
+    private final boolean includeSynonyms;
+    private final boolean includeLists;
+    private final CSVRecordWriter writer;
+
+    private final Deque<Future<List<String[]>>> inFlight = new ArrayDeque<>();
+
+    private volatile int batchSize;
+
+    // smallest batch size that failed
+    private volatile int failedBatchSize = Integer.MAX_VALUE;
+
+    private List<String> guids;
+    private List<Long> counts;
+
+    /**
+     * @param speciesLookupService
+     * @param executor             executor for lookups, or null to look up batches on the calling thread
+     * @param maxInFlight          maximum number of batches submitted to the executor and not yet written
+     * @param minBatchSize         initial and minimum number of guids in a batch
+     * @param maxBatchSize         maximum number of guids in a batch
+     * @param includeCounts
+     * @param includeSynonyms
+     * @param includeLists
+     * @param writer
+     */
+    public TaxonDetailsWriter(SpeciesLookupService speciesLookupService, ExecutorService executor, int maxInFlight,
+                              int minBatchSize, int maxBatchSize, boolean includeCounts, boolean includeSynonyms,
+                              boolean includeLists, CSVRecordWriter writer) {
+        this.speciesLookupService = speciesLookupService;
+        this.executor = executor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        this.includeCounts = includeCounts;
+        this.includeSynonyms = includeSynonyms;
+        this.includeLists = includeLists;
+        this.writer = writer;
+
+        batchSize = this.minBatchSize;
+        guids = new ArrayList<>(batchSize);
+        counts = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * Add a guid. Rows of completed lookups are written.
+     *
+     * @param guid
+     * @param count occurrence count, used when includeCounts is true
+     */
+    public void add(String guid, Long count) {
+        guids.add(guid);
+        if (includeCounts) {
+            counts.add(count);
+        }
+
+        if (guids.size() >= batchSize) {
+            submit();
+        }
+    }
+
+    /**
+     * Look up the remaining guids and write all rows.
+     */
+    public void flush() {
+        if (!guids.isEmpty()) {
+            submit();
+        }
+        while (!inFlight.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    private void submit() {
+        List<String> batchGuids = guids;
+        List<Long> batchCounts = counts;
+        guids = new ArrayList<>(batchSize);
+        counts = new ArrayList<>(batchSize);
+
+        if (executor == null) {
+            write(lookup(batchGuids, batchCounts));
+            return;
+        }
+
+        inFlight.add(executor.submit(() -> lookup(batchGuids, batchCounts)));
+
+        // write completed batches without waiting, then wait when too many are in flight
+        while (!inFlight.isEmpty() && (inFlight.peek().isDone() || inFlight.size() >= maxInFlight)) {
+            writeNext();
+        }
+    }
+
+    private List<String[]> lookup(List<String> batchGuids, List<Long> batchCounts) {
+        long start = System.currentTimeMillis();
+        try {
+            List<String[]> rows = speciesLookupService.getSpeciesDetails(batchGuids, batchCounts, includeCounts, includeSynonyms, includeLists);
+            adjustBatchSize(batchGuids.size(), System.currentTimeMillis() - start);
+            return rows;
+        } catch (Exception e) {
+            // start again from the smallest batches and do not grow to the failed size again
+            batchSize = minBatchSize;
+            failedBatchSize = Math.min(failedBatchSize, batchGuids.size());
+
+            if (batchGuids.size() == 1) {
+                logger.error("failed to look up taxon details for " + batchGuids.get(0) + ": " + e.getMessage(), e);
+                return Collections.emptyList();
+            }
+
+            logger.warn("failed to look up taxon details for " + batchGuids.size() + " guids, retrying in smaller batches: " + e.getMessage());
+            int half = batchGuids.size() / 2;
+            List<String[]> rows = new ArrayList<>(batchGuids.size());
+            rows.addAll(lookup(batchGuids.subList(0, half), includeCounts ? batchCounts.subList(0, half) : batchCounts));
+            rows.addAll(lookup(batchGuids.subList(half, batchGuids.size()),
+                    includeCounts ? batchCounts.subList(half, batchCounts.size()) : batchCounts));
+            return rows;
+        }
+    }
+
+    private void adjustBatchSize(int size, long millis) {
+        if (millis < TARGET_BATCH_MILLIS / 2 && size >= batchSize) {
+            int limit = Math.max(minBatchSize, Math.min(maxBatchSize, failedBatchSize - 1));
+            batchSize = Math.min(limit, batchSize * 2);
+        } else if (millis > TARGET_BATCH_MILLIS * 2) {
+            batchSize = Math.max(minBatchSize, batchSize / 2);
+        }
+    }
+
+    private void writeNext() {
+        try {
+            write(inFlight.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("interrupted while waiting for taxon details");
+        } catch (Exception e) {
+            logger.error("failed to write taxon details to stream: " + e.getMessage(), e);
+        }
+    }
+
+    private void write(List<String[]> rows) {
+        for (String[] row : rows) {
+            writer.write(row);
+        }
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+}
@@ -0,0 +1,183 @@
+package au.org.ala.biocache.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * Immutable binary prefix trie of IPv4 and IPv6 networks.
+ * <p>
+ * Networks are in the format x.x.x.x/m, as used by Spring's IpAddressMatcher. A network without a mask matches
+ * a single address. Lookups walk at most 32 (IPv4) or 128 (IPv6) nodes and do not allocate for IPv4 addresses.
+ * Addresses that are not IP literals never match, so a lookup never resolves a host name.
+ */
+public class CidrTrie {
+
+    private static final int IPV4_ROOT = 0;
+    private static final int IPV6_ROOT = 1;
+
+    // children of each node, 0 when absent. Node 0 and 1 are roots so they are never a child.
+    private int[] zero;
+    private int[] one;
+    private boolean[] terminal;
+    private int size;
+
+    /**
+     * @param networks network addresses in the format x.x.x.x/m, may be null
+     * @throws IllegalArgumentException when a network is not valid
+     */
+    public CidrTrie(String... networks) {
+        zero = new int[64];
+        one = new int[64];
+        terminal = new boolean[64];
+        size = 2;
+
+        if (networks != null) {
+            for (String network : networks) {
+                add(network.trim());
+            }
+        }
+    }
+
+    private void add(String network) {
+        int slash = network.indexOf('/');
+        String address = slash < 0 ? network : network.substring(0, slash);
+        byte[] bytes = parse(address);
+        if (bytes == null) {
+            throw new IllegalArgumentException("Invalid network address: " + network);
+        }
+
+        int bits = bytes.length * 8;
+        int mask = bits;
+        if (slash >= 0) {
+            try {
+                mask = Integer.parseInt(network.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                mask = -1;
+            }
+            if (mask < 0 || mask > bits) {
+                throw new IllegalArgumentException("Invalid network mask: " + network);
+            }
+        }
+
+        int node = bytes.length == 4 ? IPV4_ROOT : IPV6_ROOT;
+        for (int i = 0; i < mask && !terminal[node]; i++) {
+            int child = bit(bytes, i) ? one[node] : zero[node];
+            if (child == 0) {
+                // newNode may grow the arrays
+                child = newNode();
+                (bit(bytes, i) ? one : zero)[node] = child;
+            }
+            node = child;
+        }
+        terminal[node] = true;
+    }
+
+    private int newNode() {
+        if (size == terminal.length) {
+            zero = Arrays.copyOf(zero, size * 2);
+            one = Arrays.copyOf(one, size * 2);
+            terminal = Arrays.copyOf(terminal, size * 2);
+        }
+        return size++;
+    }
+
+    /**
+     * @return true when there are no networks
+     */
+    public boolean isEmpty() {
+        return size == 2 && !terminal[IPV4_ROOT] && !terminal[IPV6_ROOT];
+    }
+
+    /**
+     * @param address IP address
+     * @return true when the address is within any of the networks
+     */
+    public boolean matches(String address) {
+        if (address == null) {
+            return false;
+        }
+
+        int ipv4 = parseIpv4(address);
+        if (ipv4 != -1 || "255.255.255.255".equals(address)) {
+            int node = IPV4_ROOT;
+            for (int i = 31; i >= 0; i--) {
+                if (terminal[node]) {
+                    return true;
+                }
+                node = ((ipv4 >>> i) & 1) == 1 ? one[node] : zero[node];
+                if (node == 0) {
+                    return false;
+                }
+            }
+            return terminal[node];
+        }
+
+        byte[] bytes = parse(address);
+        if (bytes == null) {
+            return false;
+        }
+        int node = bytes.length == 4 ? IPV4_ROOT : IPV6_ROOT;
+        for (int i = 0; i < bytes.length * 8; i++) {
+            if (terminal[node]) {
+                return true;
+            }
+            node = bit(bytes, i) ? one[node] : zero[node];
+            if (node == 0) {
+                return false;
+            }
+        }
+        return terminal[node];
+    }
+
+    private static boolean bit(byte[] bytes, int i) {
+        return ((bytes[i >> 3] >> (7 - (i & 7))) & 1) == 1;
+    }
+
+    /**
+     * @return the address, or -1 when it is not a dotted quad IPv4 address
+     */
+    private static int parseIpv4(String address) {
+        int result = 0;
+        int octet = -1;
+        int octets = 0;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && octets < 3) {
+                result = (result << 8) | octet;
+                octet = -1;
+                octets++;
+            } else {
+                return -1;
+            }
+        }
+        if (octet < 0 || octets != 3) {
+            return -1;
+        }
+        return (result << 8) | octet;
+    }
+
+    /**
+     * @return the address bytes, or null when the address is not an IP literal
+     */
+    private static byte[] parse(String address) {
+        int ipv4 = parseIpv4(address);
+        if (ipv4 != -1 || "255.255.255.255".equals(address)) {
+            return new byte[]{(byte) (ipv4 >>> 24), (byte) (ipv4 >>> 16), (byte) (ipv4 >>> 8), (byte) ipv4};
+        }
+        // only IPv6 literals are passed to InetAddress so that no host name lookup is made
+        if (address.indexOf(':') < 0) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(address).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+}
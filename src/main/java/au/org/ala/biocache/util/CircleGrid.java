@@ -0,0 +1,127 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.biocache.dto.OccurrenceIndex;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The cells of a fixed latitude, longitude grid that are inside a circle polygon.
+ * <p>
+ * Cell (row, col) is decimalLatitude [row * size, (row + 1) * size) and decimalLongitude [col * size, (col + 1) * size).
+ * Cells are aligned to the grid and not to the circle, so nearby circles share most of their interior cells. The
+ * cell bounds are written from decimals so the same cell always has the same query.
+ * <p>
+ * The records of the circle are the records of the interior cells plus the records matching {@link #getBorderFq()}
+ * within the circle.
+ */
+public class CircleGrid {
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private final BigDecimal size;
+    private final List<int[]> interiorCells = new ArrayList<>();
+
+    private CircleGrid(BigDecimal size) {
+        this.size = size;
+    }
+
+    /**
+     * @param circle   circle polygon as used in the SOLR query
+     * @param size     cell size in decimal degrees
+     * @param maxCells maximum number of grid cells covered by the circle bounding box
+     * @return the grid or null when the circle is too large or crosses the date line or a pole
+     */
+    public static CircleGrid create(Geometry circle, double size, int maxCells) {
+        Envelope envelope = circle.getEnvelopeInternal();
+        if (size <= 0 || envelope.getMinX() < -180 || envelope.getMaxX() > 180
+                || envelope.getMinY() < -90 || envelope.getMaxY() > 90) {
+            return null;
+        }
+
+        CircleGrid grid = new CircleGrid(BigDecimal.valueOf(size));
+
+        int minRow = (int) Math.floor(envelope.getMinY() / size);
+        int maxRow = (int) Math.floor(envelope.getMaxY() / size);
+        int minCol = (int) Math.floor(envelope.getMinX() / size);
+        int maxCol = (int) Math.floor(envelope.getMaxX() / size);
+        if ((long) (maxRow - minRow + 1) * (maxCol - minCol + 1) > maxCells) {
+            return null;
+        }
+
+        PreparedGeometry prepared = PreparedGeometryFactory.prepare(circle);
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                Envelope cell = new Envelope(grid.bound(col), grid.bound(col + 1), grid.bound(row), grid.bound(row + 1));
+                if (prepared.contains(geometryFactory.toGeometry(cell))) {
+                    grid.interiorCells.add(new int[]{row, col});
+                }
+            }
+        }
+
+        return grid;
+    }
+
+    /**
+     * @return [row, col] of the cells that are inside the circle, by row then col
+     */
+    public List<int[]> getInteriorCells() {
+        return interiorCells;
+    }
+
+    /**
+     * @return a key for the cell that is the same for every circle
+     */
+    public String getCellKey(int[] cell) {
+        return size.toPlainString() + ":" + cell[0] + ":" + cell[1];
+    }
+
+    /**
+     * @return the query for the records in the cell
+     */
+    public String getCellQuery(int[] cell) {
+        return range(OccurrenceIndex.LATITUDE, cell[0], cell[0] + 1)
+                + " AND " + range(OccurrenceIndex.LONGITUDE, cell[1], cell[1] + 1);
+    }
+
+    /**
+     * @return filter query that excludes the interior cells, consecutive cells of a row are one clause
+     */
+    public String getBorderFq() {
+        List<String> clauses = new ArrayList<>();
+        int i = 0;
+        while (i < interiorCells.size()) {
+            int[] first = interiorCells.get(i);
+            int lastCol = first[1];
+            while (i + 1 < interiorCells.size()
+                    && interiorCells.get(i + 1)[0] == first[0]
+                    && interiorCells.get(i + 1)[1] == lastCol + 1) {
+                lastCol++;
+                i++;
+            }
+            clauses.add("(" + range(OccurrenceIndex.LATITUDE, first[0], first[0] + 1)
+                    + " AND " + range(OccurrenceIndex.LONGITUDE, first[1], lastCol + 1) + ")");
+            i++;
+        }
+        return "-(" + String.join(" OR ", clauses) + ")";
+    }
+
+    private String range(String field, int from, int to) {
+        return field + ":[" + decimal(from) + " TO " + decimal(to) + "}";
+    }
+
+    private String decimal(int index) {
+        BigDecimal value = size.multiply(BigDecimal.valueOf(index));
+        return value.signum() == 0 ? "0" : value.stripTrailingZeros().toPlainString();
+    }
+
+    private double bound(int index) {
+        return size.multiply(BigDecimal.valueOf(index)).doubleValue();
+    }
+}
@@ -0,0 +1,258 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.biocache.dto.HeatmapDTO;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Occurrence counts for the SOLR quad grid levels 1 to n of a single query, stored in a memory mapped file.
+ * <p>
+ * At grid level L the world is divided into 2^L columns and 2^L rows, the same cells as the SOLR facet.heatmap of the
+ * quad field. Each level is stored sparsely as rows of (column, count) pairs, sorted by column, with row 0 at 90
+ * latitude.
+ * <p>
+ * File layout, big endian:
+ * <pre>
+ * int magic, int format, long indexVersion, int levels
+ * levels x (int gridLevel, int columns, int rows, long rowOffsetsPosition, long cellsPosition)
+ * for each level: int[rows + 1] row offsets, in cells, then (int column, int count) cells
+ * </pre>
+ */
+public class DensityPyramid {
+
+    private static final int MAGIC = 0x44505952; // DPYR
+    private static final int FORMAT = 1;
+
+    private static final int HEADER_SIZE = 20;
+    private static final int LEVEL_HEADER_SIZE = 28;
+
+    private final ByteBuffer buffer;
+    private final long indexVersion;
+
+    /**
+     * level header position by grid level, or -1 when the level is not present
+     */
+    private final int[] levels;
+
+    private DensityPyramid(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+            throw new IOException("not a density pyramid");
+        }
+        indexVersion = buffer.getLong(8);
+
+        int count = buffer.getInt(16);
+        int maxGridLevel = 0;
+        for (int i = 0; i < count; i++) {
+            maxGridLevel = Math.max(maxGridLevel, buffer.getInt(HEADER_SIZE + i * LEVEL_HEADER_SIZE));
+        }
+        levels = new int[maxGridLevel + 1];
+        Arrays.fill(levels, -1);
+        for (int i = 0; i < count; i++) {
+            int position = HEADER_SIZE + i * LEVEL_HEADER_SIZE;
+            levels[buffer.getInt(position)] = position;
+        }
+    }
+
+    /**
+     * Map a density pyramid file.
+     *
+     * @param file written by {@link #write(File, long, int, int[])}
+     * @return
+     * @throws IOException
+     */
+    public static DensityPyramid open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return new DensityPyramid(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Write a density pyramid from the counts of the finest grid level. Coarser levels are the sums of 2x2 cells.
+     *
+     * @param file         target file
+     * @param indexVersion SOLR index version of the counts
+     * @param gridLevel    grid level of counts
+     * @param counts       2^gridLevel x 2^gridLevel counts, row major with row 0 at 90 latitude
+     * @throws IOException
+     */
+    public static void write(File file, long indexVersion, int gridLevel, int[] counts) throws IOException {
+        if (gridLevel < 1 || gridLevel > 15) {
+            throw new IllegalArgumentException("grid level must be between 1 and 15");
+        }
+        int size = 1 << gridLevel;
+        if (counts.length != size * size) {
+            throw new IllegalArgumentException("expected " + size + "x" + size + " counts for grid level " + gridLevel);
+        }
+
+        // dense counts and number of non-zero cells for each level, coarsest first
+        int[][] grids = new int[gridLevel][];
+        int[] cellCounts = new int[gridLevel];
+        grids[gridLevel - 1] = counts;
+        for (int level = gridLevel; level >= 1; level--) {
+            int[] grid = grids[level - 1];
+            if (level > 1) {
+                int s = 1 << level;
+                int half = s / 2;
+                int[] coarse = new int[half * half];
+                for (int row = 0; row < s; row++) {
+                    for (int column = 0; column < s; column++) {
+                        coarse[(row / 2) * half + column / 2] += grid[row * s + column];
+                    }
+                }
+                grids[level - 2] = coarse;
+            }
+            for (int c : grid) {
+                if (c > 0) cellCounts[level - 1]++;
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(indexVersion);
+            out.writeInt(gridLevel);
+
+            long position = HEADER_SIZE + (long) gridLevel * LEVEL_HEADER_SIZE;
+            for (int level = 1; level <= gridLevel; level++) {
+                int s = 1 << level;
+                out.writeInt(level);
+                out.writeInt(s);
+                out.writeInt(s);
+                out.writeLong(position);
+                out.writeLong(position + (s + 1) * 4L);
+                position += (s + 1) * 4L + cellCounts[level - 1] * 8L;
+            }
+
+            for (int level = 1; level <= gridLevel; level++) {
+                int s = 1 << level;
+                int[] grid = grids[level - 1];
+
+                int offset = 0;
+                out.writeInt(offset);
+                for (int row = 0; row < s; row++) {
+                    for (int column = 0; column < s; column++) {
+                        if (grid[row * s + column] > 0) offset++;
+                    }
+                    out.writeInt(offset);
+                }
+
+                for (int i = 0; i < grid.length; i++) {
+                    if (grid[i] > 0) {
+                        out.writeInt(i % s);
+                        out.writeInt(grid[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    public long getIndexVersion() {
+        return indexVersion;
+    }
+
+    public boolean hasGridLevel(int gridLevel) {
+        return gridLevel > 0 && gridLevel < levels.length && levels[gridLevel] >= 0;
+    }
+
+    /**
+     * Get a heatmap equivalent to the SOLR facet.heatmap of the extents at the grid level.
+     *
+     * @param gridLevel        grid level, see {@link #hasGridLevel(int)}
+     * @param minx             may be greater than maxx when the extents cross the date line
+     * @param miny
+     * @param maxx
+     * @param maxy
+     * @param legend
+     * @param gridSizeInPixels
+     * @return
+     */
+    public HeatmapDTO getHeatmap(int gridLevel, double minx, double miny, double maxx, double maxy,
+                                 List<LegendItem> legend, int gridSizeInPixels) {
+        int position = levels[gridLevel];
+        int columns = buffer.getInt(position + 4);
+        int rows = buffer.getInt(position + 8);
+        int rowOffsets = (int) buffer.getLong(position + 12);
+        int cells = (int) buffer.getLong(position + 20);
+
+        double cellWidth = 360.0 / columns;
+        double cellHeight = 180.0 / rows;
+
+        if (maxx < minx) {
+            maxx += 360;
+        }
+
+        // snap to the cells that intersect the extents, columns outside 0 to columns wrap the date line
+        int c0 = (int) Math.floor((minx + 180) / cellWidth);
+        int c1 = Math.max(c0 + 1, (int) Math.ceil((maxx + 180) / cellWidth));
+        int r0 = Math.max(0, (int) Math.floor((90 - maxy) / cellHeight));
+        int r1 = Math.min(rows, Math.max(r0 + 1, (int) Math.ceil((90 - miny) / cellHeight)));
+
+        List<List<Integer>> layer = new ArrayList<>(r1 - r0);
+        for (int row = r0; row < r1; row++) {
+            int start = buffer.getInt(rowOffsets + row * 4);
+            int end = buffer.getInt(rowOffsets + row * 4 + 4);
+
+            Integer[] values = null;
+            if (start < end) {
+                for (int wrap = c0 < 0 ? -columns : 0; wrap <= (c1 > columns ? columns : 0); wrap += columns) {
+                    // cells with columns c0 - wrap to c1 - wrap
+                    int i = firstCell(cells, start, end, c0 - wrap);
+                    for (; i < end; i++) {
+                        int column = buffer.getInt(cells + i * 8) + wrap;
+                        if (column >= c1) {
+                            break;
+                        }
+                        if (values == null) {
+                            values = new Integer[c1 - c0];
+                            Arrays.fill(values, 0);
+                        }
+                        values[column - c0] = buffer.getInt(cells + i * 8 + 4);
+                    }
+                }
+            }
+
+            // SOLR returns null for empty rows
+            layer.add(values == null ? null : Arrays.asList(values));
+        }
+
+        double hminx = -180 + c0 * cellWidth;
+        double hmaxx = -180 + c1 * cellWidth;
+        if (hminx < -180) {
+            hminx += 360;
+            hmaxx += 360;
+        }
+
+        return new HeatmapDTO(gridLevel, Collections.singletonList(layer), legend, gridSizeInPixels, r1 - r0, c1 - c0,
+                hminx, 90 - r1 * cellHeight, hmaxx, 90 - r0 * cellHeight);
+    }
+
+    /**
+     * @return index of the first cell in [start, end) with a column >= column
+     */
+    private int firstCell(int cells, int start, int end, int column) {
+        int lo = start;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buffer.getInt(cells + mid * 8) < column) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
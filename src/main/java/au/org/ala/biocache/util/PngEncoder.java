@@ -0,0 +1,337 @@
+package au.org.ala.biocache.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder for map tiles, legends and density maps.
+ * <p>
+ * Images with 256 colours or fewer, which is most tiles, are written as 8 bit indexed colour with a tRNS chunk for
+ * transparency. Other images are written as 8 bit RGB or RGBA with the Sub filter. Compression uses the fastest
+ * deflate level. Encoders and their buffers are reused from a small pool, and chunks are written directly to the output
+ * stream.
+ */
+public class PngEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] PLTE = {'P', 'L', 'T', 'E'};
+    private static final byte[] TRNS = {'t', 'R', 'N', 'S'};
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+
+    private static final int COLOUR_TYPE_RGB = 2;
+    private static final int COLOUR_TYPE_INDEXED = 3;
+    private static final int COLOUR_TYPE_RGBA = 6;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+
+    private static final int MAX_PALETTE_SIZE = 256;
+
+    /**
+     * Open addressing hash table of colours to palette index + 1. Kept at a load factor of 0.25 or less.
+     */
+    private static final int HASH_SIZE = 1024;
+
+    private static final int IDAT_SIZE = 32768;
+
+    /**
+     * Buffers for images larger than this number of pixels, 512 x 512, are not retained between calls.
+     */
+    private static final int MAX_POOLED_PIXELS = 512 * 512;
+    private static final int MAX_POOLED_RAW = (512 * 4 + 1) * 512;
+
+    /**
+     * Idle encoders. An encoder that does not fit is discarded and its deflater ended.
+     */
+    private static final BlockingQueue<PngEncoder> encoders =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final CRC32 crc = new CRC32();
+    private final byte[] header = new byte[8];
+    private final byte[] idat = new byte[IDAT_SIZE];
+    private final byte[] plte = new byte[MAX_PALETTE_SIZE * 3];
+    private final byte[] trns = new byte[MAX_PALETTE_SIZE];
+
+    private final int[] hashColours = new int[HASH_SIZE];
+    private final int[] hashIndexes = new int[HASH_SIZE];
+    private final int[] palette = new int[MAX_PALETTE_SIZE];
+    private int paletteSize;
+
+    private int[] pixels = new int[0];
+    private byte[] raw = new byte[0];
+
+    private boolean transparent;
+    private boolean opaque;
+
+    private PngEncoder() {
+    }
+
+    /**
+     * Write an image as PNG.
+     *
+     * @param img        image to write
+     * @param out        target stream, not closed
+     * @param blankImage PNG bytes to write instead when every pixel is fully transparent, or null to always encode img
+     * @throws IOException
+     */
+    public static void write(BufferedImage img, OutputStream out, byte[] blankImage) throws IOException {
+        PngEncoder encoder = encoders.poll();
+        if (encoder == null) {
+            encoder = new PngEncoder();
+        }
+        try {
+            encoder.encode(img, out, blankImage);
+        } finally {
+            if (!encoders.offer(encoder)) {
+                encoder.deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Write an image as PNG.
+     *
+     * @param img image to write
+     * @param out target stream, not closed
+     * @throws IOException
+     */
+    public static void write(BufferedImage img, OutputStream out) throws IOException {
+        write(img, out, null);
+    }
+
+    private void encode(BufferedImage img, OutputStream out, byte[] blankImage) throws IOException {
+        int width = img.getWidth();
+        int height = img.getHeight();
+
+        try {
+            int[] argb = getPixels(img, width, height);
+
+            boolean indexed = buildPalette(argb, width * height);
+
+            if (transparent && blankImage != null) {
+                out.write(blankImage);
+                return;
+            }
+
+            out.write(SIGNATURE);
+
+            int colourType = indexed ? COLOUR_TYPE_INDEXED : (opaque ? COLOUR_TYPE_RGB : COLOUR_TYPE_RGBA);
+            writeInt(header, 0, width);
+            writeInt(header, 4, height);
+            byte[] ihdr = new byte[13];
+            System.arraycopy(header, 0, ihdr, 0, 8);
+            ihdr[8] = 8; // bit depth
+            ihdr[9] = (byte) colourType;
+            // compression, filter and interlace methods are all 0
+            writeChunk(out, IHDR, ihdr, 13);
+
+            int rawLength;
+            if (indexed) {
+                writePalette(out);
+                rawLength = indexedScanlines(argb, width, height);
+            } else {
+                rawLength = trueColourScanlines(argb, width, height, opaque ? 3 : 4);
+            }
+
+            writeImageData(out, rawLength);
+            writeChunk(out, IEND, idat, 0);
+        } finally {
+            if (pixels.length > MAX_POOLED_PIXELS) {
+                pixels = new int[0];
+            }
+            if (raw.length > MAX_POOLED_RAW) {
+                raw = new byte[0];
+            }
+        }
+    }
+
+    /**
+     * @return ARGB (non-premultiplied) pixels, row major
+     */
+    private int[] getPixels(BufferedImage img, int width, int height) {
+        WritableRaster raster = img.getRaster();
+        if (img.getType() == BufferedImage.TYPE_INT_ARGB && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getParent() == null && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0 && raster.getSampleModel().getWidth() == width) {
+            return ((DataBufferInt) raster.getDataBuffer()).getData();
+        }
+
+        if (pixels.length < width * height) {
+            pixels = new int[width * height];
+        }
+        img.getRGB(0, 0, width, height, pixels, 0, width);
+        return pixels;
+    }
+
+    /**
+     * Scan for distinct colours. Fully transparent pixels are all treated as the same colour.
+     *
+     * @return true when the image has MAX_PALETTE_SIZE colours or fewer
+     */
+    private boolean buildPalette(int[] argb, int count) {
+        Arrays.fill(hashIndexes, 0);
+        paletteSize = 0;
+        transparent = true;
+        opaque = true;
+
+        boolean indexed = true;
+        for (int i = 0; i < count; i++) {
+            int c = argb[i];
+            int alpha = c >>> 24;
+            if (alpha == 0) {
+                c = 0;
+                opaque = false;
+            } else {
+                transparent = false;
+                if (alpha != 0xff) {
+                    opaque = false;
+                }
+            }
+
+            if (indexed && paletteIndex(c, true) < 0) {
+                // too many colours, continue the scan for transparency only
+                indexed = false;
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * @return palette index of the colour, or -1 when it is not present and cannot be added
+     */
+    private int paletteIndex(int c, boolean add) {
+        int h = (c * 0x9E3779B9) >>> 22;
+        while (hashIndexes[h] != 0) {
+            if (hashColours[h] == c) {
+                return hashIndexes[h] - 1;
+            }
+            h = (h + 1) & (HASH_SIZE - 1);
+        }
+        if (!add || paletteSize == MAX_PALETTE_SIZE) {
+            return -1;
+        }
+        palette[paletteSize] = c;
+        hashColours[h] = c;
+        hashIndexes[h] = ++paletteSize;
+        return paletteSize - 1;
+    }
+
+    private void writePalette(OutputStream out) throws IOException {
+        int trnsLength = 0;
+        for (int i = 0; i < paletteSize; i++) {
+            int c = palette[i];
+            plte[i * 3] = (byte) (c >>> 16);
+            plte[i * 3 + 1] = (byte) (c >>> 8);
+            plte[i * 3 + 2] = (byte) c;
+            trns[i] = (byte) (c >>> 24);
+            if ((c >>> 24) != 0xff) {
+                trnsLength = i + 1;
+            }
+        }
+        writeChunk(out, PLTE, plte, paletteSize * 3);
+        if (trnsLength > 0) {
+            writeChunk(out, TRNS, trns, trnsLength);
+        }
+    }
+
+    /**
+     * Palette images compress best without a filter.
+     */
+    private int indexedScanlines(int[] argb, int width, int height) {
+        int rawLength = (width + 1) * height;
+        ensureRaw(rawLength);
+
+        int p = 0;
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            raw[p++] = FILTER_NONE;
+            for (int x = 0; x < width; x++) {
+                int c = argb[i++];
+                raw[p++] = (byte) paletteIndex((c >>> 24) == 0 ? 0 : c, false);
+            }
+        }
+        return rawLength;
+    }
+
+    private int trueColourScanlines(int[] argb, int width, int height, int bytesPerPixel) {
+        int rowLength = width * bytesPerPixel + 1;
+        int rawLength = rowLength * height;
+        ensureRaw(rawLength);
+
+        int p = 0;
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            raw[p++] = FILTER_SUB;
+            int prev = 0;
+            for (int x = 0; x < width; x++) {
+                int c = argb[i++];
+                raw[p++] = (byte) ((c >>> 16) - (prev >>> 16));
+                raw[p++] = (byte) ((c >>> 8) - (prev >>> 8));
+                raw[p++] = (byte) (c - prev);
+                if (bytesPerPixel == 4) {
+                    raw[p++] = (byte) ((c >>> 24) - (prev >>> 24));
+                }
+                prev = c;
+            }
+        }
+        return rawLength;
+    }
+
+    private void ensureRaw(int length) {
+        if (raw.length < length) {
+            raw = new byte[length];
+        }
+    }
+
+    private void writeImageData(OutputStream out, int rawLength) throws IOException {
+        deflater.reset();
+        deflater.setInput(raw, 0, rawLength);
+        deflater.finish();
+
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(idat, length, IDAT_SIZE - length);
+            if (length == IDAT_SIZE) {
+                writeChunk(out, IDAT, idat, length);
+                length = 0;
+            }
+        }
+        if (length > 0) {
+            writeChunk(out, IDAT, idat, length);
+        }
+    }
+
+    private void writeChunk(OutputStream out, byte[] type, byte[] data, int length) throws IOException {
+        writeInt(header, 0, length);
+        System.arraycopy(type, 0, header, 4, 4);
+        out.write(header, 0, 8);
+        if (length > 0) {
+            out.write(data, 0, length);
+        }
+
+        crc.reset();
+        crc.update(type, 0, 4);
+        crc.update(data, 0, length);
+        writeInt(header, 0, (int) crc.getValue());
+        out.write(header, 0, 4);
+    }
+
+    private static void writeInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+}
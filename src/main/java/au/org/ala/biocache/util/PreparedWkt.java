@@ -0,0 +1,125 @@
+package au.org.ala.biocache.util;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A parsed and simplified WKT geometry held by {@link PreparedWktCache}.
+ *
+ * The geometry is parsed once and kept in prepared form so that it can be used for point in polygon tests
+ * as well as for building SOLR spatial queries.
+ */
+public class PreparedWkt {
+
+    /**
+     * Hash of the simplified WKT, used to address this geometry in the cache.
+     */
+    private final String key;
+
+    private final String wkt;
+
+    private final Geometry geometry;
+
+    private final PreparedGeometry preparedGeometry;
+
+    private final Envelope envelope;
+
+    /**
+     * SOLR query strings by spatial field name
+     */
+    private final ConcurrentMap<String, String> queries = new ConcurrentHashMap<>();
+
+    PreparedWkt(String key, String wkt, Geometry geometry) {
+        this.key = key;
+        this.geometry = geometry;
+        this.wkt = wkt;
+        this.preparedGeometry = PreparedGeometryFactory.prepare(geometry);
+        this.envelope = geometry.getEnvelopeInternal();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the simplified WKT
+     */
+    public String getWkt() {
+        return wkt;
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * @return bounding box as minx, miny, maxx, maxy
+     */
+    public double[] getBbox() {
+        return new double[]{envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY()};
+    }
+
+    /**
+     * Point in polygon test against the simplified geometry, consistent with the SOLR Intersects query.
+     *
+     * @param longitude decimal degrees
+     * @param latitude decimal degrees
+     * @return true when the point intersects this geometry
+     */
+    public boolean intersects(double longitude, double latitude) {
+        if (!envelope.intersects(longitude, latitude)) {
+            return false;
+        }
+        return preparedGeometry.intersects(geometry.getFactory().createPoint(new Coordinate(longitude, latitude)));
+    }
+
+    /**
+     * Build the SOLR Intersects query for this geometry. Rectangles are written as ENVELOPE and
+     * geometry collections, which are not supported by the lucene JTS WKT parser, as OR'ed intersections.
+     *
+     * @param spatialField The SOLR field that is being used to search WKT
+     * @return the query
+     */
+    public String getQuery(String spatialField) {
+        return queries.computeIfAbsent(spatialField, field -> {
+            StringBuilder sb = new StringBuilder();
+            if (geometry instanceof GeometryCollection && "GeometryCollection".equals(geometry.getGeometryType())) {
+                sb.append("(");
+                for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                    if (i > 0) {
+                        sb.append(" OR ");
+                    }
+                    Geometry g = geometry.getGeometryN(i);
+                    appendIntersects(sb, field, g, g.toText());
+                }
+                sb.append(")");
+            } else {
+                appendIntersects(sb, field, geometry, wkt);
+            }
+            return sb.toString();
+        });
+    }
+
+    private static void appendIntersects(StringBuilder sb, String field, Geometry g, String text) {
+        sb.append(field).append(":\"Intersects(");
+        if (g.isRectangle()) {
+            Envelope e = g.getEnvelopeInternal();
+            sb.append("ENVELOPE(").append(e.getMinX()).append(", ").append(e.getMaxX()).append(", ")
+                    .append(e.getMaxY()).append(", ").append(e.getMinY()).append(")");
+        } else {
+            sb.append(text);
+        }
+        sb.append(")\"");
+    }
+}
@@ -0,0 +1,240 @@
+package au.org.ala.biocache.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.io.WKTReader;
+import org.locationtech.jts.precision.GeometryPrecisionReducer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of parsed, simplified and prepared WKT geometries.
+ *
+ * Each distinct WKT is parsed and simplified once. Entries are addressed by a hash of the WKT so that both the
+ * original WKT and the simplified WKT returned by {@link #get(String)} resolve to the same {@link PreparedWkt}.
+ *
+ * {@link #fixWkt(String)} and {@link #getWKTQuery(String, String)} look up the WKT, or the simplified WKT they
+ * returned before, whatever its size. WKT that is not cached and has no more than qid.wkt.maxPoints points is
+ * used as supplied without parsing it.
+ *
+ * The cache is bounded by the total number of points of the cached geometries.
+ */
+@Component("preparedWktCache")
+public class PreparedWktCache {
+
+    private final static Logger logger = Logger.getLogger(PreparedWktCache.class);
+
+    /**
+     * Limit WKT complexity to reduce index query time.
+     */
+    @Value("${qid.wkt.maxPoints:5000}")
+    int maxWktPoints = 5000;
+
+    /**
+     * Number of decimal places retained in simplified WKT. Set to 0 to retain full precision.
+     */
+    @Value("${wkt.cache.precision:6}")
+    int precision = 6;
+
+    /**
+     * Maximum total number of points of the geometries to keep.
+     */
+    @Value("${wkt.cache.maxPoints:1000000}")
+    long maxCachePoints = 1000000;
+
+    // geometries by the hash of their WKT, in access order
+    private final LinkedHashMap<String, PreparedWkt> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    // hash of a source WKT to the hash of its simplified WKT
+    private final Map<String, String> aliases = new HashMap<>();
+
+    private long cachePoints = 0;
+
+    /**
+     * @return true when the WKT has more than qid.wkt.maxPoints points and is simplified
+     */
+    public boolean isSimplified(String wkt) {
+        if (maxWktPoints <= 0 || StringUtils.isEmpty(wkt)) {
+            return false;
+        }
+
+        return countPoints(wkt, maxWktPoints) > maxWktPoints;
+    }
+
+    /**
+     * Count the coordinates of a WKT without parsing it. A coordinate is the run of numbers between the ',', '('
+     * and ')' separators, so rings of polygons with holes and of multi polygons are counted like
+     * {@link Geometry#getNumPoints()}.
+     *
+     * @param limit stop counting after this number of points
+     */
+    static int countPoints(String wkt, int limit) {
+        int numPoints = 0;
+        boolean inPoint = false;
+        for (int i = 0; i < wkt.length() && numPoints <= limit; i++) {
+            char c = wkt.charAt(i);
+            if (c == ',' || c == '(' || c == ')') {
+                inPoint = false;
+            } else if (!inPoint && (Character.isDigit(c) || c == '-' || c == '+' || c == '.')) {
+                inPoint = true;
+                numPoints++;
+            }
+        }
+        return numPoints;
+    }
+
+    /**
+     * Limit the complexity of a WKT.
+     *
+     * @param wkt The source WKT
+     * @return the simplified WKT when it is cached or needs simplification, otherwise the WKT as supplied
+     * @throws Exception when a WKT that needs simplification cannot be parsed
+     */
+    public String fixWkt(String wkt) throws Exception {
+        if (StringUtils.isEmpty(wkt)) {
+            return wkt;
+        }
+        PreparedWkt cached = lookup(hash(wkt));
+        if (cached != null) {
+            return cached.getWkt();
+        }
+        if (!isSimplified(wkt)) {
+            return wkt;
+        }
+        return get(wkt).getWkt();
+    }
+
+    /**
+     * Get the parsed and simplified geometry for a WKT.
+     *
+     * @param wkt The source WKT
+     * @return the prepared geometry
+     * @throws Exception when the WKT cannot be parsed
+     */
+    public PreparedWkt get(String wkt) throws Exception {
+        String key = hash(wkt);
+
+        PreparedWkt preparedWkt = lookup(key);
+        if (preparedWkt == null) {
+            Geometry g;
+            try {
+                g = new WKTReader().read(wkt);
+            } catch (Exception e) {
+                throw new Exception("WKT simplification failed");
+            }
+
+            Geometry simplified = SpatialUtils.simplify(g, maxWktPoints);
+            if (simplified != g && precision > 0) {
+                simplified = reducePrecision(simplified);
+            }
+
+            if (simplified == g) {
+                preparedWkt = new PreparedWkt(key, wkt, g);
+            } else {
+                String simplifiedWkt = simplified.toText();
+                preparedWkt = new PreparedWkt(hash(simplifiedWkt), simplifiedWkt, simplified);
+            }
+
+            put(key, preparedWkt);
+        }
+
+        return preparedWkt;
+    }
+
+    /**
+     * @return the geometry for the hash of a source or simplified WKT, or null when it is not cached
+     */
+    private PreparedWkt lookup(String key) {
+        synchronized (cache) {
+            String alias = aliases.get(key);
+            return cache.get(alias != null ? alias : key);
+        }
+    }
+
+    private void put(String key, PreparedWkt preparedWkt) {
+        synchronized (cache) {
+            if (!key.equals(preparedWkt.getKey())) {
+                aliases.put(key, preparedWkt.getKey());
+            }
+
+            PreparedWkt previous = cache.put(preparedWkt.getKey(), preparedWkt);
+            if (previous != null) {
+                cachePoints -= previous.getGeometry().getNumPoints();
+            }
+            cachePoints += preparedWkt.getGeometry().getNumPoints();
+
+            // evict the least recently used geometries, keeping the most recent even when it is larger than the limit
+            Iterator<Map.Entry<String, PreparedWkt>> it = cache.entrySet().iterator();
+            while (cachePoints > maxCachePoints && cache.size() > 1 && it.hasNext()) {
+                Map.Entry<String, PreparedWkt> eldest = it.next();
+                cachePoints -= eldest.getValue().getGeometry().getNumPoints();
+                it.remove();
+                aliases.values().removeIf(eldest.getKey()::equals);
+            }
+        }
+    }
+
+    /**
+     * Build the SOLR spatial query for a WKT.
+     *
+     * @param spatialField The SOLR field that is being used to search WKT
+     * @param wkt The source WKT value
+     * @return the query
+     */
+    public String getWKTQuery(String spatialField, String wkt) {
+        if (StringUtils.isEmpty(wkt)) {
+            return "";
+        }
+        try {
+            PreparedWkt cached = lookup(hash(wkt));
+            if (cached != null) {
+                return cached.getQuery(spatialField);
+            }
+            if (!isSimplified(wkt)) {
+                return SpatialUtils.getWKTQuery(spatialField, wkt, false);
+            }
+            return get(wkt).getQuery(spatialField);
+        } catch (Exception e) {
+            // leave it to SOLR to report the invalid WKT
+            logger.debug("failed to parse WKT, using it as supplied: " + e.getMessage());
+            return SpatialUtils.getWKTQuery(spatialField, wkt, false);
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            aliases.clear();
+            cachePoints = 0;
+        }
+    }
+
+    private Geometry reducePrecision(Geometry g) {
+        try {
+            return GeometryPrecisionReducer.reduce(g, new PrecisionModel(Math.pow(10, precision)));
+        } catch (Exception e) {
+            logger.debug("WKT precision reduction failed, retaining full precision: " + e.getMessage());
+            return g;
+        }
+    }
+
+    static String hash(String wkt) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        byte[] digest = md.digest(wkt.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
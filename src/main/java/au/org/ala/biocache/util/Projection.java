@@ -0,0 +1,85 @@
+package au.org.ala.biocache.util;
+
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * Coordinate transform over primitive arrays of interleaved x,y (longitude first) ordinates.
+ * <p>
+ * Obtain instances from {@link ProjectionCache}.
+ */
+public interface Projection {
+
+    /**
+     * Transform numPts points from src into dst. src and dst may be the same array.
+     *
+     * @param src    source ordinates as x0,y0,x1,y1,...
+     * @param srcOff offset of the first source ordinate
+     * @param dst    target ordinates
+     * @param dstOff offset of the first target ordinate
+     * @param numPts number of points to transform
+     * @throws TransformException when a point cannot be transformed
+     */
+    void transform(double[] src, int srcOff, double[] dst, int dstOff, int numPts) throws TransformException;
+
+    /**
+     * Transform numPts points in place.
+     */
+    default void transform(double[] pts, int numPts) throws TransformException {
+        transform(pts, 0, pts, 0, numPts);
+    }
+
+    /**
+     * WGS 84 semi-major axis in metres, the sphere radius used by Web Mercator.
+     */
+    double WEB_MERCATOR_RADIUS = 6378137.0;
+
+    /**
+     * Closed form EPSG:4326 (longitude, latitude) to spherical Web Mercator EPSG:3857.
+     */
+    Projection WGS84_TO_WEB_MERCATOR = new Projection() {
+        @Override
+        public void transform(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+            for (int i = 0; i < numPts * 2; i += 2) {
+                double lng = src[srcOff + i];
+                double lat = src[srcOff + i + 1];
+                dst[dstOff + i] = WEB_MERCATOR_RADIUS * Math.toRadians(lng);
+                dst[dstOff + i + 1] = WEB_MERCATOR_RADIUS * Math.log(Math.tan(Math.PI / 4.0 + Math.toRadians(lat) / 2.0));
+            }
+        }
+    };
+
+    /**
+     * Closed form spherical Web Mercator EPSG:3857 to EPSG:4326 (longitude, latitude).
+     */
+    Projection WEB_MERCATOR_TO_WGS84 = new Projection() {
+        @Override
+        public void transform(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+            for (int i = 0; i < numPts * 2; i += 2) {
+                double x = src[srcOff + i];
+                double y = src[srcOff + i + 1];
+                dst[dstOff + i] = Math.toDegrees(x / WEB_MERCATOR_RADIUS);
+                dst[dstOff + i + 1] = Math.toDegrees(2.0 * Math.atan(Math.exp(y / WEB_MERCATOR_RADIUS)) - Math.PI / 2.0);
+            }
+        }
+    };
+
+    /**
+     * Source and target SRS are the same.
+     */
+    Projection IDENTITY = new Projection() {
+        @Override
+        public void transform(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+            if (src != dst || srcOff != dstOff) {
+                System.arraycopy(src, srcOff, dst, dstOff, numPts * 2);
+            }
+        }
+    };
+
+    /**
+     * GeoTools transform for any other pair of SRS.
+     */
+    static Projection of(MathTransform mathTransform) {
+        return (src, srcOff, dst, dstOff, numPts) -> mathTransform.transform(src, srcOff, dst, dstOff, numPts);
+    }
+}
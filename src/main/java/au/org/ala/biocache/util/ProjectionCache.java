@@ -0,0 +1,129 @@
+package au.org.ala.biocache.util;
+
+import org.apache.log4j.Logger;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.DefaultCoordinateOperationFactory;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CRSAuthorityFactory;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.CoordinateOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches coordinate operations and projections for pairs of SRS.
+ * <p>
+ * Creating a CoordinateReferenceSystem from the authority factory is expensive and WMS requests use a handful of
+ * SRS. Transforms between EPSG:4326 and EPSG:3857 use a closed form projection, everything else falls back to the
+ * GeoTools operation.
+ */
+@Component("projectionCache")
+public class ProjectionCache {
+
+    private final static Logger logger = Logger.getLogger(ProjectionCache.class);
+
+    public static final String WGS84 = "EPSG:4326";
+
+    /**
+     * SRS codes equivalent to EPSG:3857
+     */
+    private static final String[] WEB_MERCATOR = {"EPSG:3857", "EPSG:900913", "EPSG:3785", "EPSG:102100", "EPSG:102113"};
+
+    private final ConcurrentMap<String, CoordinateOperation> operations = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Projection> projections = new ConcurrentHashMap<>();
+
+    /**
+     * Get the GeoTools coordinate operation from sourceSrs to targetSrs. The authority factory is longitude first.
+     *
+     * @param sourceSrs e.g. EPSG:3857
+     * @param targetSrs e.g. EPSG:4326
+     * @return cached operation
+     * @throws FactoryException when either SRS is not supported
+     */
+    public CoordinateOperation getOperation(String sourceSrs, String targetSrs) throws FactoryException {
+        String key = key(sourceSrs, targetSrs);
+        CoordinateOperation operation = operations.get(key);
+        if (operation == null) {
+            CRSAuthorityFactory factory = CRS.getAuthorityFactory(true);
+            CoordinateReferenceSystem sourceCRS = factory.createCoordinateReferenceSystem(sourceSrs);
+            CoordinateReferenceSystem targetCRS = factory.createCoordinateReferenceSystem(targetSrs);
+            operation = new DefaultCoordinateOperationFactory().createOperation(sourceCRS, targetCRS);
+
+            CoordinateOperation existing = operations.putIfAbsent(key, operation);
+            if (existing != null) {
+                operation = existing;
+            }
+        }
+        return operation;
+    }
+
+    /**
+     * Get the projection from sourceSrs to targetSrs.
+     *
+     * @param sourceSrs e.g. EPSG:4326
+     * @param targetSrs e.g. EPSG:3857
+     * @return cached projection
+     * @throws FactoryException when either SRS is not supported
+     */
+    public Projection getProjection(String sourceSrs, String targetSrs) throws FactoryException {
+        String key = key(sourceSrs, targetSrs);
+        Projection projection = projections.get(key);
+        if (projection == null) {
+            if (normalise(sourceSrs).equals(normalise(targetSrs))) {
+                projection = Projection.IDENTITY;
+            } else if (isWgs84(sourceSrs) && isWebMercator(targetSrs)) {
+                projection = Projection.WGS84_TO_WEB_MERCATOR;
+            } else if (isWebMercator(sourceSrs) && isWgs84(targetSrs)) {
+                projection = Projection.WEB_MERCATOR_TO_WGS84;
+            } else {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Using GeoTools transform from " + sourceSrs + " to " + targetSrs);
+                }
+                projection = Projection.of(getOperation(sourceSrs, targetSrs).getMathTransform());
+            }
+            projections.putIfAbsent(key, projection);
+        }
+        return projection;
+    }
+
+    /**
+     * @param srs target SRS
+     * @return projection from EPSG:4326 to srs
+     */
+    public Projection fromWgs84(String srs) throws FactoryException {
+        return getProjection(WGS84, srs);
+    }
+
+    /**
+     * @param srs source SRS
+     * @return projection from srs to EPSG:4326
+     */
+    public Projection toWgs84(String srs) throws FactoryException {
+        return getProjection(srs, WGS84);
+    }
+
+    static boolean isWebMercator(String srs) {
+        String s = normalise(srs);
+        for (String code : WEB_MERCATOR) {
+            if (code.equals(s)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isWgs84(String srs) {
+        return WGS84.equals(normalise(srs));
+    }
+
+    private static String normalise(String srs) {
+        return srs == null ? "" : srs.trim().toUpperCase();
+    }
+
+    private static String key(String sourceSrs, String targetSrs) {
+        return normalise(sourceSrs) + "|" + normalise(targetSrs);
+    }
+}
@@ -64,6 +64,9 @@ public class QueryFormatUtils {
     @Inject
     protected FieldMappingUtil fieldMappingUtil;
 
+    @Inject
+    protected PreparedWktCache preparedWktCache;
+
     protected static final String QUOTE = "\"";
     protected static final char[] CHARS = {' ', ':'};
 
@@ -1131,9 +1134,7 @@ public class QueryFormatUtils {
     }
 
     protected void updateQualityProfileContext(SearchRequestDTO searchParams) {
-        Map<String, String> enabledFiltersByLabel = dataQualityService.getEnabledFiltersByLabel(searchParams);
-        String[] enabledFilters = enabledFiltersByLabel.values().toArray(new String[0]);
-        addFormattedFq(enabledFilters, searchParams);
+        addFormattedFq(dataQualityService.getEnabledFilters(searchParams), searchParams);
     }
 
     /**
@@ -1185,8 +1186,8 @@ public class QueryFormatUtils {
                 String wkt = createCircleWkt(searchParams.getLon(), searchParams.getLat(), searchParams.getRadius());
                 sb.append(spatialField).append(":\"Intersects(").append(wkt).append(")\"");
             } else if (!StringUtils.isEmpty(searchParams.getWkt())) {
-                //format the wkt
-                sb.append(SpatialUtils.getWKTQuery(spatialField, searchParams.getWkt(), false));
+                //format the wkt, reusing the parsed geometry when it has been seen before
+                sb.append(preparedWktCache.getWKTQuery(spatialField, searchParams.getWkt()));
             }
             return sb.toString();
         }
@@ -1200,7 +1201,7 @@ public class QueryFormatUtils {
      * @param latitude decimal degrees
      * @param radius km
      */
-    private String createCircleWkt(double longitude, double latitude, double radius) {
+    public String createCircleWkt(double longitude, double latitude, double radius) {
         //radius to m
         radius *= 1000;
 
@@ -85,28 +85,43 @@ public class SpatialUtils {
 
             Geometry g = r.read(wkt);
 
-            // determine average point to point distance
-            double averageDistance = 0;
-            if (g.getGeometryType().equals("Polygon")) {
-                averageDistance = getPolygonAverageDistance((Polygon) g);
-            } else if (g.getGeometryType().equals("MultiPolygon")) {
-                averageDistance = getMultipolygonAverageDistance((MultiPolygon) g);
-            } else if (g.getGeometryType().equals("GeometryCollection")) {
-                averageDistance = getGeometryCollectionAverageDistance(g);
-            }
+            return simplify(g, maxPoints).toString();
+        } catch (Exception e) {
+            throw new Exception("WKT simplification failed");
+        }
+    }
 
-            // determine new average distance required for maxPoints
-            double distance = g.getNumPoints() / (double) maxPoints * averageDistance;
+    /**
+     * Simplifies a parsed geometry so that it has approximately maxPoints points.
+     *
+     * @param g The geometry to simplify
+     * @param maxPoints The target number of points
+     * @return the simplified geometry, or g when it already has maxPoints or fewer
+     */
+    public static Geometry simplify(Geometry g, final int maxPoints) {
+        if (maxPoints <= 0 || g.getNumPoints() <= maxPoints) {
+            return g;
+        }
 
-            // use this new average distance as the tolerance value
-            Geometry newG = TopologyPreservingSimplifier.simplify(g, distance);
+        // determine average point to point distance
+        double averageDistance = 0;
+        if (g.getGeometryType().equals("Polygon")) {
+            averageDistance = getPolygonAverageDistance((Polygon) g);
+        } else if (g.getGeometryType().equals("MultiPolygon")) {
+            averageDistance = getMultipolygonAverageDistance((MultiPolygon) g);
+        } else if (g.getGeometryType().equals("GeometryCollection")) {
+            averageDistance = getGeometryCollectionAverageDistance(g);
+        }
 
-            logger.debug("WKT simplified reduced points from " + g.getNumPoints() + " to " + newG.getNumPoints());
+        // determine new average distance required for maxPoints
+        double distance = g.getNumPoints() / (double) maxPoints * averageDistance;
 
-            return newG.toString();
-        } catch (Exception e) {
-            throw new Exception("WKT simplification failed");
-        }
+        // use this new average distance as the tolerance value
+        Geometry newG = TopologyPreservingSimplifier.simplify(g, distance);
+
+        logger.debug("WKT simplified reduced points from " + g.getNumPoints() + " to " + newG.getNumPoints());
+
+        return newG;
     }
 
     static double getPolygonAverageDistance(Polygon p) {
@@ -142,9 +157,9 @@ public class SpatialUtils {
         for (int i=0;i<g.getNumGeometries();i++) {
             Geometry g1 = g.getGeometryN(i);
             if (g1.getGeometryType().equals("Polygon")) {
-                sum += getPolygonAverageDistance((Polygon) g);
+                sum += getPolygonAverageDistance((Polygon) g1);
             } else if (g1.getGeometryType().equals("MultiPolygon")) {
-                sum += getMultipolygonAverageDistance((MultiPolygon) g);
+                sum += getMultipolygonAverageDistance((MultiPolygon) g1);
             }
         }
         return sum / (double) g.getNumGeometries();
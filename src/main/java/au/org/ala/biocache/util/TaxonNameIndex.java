@@ -0,0 +1,318 @@
+package au.org.ala.biocache.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable in-memory prefix index of taxon names, vernacular names and synonyms for autocomplete.
+ * <p>
+ * Every name is indexed by its normalised form (lower case, no diacritics, single spaces) and by each word suffix
+ * of it, so "Eucalyptus globulus" matches "euca" and "glob". Matches are ranked by exact match, then name prefix, then
+ * word prefix, then by taxon rank (higher ranks first), then by occurrence count and finally by name.
+ * <p>
+ * Build an index with a {@link Builder}.
+ */
+public class TaxonNameIndex {
+
+    public static final int MATCH_SCIENTIFIC_NAME = 0;
+    public static final int MATCH_VERNACULAR_NAME = 1;
+    public static final int MATCH_SYNONYM = 2;
+
+    /**
+     * Match scores, best first: the whole name, the last words of the name, the start of the name and the start of a
+     * word in the name.
+     */
+    public static final int SCORE_EXACT = 4;
+    public static final int SCORE_WORD = 3;
+    public static final int SCORE_PREFIX = 2;
+    public static final int SCORE_WORD_PREFIX = 1;
+
+    /**
+     * Maximum number of keys examined by a single search.
+     */
+    private static final int MAX_SCAN = 50000;
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    // taxa, sorted by scientific name
+    private final String[] lsids;
+    private final String[] names;
+    private final int[] rankIds;
+    private final long[] counts;
+    private final Object[] values;
+
+    // normalised names and word suffixes, sorted
+    private final String[] keys;
+    private final int[] keyTaxa;
+    private final byte[] keyMatches;
+    private final boolean[] keyWordStarts;
+    private final String[] keyLabels;
+
+    private TaxonNameIndex(Builder builder) {
+        int n = builder.taxa.size();
+
+        // sort taxa by name so that the taxon index is the name order
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparing((Integer i) -> builder.taxa.get(i).name, String.CASE_INSENSITIVE_ORDER));
+        int[] position = new int[n];
+
+        lsids = new String[n];
+        names = new String[n];
+        rankIds = new int[n];
+        counts = new long[n];
+        values = new Object[n];
+        for (int i = 0; i < n; i++) {
+            Taxon t = builder.taxa.get(order[i]);
+            position[order[i]] = i;
+            lsids[i] = t.lsid;
+            names[i] = t.name;
+            rankIds[i] = t.rankId;
+            counts[i] = t.count;
+            values[i] = t.value;
+        }
+
+        int k = builder.keys.size();
+        Key[] sorted = builder.keys.toArray(new Key[0]);
+        Arrays.sort(sorted, Comparator.comparing((Key key) -> key.key));
+
+        keys = new String[k];
+        keyTaxa = new int[k];
+        keyMatches = new byte[k];
+        keyWordStarts = new boolean[k];
+        keyLabels = new String[k];
+        for (int i = 0; i < k; i++) {
+            Key key = sorted[i];
+            keys[i] = key.key;
+            keyTaxa[i] = position[key.taxon];
+            keyMatches[i] = key.match;
+            keyWordStarts[i] = key.wordStart;
+            keyLabels[i] = key.label;
+        }
+    }
+
+    /**
+     * Find the taxa with a name that starts with the query, or with a word in a name that starts with the query.
+     *
+     * @param query           search term
+     * @param max             maximum number of matches
+     * @param includeSynonyms include matches of synonyms
+     * @return matches, best first. A taxon is only returned once.
+     */
+    public List<Match> search(String query, int max, boolean includeSynonyms) {
+        String q = normalise(query);
+        if (q.isEmpty() || keys.length == 0 || max <= 0) {
+            return new ArrayList<>();
+        }
+
+        // candidate = taxon, score, preference of the match type and key packed, the best key of a taxon sorts last
+        long[] candidates = new long[64];
+        int size = 0;
+        int start = lowerBound(q);
+        int end = (int) Math.min(keys.length, (long) start + MAX_SCAN);
+        for (int i = start; i < end && keys[i].startsWith(q); i++) {
+            if (keyMatches[i] == MATCH_SYNONYM && !includeSynonyms) {
+                continue;
+            }
+            int score;
+            if (keys[i].length() == q.length()) {
+                score = keyWordStarts[i] ? SCORE_WORD : SCORE_EXACT;
+            } else {
+                score = keyWordStarts[i] ? SCORE_WORD_PREFIX : SCORE_PREFIX;
+            }
+            if (size == candidates.length) {
+                candidates = Arrays.copyOf(candidates, size * 2);
+            }
+            candidates[size++] = ((long) keyTaxa[i] << 37) | ((long) score << 34) | ((long) (keyMatches[i] ^ 3) << 32) | i;
+        }
+        Arrays.sort(candidates, 0, size);
+
+        // score, rank, count, match type and taxon (name order) packed for a single primitive sort
+        long[] ranked = new long[size];
+        int rankedSize = 0;
+        for (int i = 0; i < size; i++) {
+            int taxon = (int) (candidates[i] >>> 37);
+            if (i + 1 < size && (int) (candidates[i + 1] >>> 37) == taxon) {
+                continue;
+            }
+            int score = (int) ((candidates[i] >>> 34) & 7);
+            int preference = (int) ((candidates[i] >>> 32) & 3);
+            long rank = Math.max(0, Math.min(16383, 10000 - rankIds[taxon]));
+            long count = Math.min(511, (long) (Math.log(counts[taxon] + 1) / Math.log(2) * 8));
+            ranked[rankedSize] = ((long) score << 57) | (rank << 43) | (count << 34) | ((long) preference << 32)
+                    | (0xFFFFFFFFL - taxon);
+            rankedSize++;
+        }
+        Arrays.sort(ranked, 0, rankedSize);
+
+        List<Match> matches = new ArrayList<>(Math.min(max, rankedSize));
+        for (int i = rankedSize - 1; i >= 0 && matches.size() < max; i--) {
+            int taxon = (int) (0xFFFFFFFFL - (ranked[i] & 0xFFFFFFFFL));
+
+            // the best key of the taxon is the last candidate of the taxon
+            int next = Arrays.binarySearch(candidates, 0, size, (long) (taxon + 1) << 37);
+            int last = (next >= 0 ? next : -next - 1) - 1;
+            int key = (int) (candidates[last] & 0xFFFFFFFFL);
+
+            matches.add(new Match(taxon, keyMatches[key], (int) (ranked[i] >>> 57), keyLabels[key]));
+        }
+        return matches;
+    }
+
+    private int lowerBound(String q) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(q) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public int size() {
+        return lsids.length;
+    }
+
+    public String getLsid(int taxon) {
+        return lsids[taxon];
+    }
+
+    public String getName(int taxon) {
+        return names[taxon];
+    }
+
+    public int getRankId(int taxon) {
+        return rankIds[taxon];
+    }
+
+    public long getCount(int taxon) {
+        return counts[taxon];
+    }
+
+    /**
+     * @return the value added with the taxon
+     */
+    public Object getValue(int taxon) {
+        return values[taxon];
+    }
+
+    /**
+     * Normalise a name for indexing and searching.
+     */
+    public static String normalise(String name) {
+        if (name == null) {
+            return "";
+        }
+        String s = Normalizer.normalize(name, Normalizer.Form.NFD);
+        s = DIACRITICS.matcher(s).replaceAll("");
+        return SPACES.matcher(s.toLowerCase()).replaceAll(" ").trim();
+    }
+
+    public static class Match {
+        public final int taxon;
+        /**
+         * MATCH_SCIENTIFIC_NAME, MATCH_VERNACULAR_NAME or MATCH_SYNONYM
+         */
+        public final int match;
+        /**
+         * SCORE_EXACT, SCORE_WORD, SCORE_PREFIX or SCORE_WORD_PREFIX
+         */
+        public final int score;
+        /**
+         * the name that matched
+         */
+        public final String label;
+
+        Match(int taxon, int match, int score, String label) {
+            this.taxon = taxon;
+            this.match = match;
+            this.score = score;
+            this.label = label;
+        }
+    }
+
+    public static class Builder {
+        private final List<Taxon> taxa = new ArrayList<>();
+        private final List<Key> keys = new ArrayList<>();
+
+        /**
+         * Add a taxon.
+         *
+         * @param lsid
+         * @param name   scientific name
+         * @param rankId
+         * @param count  occurrence count, used for ranking
+         * @param value  any value to keep with the taxon
+         * @return the taxon number, for adding vernacular names and synonyms
+         */
+        public int addTaxon(String lsid, String name, int rankId, long count, Object value) {
+            Taxon t = new Taxon();
+            t.lsid = lsid;
+            t.name = name;
+            t.rankId = rankId;
+            t.count = count;
+            t.value = value;
+            taxa.add(t);
+            addName(taxa.size() - 1, name, MATCH_SCIENTIFIC_NAME);
+            return taxa.size() - 1;
+        }
+
+        /**
+         * Add a name for a taxon.
+         *
+         * @param taxon returned by addTaxon
+         * @param name
+         * @param match MATCH_VERNACULAR_NAME or MATCH_SYNONYM
+         */
+        public void addName(int taxon, String name, int match) {
+            String n = normalise(name);
+            if (n.isEmpty()) {
+                return;
+            }
+            boolean wordStart = false;
+            int start = 0;
+            while (start >= 0) {
+                Key key = new Key();
+                key.key = start == 0 ? n : n.substring(start);
+                key.taxon = taxon;
+                key.match = (byte) match;
+                key.wordStart = wordStart;
+                key.label = name;
+                keys.add(key);
+
+                int space = n.indexOf(' ', start);
+                start = space < 0 ? -1 : space + 1;
+                wordStart = true;
+            }
+        }
+
+        public TaxonNameIndex build() {
+            return new TaxonNameIndex(this);
+        }
+    }
+
+    private static class Taxon {
+        String lsid;
+        String name;
+        int rankId;
+        long count;
+        Object value;
+    }
+
+    private static class Key {
+        String key;
+        int taxon;
+        byte match;
+        boolean wordStart;
+        String label;
+    }
+}
@@ -0,0 +1,77 @@
+package au.org.ala.biocache.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket rate limit.
+ * <p>
+ * A bucket holds up to capacity tokens and is refilled at capacity tokens per window. The state of each client is a
+ * single AtomicLong, the time at which its bucket will be full again (the generic cell rate algorithm), so a client
+ * uses constant memory and a request is a single compare and set.
+ */
+public class TokenBucket {
+
+    private final int capacity;
+    private final long window;
+    private final long interval;
+
+    /**
+     * @param capacity     maximum number of requests in a window, must be > 0
+     * @param windowMillis window length, must be > 0
+     */
+    public TokenBucket(int capacity, long windowMillis) {
+        if (capacity <= 0 || windowMillis <= 0) {
+            throw new IllegalArgumentException("capacity and window must be > 0");
+        }
+        this.capacity = capacity;
+        this.window = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.interval = window / capacity;
+    }
+
+    /**
+     * @return the state of a client with a full bucket
+     */
+    public AtomicLong newState() {
+        return new AtomicLong(Long.MIN_VALUE);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Take a token.
+     *
+     * @param state client state from {@link #newState()}
+     * @param now   current time from System.nanoTime()
+     * @return the number of tokens remaining, or -1 when there was no token available
+     */
+    public int tryConsume(AtomicLong state, long now) {
+        while (true) {
+            long current = state.get();
+            long full = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+            long next = full + interval;
+            if (next - now > window) {
+                return -1;
+            }
+            if (state.compareAndSet(current, next)) {
+                return (int) Math.min(capacity - 1, (window - (next - now)) / interval);
+            }
+        }
+    }
+
+    /**
+     * @param state client state from {@link #newState()}
+     * @param now   current time from System.nanoTime()
+     * @return milliseconds until a token is available, 0 when one is available now
+     */
+    public long getRetryAfterMillis(AtomicLong state, long now) {
+        long current = state.get();
+        if (current == Long.MIN_VALUE) {
+            return 0;
+        }
+        long wait = current + interval - window - now;
+        return wait <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(wait) + 1;
+    }
+}
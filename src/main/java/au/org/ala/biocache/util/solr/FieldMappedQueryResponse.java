@@ -10,6 +10,7 @@ import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.util.NamedList;
 
+import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -21,6 +22,7 @@ public class FieldMappedQueryResponse extends QueryResponse {
     final private FieldMappedSolrParams solrParams;
     final private QueryResponse delegate;
 
+    // translated results and facets, created when first used. A response can be shared by coalesced queries.
     SolrDocumentList _results;
     private List<FacetField> _facetFields = null;
     private List<FacetField> _facetDates = null;
@@ -49,7 +51,7 @@ public class FieldMappedQueryResponse extends QueryResponse {
     }
 
     @Override
-    public SolrDocumentList getResults() {
+    public synchronized SolrDocumentList getResults() {
 
         if (this._results == null) {
 
@@ -59,47 +61,26 @@ public class FieldMappedQueryResponse extends QueryResponse {
 
             SolrDocumentList results = delegate.getResults();
 
-            Map<String, String[]> flMappings = this.solrParams.paramsInverseTranslations.get("fl");
+            FieldNameMapping mapping = FieldNameMapping.of(this.solrParams.paramsInverseTranslations.get("fl"));
 
-            if (flMappings == null) {
+            if (mapping == null) {
 
-                logger.debug("no field list supplied, no result translation");
+                logger.debug("no renamed fields in the field list, no result translation");
 
                 this._results = results;
 
             } else {
 
-                logger.debug("before results translation: " + results);
-
+                // documents are copies, callers may change them and the original documents can be shared
                 this._results = new SolrDocumentList();
                 this._results.setMaxScore(results.getMaxScore());
                 this._results.setNumFound(results.getNumFound());
                 this._results.setStart(results.getStart());
+                this._results.ensureCapacity(results.size());
 
-                results.forEach((SolrDocument solrDocument) -> {
-
-                    SolrDocument translatedSd = new SolrDocument();
-
-                    for (String fieldName : solrDocument.getFieldNames()) {
-
-                        String[] legacyFieldNames = flMappings.get(fieldName);
-
-                        if (legacyFieldNames != null) {
-
-                            for (String legacyFieldName : legacyFieldNames) {
-                                translatedSd.setField(legacyFieldName, solrDocument.getFieldValue(fieldName));
-                            }
-
-                        } else {
-
-                            translatedSd.setField(fieldName, solrDocument.getFieldValue(fieldName));
-                        }
-                    }
-
-                    this._results.add(translatedSd);
-                });
-
-                logger.debug("after results translation: " + this._results);
+                for (SolrDocument solrDocument : results) {
+                    this._results.add(new SolrDocument(new LinkedHashMap<>(new RenamedFieldMap(solrDocument, mapping))));
+                }
             }
         }
 
@@ -167,95 +148,69 @@ public class FieldMappedQueryResponse extends QueryResponse {
     }
 
     @Override
-    public List<FacetField> getFacetFields() {
+    public synchronized List<FacetField> getFacetFields() {
 
         if (this._facetFields == null) {
 
-            List<FacetField> facetFields = delegate.getFacetFields();
-
-            if (facetFields == null) {
-                return null;
-            }
-
-            this._facetFields = new ArrayList<>();
-            Map<String, String[]> facetMappings = this.solrParams.paramsInverseTranslations.get("facet.field");
-
-            if (facetMappings != null) {
-
-                for (FacetField facetField : facetFields) {
-
-                    String facetName = facetField.getName();
-                    String[] legacyFacetNames = facetMappings.getOrDefault(facetName, new String[0]);
-
-                    for (String legacyFacetName : legacyFacetNames) {
-
-                        if (facetName.equals(legacyFacetName)) {
-
-                            this._facetFields.add(facetField);
-
-                        } else if (legacyFacetName != null) {
-
-                            FacetField legacyFacet = new FacetField(legacyFacetName);
-                            for (FacetField.Count facetFieldCount : facetField.getValues()) {
-                                legacyFacet.add(facetFieldCount.getName(), facetFieldCount.getCount());
-                            }
-
-                            this._facetFields.add(legacyFacet);
-                        }
-                    }
-                }
-            }
+            this._facetFields = translateFacetFields(delegate.getFacetFields());
         }
 
         return this._facetFields;
     }
 
     @Override
-    public List<FacetField> getFacetDates() {
+    public synchronized List<FacetField> getFacetDates() {
 
         if (this._facetDates == null) {
 
-            List<FacetField> facetFields = delegate.getFacetDates();
+            this._facetDates = translateFacetFields(delegate.getFacetDates());
+        }
 
-            if (facetFields == null) {
-                return null;
-            }
+        return this._facetDates;
+    }
 
-            this._facetDates = new ArrayList<>();
-            Map<String, String[]> facetMappings = this.solrParams.paramsInverseTranslations.get("facet.field");
+    /**
+     * @return the facets under their requested names. A renamed facet is a view of the original facet.
+     */
+    private List<FacetField> translateFacetFields(List<FacetField> facetFields) {
 
-            if (facetMappings != null) {
+        if (facetFields == null) {
+            return null;
+        }
 
-                for (FacetField facetField : facetFields) {
+        List<FacetField> translated = new ArrayList<>(facetFields.size());
+        Map<String, String[]> facetMappings = this.solrParams.paramsInverseTranslations.get("facet.field");
 
-                    String facetName = facetField.getName();
-                    String[] legacyFacetNames = facetMappings.getOrDefault(facetName, new String[0]);
+        if (facetMappings != null) {
 
-                    for (String legacyFacetName : legacyFacetNames) {
+            for (FacetField facetField : facetFields) {
 
-                        if (facetName.equals(legacyFacetName)) {
+                String facetName = facetField.getName();
+                String[] legacyFacetNames = facetMappings.get(facetName);
 
-                            this._facetDates.add(facetField);
+                if (legacyFacetNames == null) {
+                    continue;
+                }
 
-                        } else if (legacyFacetName != null) {
+                for (String legacyFacetName : legacyFacetNames) {
 
-                            FacetField legacyFacet = new FacetField(legacyFacetName);
-                            for (FacetField.Count facetFieldCount : facetField.getValues()) {
-                                legacyFacet.add(facetFieldCount.getName(), facetFieldCount.getCount());
-                            }
+                    if (facetName.equals(legacyFacetName)) {
 
-                            this._facetDates.add(legacyFacet);
-                        }
+                        translated.add(facetField);
+
+                    } else if (legacyFacetName != null) {
+
+                        translated.add(new RenamedFacetField(legacyFacetName, facetField));
                     }
                 }
             }
         }
 
-        return this._facetDates;
+        return translated;
     }
 
     @Override
-    public List<RangeFacet> getFacetRanges() {
+    public synchronized List<RangeFacet> getFacetRanges() {
 
         if (this._rangeFacets == null) {
 
@@ -301,7 +256,7 @@ public class FieldMappedQueryResponse extends QueryResponse {
     }
 
     @Override
-    public List<IntervalFacet> getIntervalFacets() {
+    public synchronized List<IntervalFacet> getIntervalFacets() {
 
         if (this._intervalFacets == null) {
 
@@ -458,8 +413,229 @@ public class FieldMappedQueryResponse extends QueryResponse {
         return SolrResponse.deserialize(bytes);
     }
 
+    /**
+     * Renamed fields of a field list, from the SOLR field name to the requested field names.
+     */
+    static class FieldNameMapping implements Serializable {
+
+        // SOLR field name to the requested names, only for renamed fields
+        final Map<String, String[]> requestedNames = new HashMap<>();
+
+        // requested name to the SOLR field name
+        final Map<String, String> solrNames = new HashMap<>();
+
+        // SOLR field names that were not requested under their own name
+        final Set<String> hidden = new HashSet<>();
+
+        /**
+         * @param inverseTranslations SOLR field name to the requested names, may be null
+         * @return the mapping, or null when no field is renamed
+         */
+        static FieldNameMapping of(Map<String, String[]> inverseTranslations) {
+
+            if (inverseTranslations == null) {
+                return null;
+            }
+
+            FieldNameMapping mapping = null;
+
+            for (Map.Entry<String, String[]> entry : inverseTranslations.entrySet()) {
+
+                String solrName = entry.getKey();
+                if (solrName == null) {
+                    continue;
+                }
+
+                boolean renamed = false;
+                boolean requested = false;
+                for (String requestedName : entry.getValue()) {
+                    if (solrName.equals(requestedName)) {
+                        requested = true;
+                    } else if (requestedName != null) {
+                        renamed = true;
+                    }
+                }
+
+                if (renamed) {
+                    if (mapping == null) {
+                        mapping = new FieldNameMapping();
+                    }
+                    mapping.requestedNames.put(solrName, entry.getValue());
+                    for (String requestedName : entry.getValue()) {
+                        if (requestedName != null && !solrName.equals(requestedName)) {
+                            mapping.solrNames.put(requestedName, solrName);
+                        }
+                    }
+                    if (!requested) {
+                        mapping.hidden.add(solrName);
+                    }
+                }
+            }
+
+            return mapping;
+        }
+    }
+
+    /**
+     * Read only view of the fields of a SolrDocument with renamed fields.
+     */
+    static class RenamedFieldMap extends AbstractMap<String, Object> implements Serializable {
+
+        final Map<String, Object> fields;
+        final FieldNameMapping mapping;
+
+        RenamedFieldMap(Map<String, Object> fields, FieldNameMapping mapping) {
+            this.fields = fields;
+            this.mapping = mapping;
+        }
+
+        private Object solrName(Object name) {
+            String solrName = mapping.solrNames.get(name);
+            return solrName != null ? solrName : name;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return mapping.hidden.contains(key) ? null : fields.get(solrName(key));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return !mapping.hidden.contains(key) && fields.containsKey(solrName(key));
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+
+                        final Iterator<Entry<String, Object>> it = fields.entrySet().iterator();
+                        Entry<String, Object> current;
+
+                        // requested names of the current entry when it is renamed
+                        String[] names;
+                        int next;
+                        boolean pending;
+
+                        @Override
+                        public boolean hasNext() {
+                            if (pending) {
+                                return true;
+                            }
+                            if (names != null && skipNullNames()) {
+                                return pending = true;
+                            }
+                            while (it.hasNext()) {
+                                current = it.next();
+                                names = mapping.requestedNames.get(current.getKey());
+                                next = 0;
+                                if (names == null || skipNullNames()) {
+                                    return pending = true;
+                                }
+                            }
+                            names = null;
+                            return false;
+                        }
+
+                        private boolean skipNullNames() {
+                            while (next < names.length && names[next] == null) {
+                                next++;
+                            }
+                            return next < names.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            pending = false;
+                            if (names == null) {
+                                return new SimpleImmutableEntry<>(current);
+                            }
+                            return new SimpleImmutableEntry<>(names[next++], current.getValue());
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Iterator<Entry<String, Object>> it = iterator(); it.hasNext(); it.next()) {
+                        size++;
+                    }
+                    return size;
+                }
+            };
+        }
+    }
+
+    /**
+     * View of a FacetField with another name.
+     */
+    static class RenamedFacetField extends FacetField {
+
+        private final FacetField facetField;
+
+        // counts of the original facet field that refer to this facet field, created when first used
+        private List<Count> values;
+
+        RenamedFacetField(String name, FacetField facetField) {
+            super(name, facetField.getGap(), facetField.getEnd());
+            this.facetField = facetField;
+        }
+
+        @Override
+        public void add(String name, long cnt) {
+            facetField.add(name, cnt);
+            values = null;
+        }
+
+        @Override
+        public void insert(String name, long cnt) {
+            facetField.insert(name, cnt);
+            values = null;
+        }
+
+        @Override
+        public List<Count> getValues() {
+            List<Count> original = facetField.getValues();
+            if (original == null) {
+                return null;
+            }
+            if (values == null) {
+                List<Count> renamed = new ArrayList<>(original.size());
+                for (Count count : original) {
+                    renamed.add(new Count(this, count.getName(), count.getCount()));
+                }
+                values = renamed;
+            }
+            return values;
+        }
+
+        @Override
+        public int getValueCount() {
+            return facetField.getValueCount();
+        }
+
+        @Override
+        public FacetField getLimitingFields(long max) {
+            return new RenamedFacetField(getName(), facetField.getLimitingFields(max));
+        }
+
+        @Override
+        public String toString() {
+            return getName() + ":" + getValues();
+        }
+    }
+
     class WrappedRangeFacet<B, G> extends RangeFacet<B, G> {
 
+        private RangeFacet<B, G> rangeFacet;
+
         protected WrappedRangeFacet(String name, B start, B end, G gap, Number before, Number after, Number between) {
             super(name, start, end, gap, before, after, between);
         }
@@ -472,6 +648,12 @@ public class FieldMappedQueryResponse extends QueryResponse {
                     rangedFacet.getBefore(),
                     rangedFacet.getAfter(),
                     rangedFacet.getBetween());
+            this.rangeFacet = rangedFacet;
+        }
+
+        @Override
+        public List<Count> getCounts() {
+            return rangeFacet != null ? rangeFacet.getCounts() : super.getCounts();
         }
     }
 }
@@ -2,6 +2,8 @@ package au.org.ala.biocache.util.solr;
 
 import org.apache.solr.client.solrj.*;
 import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.client.solrj.impl.StreamingBinaryResponseParser;
+import org.apache.solr.client.solrj.request.QueryRequest;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.SolrPingResponse;
 import org.apache.solr.client.solrj.response.UpdateResponse;
@@ -294,14 +296,49 @@ public class FieldMappedSolrClient extends SolrClient {
 
     @Override
     public QueryResponse queryAndStreamResponse(String collection, SolrParams params, StreamingResponseCallback callback) throws SolrServerException, IOException {
+        return this.queryAndStreamResponse(collection, params, SolrRequest.METHOD.GET, callback);
+    }
+
+    /**
+     * Query and pass each document to the callback as it is read. The documents have the requested field names.
+     */
+    public QueryResponse queryAndStreamResponse(String collection, SolrParams params, SolrRequest.METHOD method, StreamingResponseCallback callback) throws SolrServerException, IOException {
 
         FieldMappedSolrParams translatedParams = new FieldMappedSolrParams(fieldMappingUtil, params);
 
-        QueryResponse queryResponse = delegate.queryAndStreamResponse(collection, translatedParams, callback);
+        StreamingResponseCallback translatedCallback = translateCallback(translatedParams, callback);
+
+        QueryRequest queryRequest = new QueryRequest(translatedParams, method);
+        queryRequest.setStreamingResponseCallback(translatedCallback);
+        queryRequest.setResponseParser(new StreamingBinaryResponseParser(translatedCallback));
+
+        QueryResponse queryResponse = queryRequest.process(delegate, collection);
 
         return new FieldMappedQueryResponse(this, translatedParams, queryResponse);
     }
 
+    private StreamingResponseCallback translateCallback(FieldMappedSolrParams translatedParams, StreamingResponseCallback callback) {
+
+        FieldMappedQueryResponse.FieldNameMapping mapping =
+                FieldMappedQueryResponse.FieldNameMapping.of(translatedParams.paramsInverseTranslations.get("fl"));
+
+        if (mapping == null) {
+            return callback;
+        }
+
+        return new StreamingResponseCallback() {
+            @Override
+            public void streamSolrDocument(SolrDocument doc) {
+                callback.streamSolrDocument(new SolrDocument(new FieldMappedQueryResponse.RenamedFieldMap(doc, mapping)));
+            }
+
+            @Override
+            public void streamDocListInfo(long numFound, long start, Float maxScore) {
+                callback.streamDocListInfo(numFound, start, maxScore);
+            }
+        };
+    }
+
     public QueryResponse queryAndStreamResponse(SolrParams params, StreamingResponseCallback callback) throws SolrServerException, IOException {
         return this.queryAndStreamResponse((String)null, params, callback);
     }
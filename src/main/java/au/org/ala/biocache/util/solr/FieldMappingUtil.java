@@ -12,8 +12,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,8 +19,9 @@ import java.util.stream.Stream;
 public class FieldMappingUtil {
     private static final Logger logger = Logger.getLogger(FieldMappingUtil.class);
 
-    private Map<String, String> fieldMappings = new Hashtable<>();
-    private Map<String, Map<String, String>> enumValueMappings = new Hashtable<>();
+    // read only after configuration
+    private Map<String, String> fieldMappings = new HashMap<>();
+    private Map<String, Map<String, String>> enumValueMappings = new HashMap<>();
 
     @Value("${solr.pipelines.field.config:/data/biocache/config/pipelines-field-config.json}")
     void setPipelinesFieldConfig(String pipelinesFieldConfig) throws IOException {
@@ -54,8 +53,6 @@ public class FieldMappingUtil {
     static Consumer<Pair<String, String>> NOOP_TRANSLATION = (Pair<String, String> m) -> {};
 
     static final String DEPRECATED_PREFIX = "deprecated_";
-    static final Pattern ENUM_VALUE_PATTERN = Pattern.compile("(\\w+)");
-    static final Pattern QUERY_TERM_PATTERN = Pattern.compile("(^|\\s|[-\\+!]|\\(|[-\\+!]\\(|\\([-\\+!])(\\w+):");
 
 
     public Stream<Pair<String, String>> getFieldMappingStream() {
@@ -76,63 +73,110 @@ public class FieldMappingUtil {
         return translateQueryFields(NOOP_TRANSLATION, query);
     }
 
+    /**
+     * Translate the field names, and the enum values of translated fields, in a query.
+     * <p>
+     * A field name is a word followed by ':' that is at the start of the query or follows whitespace, '-', '+', '!'
+     * or '('. The query is scanned once and the original query is returned when nothing is translated.
+     */
     public String translateQueryFields(Consumer<Pair<String, String>> translation, String query) {
 
         if (query == null) {
             return null;
         }
 
-        Matcher matcher = QUERY_TERM_PATTERN.matcher(query);
-        boolean result = matcher.find();
+        StringBuilder sb = null;
+        int copied = 0;
 
-        if (result) {
+        String prevTerm = null;
+        int prevEnd = 0;
 
-            StringBuffer sb = new StringBuffer();
+        for (int colon = query.indexOf(':'); colon >= 0; colon = query.indexOf(':', colon + 1)) {
 
-            String prevTerm = null;
-            int prevEnd = 0;
-
-            // loop through all matched pattern groups
-            do {
-
-                String prefix = matcher.group(1);
-                String queryTerm = matcher.group(2);
+            // the field name is the word before the ':'
+            int start = colon;
+            while (start > prevEnd && isWordChar(query.charAt(start - 1))) {
+                start--;
+            }
+            if (start == colon || (start > 0 && !isTermPrefix(query.charAt(start - 1)))
+                    || (start == prevEnd && prevEnd > 0)) {
+                continue;
+            }
 
-                String translatedFieldName = translateFieldName(translation, queryTerm);
+            String queryTerm = query.substring(start, colon);
+            String translatedFieldName = translateFieldName(translation, queryTerm);
 
-                if (matcher.start() > 0 && prevTerm == null) {
-                    // append initial prefix
-                    sb.append(query.substring(0, matcher.start()));
+            if (prevTerm != null) {
+                // translate the value between the end of the previous term and the start of the current
+                sb = translateValue(sb, query, copied, prevTerm, prevEnd, start);
+                if (sb != null) {
+                    copied = start;
                 }
+            }
 
-                if (prevTerm != null) {
-                    // collect the value between the end of the previous group and the start of the current
-                    String value = query.substring(prevEnd, matcher.start());
-                    sb.append(translateFieldValue(prevTerm, value));
+            if (!translatedFieldName.equals(queryTerm)) {
+                if (sb == null) {
+                    sb = new StringBuilder(query.length() + 16);
                 }
+                sb.append(query, copied, start).append(translatedFieldName);
+                copied = colon;
+            }
+
+            prevTerm = translatedFieldName;
+            prevEnd = colon + 1;
+        }
 
-                // append the translated term with prefix
-                sb.append(prefix);
-                sb.append(translatedFieldName);
-                sb.append(":");
+        if (prevTerm != null) {
+            // translate the value after the last term
+            sb = translateValue(sb, query, copied, prevTerm, prevEnd, query.length());
+            if (sb != null) {
+                copied = query.length();
+            }
+        }
 
-                prevTerm = translatedFieldName;
-                prevEnd = matcher.end();
+        if (sb == null) {
+            return query;
+        }
 
-                result = matcher.find();
+        return sb.append(query, copied, query.length()).toString();
+    }
 
-            } while (result);
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
 
-            // collect the term value after the last term match 
-            String value = query.substring(prevEnd);
-            sb.append(translateFieldValue(prevTerm, value));
+    private static boolean isTermPrefix(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r'
+                || c == '-' || c == '+' || c == '!' || c == '(';
+    }
 
-            return sb.toString();
+    /**
+     * Append the translated value query[start, end) to sb when it differs from the original value.
+     *
+     * @return sb, created when it is null and the value is translated. null when nothing has been translated.
+     */
+    private StringBuilder translateValue(StringBuilder sb, String query, int copied, String term, int start, int end) {
+        if (enumValueMappings == null || !enumValueMappings.containsKey(term)) {
+            return sb == null ? null : sb.append(query, copied, end);
         }
-
-        return query;
+        String value = query.substring(start, end);
+        String translated = translateFieldValue(term, value);
+        if (translated != value) {
+            if (sb == null) {
+                sb = new StringBuilder(query.length() + 16);
+            }
+            sb.append(query, copied, start).append(translated);
+        } else if (sb != null) {
+            sb.append(query, copied, end);
+        }
+        return sb;
     }
 
+    /**
+     * Translate the enum values of a field.
+     *
+     * @return the translated value, or value when nothing is translated
+     */
     public String translateFieldValue(String term, String value) {
 
         if (enumValueMappings == null || term == null || value == null) {
@@ -140,37 +184,40 @@ public class FieldMappingUtil {
         }
 
         Map<String, String> enumValueMapping = enumValueMappings.get(term);
-        if (enumValueMapping != null) {
-
-            Matcher matcher = ENUM_VALUE_PATTERN.matcher(value);
-            boolean result = matcher.find();
-
-            if (result) {
-
-                StringBuffer sb = new StringBuffer();
-
-                do {
-
-                    String enumValue = matcher.group(1);
-                    String translatedEnumValue = enumValueMapping.get(enumValue);
-
-                    if (translatedEnumValue == null) {
-                        matcher.appendReplacement(sb, enumValue);
-                    } else {
-                        matcher.appendReplacement(sb, translatedEnumValue);
-                    }
+        if (enumValueMapping == null || enumValueMapping.isEmpty()) {
+            return value;
+        }
 
-                    result = matcher.find();
+        StringBuilder sb = null;
+        int copied = 0;
 
-                } while (result);
+        int i = 0;
+        while (i < value.length()) {
+            if (!isWordChar(value.charAt(i))) {
+                i++;
+                continue;
+            }
 
-                matcher.appendTail(sb);
+            int start = i;
+            while (i < value.length() && isWordChar(value.charAt(i))) {
+                i++;
+            }
 
-                return sb.toString();
+            String translatedEnumValue = enumValueMapping.get(value.substring(start, i));
+            if (translatedEnumValue != null) {
+                if (sb == null) {
+                    sb = new StringBuilder(value.length() + 16);
+                }
+                sb.append(value, copied, start).append(translatedEnumValue);
+                copied = i;
             }
         }
 
-        return value;
+        if (sb == null) {
+            return value;
+        }
+
+        return sb.append(value, copied, value.length()).toString();
     }
 
     public String translateFieldName(String fieldName) {
@@ -189,17 +236,17 @@ public class FieldMappingUtil {
             return fieldName;
         }
 
-        String translatedFieldName = this.fieldMappings.getOrDefault(fieldName, "\0");
-
-        if (translatedFieldName == null) {
-
-            translation.accept(Pair.of(fieldName, null));
-            return DEPRECATED_PREFIX + fieldName;
+        String translatedFieldName = this.fieldMappings.get(fieldName);
 
-        } else if (!"\0".equals(translatedFieldName)) {
+        if (translatedFieldName != null) {
 
             translation.accept(Pair.of(fieldName, translatedFieldName));
             return translatedFieldName;
+
+        } else if (this.fieldMappings.containsKey(fieldName)) {
+
+            translation.accept(Pair.of(fieldName, null));
+            return DEPRECATED_PREFIX + fieldName;
         }
 
         translation.accept(Pair.of(fieldName, fieldName));
@@ -14,6 +14,8 @@
  ***************************************************************************/
 package au.org.ala.biocache.web;
 
+import au.org.ala.biocache.util.CidrTrie;
+import au.org.ala.biocache.util.TokenBucket;
 import org.ala.client.util.Constants;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.cache.Cache;
@@ -22,19 +24,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.security.web.util.matcher.IpAddressMatcher;
 import org.springframework.web.client.RestOperations;
 
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.time.Instant;
-import java.util.ArrayDeque;
-import java.util.Arrays;
 import java.util.Map;
-import java.util.function.Supplier;
-import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Controllers that need to perform security checks should extend this class and call shouldPerformOperation.
@@ -43,8 +41,8 @@ import java.util.stream.Stream;
  */
 public class AbstractSecureController {
 
-    protected Supplier<Stream<IpAddressMatcher>> excludedNetworkStream;
-    protected Supplier<Stream<IpAddressMatcher>> includedNetworkStream;
+    protected CidrTrie excludedNetworkTrie;
+    protected CidrTrie includedNetworkTrie;
 
     @Value("${ratelimit.window.seconds:300}")
     protected int rateLimitWindowSeconds;
@@ -55,6 +53,8 @@ public class AbstractSecureController {
     @Inject
     protected CacheManager cacheManager;
 
+    private volatile TokenBucket tokenBucket;
+
     public AbstractSecureController(){}
 
     /**
@@ -65,10 +65,7 @@ public class AbstractSecureController {
      */
     @Value("${ratelimit.network.exclude:#{null}}")
     void setExcludedNetworks(String[] networks) {
-        if (networks != null) {
-            excludedNetworkStream = () -> Arrays.stream(networks)
-                    .map(IpAddressMatcher::new);
-        }
+        excludedNetworkTrie = networks != null ? new CidrTrie(networks) : null;
     }
 
     /**
@@ -79,10 +76,7 @@ public class AbstractSecureController {
      */
     @Value("${ratelimit.network.include:#{null}}")
     void setIncludedNetworks(String[] networks) {
-        if (networks != null) {
-            includedNetworkStream = () -> Arrays.stream(networks)
-                    .map(IpAddressMatcher::new);
-        }
+        includedNetworkTrie = networks != null ? new CidrTrie(networks) : null;
     }
 
     /**
@@ -116,14 +110,28 @@ public class AbstractSecureController {
      * @throws IOException
      */
     public boolean rateLimitRequest(HttpServletRequest request) throws IOException {
+        return rateLimitRequest(request, null);
+    }
+
+    /**
+     * Check if the request should be rate limited, as {@link #rateLimitRequest(HttpServletRequest)}.
+     * The remaining number of requests in the window is added to the response headers X-RateLimit-Limit and
+     * X-RateLimit-Remaining. Retry-After is added when the request is rate limited.
+     *
+     * @param request
+     * @param response may be null
+     * @return if the request should be rate limited
+     * @throws IOException
+     */
+    public boolean rateLimitRequest(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
         String ipAddress = getIPAddress(request);
         boolean ratelimitIp = true;
-        if (excludedNetworkStream != null) {
-            ratelimitIp &= excludedNetworkStream.get().noneMatch(networkMatcher -> networkMatcher.matches(ipAddress));
+        if (excludedNetworkTrie != null) {
+            ratelimitIp &= !excludedNetworkTrie.matches(ipAddress);
         }
-        if (includedNetworkStream != null) {
-            ratelimitIp |= includedNetworkStream.get().anyMatch(networkMatcher -> networkMatcher.matches(ipAddress));
+        if (includedNetworkTrie != null) {
+            ratelimitIp |= includedNetworkTrie.matches(ipAddress);
         }
 
         if (!ratelimitIp) {
@@ -132,40 +140,47 @@ public class AbstractSecureController {
 
         if (rateLimitWindowSeconds > 0 && rateLimitCount > 0) {
 
+            TokenBucket bucket = getTokenBucket();
+
+            // the cache bounds the number of clients, an evicted client starts with a full bucket
             Cache cache = cacheManager.getCache("rateLimit");
             Cache.ValueWrapper valueWrapper = cache.get(ipAddress);
-            ArrayDeque<Instant> accessTimes;
-
             if (valueWrapper == null) {
-
-                accessTimes = new ArrayDeque<>();
-
-            } else {
-
-                accessTimes = (ArrayDeque<Instant>) valueWrapper.get();
-
-                // remove any access times that are older then the rate limit window
-                Instant windowStart = Instant.now().minusSeconds(rateLimitWindowSeconds);
-                for (Instant oldestAccessTime = accessTimes.getFirst();
-                     oldestAccessTime != null && oldestAccessTime.isBefore(windowStart);
-                     oldestAccessTime = accessTimes.getFirst()) {
-                    accessTimes.removeFirst();
+                AtomicLong newState = bucket.newState();
+                valueWrapper = cache.putIfAbsent(ipAddress, newState);
+                if (valueWrapper == null) {
+                    valueWrapper = () -> newState;
                 }
             }
+            AtomicLong state = (AtomicLong) valueWrapper.get();
 
-            if (accessTimes.size() < rateLimitCount) {
-
-                // add access times keyed by IP address only for successful requests.
-                accessTimes.addLast(Instant.now());
-                cache.put(ipAddress, accessTimes);
+            long now = System.nanoTime();
+            int remaining = bucket.tryConsume(state, now);
 
-                return false;
+            if (response != null) {
+                response.setHeader("X-RateLimit-Limit", String.valueOf(bucket.getCapacity()));
+                response.setHeader("X-RateLimit-Remaining", String.valueOf(Math.max(0, remaining)));
+                if (remaining < 0) {
+                    long retryAfter = TimeUnit.MILLISECONDS.toSeconds(bucket.getRetryAfterMillis(state, now) + 999);
+                    response.setHeader("Retry-After", String.valueOf(retryAfter));
+                }
             }
+
+            return remaining < 0;
         }
 
         return true;
     }
 
+    private TokenBucket getTokenBucket() {
+        TokenBucket bucket = tokenBucket;
+        if (bucket == null) {
+            bucket = new TokenBucket(rateLimitCount, TimeUnit.SECONDS.toMillis(rateLimitWindowSeconds));
+            tokenBucket = bucket;
+        }
+        return bucket;
+    }
+
     /**
      * Check the validity of the supplied key, returning false if the store is in read only mode.
      *
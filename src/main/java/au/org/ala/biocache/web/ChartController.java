@@ -17,6 +17,7 @@ package au.org.ala.biocache.web;
 import au.org.ala.biocache.dao.IndexDAO;
 import au.org.ala.biocache.dao.SearchDAO;
 import au.org.ala.biocache.dto.*;
+import au.org.ala.biocache.util.SearchUtils;
 import au.org.ala.biocache.util.solr.FieldMappingUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -24,17 +25,21 @@ import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.response.FieldStatsInfo;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
 import org.jetbrains.annotations.NotNull;
 import org.springdoc.api.annotations.ParameterObject;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import javax.inject.Inject;
 import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 @Controller
@@ -52,6 +57,23 @@ public class ChartController extends AbstractSecureController implements Seriali
     @Inject
     protected FieldMappingUtil fieldMappingUtil;
 
+    // json.facet functions for SOLR stats component statTypes
+    private static final Map<String, String> STAT_FUNCTIONS = new LinkedHashMap<>();
+
+    static {
+        STAT_FUNCTIONS.put("min", "min");
+        STAT_FUNCTIONS.put("max", "max");
+        STAT_FUNCTIONS.put("mean", "avg");
+        STAT_FUNCTIONS.put("sum", "sum");
+        STAT_FUNCTIONS.put("sumOfSquares", "sumsq");
+        STAT_FUNCTIONS.put("stddev", "stddev");
+        STAT_FUNCTIONS.put("count", "countvals");
+        STAT_FUNCTIONS.put("missing", "missing");
+        STAT_FUNCTIONS.put("countDistinct", "unique");
+    }
+
+    private static final String STAT_PREFIX = "stat_";
+
     @Value("${charts.series.max:5}")
     private Integer maxSeriesFacets;
 
@@ -146,6 +168,14 @@ public class ChartController extends AbstractSecureController implements Seriali
         x = fieldMappingUtil.translateFieldName(x);
 
         List<String> statTypes = Arrays.asList(statType.split(","));
+        if (stats != null) {
+            for (String type : statTypes) {
+                if (!STAT_FUNCTIONS.containsKey(type)) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported statType: " + type
+                            + ". Supported values are " + String.join(",", STAT_FUNCTIONS.keySet()));
+                }
+            }
+        }
         //construct series subqueries
         List<Map> seriesFqs = produceSeriesFqs(searchParams, x, series, seriesranges, seriesother, seriesmissing);
 
@@ -160,126 +190,122 @@ public class ChartController extends AbstractSecureController implements Seriali
 
         boolean date = isDate(x);
 
-        for (Map seriesq : seriesFqs) {
-            //update fq
-            String[] fqBackup = searchParams.getFq();
+        // compile every series and x value, range or stat into one json.facet request
+        String statsField = stats != null ? fieldMappingUtil.translateFieldName(stats) : null;
+        Map<String, Object> statsFacet = stats != null ? makeStatsFacet(statsField, statTypes) : null;
+
+        Map<String, Object> xFacet = new LinkedHashMap<>();
+        List<Map> rangeMaps = new ArrayList<>();
+        if (xranges == null) {
+            if (x != null) {
+                Map<String, Object> terms = new LinkedHashMap<>();
+                terms.put("type", "terms");
+                terms.put("field", x);
+                if (stats == null) {
+                    //1. occurrence bar/pie/line chart of field
+                    terms.put("limit", maxStringFacets);
+                    terms.put("sort", "index".equals(fsort) ? "index asc" : "count desc");
+                    terms.put("missing", xmissing);
+                } else {
+                    //2. mean/max/min/quartile of field2, bar/pie/line chart of field1
+                    terms.put("limit", -1);
+                    terms.put("missing", xmissing);
+                    terms.put("facet", statsFacet);
+                }
+                if (xRanges.length() > 0) {
+                    terms.put("domain", Collections.singletonMap("filter", fieldMappingUtil.translateQueryFields(xRanges.toString())));
+                }
+                xFacet.put("x", terms);
 
-            if (seriesq.containsKey("fq")) {
-                appendFq(searchParams, seriesq.get("fq").toString());
+                if (inverseXranges.length() > 0) {
+                    xFacet.put("other", makeQueryFacet(inverseXranges.toString(), statsFacet));
+                }
+            } else if (stats != null) {
+                // stats of all records in the series
+                xFacet.putAll(statsFacet);
+            }
+        } else {
+            //3. and 4. occurrence or stats chart of numeric field with predefined ranges (min to <= value1; >value1 <= value2; > value2 <= max)
+            String[] xrangessplit = xranges.split(",");
+            for (int i = 0; i < xrangessplit.length - 1; i++) {
+                Map m = makeRangeMap(i == 0, x, xrangessplit[i], xrangessplit[i + 1], date);
+                rangeMaps.add(m);
+                xFacet.put("r" + i, makeQueryFacet(m.get("fq").toString(), statsFacet));
             }
+        }
+
+        Map<String, Object> jsonFacet = new LinkedHashMap<>();
+        for (int i = 0; i < seriesFqs.size(); i++) {
+            Object fq = seriesFqs.get(i).get("fq");
+            jsonFacet.put("s" + i, makeQueryFacet(fq != null ? fq.toString() : "*:*", xFacet));
+        }
+
+        SimpleOrderedMap facets = searchDAO.searchJsonFacet(searchParams, jsonFacet);
+
+        boolean statsDate = stats != null && isDate(statsField);
+        for (int i = 0; i < seriesFqs.size(); i++) {
+            SimpleOrderedMap seriesFacet = SearchUtils.getMap(facets, "s" + i);
 
             List data = new ArrayList();
 
             if (xranges == null && stats == null) {
-                //1. occurrence bar/pie/line chart of field
-                searchParams.setFacet(true);
-                searchParams.setFlimit(maxStringFacets);
-                searchParams.setFsort(fsort);
-                searchParams.setFacets(new String[]{x});
-
-                if (xRanges.length() > 0) appendFq(searchParams, xRanges.toString());
-
-                Collection<FacetResultDTO> l = searchDAO.findByFulltextSpatialQuery(searchParams, false, null).getFacetResults();
-                if (l.size() > 0) {
-                    data = l.iterator().next().getFieldResult();
-                    if (!xmissing) {
-                        for (int i = data.size() - 1; i >= 0; i--) {
-                            if (StringUtils.isEmpty(((FieldResultDTO) data.get(i)).getLabel())) data.remove(i);
-                        }
+                for (SimpleOrderedMap bucket : SearchUtils.getList(seriesFacet, "x", "buckets")) {
+                    FieldResultDTO fr = searchDAO.createFacetFieldResult(x, bucketValue(bucket.get("val")), getCount(bucket));
+                    if (xmissing || StringUtils.isNotEmpty(fr.getLabel())) {
+                        data.add(fr);
                     }
                 }
 
+                SimpleOrderedMap missing = SearchUtils.getMap(seriesFacet, "x", "missing");
+                if (xmissing && getCount(missing) > 0) {
+                    data.add(searchDAO.createFacetFieldResult(x, null, getCount(missing)));
+                }
+
                 if (inverseXranges.length() > 0) {
-                    searchParams.setFq(fqBackup);
-                    if (seriesq.containsKey("fq")) appendFq(searchParams, seriesq.get("fq").toString());
-
-                    searchParams.setFacet(false);
-                    appendFq(searchParams, inverseXranges.toString());
-                    SearchResultDTO sr = searchDAO.findByFulltextSpatialQuery(searchParams, false, null);
-                    if (sr != null) {
-                        data.add(new FieldResultDTO("Other", "Other", sr.getTotalRecords()));
-                    }
+                    data.add(new FieldResultDTO("Other", "Other", getCount(SearchUtils.getMap(seriesFacet, "other"))));
                 }
-            } else if (xranges == null && stats != null) {
-                //2. mean/max/min/quartile of field2, bar/pie/line chart of field1
-                if (xRanges.length() > 0) appendFq(searchParams, xRanges.toString());
-                data = searchDAO.searchStat(searchParams, stats, x, statTypes);
-                if (!xmissing) {
-                    for (int i = data.size() - 1; i >= 0; i--) {
-                        if (StringUtils.isEmpty(((FieldStatsItem) data.get(i)).getLabel())) data.remove(i);
+            } else if (xranges == null) {
+                if (x == null) {
+                    data.add(makeStatsItem(seriesFacet, statTypes, statsDate, null));
+                } else {
+                    for (SimpleOrderedMap bucket : SearchUtils.getList(seriesFacet, "x", "buckets")) {
+                        String value = bucketValue(bucket.get("val"));
+                        if (xmissing || StringUtils.isNotEmpty(value)) {
+                            FieldStatsItem item = makeStatsItem(bucket, statTypes, statsDate, value);
+                            item.setFq(x + ":\"" + value + "\"");
+                            data.add(item);
+                        }
                     }
-                }
 
-                if (inverseXranges.length() > 0) {
-                    searchParams.setFq(fqBackup);
-                    if (seriesq.containsKey("fq")) appendFq(searchParams, seriesq.get("fq").toString());
-
-                    searchParams.setFacet(false);
-                    appendFq(searchParams, inverseXranges.toString());
-                    List d = searchDAO.searchStat(searchParams, stats, null, statTypes);
-                    if (d != null && d.size() > 0) {
-                        ((FieldStatsItem) d.get(0)).setLabel("Other");
-                        data.add(d.get(0));
+                    SimpleOrderedMap missing = SearchUtils.getMap(seriesFacet, "x", "missing");
+                    if (xmissing && getCount(missing) > 0) {
+                        FieldStatsItem item = makeStatsItem(missing, statTypes, statsDate, null);
+                        item.setFq("-" + x + ":*");
+                        data.add(item);
                     }
-                }
-            } else if (xranges != null && stats == null) {
-                //3. occurrence bar/pie chart of numeric field with predefined ranges (min to <= value1; >value1 <= value2; > value2 <= max)
-
-                //use separate queries for each fq in xranges
-                searchParams.setFacet(false);
-                String[] xrangessplit = xranges.split(",");
-                String[] fqBackup2 = searchParams.getFq();
-                String[] xrangesFqs = new String[searchParams.getFq().length + 1];
-                if (searchParams.getFq().length > 0)
-                    System.arraycopy(searchParams.getFq(), 0, xrangesFqs, 0, searchParams.getFq().length);
-                List output = new ArrayList();
-                for (int i = 0; i < xrangessplit.length - 1; i++) {
-                    Map m = makeRangeMap(i == 0, x, xrangessplit[i], xrangessplit[i + 1], date);
-
-                    xrangesFqs[fqBackup2.length] = m.get("fq").toString();
-                    searchParams.setFq(xrangesFqs);
-
-                    SearchResultDTO l = searchDAO.findByFulltextSpatialQuery(searchParams, false, null);
-                    if (l != null) {
-                        String label = m.get("label").toString();
-                        FieldResultDTO fr = new FieldResultDTO(label, label, l.getTotalRecords(), m.get("fq").toString());
-
-                        output.add(fr);
+
+                    if (inverseXranges.length() > 0) {
+                        data.add(makeStatsItem(SearchUtils.getMap(seriesFacet, "other"), statTypes, statsDate, "Other"));
                     }
                 }
-                searchParams.setFq(fqBackup2);
-
-                data = output;
-            } else if (xranges != null && stats != null) {
-                //4. mean/max/min/quartile of field2, occurrence bar/pie chart of numeric field1 with predefined ranges (min to <= value1; >value1 <= value2; > value2 <= max)
-
-                String[] fqs = new String[searchParams.getFq().length + 1];
-                if (searchParams.getFq().length > 0)
-                    System.arraycopy(searchParams.getFq(), 0, fqs, 0, searchParams.getFq().length);
-
-                String[] r = xranges.split(",");
-                List output = new ArrayList<>(r.length - 1);
-                for (int i = 0; i < r.length; i++) {
-                    if (i < r.length - 1) {
-                        Map m = makeRangeMap(i == 0, x, r[i], r[i + 1], date);
-                        fqs[fqs.length - 1] = m.get("fq").toString();
-                        searchParams.setFq(fqs);
-
-                        List result = searchDAO.searchStat(searchParams, stats, null, statTypes);
-                        if (result.size() > 0) {
-                            ((FieldStatsItem) result.iterator().next()).setFq(fqs[fqs.length - 1]);
-                            ((FieldStatsItem) result.iterator().next()).setLabel(m.get("label").toString());
-                            output.addAll(result);
-                        }
+            } else {
+                for (int j = 0; j < rangeMaps.size(); j++) {
+                    Map m = rangeMaps.get(j);
+                    String label = m.get("label").toString();
+                    String fq = m.get("fq").toString();
+                    SimpleOrderedMap range = SearchUtils.getMap(seriesFacet, "r" + j);
+
+                    if (stats == null) {
+                        data.add(new FieldResultDTO(label, label, getCount(range), fq));
+                    } else {
+                        FieldStatsItem item = makeStatsItem(range, statTypes, statsDate, label);
+                        item.setFq(fq);
+                        data.add(item);
                     }
                 }
-
-                data = output;
             }
 
-            seriesq.put("data", data);
-
-            searchParams.setFq(fqBackup);
+            seriesFqs.get(i).put("data", data);
         }
 
         //insert zeros
@@ -298,6 +324,68 @@ public class ChartController extends AbstractSecureController implements Seriali
         return m;
     }
 
+    private Map<String, Object> makeQueryFacet(String fq, Map<String, Object> subFacets) {
+        Map<String, Object> facet = new LinkedHashMap<>();
+        facet.put("type", "query");
+        facet.put("q", fieldMappingUtil.translateQueryFields(fq));
+        if (subFacets != null && !subFacets.isEmpty()) {
+            facet.put("facet", subFacets);
+        }
+        return facet;
+    }
+
+    /**
+     * json.facet aggregations for the statTypes of a numeric or date field. Each is named STAT_PREFIX + statType.
+     */
+    private Map<String, Object> makeStatsFacet(String field, List<String> statTypes) {
+        Map<String, Object> facet = new LinkedHashMap<>();
+        for (String statType : statTypes) {
+            String function = STAT_FUNCTIONS.get(statType);
+            if (function != null) {
+                facet.put(STAT_PREFIX + statType, function + "(" + field + ")");
+            }
+        }
+        return facet;
+    }
+
+    /**
+     * Create a FieldStatsItem, as returned by the SOLR stats component, from the aggregations of a json.facet bucket.
+     */
+    private FieldStatsItem makeStatsItem(SimpleOrderedMap bucket, List<String> statTypes, boolean date, String label) {
+        NamedList<Object> stats = new NamedList<>();
+        for (String statType : statTypes) {
+            Object value = bucket != null ? bucket.get(STAT_PREFIX + statType) : null;
+            if (value == null && ("count".equals(statType) || "missing".equals(statType))) {
+                value = 0L;
+            }
+            if (value instanceof Number) {
+                if ("count".equals(statType) || "missing".equals(statType) || "countDistinct".equals(statType)) {
+                    value = ((Number) value).longValue();
+                } else if ("stddev".equals(statType) || "sumOfSquares".equals(statType)) {
+                    value = ((Number) value).doubleValue();
+                } else if (date && !"sum".equals(statType)) {
+                    value = new Date(((Number) value).longValue());
+                }
+            }
+            if (value != null && STAT_FUNCTIONS.containsKey(statType)) {
+                stats.add(statType, value);
+            }
+        }
+        return new FieldStatsItem(new FieldStatsInfo(stats, label));
+    }
+
+    private long getCount(SimpleOrderedMap bucket) {
+        Object count = bucket != null ? bucket.get("count") : null;
+        return count instanceof Number ? ((Number) count).longValue() : 0;
+    }
+
+    private String bucketValue(Object value) {
+        if (value instanceof Date) {
+            return DateTimeFormatter.ISO_INSTANT.format(((Date) value).toInstant());
+        }
+        return value != null ? value.toString() : null;
+    }
+
     private void insertZeros(List<Map> seriesFqs) {
         if (seriesFqs.size() > 1) {
             //build list
@@ -436,39 +524,43 @@ public class ChartController extends AbstractSecureController implements Seriali
             return false;
         }
 
-        String[] numberType = new String[]{"int", "tint", "double", "tdouble", "long", "tlong", "float", "tfloat"};
-        for (IndexFieldDTO f : indexDao.getIndexedFields()) {
-            if (f.getName().equalsIgnoreCase(field) && ArrayUtils.contains(numberType, f.getDataType()))
-                return true;
-        }
-        return false;
+        IndexFieldDTO f = getIndexField(field);
+        return f != null && ArrayUtils.contains(new String[]{"int", "tint", "double", "tdouble", "long", "tlong", "float", "tfloat"}, f.getDataType());
     }
 
     private boolean isDecimal(String field) throws Exception {
-        String[] numberType = new String[]{"double", "tdouble", "float", "tfloat"};
-        for (IndexFieldDTO f : indexDao.getIndexedFields()) {
-            if (f.getName().equalsIgnoreCase(field) && ArrayUtils.contains(numberType, f.getDataType())) {
-                return true;
-            }
-        }
-        return false;
+        IndexFieldDTO f = getIndexField(field);
+        return f != null && ArrayUtils.contains(new String[]{"double", "tdouble", "float", "tfloat"}, f.getDataType());
     }
 
     private boolean isDate(String field) throws Exception {
-        for (IndexFieldDTO f : indexDao.getIndexedFields()) {
-            if (f.getName().equalsIgnoreCase(field) && (f.getDataType().equalsIgnoreCase("tdate") || f.getDataType().equalsIgnoreCase("date")))
-                return true;
-        }
-        return false;
+        IndexFieldDTO f = getIndexField(field);
+        return f != null && (f.getDataType().equalsIgnoreCase("tdate") || f.getDataType().equalsIgnoreCase("date"));
     }
 
     private String getFieldDescription(String field) throws Exception {
-        for (IndexFieldDTO f : indexDao.getIndexedFields()) {
-            if (f.getName().equalsIgnoreCase(field) && f.getDescription() != null) return f.getDescription();
-        }
+        IndexFieldDTO f = getIndexField(field);
+        if (f != null && f.getDescription() != null) return f.getDescription();
         return field;
     }
 
+    private IndexFieldDTO getIndexField(String field) throws Exception {
+        if (field == null) {
+            return null;
+        }
+
+        IndexFieldDTO f = indexDao.getIndexedFieldsMap().get(field);
+        if (f == null) {
+            // field names were previously matched ignoring case
+            for (IndexFieldDTO indexField : indexDao.getIndexedFields()) {
+                if (indexField.getName().equalsIgnoreCase(field)) {
+                    return indexField;
+                }
+            }
+        }
+        return f;
+    }
+
     private List getSeriesFacets(String series, SpatialSearchRequestDTO searchParams, Integer _maxFacets, Boolean includeMissing) throws Exception {
         List seriesFqs = new ArrayList();
 
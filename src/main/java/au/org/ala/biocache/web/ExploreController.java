@@ -46,6 +46,7 @@ import java.io.OutputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.ObjLongConsumer;
 
 /**
  * Controller for the "explore your area" page
@@ -177,13 +178,12 @@ public class ExploreController {
         }
 
         //retrieve a list of subgroups with occurrences matching the query
-        List<FacetResultDTO> speciesSubgroupCounts = searchDao.getFacetCounts(requestParams);
         Map<String, Long> occurrenceCounts = new HashMap<String, Long>();
-        if (speciesSubgroupCounts.size() > 0) {
-            for (FieldResultDTO fr : speciesSubgroupCounts.get(0).getFieldResult()) {
-                occurrenceCounts.put(fr.getLabel(), fr.getCount());
+        searchDao.streamFacetValues(requestParams, (value, count) -> {
+            if (value != null) {
+                occurrenceCounts.put(value, count);
             }
-        }
+        });
 
         String taxonName = OccurrenceIndex.TAXON_NAME;
 
@@ -445,10 +445,9 @@ public class ExploreController {
     public @ResponseBody
     int getSpeciesCountOnlyInWKT(@ParameterObject SpatialSearchRequestParams requestParams) throws Exception {
 
-        List list = getSpeciesOnlyInWKT(requestParams);
-        if (list != null)
-            return list.size();
-        return 0;
+        int[] count = {0};
+        streamSpeciesOnlyInWKT(requestParams, (value, n) -> count[0]++);
+        return count[0];
     }
 
     /**
@@ -461,7 +460,12 @@ public class ExploreController {
     @RequestMapping(value = {"/explore/endemic/species"}, method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
     public @ResponseBody
     List<FieldResultDTO> getSpeciesOnlyInWKT(@ParameterObject SpatialSearchRequestParams requestParams) throws Exception {
+        List<FieldResultDTO> list = new ArrayList<>();
+        streamSpeciesOnlyInWKT(requestParams, (value, count) -> list.add(new FieldResultDTO(value, value, count)));
+        return list;
+    }
 
+    private void streamSpeciesOnlyInWKT(SpatialSearchRequestParams requestParams, ObjLongConsumer<String> consumer) throws Exception {
         SpatialSearchRequestDTO requested = SpatialSearchRequestDTO.create(requestParams);
         SpatialSearchRequestDTO superset = new SpatialSearchRequestDTO();
         superset.setQ("decimalLongitude:[-180 TO 180]");
@@ -471,7 +475,7 @@ public class ExploreController {
         prepareEndemicFacet(requested);
         prepareEndemicFacet(superset);
 
-        return searchDao.getSubquerySpeciesOnly(requested, superset);
+        searchDao.streamSubquerySpeciesOnly(requested, superset, consumer);
     }
 
     private void prepareEndemicFacet(SpatialSearchRequestDTO parentQuery) {
@@ -499,14 +503,19 @@ public class ExploreController {
     List<FieldResultDTO> getSpeciesOnlyInOneQuery(@ParameterObject SpatialSearchRequestParams parentQueryParams,
                                                   @PathVariable(value = "subQueryID") Long subQueryID)
             throws Exception {
+        List<FieldResultDTO> list = new ArrayList<>();
+        streamSpeciesOnlyInOneQuery(parentQueryParams, subQueryID, (value, count) -> list.add(new FieldResultDTO(value, value, count)));
+        return list;
+    }
 
+    private void streamSpeciesOnlyInOneQuery(SpatialSearchRequestParams parentQueryParams, Long subQueryID, ObjLongConsumer<String> consumer) throws Exception {
         SpatialSearchRequestDTO parentQuery = SpatialSearchRequestDTO.create(parentQueryParams);
         SpatialSearchRequestDTO subQuery = new SpatialSearchRequestDTO();
         subQuery.setQ("qid:" + subQueryID);
         prepareEndemicFacet(parentQuery);
 
         subQuery.setFacets(parentQuery.getFacets());
-        return searchDao.getSubquerySpeciesOnly(subQuery, parentQuery);
+        searchDao.streamSubquerySpeciesOnly(subQuery, parentQuery, consumer);
     }
 
     /**
@@ -529,7 +538,9 @@ public class ExploreController {
     Map getSpeciesOnlyInOneCountQuery(@ParameterObject SpatialSearchRequestParams parentQuery,
                                       @PathVariable(value = "subQueryID") Long subQueryID)
             throws Exception {
-        return Collections.singletonMap("count", getSpeciesOnlyInOneQuery(parentQuery, subQueryID).size());
+        int[] count = {0};
+        streamSpeciesOnlyInOneQuery(parentQuery, subQueryID, (value, n) -> count[0]++);
+        return Collections.singletonMap("count", count[0]);
     }
 
     /**
@@ -544,23 +555,23 @@ public class ExploreController {
         requestParams.setFacets(new String[]{OccurrenceIndex.NAMES_AND_LSID});
         requestParams.setFq((String[]) ArrayUtils.add(requestParams.getFq(), OccurrenceIndex.SPECIESID + ":*"));
 
-        // Cannot use getSpeciesOnlyInOneQueryCSV as the output columns differ
-        List<FieldResultDTO> list = getSpeciesOnlyInWKT(requestParams);
-
         response.setCharacterEncoding("UTF-8");
         response.setContentType("text/plain");
 
         java.io.PrintWriter writer = response.getWriter();
 
         writer.write(ENDEMISM_CSV_HEADER);
-        for (FieldResultDTO item : list) {
-            String s = item.getLabel();
+
+        // Cannot use getSpeciesOnlyInOneQueryCSV as the output columns differ
+        streamSpeciesOnlyInWKT(requestParams, (value, count) -> {
+            String s = value;
+            if (s == null) return;
             if (s.startsWith("\"") && s.endsWith("\"") && s.length() > 2) s = s.substring(1, s.length() - 1);
             String[] values = s.split("\\|", 6);
             if (values.length >= 5) {
-                writer.write("\n" + values[4] + ",\"" + values[0] + "\",\"" + values[2] + "\",," + values[1] + "," + item.getCount());
+                writer.write("\n" + values[4] + ",\"" + values[0] + "\",\"" + values[2] + "\",," + values[1] + "," + count);
             }
-        }
+        });
         writer.flush();
         writer.close();
     }
@@ -18,6 +18,7 @@ import au.org.ala.biocache.dao.SearchDAO;
 import au.org.ala.biocache.dto.*;
 import au.org.ala.biocache.heatmap.HeatMap;
 import au.org.ala.biocache.util.ColorUtil;
+import au.org.ala.biocache.util.PngEncoder;
 import au.org.ala.biocache.util.QueryFormatUtils;
 import com.google.common.base.Strings;
 import io.swagger.v3.oas.annotations.Operation;
@@ -40,7 +41,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
@@ -227,10 +227,8 @@ public class MapController {
         response.setHeader("Cache-Control", mapCacheControlHeaderPublicOrPrivate + ", max-age=" + mapCacheControlHeaderMaxAge);
         response.setHeader("ETag", mapETag.get());
         response.setContentType("image/png");
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ImageIO.write(img, "png", outputStream);
         ServletOutputStream outStream = response.getOutputStream();
-        outStream.write(outputStream.toByteArray());
+        PngEncoder.write(img, outStream);
         outStream.flush();
         outStream.close();
     }
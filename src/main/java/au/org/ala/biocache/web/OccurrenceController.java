@@ -231,6 +231,12 @@ public class OccurrenceController extends AbstractSecureController {
     @Value("${page.depth.max:5000}")
     public Integer pageDepthMax;
 
+    /**
+     * Minimum pageSize of an /occurrences/search that is written as the occurrences are read. 0 to disable.
+     */
+    @Value("${search.stream.pageSize:1000}")
+    public Integer searchStreamPageSize = 1000;
+
     private final AtomicReference<String> occurrenceETag = new AtomicReference<>(UUID.randomUUID().toString());
 
     private ExecutorService executor;
@@ -845,7 +851,7 @@ public class OccurrenceController extends AbstractSecureController {
     }
 
     private SearchResultDTO occurrenceSearch(SpatialSearchRequestParams requestParams) throws Exception {
-        return occurrenceSearch(requestParams, false, null);
+        return occurrenceSearch(requestParams, false, null, null);
     }
 
     @Deprecated
@@ -862,7 +868,7 @@ public class OccurrenceController extends AbstractSecureController {
             @Parameter(description = "Include image metadata")
             @RequestParam(value = "im", required = false, defaultValue = "false") Boolean lookupImageMetadata,
             HttpServletRequest request) throws Exception {
-        return occurrenceSearch(requestParams, lookupImageMetadata, request);
+        return occurrenceSearch(requestParams, lookupImageMetadata, request, null);
     }
 
     /**
@@ -886,7 +892,8 @@ public class OccurrenceController extends AbstractSecureController {
             @Valid @ParameterObject SpatialSearchRequestParams requestParams,
             @Parameter(description = "Include image metadata")
             @RequestParam(value = "im", required = false, defaultValue = "false") Boolean lookupImageMetadata,
-            HttpServletRequest request) throws Exception {
+            HttpServletRequest request,
+            HttpServletResponse response) throws Exception {
 
         SpatialSearchRequestDTO dto = SpatialSearchRequestDTO.create(requestParams);
 
@@ -909,15 +916,19 @@ public class OccurrenceController extends AbstractSecureController {
             logger.debug("occurrence search params = " + requestParams + " extra params = " + map);
         }
 
-        SearchResultDTO srtdto = null;
         //FIXME - under what circumstances do we allow sensitive search results....
-        if (request.getUserPrincipal() != null && request.isUserInRole("ROLE_ADMIN")) {
-            // what do we do here
-            srtdto = searchDAO.findByFulltextSpatialQuery(dto, true, map);
-        } else {
-            srtdto = searchDAO.findByFulltextSpatialQuery(dto, false, map);
+        boolean includeSensitive = request != null && request.getUserPrincipal() != null && request.isUserInRole("ROLE_ADMIN");
+
+        // write large pages as they are read, image metadata lookups need all the occurrences
+        if (response != null && !lookupImageMetadata && searchStreamPageSize > 0 && dto.getPageSize() >= searchStreamPageSize) {
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding("UTF-8");
+            searchDAO.writeSearchResultsToStream(dto, includeSensitive, map, response.getOutputStream());
+            return null;
         }
 
+        SearchResultDTO srtdto = searchDAO.findByFulltextSpatialQuery(dto, includeSensitive, map);
+
         if (srtdto.getTotalRecords() > 0 && lookupImageMetadata) {
             //use the image service API & grab the list of IDs
             List<String> occurrenceIDs = new ArrayList<String>();
@@ -1411,7 +1422,7 @@ public class OccurrenceController extends AbstractSecureController {
             return;
         }
 
-        if (rateLimitRequest(request)) {
+        if (rateLimitRequest(request, response)) {
             response.sendError(HttpServletResponse.SC_FORBIDDEN, "Request is rate limited");
             return;
         }
@@ -1492,26 +1503,34 @@ public class OccurrenceController extends AbstractSecureController {
 
     /**
      * Dumps the distinct latitudes and longitudes that are used in the
-     * connected index (to 4 decimal places)
+     * connected index (to 4 decimal places), optionally rounded to fewer decimal places.
      */
     @Deprecated
     @Operation(summary = "Dumps the distinct latitudes and longitudes that are used in the connected index (to 4 decimal places)", tags = "Deprecated")
     @RequestMapping(value = {
             "/occurrences/coordinates"
     }, method = {RequestMethod.GET, RequestMethod.POST})
-    public void dumpDistinctLatLongs(SpatialSearchRequestParams requestParams, HttpServletResponse response) throws Exception {
+    public void dumpDistinctLatLongs(SpatialSearchRequestParams requestParams,
+                                     @RequestParam(value = "precision", required = false) Integer precision,
+                                     HttpServletResponse response) throws Exception {
+        if (precision != null && (precision < 0 || precision > 6)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "precision must be between 0 and 6");
+            return;
+        }
+
+        if (StringUtils.isEmpty(requestParams.getQ()))
+            requestParams.setQ("*:*");
+        requestParams.setFacets(new String[]{OccurrenceIndex.LAT_LNG});
+        requestParams.setFacet(true);
+
         SpatialSearchRequestDTO dto = SpatialSearchRequestDTO.create(requestParams);
 
         //simplify wkt
         dto.setWkt(qidCacheDAO.fixWkt(dto.getWkt()));
 
-        requestParams.setFacets(new String[]{OccurrenceIndex.LAT_LNG});
-        requestParams.setFacet(true);
-        if (requestParams.getQ().length() < 1)
-            requestParams.setQ("*:*");
         try {
             ServletOutputStream out = response.getOutputStream();
-            searchDAO.writeCoordinatesToStream(dto, out);
+            searchDAO.writeCoordinatesToStream(dto, precision, out);
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         }
@@ -3,14 +3,18 @@ package au.org.ala.biocache.web;
 import au.org.ala.biocache.dao.IndexDAO;
 import au.org.ala.biocache.dao.SearchDAO;
 import au.org.ala.biocache.dto.IndexFieldDTO;
+import au.org.ala.biocache.dto.ScatterplotDensityDTO;
 import au.org.ala.biocache.dto.SpatialSearchRequestDTO;
 import au.org.ala.biocache.dto.SpatialSearchRequestParams;
+import au.org.ala.biocache.stream.ScatterplotDensity;
 import au.org.ala.biocache.stream.ScatterplotSearch;
+import au.org.ala.biocache.util.SearchUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.util.SimpleOrderedMap;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartRenderingInfo;
 import org.jfree.chart.JFreeChart;
@@ -22,6 +26,8 @@ import org.jfree.data.xy.DefaultXYDataset;
 import org.jfree.ui.RectangleEdge;
 import org.locationtech.jts.math.Vector2D;
 import org.springdoc.api.annotations.ParameterObject;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
@@ -47,6 +53,9 @@ import java.util.concurrent.atomic.AtomicInteger;
  * - title, string default query-display-name
  * - pointcolour, colour as RGB string like FF0000 for red, default 0000FF
  * - pointradius, double default 3
+ * <p>
+ * With density=true the x, y pairs are binned into a histogram with one bin per pixel while they are read and
+ * the image is the histogram, shaded by pointcolour. The histogram is cached for point queries.
  */
 @Controller
 @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -59,12 +68,15 @@ public class ScatterplotController {
     private final static String DEFAULT_SCATTERPLOT_WIDTH = "256";
     private final static String DEFAULT_SCATTERPLOT_POINTCOLOUR = "0000FF";
     private final static String DEFAULT_SCATTERPLOT_POINTRADIUS = "3";
+    private final static long MAX_DENSITY_PIXELS = 1024L * 1024L;
     private final static List<String> VALID_DATATYPES = Arrays.asList("float", "double", "int", "long", "tfloat", "tdouble", "tint", "tlong");
 
     @Inject
     protected SearchDAO searchDAO;
     @Inject
     protected IndexDAO indexDao;
+    @Inject
+    protected CacheManager cacheManager;
 
     @Operation(summary = "Generate a scatterplot", tags = "Scatterplots")
     @Tag(name = "Scatterplots", description = "Services for the generation of scatterplots for occurrence data")
@@ -77,15 +89,21 @@ public class ScatterplotController {
                             @RequestParam(value = "title", required = false, defaultValue = DEFAULT_SCATTERPLOT_TITLE) String title,
                             @RequestParam(value = "pointcolour", required = false, defaultValue = DEFAULT_SCATTERPLOT_POINTCOLOUR) String pointcolour,
                             @RequestParam(value = "pointradius", required = false, defaultValue = DEFAULT_SCATTERPLOT_POINTRADIUS) Double pointradius,
+                            @RequestParam(value = "density", required = false, defaultValue = "false") Boolean density,
                             HttpServletResponse response) throws Exception {
 
         SpatialSearchRequestDTO requestParams = SpatialSearchRequestDTO.create(params);
 
-        JFreeChart jChart = makeScatterplot(requestParams, x, y, title, pointcolour, pointradius);
+        BufferedImage bi;
+        if (density) {
+            bi = renderDensity(getDensity(requestParams, x, y, width, height), pointcolour);
+        } else {
+            JFreeChart jChart = makeScatterplot(requestParams, x, y, title, pointcolour, pointradius);
 
-        //produce image
-        ChartRenderingInfo chartRenderingInfo = new ChartRenderingInfo();
-        BufferedImage bi = jChart.createBufferedImage(width, height, BufferedImage.TRANSLUCENT, chartRenderingInfo);
+            //produce image
+            ChartRenderingInfo chartRenderingInfo = new ChartRenderingInfo();
+            bi = jChart.createBufferedImage(width, height, BufferedImage.TRANSLUCENT, chartRenderingInfo);
+        }
         byte[] bytes = EncoderUtil.encode(bi, ImageFormat.PNG, true);
 
         //output image
@@ -110,10 +128,26 @@ public class ScatterplotController {
                                     @RequestParam(value = "pointx1", required = true) Integer pointx1,
                                     @RequestParam(value = "pointy1", required = true) Integer pointy1,
                                     @RequestParam(value = "pointx2", required = true) Integer pointx2,
-                                    @RequestParam(value = "pointy2", required = true) Integer pointy2) throws Exception {
+                                    @RequestParam(value = "pointy2", required = true) Integer pointy2,
+                                    @RequestParam(value = "density", required = false, defaultValue = "false") Boolean density) throws Exception {
 
         SpatialSearchRequestDTO requestParams = SpatialSearchRequestDTO.create(params);
 
+        if (density) {
+            ScatterplotDensityDTO histogram = getDensity(requestParams, x, y, width, height);
+
+            Map map = new HashMap();
+            map.put("xaxis_pixel_selection", new int[]{pointx1, pointx2});
+            map.put("yaxis_pixel_selection", new int[]{pointy1, pointy2});
+            map.put("xaxis", x);
+            map.put("yaxis", y);
+            map.put("xaxis_range", new double[]{histogram.getX(Math.min(pointx1, pointx2)), histogram.getX(Math.max(pointx1, pointx2) + 1)});
+            map.put("yaxis_range", new double[]{histogram.getY(Math.max(pointy1, pointy2) + 1), histogram.getY(Math.min(pointy1, pointy2))});
+            map.put("count", histogram.getCount(pointx1, pointy1, pointx2, pointy2));
+
+            return map;
+        }
+
         JFreeChart jChart = makeScatterplot(requestParams, x, y, title, "000000", 1.0);
 
         //produce image
@@ -157,7 +191,7 @@ public class ScatterplotController {
                                     @RequestParam(value = "pointy1", required = true) Integer pointy1,
                                     @RequestParam(value = "pointx2", required = true) Integer pointx2,
                                     @RequestParam(value = "pointy2", required = true) Integer pointy2) throws Exception {
-        return scatterplotPointInfo(params,x,y,height,width,title,pointx1,pointy1,pointx2,pointy2);
+        return scatterplotPointInfo(params,x,y,height,width,title,pointx1,pointy1,pointx2,pointy2,false);
     }
 
     private JFreeChart makeScatterplot(SpatialSearchRequestDTO requestParams, String x, String y
@@ -233,6 +267,91 @@ public class ScatterplotController {
         return jChart;
     }
 
+    /**
+     * Bin the x, y pairs of the query into a histogram of width x height bins, or get it from the cache.
+     */
+    private ScatterplotDensityDTO getDensity(SpatialSearchRequestDTO requestParams, String x, String y,
+                                             int width, int height) throws Exception {
+        //verify x and y are numerical and stored
+        Set<IndexFieldDTO> indexedFields = indexDao.getIndexedFields();
+        getFieldDescription(x, indexedFields);
+        getFieldDescription(y, indexedFields);
+
+        if (width <= 0 || height <= 0 || (long) width * height > MAX_DENSITY_PIXELS) {
+            throw new Exception("Invalid image size " + width + "x" + height);
+        }
+
+        Cache cache = cacheManager != null ? cacheManager.getCache("scatterplotCache") : null;
+        String cacheKey = indexDao.getIndexVersion(false) + "|" + x + "|" + y + "|" + width + "|" + height + "|" + requestParams;
+        Cache.ValueWrapper cached = cache != null ? cache.get(cacheKey) : null;
+        if (cached != null) {
+            return (ScatterplotDensityDTO) cached.get();
+        }
+
+        // extents of the records with both values
+        Map<String, Object> extents = new LinkedHashMap<>();
+        extents.put("x1", "min(" + x + ")");
+        extents.put("x2", "max(" + x + ")");
+        extents.put("y1", "min(" + y + ")");
+        extents.put("y2", "max(" + y + ")");
+        Map<String, Object> both = new LinkedHashMap<>();
+        both.put("type", "query");
+        both.put("q", x + ":[* TO *] AND " + y + ":[* TO *]");
+        both.put("facet", extents);
+
+        SimpleOrderedMap facets = searchDAO.searchJsonFacet(requestParams, Collections.singletonMap("both", both));
+        SimpleOrderedMap range = SearchUtils.getMap(facets, "both");
+        if (range == null || !(range.get("x1") instanceof Number) || !(range.get("y1") instanceof Number)) {
+            throw new Exception("No valid records found for these input parameters");
+        }
+
+        ScatterplotDensityDTO histogram = new ScatterplotDensityDTO(
+                ((Number) range.get("x1")).doubleValue(), ((Number) range.get("x2")).doubleValue(),
+                ((Number) range.get("y1")).doubleValue(), ((Number) range.get("y2")).doubleValue(),
+                width, height);
+
+        // format query
+        requestParams.setFlimit(-1);
+        SolrQuery query = searchDAO.initSolrQuery(requestParams, false, null);
+
+        // stream the x, y facet with counts
+        query.setFacet(true);
+        query.set("facet.field", x + "," + y);
+        query.setFacetSort("count");
+
+        indexDao.streamingQuery(query, null, new ScatterplotDensity(histogram, x, y), null);
+
+        if (histogram.getTotal() == 0) {
+            throw new Exception("No valid records found for these input parameters");
+        }
+
+        if (cache != null) {
+            cache.put(cacheKey, histogram);
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Shade each pixel by the log of its count relative to the maximum count.
+     */
+    private BufferedImage renderDensity(ScatterplotDensityDTO histogram, String pointcolour) {
+        int rgb = Integer.parseInt(pointcolour, 16) & 0xFFFFFF;
+        double logMax = Math.log1p(histogram.getMaxCount());
+
+        BufferedImage bi = new BufferedImage(histogram.getWidth(), histogram.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = new int[histogram.getWidth()];
+        for (int py = 0; py < histogram.getHeight(); py++) {
+            for (int px = 0; px < histogram.getWidth(); px++) {
+                long count = histogram.getCount(px, py);
+                int alpha = count == 0 ? 0 : (int) Math.max(32, Math.round(255 * Math.log1p(count) / logMax));
+                pixels[px] = (alpha << 24) | rgb;
+            }
+            bi.setRGB(0, py, histogram.getWidth(), 1, pixels, 0, histogram.getWidth());
+        }
+        return bi;
+    }
+
     /**
      * Get the description of the fieldName provided or throw an Exception.
      *
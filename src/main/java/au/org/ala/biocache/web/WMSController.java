@@ -25,6 +25,9 @@ import au.org.ala.biocache.util.solr.FieldMappingUtil;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import io.swagger.annotations.*;
 import io.swagger.v3.oas.annotations.Hidden;
 import io.swagger.v3.oas.annotations.Operation;
@@ -32,19 +35,15 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
-import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.geotools.geometry.GeneralDirectPosition;
 import org.geotools.referencing.CRS;
-import org.geotools.referencing.operation.DefaultCoordinateOperationFactory;
 import org.opengis.geometry.DirectPosition;
-import org.opengis.geometry.MismatchedDimensionException;
-import org.opengis.referencing.crs.CRSAuthorityFactory;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.CoordinateOperation;
 import org.opengis.referencing.operation.TransformException;
 import org.springdoc.api.annotations.ParameterObject;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.security.access.annotation.Secured;
@@ -70,7 +69,9 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 import com.fasterxml.jackson.annotation.JsonInclude;
 
 /**
@@ -91,6 +92,21 @@ public class WMSController extends AbstractSecureController {
      * Logger initialisation
      */
     private final static Logger logger = Logger.getLogger(WMSController.class);
+    /**
+     * Number of points binned by each task when rendering hexbin tiles.
+     */
+    private static final int HEXBIN_CHUNK_SIZE = 8192;
+
+    /**
+     * Hexbin tiles with more points than this are binned in parallel.
+     */
+    private static final int HEXBIN_PARALLEL_THRESHOLD = 32768;
+
+    /**
+     * Smallest width or height, in degrees, of a block of cached hexbin points.
+     */
+    private static final double HEXBIN_MIN_BLOCK_SIZE = 360.0 / 65536;
+
     private static final String SPECIES_LIST_CSV_HEADER = "Family,Scientific name,Common name,Taxon rank,LSID,# Occurrences";
     /**
      * Fulltext search DAO
@@ -107,6 +123,14 @@ public class WMSController extends AbstractSecureController {
     protected QidCacheDAO qidCacheDAO;
     @Inject
     public FieldMappingUtil fieldMappingUtil;
+    @Inject
+    protected ProjectionCache projectionCache;
+
+    /**
+     * Metrics of tile rendering. Not required so that the controller can be used without a registry.
+     */
+    @Autowired(required = false)
+    protected MeterRegistry meterRegistry = Metrics.globalRegistry;
 
     /**
      * Load a smaller 256x256 png than java.image produces
@@ -998,10 +1022,7 @@ public class WMSController extends AbstractSecureController {
         double[] tilebbox = new double[4];
         int size = vars.size + (vars.highlight != null ? HIGHLIGHT_RADIUS * 2 + (int) (vars.size * 0.2) : 0) + 5;  //bounding box buffer
 
-        CRSAuthorityFactory factory = CRS.getAuthorityFactory(true);
-        CoordinateReferenceSystem sourceCRS = factory.createCoordinateReferenceSystem(srs);
-        CoordinateReferenceSystem targetCRS = factory.createCoordinateReferenceSystem("EPSG:4326");
-        CoordinateOperation transformTo4326 = new DefaultCoordinateOperationFactory().createOperation(sourceCRS, targetCRS);
+        CoordinateOperation transformTo4326 = projectionCache.getOperation(srs, ProjectionCache.WGS84);
 
         double resolution;
 
@@ -1095,7 +1116,7 @@ public class WMSController extends AbstractSecureController {
                 response.setContentType("image/png");
                 response.setHeader("Cache-Control", wmsCacheControlHeaderPublicOrPrivate + ", max-age=" + wmsCacheControlHeaderMaxAge);
                 response.setHeader("ETag", wmsETag.get());
-                ImageIO.write(img, "png", out);
+                PngEncoder.write(img, out);
             }
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
@@ -1501,10 +1522,7 @@ public class WMSController extends AbstractSecureController {
             }
         }
 
-        CRSAuthorityFactory factory = CRS.getAuthorityFactory(true);
-        CoordinateReferenceSystem sourceCRS = factory.createCoordinateReferenceSystem(srs);
-        CoordinateReferenceSystem targetCRS = factory.createCoordinateReferenceSystem("EPSG:4326");
-        CoordinateOperation transformFrom4326 = new DefaultCoordinateOperationFactory().createOperation(targetCRS, sourceCRS);
+        Projection transformFrom4326 = projectionCache.fromWgs84(srs);
 
         double[] bbox = reprojectBBox(tilebbox, srs, transformFrom4326);
 
@@ -1520,12 +1538,16 @@ public class WMSController extends AbstractSecureController {
 
         ImgObj tile = null;
 
+        String mode = "hexbin".equalsIgnoreCase(vars.colourMode) ? "hexbin" : isGrid ? "grid" : "heatmap";
+
         // Hex cell rendering requires accurate coordinates.
         // The binning by the heatmap SOLR service is difficult to align.
-        // Using the old point_* facet method for hex cell rendering
-        if ("hexbin".equalsIgnoreCase(vars.colourMode)) {
+        // Using the point_* facet method for hex cell rendering
+        if ("hexbin".equals(mode)) {
             tile = hexGridImg(requestParams, vars, width, height, outlinePoints, outlineColour, tilebbox, bbox, transformFrom4326);
         } else {
+            long start = System.nanoTime();
+
             //retrieve legend
             List<LegendItem> legend = searchDAO.getColours(requestParams, vars.colourMode);
 
@@ -1557,6 +1579,9 @@ public class WMSController extends AbstractSecureController {
             // circles from uncertainty distances or requested highlight
             HeatmapDTO circlesHeatmap = getCirclesHeatmap(vars, bbox, requestParams, width, height, pointWidth);
 
+            long queried = System.nanoTime();
+            tileTimer(mode, "query").record(queried - start, TimeUnit.NANOSECONDS);
+
             // render PNG...
             tile = renderHeatmap(heatmapDTO,
                     vars,
@@ -1567,22 +1592,36 @@ public class WMSController extends AbstractSecureController {
                     height, transformFrom4326, tilebbox,
                     circlesHeatmap
             );
+
+            tileTimer(mode, "render").record(System.nanoTime() - queried, TimeUnit.NANOSECONDS);
         }
 
         if (tile != null && tile.g != null) {
             tile.g.dispose();
+            long start = System.nanoTime();
             try (ServletOutputStream outStream = response.getOutputStream();) {
                 response.setContentType("image/png");
-                ImageIO.write(tile.img, "png", outStream);
+                // empty tiles are sent as the cached blank image
+                PngEncoder.write(tile.img, outStream, blankImageBytes);
                 outStream.flush();
             } catch (Exception e) {
                 logger.debug("Unable to write image", e);
             }
+            tileTimer(mode, "encode").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         } else {
             displayBlankImage(response);
         }
     }
 
+    /**
+     * @param mode  heatmap, grid or hexbin
+     * @param phase query (SOLR requests), render (drawing the tile) or encode (PNG encoding and writing the response)
+     * @return timer of a tile rendering phase
+     */
+    private Timer tileTimer(String mode, String phase) {
+        return meterRegistry.timer("biocache.wms.tile", "mode", mode, "phase", phase);
+    }
+
     /**
      * Get HeatmapDTO of the circles that occur around the mapped points.
      * <p>
@@ -1656,36 +1695,21 @@ public class WMSController extends AbstractSecureController {
         return null;
     }
 
-    private double[] reprojectBBox(double[] tilebbox, String srs, CoordinateOperation transformFrom4326) throws Exception {
-
-        CRSAuthorityFactory factory = CRS.getAuthorityFactory(true);
-        CoordinateReferenceSystem sourceCRS = factory.createCoordinateReferenceSystem(srs);
-        CoordinateReferenceSystem targetCRS = factory.createCoordinateReferenceSystem("EPSG:4326");
-        CoordinateOperation transformTo4326 = new DefaultCoordinateOperationFactory().createOperation(sourceCRS, targetCRS);
-
-        // pixel correction buffer: adjust bbox extents with half pixel width/height
-        GeneralDirectPosition directPositionSW = new GeneralDirectPosition(tilebbox[0], tilebbox[1]);
-        GeneralDirectPosition directPositionNE = new GeneralDirectPosition(tilebbox[2], tilebbox[3]);
-
-        DirectPosition sw4326 = transformTo4326.getMathTransform().transform(directPositionSW, null);
-        DirectPosition ne4326 = transformTo4326.getMathTransform().transform(directPositionNE, null);
+    private double[] reprojectBBox(double[] tilebbox, String srs, Projection transformFrom4326) throws Exception {
 
+        // SW and NE corners
         double[] bbox = new double[4];
-        bbox[0] = sw4326.getCoordinate()[0];
-        bbox[1] = sw4326.getCoordinate()[1];
-        bbox[2] = ne4326.getCoordinate()[0];
-        bbox[3] = ne4326.getCoordinate()[1];
+        projectionCache.toWgs84(srs).transform(tilebbox, 0, bbox, 0, 2);
 
         // restrict longitude -180 to +180, assuming; minLongitude < maxLongitude and width < 360 degrees
         if (bbox[0] > 180) {
             bbox[0] -= 360;
             bbox[2] -= 360;
 
-            GeneralDirectPosition west = new GeneralDirectPosition(bbox[0], bbox[1]);
-            tilebbox[0] = transformFrom4326.getMathTransform().transform(west, null).getOrdinate(0);
-
-            GeneralDirectPosition east = new GeneralDirectPosition(bbox[2], bbox[3]);
-            tilebbox[2] = transformFrom4326.getMathTransform().transform(east, null).getOrdinate(0);
+            double[] corners = bbox.clone();
+            transformFrom4326.transform(corners, 2);
+            tilebbox[0] = corners[0];
+            tilebbox[2] = corners[2];
         }
 
         return bbox;
@@ -1775,11 +1799,8 @@ public class WMSController extends AbstractSecureController {
         }
 
         // convert extents from EPSG:4326 into target SRS
-        CRSAuthorityFactory factory = CRS.getAuthorityFactory(true);
-        CoordinateReferenceSystem sourceCRS = factory.createCoordinateReferenceSystem(srs);
-        CoordinateReferenceSystem targetCRS = factory.createCoordinateReferenceSystem("EPSG:4326");
-        CoordinateOperation transformTo4326 = new DefaultCoordinateOperationFactory().createOperation(sourceCRS, targetCRS);
-        CoordinateOperation transformFrom4326 = new DefaultCoordinateOperationFactory().createOperation(targetCRS, sourceCRS);
+        CoordinateOperation transformTo4326 = projectionCache.getOperation(srs, ProjectionCache.WGS84);
+        CoordinateOperation transformFrom4326 = projectionCache.getOperation(ProjectionCache.WGS84, srs);
         double[] bbox4326 = new double[4];     // extents in EPSG:4326
         double[] bboxSRS = new double[4];      //extents in target SRS
         if (bboxString != null) {
@@ -1885,7 +1906,7 @@ public class WMSController extends AbstractSecureController {
         try {
             if (format.equalsIgnoreCase("png")) {
                 OutputStream os = response.getOutputStream();
-                ImageIO.write(img, format, os);
+                PngEncoder.write(img, os);
                 os.close();
             } else {
                 //handle jpeg + BufferedImage.TYPE_INT_ARGB
@@ -2008,14 +2029,14 @@ public class WMSController extends AbstractSecureController {
     }
 
 
-    private ImgObj renderHeatmap(HeatmapDTO heatmapDTO,
-                                 WmsEnv vars,
-                                 float pointWidth,
-                                 boolean outlinePoints,
-                                 String outlineColour,
-                                 int tileWidthInPx,
-                                 int tileHeightInPx, CoordinateOperation transformFrom4326, double[] tilebbox,
-                                 HeatmapDTO cirlesHeatmap
+    ImgObj renderHeatmap(HeatmapDTO heatmapDTO,
+                         WmsEnv vars,
+                         float pointWidth,
+                         boolean outlinePoints,
+                         String outlineColour,
+                         int tileWidthInPx,
+                         int tileHeightInPx, Projection transformFrom4326, double[] tilebbox,
+                         HeatmapDTO cirlesHeatmap
     ) {
 
         List<List<List<Integer>>> layers = heatmapDTO.layers;
@@ -2081,12 +2102,10 @@ public class WMSController extends AbstractSecureController {
                         int circleWidthInPixels = (int) pointWidth + HIGHLIGHT_RADIUS;  // count==0 indicates that a highlight circle is required.
                         if (dist > 0) {
                             // convert radius in meters to radius in pixels
-                            GeneralDirectPosition coord1 = new GeneralDirectPosition(dist / 100000.0, 0);
-                            GeneralDirectPosition coord2 = new GeneralDirectPosition(0, 0);
-                            DirectPosition pos1 = transformFrom4326.getMathTransform().transform(coord1, null);
-                            DirectPosition pos2 = transformFrom4326.getMathTransform().transform(coord2, null);
-                            int px1 = scaleLongitudeForImage(pos1.getOrdinate(0), tilebbox[0], tilebbox[2], (int) tileWidthInPx);
-                            int px2 = scaleLongitudeForImage(pos2.getOrdinate(0), tilebbox[0], tilebbox[2], (int) tileWidthInPx);
+                            double[] coords = new double[]{dist / 100000.0, 0, 0, 0};
+                            transformFrom4326.transform(coords, 2);
+                            int px1 = scaleLongitudeForImage(coords[0], tilebbox[0], tilebbox[2], (int) tileWidthInPx);
+                            int px2 = scaleLongitudeForImage(coords[2], tilebbox[0], tilebbox[2], (int) tileWidthInPx);
                             circleWidthInPixels = Math.abs(px1 - px2);
                         }
 
@@ -2121,10 +2140,13 @@ public class WMSController extends AbstractSecureController {
 
     private void renderLayer(HeatmapDTO heatmapDTO, WmsEnv vars, float pointWidth, boolean outlinePoints, String outlineColour, boolean drawPointFill,
                              float tileWidthInPx,
-                             float tileHeightInPx, ImgObj imgObj, int layerIdx, List<List<Integer>> rows, CoordinateOperation transformFrom4326, double[] tilebbox) {
+                             float tileHeightInPx, ImgObj imgObj, int layerIdx, List<List<Integer>> rows, Projection transformFrom4326, double[] tilebbox) {
 
         if (rows != null && !rows.isEmpty()) {
 
+            // reused for each cell; grid cells use bottom left and top right, points use the first pair
+            double[] coords = new double[4];
+
             final int numberOfRows = rows.size();
 
             // heatmap cell size
@@ -2194,14 +2216,15 @@ public class WMSController extends AbstractSecureController {
                                     }
 
                                     // make coordinates to match target SRS
-                                    GeneralDirectPosition sourceCoordsBottomLeft = new GeneralDirectPosition(minLng, minLat);
-                                    GeneralDirectPosition sourceCoordsTopRight = new GeneralDirectPosition(maxLng, maxLat);
-                                    DirectPosition targetCoordsBottomLeft = transformFrom4326.getMathTransform().transform(sourceCoordsBottomLeft, null);
-                                    DirectPosition targetCoordsTopRight = transformFrom4326.getMathTransform().transform(sourceCoordsTopRight, null);
-                                    int px1 = scaleLongitudeForImage(targetCoordsBottomLeft.getOrdinate(0), tilebbox[0], tilebbox[2], (int) tileWidthInPx);
-                                    int py1 = scaleLatitudeForImage(targetCoordsBottomLeft.getOrdinate(1), tilebbox[3], tilebbox[1], (int) tileHeightInPx);
-                                    int px2 = scaleLongitudeForImage(targetCoordsTopRight.getOrdinate(0), tilebbox[0], tilebbox[2], (int) tileWidthInPx);
-                                    int py2 = scaleLatitudeForImage(targetCoordsTopRight.getOrdinate(1), tilebbox[3], tilebbox[1], (int) tileHeightInPx);
+                                    coords[0] = minLng;
+                                    coords[1] = minLat;
+                                    coords[2] = maxLng;
+                                    coords[3] = maxLat;
+                                    transformFrom4326.transform(coords, 2);
+                                    int px1 = scaleLongitudeForImage(coords[0], tilebbox[0], tilebbox[2], (int) tileWidthInPx);
+                                    int py1 = scaleLatitudeForImage(coords[1], tilebbox[3], tilebbox[1], (int) tileHeightInPx);
+                                    int px2 = scaleLongitudeForImage(coords[2], tilebbox[0], tilebbox[2], (int) tileWidthInPx);
+                                    int py2 = scaleLatitudeForImage(coords[3], tilebbox[3], tilebbox[1], (int) tileHeightInPx);
 
                                     int v = cellValue;
                                     if (v > 500) {
@@ -2232,10 +2255,11 @@ public class WMSController extends AbstractSecureController {
                                     }
 
                                     // make coordinates to match target SRS
-                                    GeneralDirectPosition sourceCoords = new GeneralDirectPosition(lng, lat);
-                                    DirectPosition targetCoords = transformFrom4326.getMathTransform().transform(sourceCoords, null);
-                                    int px = scaleLongitudeForImage(targetCoords.getOrdinate(0), tilebbox[0], tilebbox[2], (int) tileWidthInPx);
-                                    int py = scaleLatitudeForImage(targetCoords.getOrdinate(1), tilebbox[3], tilebbox[1], (int) tileHeightInPx);
+                                    coords[0] = lng;
+                                    coords[1] = lat;
+                                    transformFrom4326.transform(coords, 1);
+                                    int px = scaleLongitudeForImage(coords[0], tilebbox[0], tilebbox[2], (int) tileWidthInPx);
+                                    int py = scaleLatitudeForImage(coords[1], tilebbox[3], tilebbox[1], (int) tileHeightInPx);
 
                                     if (drawPointFill) {
                                         if (heatmapDTO.legend != null && !heatmapDTO.legend.isEmpty()) {
@@ -2260,7 +2284,6 @@ public class WMSController extends AbstractSecureController {
                                         imgObj.g.setPaint(currentFill);
                                     }
                                 }
-                            } catch (MismatchedDimensionException e) {
                             } catch (TransformException e) {
                                 // failure to transform a coordinate will result in it not rendering
                             }
@@ -2348,9 +2371,90 @@ public class WMSController extends AbstractSecureController {
         return new int[] {x1, y1};
     }
 
+    /**
+     * Get the block, aligned to -180 longitude and -90 latitude, that covers the extents. The block width is the
+     * smallest power of two fraction of 360 degrees that is not narrower than the extents, and the same for the
+     * block height with 180 degrees.
+     *
+     * @param extents minx, miny, maxx, maxy
+     * @return block minx, miny, maxx, maxy
+     */
+    double[] hexbinBlock(double[] extents) {
+        double blockWidth = 360;
+        while (blockWidth / 2 >= extents[2] - extents[0] && blockWidth > HEXBIN_MIN_BLOCK_SIZE) {
+            blockWidth /= 2;
+        }
+        double blockHeight = 180;
+        while (blockHeight / 2 >= extents[3] - extents[1] && blockHeight > HEXBIN_MIN_BLOCK_SIZE) {
+            blockHeight /= 2;
+        }
+
+        return new double[]{
+                -180 + Math.floor((extents[0] + 180) / blockWidth) * blockWidth,
+                Math.max(-90, -90 + Math.floor((extents[1] + 90) / blockHeight) * blockHeight),
+                -180 + Math.ceil((extents[2] + 180) / blockWidth) * blockWidth,
+                Math.min(90, -90 + Math.ceil((extents[3] + 90) / blockHeight) * blockHeight)
+        };
+    }
+
+    /**
+     * Add the counts of points[start, end) that are within the extents to the hex grid.
+     */
+    void binHexChunk(int[][] hexgrid, PointCountsDTO points, int start, int end, double[] extents,
+                             Projection transformFrom4326, double[] tilebbox, int tileWidthInPx, int tileHeightInPx,
+                             double hexCellWidth, double hexCellHeight, double xOverlap, double globalYOffset) {
+        double[] coordinates = points.getCoordinates();
+        double[] coords = new double[(end - start) * 2];
+        int[] counts = new int[end - start];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            double lng = coordinates[i * 2];
+            double lat = coordinates[i * 2 + 1];
+            if (lng >= extents[0] && lng <= extents[2] && lat >= extents[1] && lat <= extents[3]) {
+                coords[n * 2] = lng;
+                coords[n * 2 + 1] = lat;
+                counts[n] = points.getCount(i);
+                n++;
+            }
+        }
+
+        // make coordinates to match target SRS
+        boolean[] valid = null;
+        try {
+            transformFrom4326.transform(coords, n);
+        } catch (TransformException e) {
+            // transform the points one at a time and skip the failures
+            valid = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                try {
+                    transformFrom4326.transform(coords, i * 2, coords, i * 2, 1);
+                    valid[i] = true;
+                } catch (TransformException ignored) {
+                    logger.debug("failed to transform point: " + coords[i * 2] + "," + coords[i * 2 + 1]);
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (valid != null && !valid[i]) {
+                continue;
+            }
+            int px = scaleLongitudeForImage(coords[i * 2], tilebbox[0], tilebbox[2], tileWidthInPx);
+            int py = scaleLatitudeForImage(coords[i * 2 + 1], tilebbox[3], tilebbox[1], tileHeightInPx);
+
+            int[] coordsI = gridCellCoords(px, py, hexCellWidth, hexCellHeight, xOverlap, globalYOffset);
+
+            int ix = coordsI[0];
+            int iy = coordsI[1];
+            if (ix >= -1 && ix < hexgrid.length - 1 && iy >= -1 && iy < hexgrid[0].length - 1) {
+                hexgrid[ix + 1][iy + 1] += counts[i];
+            }
+        }
+    }
+
     private ImgObj hexGridImg(SpatialSearchRequestDTO requestParams,
                              WmsEnv vars, int tileWidthInPx, int tileHeightInPx, boolean outlinePoints, String outlineColour,
-                             double[] tilebbox, double [] bbox, CoordinateOperation transformFrom4326) throws Exception {
+                             double[] tilebbox, double [] bbox, Projection transformFrom4326) throws Exception {
 
         // Zoom is how zoomed in. 1 = zoomed in, 9 = zoomed out. Limit size from 2 to 9, i.e. zoom is 11 to 3
         int sz = Math.min(Math.max(vars.size, 1), 9);
@@ -2372,19 +2476,17 @@ public class WMSController extends AbstractSecureController {
         //resolution should be a value < 1
         PointType pointType = getPointTypeForDegreesPerPixel(degreesPerPixel);
 
-        requestParams.setFlimit(-1);
-        FacetField facetField = searchDAO.getFacetPointsShort(requestParams, pointType.getLabel(), bbox[0] - bWidth, bbox[1] - bHeight, bbox[2] + bWidth, bbox[3] + bHeight);
-        FacetField dateLineFacetField = null;
+        // buffered extents, points outside of this cannot affect the tile
+        double[] extents = new double[]{bbox[0] - bWidth, bbox[1] - bHeight, bbox[2] + bWidth, bbox[3] + bHeight};
 
-        // add dateline crossing part
-        double dateLineOffset = 0;
-        if (bbox[0] - bWidth < -180) {
-            dateLineFacetField = searchDAO.getFacetPointsShort(requestParams, pointType.getLabel(), 360 + bbox[0] - bWidth, bbox[1] - bHeight, 180.0, bbox[3] + bHeight);
-            dateLineOffset = -360.0;
-        } else if (bbox[2] + bWidth > 180) {
-            dateLineFacetField = searchDAO.getFacetPointsShort(requestParams, pointType.getLabel(), -180.0, bbox[1] - bHeight, bbox[2] + bWidth - 360, bbox[3] + bHeight);
-            dateLineOffset = 360.0;
-        }
+        // Request the points of an aligned block that covers the extents. Neighbouring tiles at the same zoom share
+        // the block and reuse the cached point counts.
+        double[] block = hexbinBlock(extents);
+        long start = System.nanoTime();
+        PointCountsDTO points = searchDAO.getPointCounts(requestParams.getFormattedQuery(), requestParams.getFormattedFq(),
+                pointType.getLabel(), block[0], block[1], block[2], block[3]);
+        long queried = System.nanoTime();
+        tileTimer("hexbin", "query").record(queried - start, TimeUnit.NANOSECONDS);
 
         ImgObj imgObj = null;
 
@@ -2401,54 +2503,35 @@ public class WMSController extends AbstractSecureController {
 
         int [][] hexgrid = null;
         if (gridZoom > 0) {
-            hexgrid = new int[gridWidth + 1 + 2][gridHeight + 1 + 2];
-
-            for (int i = 0; i < hexgrid.length; i++) {
-                Arrays.fill(hexgrid[i], 0);
+            // bin chunks of points into separate grids, in parallel for large numbers of points, then sum the grids
+            int chunks = (points.size() + HEXBIN_CHUNK_SIZE - 1) / HEXBIN_CHUNK_SIZE;
+            IntStream range = IntStream.range(0, chunks);
+            if (points.size() > HEXBIN_PARALLEL_THRESHOLD) {
+                range = range.parallel();
             }
+
+            double finalHexCellWidth = hexCellWidth;
+            double finalGlobalYOffset = globalYOffset;
+            hexgrid = range.mapToObj(chunk -> {
+                int[][] grid = new int[gridWidth + 1 + 2][gridHeight + 1 + 2];
+                binHexChunk(grid, points, chunk * HEXBIN_CHUNK_SIZE, Math.min(points.size(), (chunk + 1) * HEXBIN_CHUNK_SIZE),
+                        extents, transformFrom4326, tilebbox, tileWidthInPx, tileHeightInPx,
+                        finalHexCellWidth, hexCellHeight, xOverlap, finalGlobalYOffset);
+                return grid;
+            }).reduce((g1, g2) -> {
+                for (int i = 0; i < g1.length; i++) {
+                    for (int j = 0; j < g1[i].length; j++) {
+                        g1[i][j] += g2[i][j];
+                    }
+                }
+                return g1;
+            }).orElseGet(() -> new int[gridWidth + 1 + 2][gridHeight + 1 + 2]);
         }
 
         Color oColour = Color.decode(outlineColour);
 
         imgObj = ImgObj.create((int) (tileWidthInPx), (int) (tileHeightInPx));
 
-        FacetField [] facetFields = new FacetField[] { facetField, dateLineFacetField };
-        for (FacetField ff : facetFields) {
-            if (ff == null) {
-                continue;
-            }
-            boolean dateLine = (ff == dateLineFacetField);
-
-            for (FacetField.Count s : ff.getValues()) {
-                String v = s.getName();
-                if (v != null) {
-                    int p = v.indexOf(',');
-                    float lng = Float.parseFloat(v.substring(p + 1));
-                    float lat = Float.parseFloat(v.substring(0, p));
-                    int count = (int) s.getCount();
-
-                    // dateline adjust
-                    if (dateLine) {
-                        lng += dateLineOffset;
-                    }
-
-                    // make coordinates to match target SRS
-                    GeneralDirectPosition sourceCoords = new GeneralDirectPosition(lng, lat);
-                    DirectPosition targetCoords = transformFrom4326.getMathTransform().transform(sourceCoords, null);
-                    int px = scaleLongitudeForImage(targetCoords.getOrdinate(0), tilebbox[0], tilebbox[2], (int) tileWidthInPx);
-                    int py = scaleLatitudeForImage(targetCoords.getOrdinate(1), tilebbox[3], tilebbox[1], (int) tileHeightInPx);
-
-                    int[] coordsI = gridCellCoords(px, py, hexCellWidth, hexCellHeight, xOverlap, globalYOffset);
-
-                    int ix = coordsI[0];
-                    int iy = coordsI[1];
-                    if (ix >= -1 && ix < hexgrid.length - 1 && iy >= -1 && iy < hexgrid[0].length - 1) {
-                        hexgrid[ix + 1][iy + 1] += count;
-                    }
-                }
-            }
-        }
-
         // colour is wrapped in hexColour,occurrenceCount,hexColour,occurrenceCount,hexColor
         int [] colourSteps = vars.ramp;
         Color [] colourRamp = vars.rampColours;
@@ -2520,6 +2603,8 @@ public class WMSController extends AbstractSecureController {
             }
         }
 
+        tileTimer("hexbin", "render").record(System.nanoTime() - queried, TimeUnit.NANOSECONDS);
+
         return imgObj;
     }
 }
@@ -19,7 +19,6 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
-import javax.imageio.ImageIO;
 import javax.inject.Inject;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -472,7 +471,7 @@ public class WMSOSGridController {
             wmsImg.g.dispose();
             try {
                 ServletOutputStream outStream = response.getOutputStream();
-                ImageIO.write(wmsImg.img, "png", outStream);
+                PngEncoder.write(wmsImg.img, outStream);
                 outStream.flush();
                 outStream.close();
             } catch (Exception e) {
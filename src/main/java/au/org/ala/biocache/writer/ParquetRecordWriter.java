@@ -0,0 +1,386 @@
+package au.org.ala.biocache.writer;
+
+import au.org.ala.biocache.stream.OptionalZipOutputStream;
+import net.sf.json.JSONObject;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Types;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A Writer that outputs records as an Apache Parquet file.
+ * <p>
+ * Columns are typed, dictionary encoded and snappy compressed. Values that cannot be parsed as the column type are
+ * written as null. Columns after the header, the miscellaneous fields, are written as a JSON object in a final
+ * "misc" column because they are not known when the file is started. When the header already has a "misc" column
+ * the final column is renamed, e.g. "misc_2".
+ * <p>
+ * When the output is an OptionalZipOutputStream that starts a new file, at a row group boundary, the current
+ * Parquet file is completed and a new one is started in the new file with the next row.
+ */
+public class ParquetRecordWriter implements RecordWriterError {
+    private final static Logger logger = LoggerFactory.getLogger(ParquetRecordWriter.class);
+
+    public static final String MISC_COLUMN = "misc";
+
+    public enum ColumnType {
+        STRING, LONG, DOUBLE, BOOLEAN
+    }
+
+    private final OutputStream outputStream;
+    private final String[] columns;
+    private final ColumnType[] types;
+    private final List<String> miscLabels;
+    private final String miscColumn;
+    private final long rowGroupSize;
+    private final MessageType schema;
+
+    private ParquetWriter<String[]> parquetWriter;
+    private PositionOutputStream parquetOutputStream;
+    private long reportedPos;
+    private boolean started = false;
+
+    private final AtomicBoolean initialised = new AtomicBoolean(false);
+    private final AtomicBoolean finalised = new AtomicBoolean(false);
+    private final AtomicBoolean finalisedComplete = new AtomicBoolean(false);
+
+    private final AtomicBoolean writerError = new AtomicBoolean(false);
+
+    private final List<Throwable> errors = new ArrayList<>();
+
+    private long invalidValues = 0;
+
+    /**
+     * @param out          output stream, it is not closed
+     * @param header       column names
+     * @param types        column types, aligned with header
+     * @param miscLabels   labels of the values after the header columns, or null when there is no misc column. Labels
+     *                     may be appended while rows are written, so it must be safe to read concurrently, e.g. a
+     *                     CopyOnWriteArrayList.
+     * @param rowGroupSize Parquet row group size in bytes
+     */
+    public ParquetRecordWriter(OutputStream out, String[] header, ColumnType[] types, List<String> miscLabels, long rowGroupSize) {
+        this.outputStream = out;
+        this.types = types;
+        this.miscLabels = miscLabels;
+        this.rowGroupSize = rowGroupSize;
+
+        // column names must be unique
+        Set<String> names = new HashSet<>();
+        this.columns = new String[header.length];
+        for (int i = 0; i < header.length; i++) {
+            String name = header[i] == null || header[i].isEmpty() ? "column" + (i + 1) : header[i];
+            String unique = name;
+            for (int n = 2; !names.add(unique); n++) {
+                unique = name + "_" + n;
+            }
+            columns[i] = unique;
+        }
+
+        Types.MessageTypeBuilder builder = Types.buildMessage();
+        for (int i = 0; i < columns.length; i++) {
+            switch (types[i]) {
+                case LONG:
+                    builder.optional(PrimitiveTypeName.INT64).named(columns[i]);
+                    break;
+                case DOUBLE:
+                    builder.optional(PrimitiveTypeName.DOUBLE).named(columns[i]);
+                    break;
+                case BOOLEAN:
+                    builder.optional(PrimitiveTypeName.BOOLEAN).named(columns[i]);
+                    break;
+                default:
+                    builder.optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named(columns[i]);
+            }
+        }
+        if (miscLabels != null) {
+            String unique = MISC_COLUMN;
+            for (int n = 2; names.contains(unique); n++) {
+                unique = MISC_COLUMN + "_" + n;
+            }
+            miscColumn = unique;
+            builder.optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named(miscColumn);
+        } else {
+            miscColumn = null;
+        }
+        this.schema = builder.named("occurrence");
+    }
+
+    /**
+     * Writes the supplied record to the current row group.
+     */
+    @Override
+    public synchronized void write(String[] record) {
+        if (!initialised.get()) {
+            throw new IllegalStateException("Must call initialise method before calling write.");
+        }
+
+        try {
+            if (parquetWriter == null) {
+                open();
+            }
+
+            parquetWriter.write(record);
+
+            // bytes are written when a row group is complete
+            long pos = parquetOutputStream.getPos();
+            if (pos > reportedPos && outputStream instanceof OptionalZipOutputStream) {
+                long length = pos - reportedPos;
+                reportedPos = pos;
+                // flush() completes the Parquet file when a new file is started
+                ((OptionalZipOutputStream) outputStream).isNewFile(this, length);
+            }
+        } catch (IOException e) {
+            logger.error("Found error writing to Parquet file", e);
+            errors.add(e);
+            writerError.set(true);
+        }
+    }
+
+    private void open() throws IOException {
+        started = true;
+        parquetOutputStream = new ShieldedPositionOutputStream(outputStream);
+        reportedPos = 0;
+
+        OutputFile outputFile = new OutputFile() {
+            @Override
+            public PositionOutputStream create(long blockSizeHint) {
+                return parquetOutputStream;
+            }
+
+            @Override
+            public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+                return parquetOutputStream;
+            }
+
+            @Override
+            public boolean supportsBlockSize() {
+                return false;
+            }
+
+            @Override
+            public long defaultBlockSize() {
+                return 0;
+            }
+        };
+
+        parquetWriter = new Builder(outputFile, new RecordWriteSupport())
+                .withCompressionCodec(CompressionCodecName.SNAPPY)
+                .withDictionaryEncoding(true)
+                .withRowGroupSize(rowGroupSize)
+                .build();
+    }
+
+    @Override
+    public void initialise() {
+        initialised.set(true);
+    }
+
+    @Override
+    public void finalise() {
+        if (finalised.compareAndSet(false, true)) {
+            try {
+                flush();
+                if (invalidValues > 0) {
+                    logger.warn(invalidValues + " values could not be converted to their Parquet column type");
+                }
+            } finally {
+                finalisedComplete.set(true);
+            }
+        }
+    }
+
+    @Override
+    public boolean finalised() {
+        return finalisedComplete.get();
+    }
+
+    @Override
+    public boolean hasError() {
+        return writerError.get();
+    }
+
+    @Override
+    public List<Throwable> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Completes the current Parquet file. A Parquet file cannot be read until it is complete, so this is only
+     * called when the output starts a new file or when the writer is finalised.
+     */
+    @Override
+    public synchronized void flush() {
+        try {
+            if (parquetWriter == null && !started && initialised.get()) {
+                // an empty file has the schema
+                open();
+            }
+            if (parquetWriter != null) {
+                parquetWriter.close();
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            errors.add(e);
+            writerError.set(true);
+        } finally {
+            parquetWriter = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finalise();
+    }
+
+    private class RecordWriteSupport extends WriteSupport<String[]> {
+
+        private RecordConsumer consumer;
+
+        @Override
+        public WriteContext init(Configuration configuration) {
+            return new WriteContext(schema, new HashMap<>());
+        }
+
+        @Override
+        public void prepareForWrite(RecordConsumer recordConsumer) {
+            this.consumer = recordConsumer;
+        }
+
+        @Override
+        public void write(String[] record) {
+            consumer.startMessage();
+
+            int n = Math.min(record.length, columns.length);
+            for (int i = 0; i < n; i++) {
+                String value = record[i];
+                if (value == null || value.isEmpty()) {
+                    continue;
+                }
+
+                try {
+                    switch (types[i]) {
+                        case LONG:
+                            long l = Long.parseLong(value);
+                            consumer.startField(columns[i], i);
+                            consumer.addLong(l);
+                            break;
+                        case DOUBLE:
+                            double d = Double.parseDouble(value);
+                            consumer.startField(columns[i], i);
+                            consumer.addDouble(d);
+                            break;
+                        case BOOLEAN:
+                            // only true and false, other values are written as null rather than false
+                            if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+                                invalidValues++;
+                                continue;
+                            }
+                            consumer.startField(columns[i], i);
+                            consumer.addBoolean("true".equalsIgnoreCase(value));
+                            break;
+                        default:
+                            consumer.startField(columns[i], i);
+                            consumer.addBinary(Binary.fromString(value));
+                    }
+                    consumer.endField(columns[i], i);
+                } catch (NumberFormatException e) {
+                    invalidValues++;
+                }
+            }
+
+            if (miscColumn != null && record.length > columns.length) {
+                Map<String, String> misc = new LinkedHashMap<>();
+                // miscLabels is only appended to, so the labels of this record are present
+                int labels = miscLabels.size();
+                for (int i = columns.length; i < record.length && i - columns.length < labels; i++) {
+                    if (record[i] != null && !record[i].isEmpty()) {
+                        misc.put(miscLabels.get(i - columns.length), record[i]);
+                    }
+                }
+                if (!misc.isEmpty()) {
+                    consumer.startField(miscColumn, columns.length);
+                    consumer.addBinary(Binary.fromString(JSONObject.fromObject(misc).toString()));
+                    consumer.endField(miscColumn, columns.length);
+                }
+            }
+
+            consumer.endMessage();
+        }
+    }
+
+    private static class Builder extends ParquetWriter.Builder<String[], Builder> {
+
+        private final WriteSupport<String[]> writeSupport;
+
+        Builder(OutputFile outputFile, WriteSupport<String[]> writeSupport) {
+            super(outputFile);
+            this.writeSupport = writeSupport;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<String[]> getWriteSupport(Configuration conf) {
+            return writeSupport;
+        }
+    }
+
+    /**
+     * Tracks the position in the current Parquet file. Closing it does not close the underlying stream.
+     */
+    private static class ShieldedPositionOutputStream extends PositionOutputStream {
+
+        private final OutputStream out;
+        private long pos = 0;
+
+        ShieldedPositionOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public long getPos() {
+            return pos;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            pos++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            pos += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -37,7 +37,6 @@ import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 import static java.util.Arrays.asList;
@@ -208,10 +207,7 @@ public class QueryFormatTest {
      */
     @Test
     public void testQueryFormattingWithQualityFilters() throws QidMissingException {
-        Map<String, String> filters = new LinkedHashMap();
-        filters.put("first", "foo:bar");
-        filters.put("second", "baz:qux");
-        when(dataQualityService.getEnabledFiltersByLabel(any(SpatialSearchRequestDTO.class))).thenReturn(filters);
+        when(dataQualityService.getEnabledFilters(any(SpatialSearchRequestDTO.class))).thenAnswer(invocation -> new String[]{"foo:bar", "baz:qux"});
 
         SpatialSearchRequestDTO ssrp = new SpatialSearchRequestDTO();
         ssrp.setQ("lsid:urn:lsid:biodiversity.org.au:afd.taxon:31a9b8b8-4e8f-4343-a15f-2ed24e0bf1ae"); //"lsid:urn:lsid:biodiversity.org.au:afd.taxon:31a9b8b8-4e8f-4343-a15f-2ed24e0bf1ae", "lft:[", "species", false
@@ -0,0 +1,478 @@
+package au.org.ala.biocache.dao;
+
+import au.org.ala.biocache.dto.BreakdownRequestDTO;
+import au.org.ala.biocache.dto.FieldResultDTO;
+import au.org.ala.biocache.dto.OccurrenceIndex;
+import au.org.ala.biocache.dto.SpatialSearchRequestDTO;
+import au.org.ala.biocache.dto.TaxaRankCountDTO;
+import au.org.ala.biocache.stream.ProcessInterface;
+import au.org.ala.biocache.util.QueryFormatUtils;
+import au.org.ala.biocache.util.SearchUtils;
+import au.org.ala.biocache.util.solr.FieldMappingUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.WKTReader;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class SearchDAOImplTest {
+
+    private static final List<String> RANKS = Arrays.asList("kingdom", "family", "genus", "species");
+
+    private static final Pattern JSON_FACET = Pattern.compile("r(\\d+):\\{[^}]*limit:(-?\\d+),field:([^}]+)}");
+
+    private static final Pattern CELL = Pattern.compile(
+            "decimalLatitude:\\[(\\S+) TO (\\S+)} AND decimalLongitude:\\[(\\S+) TO (\\S+)}");
+
+    private SearchDAOImpl searchDAO;
+
+    // kingdom, family, genus, species and the number of records
+    private final List<Object[]> records = Arrays.asList(
+            new Object[]{"K1", "F1", "A", "a1", 4},
+            new Object[]{"K1", "F1", "A", "a2", 3},
+            new Object[]{"K1", "F1", "B", "b1", 2},
+            new Object[]{"K1", "F2", "C", "c1", 5},
+            new Object[]{"K1", "F2", "C", "c2", 1},
+            new Object[]{"K1", "F3", null, "x1", 2}
+    );
+
+    // latitude, longitude and names_and_lsid of single records
+    private final List<Object[]> occurrences = Arrays.asList(
+            new Object[]{0.05, 0.05, "Alpha|a|Alpha common|Animalia|F1"},
+            new Object[]{0.05, 0.15, "Alpha|a|Alpha common|Animalia|F1"},
+            new Object[]{0.15, 0.25, "Alpha|a|Alpha common|Animalia|F1"},
+            new Object[]{0.12, 0.08, "Gamma|g|Gamma common|Plantae|F2"},
+            new Object[]{0.15, 0.34, "Beta|b|Beta common|Animalia|F1"},
+            new Object[]{0.15, 0.34, "Beta|b|Beta common|Animalia|F1"},
+            new Object[]{0.05, 0.42, "Gamma|g|Gamma common|Plantae|F2"},
+            // outside of the interior cells, within the circles
+            new Object[]{0.22, 0.15, "Delta|d|Delta common|Plantae|F2"},
+            new Object[]{0.22, 0.32, "Gamma|g|Gamma common|Plantae|F2"},
+            new Object[]{0.22, 0.32, "Beta|b|Beta common|Animalia|F1"},
+            // outside of the circles
+            new Object[]{0.5, 0.15, "Epsilon|e|Epsilon common|Plantae|F2"}
+    );
+
+    // the circle polygon of the current request and the json.facet requests
+    private String circleWkt;
+    private final List<String> jsonFacets = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        searchDAO = new SearchDAOImpl();
+        searchDAO.indexDao = mock(IndexDAO.class);
+        searchDAO.queryFormatUtils = mock(QueryFormatUtils.class);
+        searchDAO.searchUtils = mock(SearchUtils.class);
+        searchDAO.fieldMappingUtil = mock(FieldMappingUtil.class);
+        searchDAO.cacheManager = new ConcurrentMapCacheManager("breakdownCache", "circleGridCache");
+
+        when(searchDAO.fieldMappingUtil.translateFieldName(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(searchDAO.searchUtils.getRanks()).thenReturn(RANKS);
+        when(searchDAO.searchUtils.getNextRanks(eq("family"), anyBoolean())).thenReturn(Arrays.asList("genus", "species"));
+
+        // json.facet request of all candidate ranks
+        when(searchDAO.indexDao.query(any(SolrQuery.class))).thenAnswer(invocation -> {
+            SolrQuery query = invocation.getArgument(0);
+            List<Object[]> matched = filter(query);
+
+            SimpleOrderedMap<Object> facets = new SimpleOrderedMap<>();
+            Matcher m = JSON_FACET.matcher(query.get("json.facet"));
+            while (m.find()) {
+                Map<String, Long> counts = counts(matched, m.group(3));
+                int limit = Integer.parseInt(m.group(2));
+                List<SimpleOrderedMap> buckets = new ArrayList<>();
+                for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                    if (limit >= 0 && buckets.size() >= limit) {
+                        break;
+                    }
+                    SimpleOrderedMap<Object> bucket = new SimpleOrderedMap<>();
+                    bucket.add("val", entry.getKey());
+                    bucket.add("count", entry.getValue());
+                    buckets.add(bucket);
+                }
+                SimpleOrderedMap<Object> facet = new SimpleOrderedMap<>();
+                facet.add("numBuckets", (long) counts.size());
+                facet.add("buckets", buckets);
+                facets.add("r" + m.group(1), facet);
+            }
+
+            SimpleOrderedMap<Object> response = response(matched);
+            response.add("facets", facets);
+            QueryResponse qr = new QueryResponse();
+            qr.setResponse(response);
+            return qr;
+        });
+
+        // facet.field request of a single rank
+        when(searchDAO.indexDao.runSolrQuery(any(SolrQuery.class))).thenAnswer(invocation -> {
+            SolrQuery query = invocation.getArgument(0);
+            List<Object[]> matched = filter(query);
+
+            NamedList<Object> facetFields = new NamedList<>();
+            for (String field : query.getFacetFields()) {
+                NamedList<Object> values = new NamedList<>();
+                counts(matched, field).forEach(values::add);
+                facetFields.add(field, values);
+            }
+            NamedList<Object> facetCounts = new NamedList<>();
+            facetCounts.add("facet_fields", facetFields);
+
+            SimpleOrderedMap<Object> response = response(matched);
+            response.add("facet_counts", facetCounts);
+            QueryResponse qr = new QueryResponse();
+            qr.setResponse(response);
+            return qr;
+        });
+    }
+
+    @Test
+    public void testBreakdownWithMax() throws Exception {
+        // species has 6 values, genus is the lowest rank with no more than 3
+        BreakdownRequestDTO request = request(null, null, 3);
+        TaxaRankCountDTO result = searchDAO.calculateBreakdown(request);
+
+        assertEquals("genus", result.getRank());
+        assertSameBreakdown(perRankBreakdown(null, null, 3), result);
+        verify(searchDAO.indexDao, times(1)).query(any(SolrQuery.class));
+        verify(searchDAO.indexDao, never()).runSolrQuery(any(SolrQuery.class));
+    }
+
+    @Test
+    public void testBreakdownOfRank() throws Exception {
+        TaxaRankCountDTO result = searchDAO.calculateBreakdown(request("family", "F1", null));
+
+        assertEquals("genus", result.getRank());
+        assertSameBreakdown(perRankBreakdown("family", "F1", null), result);
+        verify(searchDAO.indexDao, never()).runSolrQuery(any(SolrQuery.class));
+    }
+
+    @Test
+    public void testBreakdownOfRankFallback() throws Exception {
+        // there are no genus values, the species values are requested separately
+        TaxaRankCountDTO result = searchDAO.calculateBreakdown(request("family", "F3", null));
+
+        assertEquals("species", result.getRank());
+        assertSameBreakdown(perRankBreakdown("family", "F3", null), result);
+        verify(searchDAO.indexDao, times(1)).runSolrQuery(any(SolrQuery.class));
+    }
+
+    @Test
+    public void testBreakdownCached() throws Exception {
+        TaxaRankCountDTO first = searchDAO.calculateBreakdown(request(null, null, 3));
+        TaxaRankCountDTO second = searchDAO.calculateBreakdown(request(null, null, 3));
+
+        assertSame(first, second);
+        verify(searchDAO.indexDao, times(1)).query(any(SolrQuery.class));
+
+        // a different request is not cached
+        searchDAO.calculateBreakdown(request(null, null, 10));
+        verify(searchDAO.indexDao, times(2)).query(any(SolrQuery.class));
+    }
+
+    private BreakdownRequestDTO request(String rank, String name, Integer max) {
+        BreakdownRequestDTO request = new BreakdownRequestDTO();
+        request.setQ("*:*");
+        request.setRank(rank);
+        request.setName(name);
+        request.setMax(max);
+        return request;
+    }
+
+    /**
+     * The breakdown as it was calculated with one facet request per rank.
+     */
+    private TaxaRankCountDTO perRankBreakdown(String rank, String name, Integer max) {
+        List<Object[]> matched = rank == null ? records : records.stream()
+                .filter(r -> name.equals(r[RANKS.indexOf(rank)])).collect(Collectors.toList());
+
+        List<String> ranks;
+        if (rank != null) {
+            ranks = Arrays.asList("genus", "species");
+        } else {
+            ranks = new ArrayList<>(RANKS);
+            Collections.reverse(ranks);
+        }
+
+        for (String r : ranks) {
+            Map<String, Long> counts = counts(matched, r);
+            if ((max != null && counts.size() <= max) || (rank != null && counts.size() > 0)) {
+                TaxaRankCountDTO dto = new TaxaRankCountDTO(r);
+                dto.setTaxa(counts.entrySet().stream()
+                        .map(e -> new FieldResultDTO(e.getKey(), r + "." + e.getKey(), e.getValue()))
+                        .collect(Collectors.toList()));
+                return dto;
+            }
+        }
+        return null;
+    }
+
+    private void assertSameBreakdown(TaxaRankCountDTO expected, TaxaRankCountDTO actual) {
+        assertEquals(expected.getRank(), actual.getRank());
+        assertEquals(expected.getTaxa().size(), actual.getTaxa().size());
+        for (int i = 0; i < expected.getTaxa().size(); i++) {
+            assertEquals(expected.getTaxa().get(i).getLabel(), actual.getTaxa().get(i).getLabel());
+            assertEquals(expected.getTaxa().get(i).getI18nCode(), actual.getTaxa().get(i).getI18nCode());
+            assertEquals(expected.getTaxa().get(i).getCount(), actual.getTaxa().get(i).getCount());
+        }
+    }
+
+    /**
+     * Records that match the rank:name filter queries.
+     */
+    private List<Object[]> filter(SolrQuery query) {
+        Predicate<Object[]> predicate = r -> true;
+        if (query.getFilterQueries() != null) {
+            for (String fq : query.getFilterQueries()) {
+                String[] fieldValue = fq.split(":", 2);
+                int i = RANKS.indexOf(fieldValue[0]);
+                if (i >= 0) {
+                    predicate = predicate.and(r -> fieldValue[1].equals(r[i]));
+                }
+            }
+        }
+        return records.stream().filter(predicate).collect(Collectors.toList());
+    }
+
+    /**
+     * @return value counts of a rank, count descending then value
+     */
+    private Map<String, Long> counts(List<Object[]> matched, String rank) {
+        int i = RANKS.indexOf(rank);
+        Map<String, Long> counts = new HashMap<>();
+        for (Object[] r : matched) {
+            if (r[i] != null) {
+                counts.merge((String) r[i], ((Integer) r[4]).longValue(), Long::sum);
+            }
+        }
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    private SimpleOrderedMap<Object> response(List<Object[]> matched) {
+        SolrDocumentList results = new SolrDocumentList();
+        results.setNumFound(matched.stream().mapToLong(r -> (Integer) r[4]).sum());
+        SimpleOrderedMap<Object> response = new SimpleOrderedMap<>();
+        response.add("response", results);
+        return response;
+    }
+
+    @Test
+    public void testSpeciesCountByCircleFromGrid() throws Exception {
+        mockGrid();
+        String circleA = "POLYGON((0 0, 0.35 0, 0.35 0.25, 0 0.25, 0 0))";
+        String circleB = "POLYGON((0.1 0, 0.45 0, 0.45 0.25, 0.1 0.25, 0.1 0))";
+
+        for (String fsort : Arrays.asList("count", "index")) {
+            searchDAO.cacheManager.getCache("circleGridCache").clear();
+            jsonFacets.clear();
+
+            // all 6 interior cells are requested in one json.facet request
+            assertEquals(speciesCountByCircle(circleA, fsort, false), speciesCountByCircle(circleA, fsort, true));
+            assertEquals(1, jsonFacets.size());
+            assertEquals(6, cellFacets(0));
+
+            // all cells are cached
+            assertEquals(speciesCountByCircle(circleA, fsort, false), speciesCountByCircle(circleA, fsort, true));
+            assertEquals(1, jsonFacets.size());
+
+            // 4 of the 6 cells are cached
+            assertEquals(speciesCountByCircle(circleB, fsort, false), speciesCountByCircle(circleB, fsort, true));
+            assertEquals(2, jsonFacets.size());
+            assertEquals(2, cellFacets(1));
+        }
+
+        // the sort orders differ
+        assertNotEquals(speciesCountByCircle(circleA, "count", true), speciesCountByCircle(circleA, "index", true));
+        // the records outside of the interior cells are included
+        assertTrue(speciesCountByCircle(circleA, "index", true).contains("Delta"));
+        assertFalse(speciesCountByCircle(circleA, "index", true).contains("Epsilon"));
+    }
+
+    @Test
+    public void testSpeciesCountByCircleWithWkt() throws Exception {
+        mockGrid();
+        String circleA = "POLYGON((0 0, 0.35 0, 0.35 0.25, 0 0.25, 0 0))";
+
+        // the circle replaces the wkt, the counts are not from the grid
+        String wkt = "POLYGON((0 0, 0.1 0, 0.1 0.1, 0 0.1, 0 0))";
+        assertEquals(speciesCountByCircle(circleA, "count", false, wkt), speciesCountByCircle(circleA, "count", true, wkt));
+        assertTrue(jsonFacets.isEmpty());
+    }
+
+    private String speciesCountByCircle(String wkt, String fsort, boolean grid) throws Exception {
+        return speciesCountByCircle(wkt, fsort, grid, null);
+    }
+
+    private String speciesCountByCircle(String wkt, String fsort, boolean grid, String requestWkt) throws Exception {
+        circleWkt = wkt;
+        searchDAO.circleGridEnabled = grid;
+
+        SpatialSearchRequestDTO request = new SpatialSearchRequestDTO();
+        request.setQ("*:*");
+        request.setLat(0.1f);
+        request.setLon(0.2f);
+        request.setRadius(20f);
+        request.setFacets(new String[]{OccurrenceIndex.NAMES_AND_LSID});
+        request.setFsort(fsort);
+        request.setWkt(requestWkt);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        searchDAO.writeSpeciesCountByCircleToStream(request, null, new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                bytes.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        });
+        return bytes.toString("UTF-8");
+    }
+
+    /**
+     * Answer the occurrences with a "circle" filter query for requests with a circle, json.facet cell requests and
+     * streamed facets.
+     */
+    private void mockGrid() throws Exception {
+        searchDAO.circleGridSize = 0.1;
+        searchDAO.circleGridMaxCells = 100;
+
+        when(searchDAO.fieldMappingUtil.translateQueryFields(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(searchDAO.queryFormatUtils.createCircleWkt(anyDouble(), anyDouble(), anyDouble())).thenAnswer(invocation -> circleWkt);
+        when(searchDAO.queryFormatUtils.formatSearchQuery(any(SpatialSearchRequestDTO.class))).thenAnswer(invocation -> {
+            SpatialSearchRequestDTO request = invocation.getArgument(0);
+            request.setFormattedQuery("*:*");
+            request.setFormattedFq(request.getLat() != null ? new String[]{"circle"} : new String[0]);
+            return null;
+        });
+
+        doAnswer(invocation -> {
+            SolrQuery query = invocation.getArgument(0);
+            jsonFacets.add(query.get("json.facet"));
+            List<Object[]> matched = filterOccurrences(query, null);
+
+            SimpleOrderedMap<Object> facets = new SimpleOrderedMap<>();
+            Map<String, Map<String, Object>> cells = new ObjectMapper().readValue(query.get("json.facet"), Map.class);
+            for (Map.Entry<String, Map<String, Object>> cell : cells.entrySet()) {
+                List<SimpleOrderedMap> buckets = new ArrayList<>();
+                speciesCounts(filterOccurrences(query, (String) cell.getValue().get("q")), "count").forEach((value, count) -> {
+                    SimpleOrderedMap<Object> bucket = new SimpleOrderedMap<>();
+                    bucket.add("val", value);
+                    bucket.add("count", count);
+                    buckets.add(bucket);
+                });
+                SimpleOrderedMap<Object> terms = new SimpleOrderedMap<>();
+                terms.add("buckets", buckets);
+                SimpleOrderedMap<Object> facet = new SimpleOrderedMap<>();
+                facet.add("count", (long) matched.size());
+                facet.add("s", terms);
+                facets.add(cell.getKey(), facet);
+            }
+
+            SimpleOrderedMap<Object> response = new SimpleOrderedMap<>();
+            response.add("facets", facets);
+            QueryResponse qr = new QueryResponse();
+            qr.setResponse(response);
+            return qr;
+        }).when(searchDAO.indexDao).runSolrQuery(any(SolrQuery.class));
+
+        doAnswer(invocation -> {
+            SolrQuery query = invocation.getArgument(0);
+            ProcessInterface procFacet = invocation.getArgument(2);
+            String field = query.getFacetFields()[0];
+            speciesCounts(filterOccurrences(query, null), query.getFacetSortString()).forEach((value, count) -> {
+                Map<Object, Object> fields = new HashMap<>();
+                fields.put(field, value);
+                fields.put("count(*)", count);
+                procFacet.process(new Tuple(fields));
+            });
+            procFacet.flush();
+            return 0;
+        }).when(searchDAO.indexDao).streamingQuery(any(SolrQuery.class), any(), any(), any());
+    }
+
+    private int cellFacets(int request) throws Exception {
+        return new ObjectMapper().readValue(jsonFacets.get(request), Map.class).size();
+    }
+
+    /**
+     * Occurrences that match the filter queries of the request and the cell query.
+     */
+    private List<Object[]> filterOccurrences(SolrQuery query, String cellQuery) throws Exception {
+        Geometry circle = new WKTReader().read(circleWkt);
+        GeometryFactory geometryFactory = new GeometryFactory();
+
+        Predicate<Object[]> predicate = r -> true;
+        if (cellQuery != null) {
+            predicate = predicate.and(r -> inCells(cellQuery, r));
+        }
+        if (query.getFilterQueries() != null) {
+            for (String fq : query.getFilterQueries()) {
+                if ("circle".equals(fq)) {
+                    predicate = predicate.and(r -> circle.covers(geometryFactory.createPoint(new Coordinate((Double) r[1], (Double) r[0]))));
+                } else if (fq.startsWith("-")) {
+                    predicate = predicate.and(r -> !inCells(fq, r));
+                }
+            }
+        }
+        return occurrences.stream().filter(predicate).collect(Collectors.toList());
+    }
+
+    private boolean inCells(String cellQuery, Object[] occurrence) {
+        double lat = (Double) occurrence[0];
+        double lon = (Double) occurrence[1];
+        Matcher m = CELL.matcher(cellQuery);
+        while (m.find()) {
+            if (lat >= Double.parseDouble(m.group(1)) && lat < Double.parseDouble(m.group(2))
+                    && lon >= Double.parseDouble(m.group(3)) && lon < Double.parseDouble(m.group(4))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return species counts in the facet.sort order, count or index
+     */
+    private Map<String, Long> speciesCounts(List<Object[]> matched, String sort) {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Object[] r : matched) {
+            counts.merge((String) r[2], 1L, Long::sum);
+        }
+        if ("index".equals(sort)) {
+            return counts;
+        }
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+}
@@ -1,7 +1,7 @@
 package au.org.ala.biocache.dao;
 
 import au.org.ala.biocache.dto.FieldResultDTO;
-import au.org.ala.biocache.stream.EndemicFacet;
+import au.org.ala.biocache.stream.ProcessFacetValues;
 import au.org.ala.biocache.stream.ProcessInterface;
 import au.org.ala.biocache.util.QueryFormatUtils;
 import au.org.ala.biocache.util.SolrUtils;
@@ -90,7 +90,7 @@ public class SolrIndexDAOImplIT extends TestCase {
         subset.addFacetField("year");
 
         List<FieldResultDTO> output = new ArrayList();
-        solrIndexDAO.streamingQuery(subset, null, new EndemicFacet(output, "year"), superset);
+        solrIndexDAO.streamingQuery(subset, null, new ProcessFacetValues((value, count) -> output.add(new FieldResultDTO(value, value, count))), superset);
 
         assertEquals(output.size(), 1);
     }
@@ -106,7 +106,7 @@ public class SolrIndexDAOImplIT extends TestCase {
         subset.addFacetField("year");
 
         List<FieldResultDTO> output = new ArrayList();
-        solrIndexDAO.streamingQuery(subset, null, new EndemicFacet(output, "year"), superset);
+        solrIndexDAO.streamingQuery(subset, null, new ProcessFacetValues((value, count) -> output.add(new FieldResultDTO(value, value, count))), superset);
 
         assertEquals(output.size(), 28);
 
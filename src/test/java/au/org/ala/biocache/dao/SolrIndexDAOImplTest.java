@@ -0,0 +1,347 @@
+package au.org.ala.biocache.dao;
+
+import au.org.ala.biocache.dto.IndexFieldDTO;
+import au.org.ala.biocache.service.LayersService;
+import au.org.ala.biocache.util.solr.FieldMappingUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class SolrIndexDAOImplTest {
+
+    private SolrIndexDAOImpl indexDAO;
+
+    // the /admin/luke requests, the index version and the distinct values of the fields in the luke responses
+    private final List<SolrParams> lukeRequests = new ArrayList<>();
+    private long lukeVersion = 1;
+    private final Map<String, Integer> distinctValues = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        indexDAO = new SolrIndexDAOImpl();
+        indexDAO.solrClient = mock(SolrClient.class);
+    }
+
+    @Test
+    public void testCoalesceKey() {
+        ModifiableSolrParams a = new ModifiableSolrParams();
+        a.set("q", "*:*");
+        a.add("fq", "year:2000", "month:1");
+
+        ModifiableSolrParams b = new ModifiableSolrParams();
+        b.add("fq", "year:2000", "month:1");
+        b.set("q", "*:*");
+
+        ModifiableSolrParams c = new ModifiableSolrParams();
+        c.set("q", "*:*");
+        c.add("fq", "year:2000 month:1");
+
+        assertEquals(SolrIndexDAOImpl.coalesceKey(a), SolrIndexDAOImpl.coalesceKey(b));
+        assertNotEquals(SolrIndexDAOImpl.coalesceKey(a), SolrIndexDAOImpl.coalesceKey(c));
+
+        // the request ID does not change the response
+        a.set("XRequestID", "1");
+        b.set("XRequestID", "2");
+        assertEquals(SolrIndexDAOImpl.coalesceKey(a), SolrIndexDAOImpl.coalesceKey(b));
+    }
+
+    @Test
+    public void testConcurrentQueriesShareOneRequest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch joined = new CountDownLatch(2);
+        QueryResponse response = new QueryResponse();
+
+        // a query joins the query in progress after it increments the coalesced counter
+        indexDAO.meterRegistry = new SimpleMeterRegistry() {
+            @Override
+            protected Counter newCounter(Meter.Id id) {
+                Counter counter = super.newCounter(id);
+                if (!"biocache.solr.coalesced".equals(id.getName())) {
+                    return counter;
+                }
+                return new Counter() {
+                    @Override
+                    public void increment(double amount) {
+                        counter.increment(amount);
+                        joined.countDown();
+                    }
+
+                    @Override
+                    public double count() {
+                        return counter.count();
+                    }
+
+                    @Override
+                    public Id getId() {
+                        return counter.getId();
+                    }
+                };
+            }
+        };
+
+        when(indexDAO.solrClient.query(any(SolrParams.class), eq(SolrRequest.METHOD.POST))).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return response;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<QueryResponse> first = executor.submit(() -> indexDAO.query(countQuery("1")));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // queries that differ only in the request ID join the first
+            Future<QueryResponse> second = executor.submit(() -> indexDAO.query(countQuery("2")));
+            Future<QueryResponse> third = executor.submit(() -> indexDAO.query(countQuery(null)));
+
+            // wait for the second and third queries to join the first
+            assertTrue(joined.await(10, TimeUnit.SECONDS));
+            release.countDown();
+
+            assertSame(response, first.get(10, TimeUnit.SECONDS));
+            assertSame(response, second.get(10, TimeUnit.SECONDS));
+            assertSame(response, third.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(indexDAO.solrClient, times(1)).query(any(SolrParams.class), eq(SolrRequest.METHOD.POST));
+
+        // a query that is not in progress makes a new request
+        indexDAO.query(countQuery("1"));
+        verify(indexDAO.solrClient, times(2)).query(any(SolrParams.class), eq(SolrRequest.METHOD.POST));
+    }
+
+    @Test
+    public void testDocumentQueriesAreNotCoalesced() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        when(indexDAO.solrClient.query(any(SolrParams.class), eq(SolrRequest.METHOD.POST))).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return new QueryResponse();
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // callers change the documents of their response, each query has its own request
+            Future<QueryResponse> first = executor.submit(() -> indexDAO.query(new SolrQuery("*:*")));
+            Future<QueryResponse> second = executor.submit(() -> indexDAO.query(new SolrQuery("*:*")));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            release.countDown();
+
+            assertNotSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(indexDAO.solrClient, times(2)).query(any(SolrParams.class), eq(SolrRequest.METHOD.POST));
+    }
+
+    @Test
+    public void testCoalesceDisabled() throws Exception {
+        indexDAO.coalesceQueries = false;
+        when(indexDAO.solrClient.query(any(SolrParams.class), eq(SolrRequest.METHOD.POST)))
+                .thenReturn(new QueryResponse());
+
+        indexDAO.query(countQuery(null));
+        indexDAO.query(countQuery(null));
+
+        verify(indexDAO.solrClient, times(2)).query(any(SolrParams.class), eq(SolrRequest.METHOD.POST));
+    }
+
+    @Test
+    public void testIndexFieldsVersionGate() throws Exception {
+        Map<String, String> layerNames = new HashMap<>();
+        layerNames.put("cl22", "States");
+        mockLuke(layerNames);
+
+        indexDAO.refreshIndexFields(false);
+        Map<String, IndexFieldDTO> fields = indexDAO.getIndexedFieldsMap();
+        assertTrue(fields.get("oldName").isDeprecated());
+        assertEquals("States", fields.get("cl22").getDescription());
+        assertEquals(1, fieldListRequests());
+
+        // the same index version and configuration reuses the field list
+        indexDAO.refreshIndexFields(false);
+        assertEquals(1, fieldListRequests());
+
+        // the persisted field list is used after a restart
+        SolrIndexDAOImpl restarted = restart(indexDAO);
+        restarted.refreshIndexFields(false);
+        assertEquals(1, fieldListRequests());
+        assertEquals(fields.keySet(), restarted.getIndexedFieldsMap().keySet());
+        assertEquals(fields.size(), restarted.getIndexedFields().size());
+
+        // a new layer is added
+        layerNames.put("el10", "Temperature");
+        restarted = restart(restarted);
+        restarted.refreshIndexFields(false);
+        assertEquals(2, fieldListRequests());
+        assertEquals("Temperature", restarted.getIndexedFieldsMap().get("el10").getDescription());
+
+        // a field is hidden
+        restarted = restart(restarted);
+        restarted.indexFieldsToHide = "_version_,oldName";
+        restarted.refreshIndexFields(false);
+        assertEquals(3, fieldListRequests());
+        assertNull(restarted.getIndexedFieldsMap().get("oldName"));
+
+        // a new index version
+        restarted.refreshIndexFields(false);
+        assertEquals(3, fieldListRequests());
+        lukeVersion = 2;
+        restarted.refreshIndexFields(false);
+        assertEquals(4, fieldListRequests());
+    }
+
+    @Test
+    public void testFieldStatistics() throws Exception {
+        mockLuke(Collections.emptyMap());
+        distinctValues.put("year", 300);
+        distinctValues.put("month", 12);
+        distinctValues.put("state", 8);
+        indexDAO.refreshIndexFields(false);
+        lukeRequests.clear();
+
+        Map<String, Integer> statistics = indexDAO.getFieldStatistics("year", "month");
+        assertEquals(Integer.valueOf(300), statistics.get("year"));
+        assertEquals(Integer.valueOf(12), statistics.get("month"));
+        assertEquals(Collections.singletonList("year,month"), statisticsRequests());
+
+        // only the fields without statistics are requested
+        statistics = indexDAO.getFieldStatistics("month", "state");
+        assertEquals(Integer.valueOf(12), statistics.get("month"));
+        assertEquals(Integer.valueOf(8), statistics.get("state"));
+        assertEquals(Arrays.asList("year,month", "state"), statisticsRequests());
+
+        indexDAO.getFieldStatistics("year", "state");
+        assertEquals(2, statisticsRequests().size());
+
+        // the persisted statistics are used after a restart
+        SolrIndexDAOImpl restarted = restart(indexDAO);
+        restarted.refreshIndexFields(false);
+        restarted.getFieldStatistics("year", "month", "state");
+        assertEquals(2, statisticsRequests().size());
+
+        // statistics of an old index version are requested again
+        lukeVersion = 2;
+        distinctValues.put("year", 301);
+        indexDAO.refreshIndexFields(false);
+        assertEquals(Integer.valueOf(301), indexDAO.getFieldStatistics("year").get("year"));
+        assertEquals(Arrays.asList("year,month", "state", "year"), statisticsRequests());
+    }
+
+    /**
+     * Respond to /admin/luke requests for the index version, the field list, the schema and field statistics.
+     */
+    /**
+     * @return a query that returns no documents, with the request ID set by runSolrQuery
+     */
+    private static SolrQuery countQuery(String requestId) {
+        SolrQuery query = new SolrQuery("*:*");
+        query.setRows(0);
+        if (requestId != null) {
+            query.setParam("XRequestID", requestId);
+        }
+        return query;
+    }
+
+    private void mockLuke(Map<String, String> layerNames) throws Exception {
+        indexDAO.layersService = mock(LayersService.class);
+        when(indexDAO.layersService.getLayerNameMap()).thenReturn(layerNames);
+
+        FieldMappingUtil fieldMappingUtil = mock(FieldMappingUtil.class);
+        when(fieldMappingUtil.getFieldMappingStream()).thenAnswer(invocation -> Stream.of(Pair.of("oldName", "newName")));
+        ReflectionTestUtils.setField(indexDAO, "fieldMappingUtil", fieldMappingUtil);
+
+        indexDAO.indexFieldsToHide = "_version_";
+        indexDAO.coalesceQueries = false;
+        ReflectionTestUtils.setField(indexDAO, "indexFieldMap", new HashMap<>());
+        ReflectionTestUtils.setField(indexDAO, "indexFieldVersions", new HashMap<>());
+        ReflectionTestUtils.setField(indexDAO, "fieldStatistics", new HashMap<>());
+
+        when(indexDAO.solrClient.query(any(SolrParams.class), eq(SolrRequest.METHOD.POST))).thenAnswer(invocation -> {
+            SolrParams params = invocation.getArgument(0);
+            lukeRequests.add(params);
+
+            SimpleOrderedMap<Object> index = new SimpleOrderedMap<>();
+            index.add("version", lukeVersion);
+            SimpleOrderedMap<Object> response = new SimpleOrderedMap<>();
+            if ("schema".equals(params.get("show"))) {
+                SimpleOrderedMap<Object> schema = new SimpleOrderedMap<>();
+                schema.add("fields", new NamedList<>());
+                response.add("schema", schema);
+            } else {
+                response.add("index", index);
+                NamedList<Object> fields = new NamedList<>();
+                if (params.get("fl") != null) {
+                    for (String field : params.get("fl").split(",")) {
+                        NamedList<Object> info = new NamedList<>();
+                        info.add("distinct", distinctValues.get(field));
+                        fields.add(field, info);
+                    }
+                }
+                if (!"index".equals(params.get("show"))) {
+                    response.add("fields", fields);
+                }
+            }
+
+            QueryResponse qr = new QueryResponse();
+            qr.setResponse(response);
+            return qr;
+        });
+    }
+
+    /**
+     * A new instance with the field metadata and configuration of dao, as if persisted before a restart.
+     */
+    private SolrIndexDAOImpl restart(SolrIndexDAOImpl dao) {
+        SolrIndexDAOImpl restarted = new SolrIndexDAOImpl();
+        restarted.solrClient = dao.solrClient;
+        restarted.layersService = dao.layersService;
+        restarted.indexFieldsToHide = dao.indexFieldsToHide;
+        restarted.coalesceQueries = false;
+        for (String field : Arrays.asList("fieldMappingUtil", "indexFieldMap", "indexFieldVersions", "fieldStatistics")) {
+            ReflectionTestUtils.setField(restarted, field, ReflectionTestUtils.getField(dao, field));
+        }
+        return restarted;
+    }
+
+    private long fieldListRequests() {
+        return lukeRequests.stream().filter(params -> "luke.xsl".equals(params.get("tr"))).count();
+    }
+
+    private List<String> statisticsRequests() {
+        List<String> fl = new ArrayList<>();
+        for (SolrParams params : lukeRequests) {
+            if (params.get("fl") != null) {
+                fl.add(params.get("fl"));
+            }
+        }
+        return fl;
+    }
+}
@@ -0,0 +1,45 @@
+package au.org.ala.biocache.dto;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class FacetCountsDTOTest {
+
+    @Test
+    public void testUnsorted() {
+        FacetCountsDTO.Builder builder = new FacetCountsDTO.Builder();
+        builder.accept("urn:lsid:3", 5);
+        builder.accept("urn:lsid:1", 10);
+        builder.accept(null, 7);
+        builder.accept("urn:lsid:2", 1);
+        FacetCountsDTO counts = builder.build();
+
+        assertEquals(3, counts.size());
+        assertEquals(10, counts.getCount("urn:lsid:1"));
+        assertEquals(1, counts.getCount("urn:lsid:2"));
+        assertEquals(5, counts.getCount("urn:lsid:3"));
+        assertEquals(0, counts.getCount("urn:lsid:4"));
+        assertEquals(0, counts.getCount(null));
+
+        Map<String, Long> ordered = new LinkedHashMap<>();
+        counts.forEach(ordered::put);
+        assertEquals("[urn:lsid:1, urn:lsid:2, urn:lsid:3]", ordered.keySet().toString());
+    }
+
+    @Test
+    public void testLarge() {
+        FacetCountsDTO.Builder builder = new FacetCountsDTO.Builder();
+        for (int i = 0; i < 1000; i++) {
+            builder.accept(String.format("%04d", i), i);
+        }
+        FacetCountsDTO counts = builder.build();
+
+        assertEquals(1000, counts.size());
+        assertEquals(0, counts.getCount("0000"));
+        assertEquals(999, counts.getCount("0999"));
+    }
+}
@@ -443,6 +443,42 @@ public class DataQualityServiceTest {
 
     }
 
+    @Test
+    public void testGetEnabledFiltersCompiledOnce() {
+        dataQualityService.dataQualityEnabled = true;
+
+        // setup filters response with untrimmed and duplicate fqs
+        Map<String, String> responseValue = new LinkedHashMap<>();
+        responseValue.put("first", " foo:bar -baz:qux ");
+        responseValue.put("second", "qux:baz -bar:foo");
+        responseValue.put("third", "foo:bar -baz:qux");
+
+        when(qualityServiceRpcApi.getEnabledFiltersByLabel("profile")).then((invocation) -> response(responseValue));
+
+        SearchRequestDTO params = new SearchRequestDTO();
+        params.setQualityProfile("profile");
+        params.setDisableQualityFilter(newArrayList("unknown"));
+
+        // when
+        String[] fqs = dataQualityService.getEnabledFilters(params);
+
+        // then fqs are trimmed, distinct and in profile order
+        assertThat(fqs, equalTo(new String[]{"foo:bar -baz:qux", "qux:baz -bar:foo"}));
+
+        // when the same filters are requested again, disabled labels not in the profile are ignored
+        params.setDisableQualityFilter(Collections.emptyList());
+        fqs = dataQualityService.getEnabledFilters(params);
+        fqs[0] = "modified";
+
+        // then they are not fetched again and the compiled filters are unchanged
+        assertThat(dataQualityService.getEnabledFilters(params), equalTo(new String[]{"foo:bar -baz:qux", "qux:baz -bar:foo"}));
+        verify(qualityServiceRpcApi, times(1)).getEnabledFiltersByLabel("profile");
+
+        // when a filter is disabled
+        params.setDisableQualityFilter(newArrayList("second"));
+        assertThat(dataQualityService.getEnabledFilters(params), equalTo(new String[]{"foo:bar -baz:qux"}));
+    }
+
     public static Matcher<String> containsStringOnce(String substring) {
         return new StringContainsExactlyOnce(substring);
     }
@@ -0,0 +1,56 @@
+package au.org.ala.biocache.service;
+
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.names.ws.client.ALANameUsageMatchServiceClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class NameMatchSpeciesLookupServiceTest {
+
+    private NameMatchSpeciesLookupService speciesLookupService;
+    private ALANameUsageMatchServiceClient nameUsageMatchService;
+
+    @Before
+    public void setUp() {
+        nameUsageMatchService = mock(ALANameUsageMatchServiceClient.class);
+        speciesLookupService = new NameMatchSpeciesLookupService();
+        speciesLookupService.detailsCacheSize = 2;
+        ReflectionTestUtils.setField(speciesLookupService, "nameUsageMatchService", nameUsageMatchService);
+
+        when(nameUsageMatchService.getAll(anyList(), eq(true))).thenAnswer(invocation -> {
+            List<String> guids = invocation.getArgument(0);
+            return guids.stream()
+                    .map(guid -> NameUsageMatch.builder().success(true).scientificName("name of " + guid).build())
+                    .collect(Collectors.toList());
+        });
+    }
+
+    @Test
+    public void testCachedDetails() {
+        List<String[]> rows = speciesLookupService.getSpeciesDetails(Arrays.asList("a", "b"), Arrays.asList(1L, 2L), true, false, false);
+        assertEquals("name of a", rows.get(0)[1]);
+        assertEquals("2", rows.get(1)[11]);
+
+        // only the uncached guid is requested
+        rows = speciesLookupService.getSpeciesDetails(Arrays.asList("b", "c"), Arrays.asList(3L, 4L), false, false, false);
+        assertEquals("b", rows.get(0)[0]);
+        assertEquals("name of b", rows.get(0)[1]);
+        assertEquals("name of c", rows.get(1)[1]);
+        verify(nameUsageMatchService).getAll(eq(Arrays.asList("c")), eq(true));
+
+        // the least recently used guid, a, was evicted
+        speciesLookupService.getSpeciesDetails(Arrays.asList("a", "b"), Arrays.asList(1L, 2L), false, false, false);
+        verify(nameUsageMatchService).getAll(eq(Arrays.asList("a")), eq(true));
+        verify(nameUsageMatchService, times(3)).getAll(anyList(), eq(true));
+    }
+}
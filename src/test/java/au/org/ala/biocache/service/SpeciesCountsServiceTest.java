@@ -0,0 +1,97 @@
+package au.org.ala.biocache.service;
+
+import au.org.ala.biocache.dao.IndexDAO;
+import au.org.ala.biocache.dao.SearchDAO;
+import au.org.ala.biocache.dto.SpatialSearchRequestDTO;
+import au.org.ala.biocache.dto.SpeciesCountDTO;
+import au.org.ala.biocache.stream.ProcessInterface;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+public class SpeciesCountsServiceTest {
+
+    private SpeciesCountsService speciesCountsService;
+
+    @Before
+    public void setUp() throws Exception {
+        speciesCountsService = new SpeciesCountsService();
+        speciesCountsService.searchDAO = mock(SearchDAO.class);
+        speciesCountsService.indexDao = mock(IndexDAO.class);
+        speciesCountsService.asyncUpdates = false;
+        speciesCountsService.cacheMinAge = 0L;
+        ReflectionTestUtils.setField(speciesCountsService, "enabled", true);
+
+        when(speciesCountsService.indexDao.getIndexVersion(false)).thenReturn(1L);
+        when(speciesCountsService.searchDAO.streamingQuery(any(SpatialSearchRequestDTO.class), isNull(), any(ProcessInterface.class))).thenAnswer(invocation -> {
+            ProcessInterface proc = invocation.getArgument(2);
+            // count sorted, not lft sorted
+            proc.process(tuple("30", 5L));
+            proc.process(tuple("10", 3L));
+            proc.process(tuple("", 2L));
+            proc.process(tuple("20", 1L));
+            proc.flush();
+            return 0;
+        });
+    }
+
+    private static Tuple tuple(String lft, long count) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("lft", lft);
+        fields.put("count(*)", count);
+        return new Tuple(fields);
+    }
+
+    @Test
+    public void testGetCount() throws Exception {
+        SpeciesCountDTO counts = speciesCountsService.getCounts(new String[]{"*:*", "year:2000"});
+
+        assertArrayEquals(new long[]{10, 20, 30}, counts.getLft());
+        assertArrayEquals(new long[]{3, 1, 5}, counts.getCounts());
+
+        assertEquals(9, speciesCountsService.getCount(counts, 0, 100));
+        assertEquals(9, speciesCountsService.getCount(counts, 10, 30));
+        assertEquals(4, speciesCountsService.getCount(counts, 10, 29));
+        assertEquals(1, speciesCountsService.getCount(counts, 11, 20));
+        assertEquals(0, speciesCountsService.getCount(counts, 21, 29));
+        assertEquals(0, speciesCountsService.getCount(counts, 31, 40));
+        assertEquals(0, speciesCountsService.getCount(null, 0, 100));
+
+        ArgumentCaptor<SpatialSearchRequestDTO> params = ArgumentCaptor.forClass(SpatialSearchRequestDTO.class);
+        verify(speciesCountsService.searchDAO).streamingQuery(params.capture(), isNull(), any(ProcessInterface.class));
+        assertEquals("*:*", params.getValue().getQ());
+        assertArrayEquals(new String[]{"year:2000"}, params.getValue().getFq());
+        assertArrayEquals(new String[]{"lft"}, params.getValue().getFacets());
+    }
+
+    @Test
+    public void testRefreshOnlyWhenIndexVersionChanges() throws Exception {
+        SpeciesCountDTO first = speciesCountsService.getCounts(null);
+        assertSame(first, speciesCountsService.getCounts(null));
+        verify(speciesCountsService.searchDAO, times(1)).streamingQuery(any(SpatialSearchRequestDTO.class), isNull(), any(ProcessInterface.class));
+
+        when(speciesCountsService.indexDao.getIndexVersion(false)).thenReturn(2L);
+        Thread.sleep(2);
+
+        SpeciesCountDTO second = speciesCountsService.getCounts(null);
+        assertNotSame(first, second);
+        assertEquals(2L, second.getIndexVersion());
+        verify(speciesCountsService.searchDAO, times(2)).streamingQuery(any(SpatialSearchRequestDTO.class), isNull(), any(ProcessInterface.class));
+    }
+
+    @Test
+    public void testCacheKey() {
+        assertNotEquals(SpeciesCountsService.cacheKey(new String[]{"a", "bc"}), SpeciesCountsService.cacheKey(new String[]{"ab", "c"}));
+        assertEquals(SpeciesCountsService.cacheKey(null), SpeciesCountsService.cacheKey(new String[0]));
+    }
+}
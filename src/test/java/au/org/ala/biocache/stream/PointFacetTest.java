@@ -0,0 +1,59 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dto.PointCountsDTO;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PointFacetTest {
+
+    @Test
+    public void testPoints() {
+        PointCountsDTO points = new PointCountsDTO(1);
+        PointFacet proc = new PointFacet(points, 170, 190);
+
+        assertTrue(proc.process(tuple("point-0.1", "-35.1,175.2", "count(*)", 3L)));
+        // across the date line
+        assertTrue(proc.process(tuple("point-0.1", "10,-175", "count(*)", 4L)));
+        // invalid values and empty buckets are ignored
+        assertTrue(proc.process(tuple("point-0.1", "invalid", "count(*)", 5L)));
+        assertTrue(proc.process(tuple("point-0.1", "1,x", "count(*)", 5L)));
+        assertTrue(proc.process(tuple("point-0.1", "1,2", "count(*)", 0L)));
+        assertTrue(proc.flush());
+
+        assertEquals(2, points.size());
+        assertEquals(175.2, points.getLongitude(0), 1e-9);
+        assertEquals(-35.1, points.getLatitude(0), 1e-9);
+        assertEquals(3, points.getCount(0));
+        assertEquals(185, points.getLongitude(1), 1e-9);
+        assertEquals(10, points.getLatitude(1), 1e-9);
+        assertEquals(4, points.getCount(1));
+
+        // interleaved longitude, latitude
+        points.trimToSize();
+        assertEquals(4, points.getCoordinates().length);
+        assertEquals(185, points.getCoordinates()[2], 1e-9);
+        assertEquals(2, points.getCounts().length);
+    }
+
+    @Test
+    public void testLargeCount() {
+        PointCountsDTO points = new PointCountsDTO();
+        new PointFacet(points, -180, 180).process(tuple("point-1", "1,2", "count(*)", Long.MAX_VALUE));
+
+        assertEquals(Integer.MAX_VALUE, points.getCount(0));
+    }
+
+    private static Tuple tuple(Object... keyValues) {
+        Map<Object, Object> fields = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            fields.put(keyValues[i], keyValues[i + 1]);
+        }
+        return new Tuple(fields);
+    }
+}
@@ -0,0 +1,50 @@
+package au.org.ala.biocache.stream;
+
+import org.apache.solr.client.solrj.io.Tuple;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ProcessFacetValuesTest {
+
+    @Test
+    public void testFacetTuples() {
+        Map<String, Long> output = new LinkedHashMap<>();
+        ProcessFacetValues proc = new ProcessFacetValues(output::put);
+
+        assertTrue(proc.process(tuple("taxonConceptID", "urn:lsid:1", "count(*)", 10L)));
+        assertTrue(proc.process(tuple("taxonConceptID", "urn:lsid:2", "count(*)", 0L)));
+        // numeric bucket values
+        assertTrue(proc.process(tuple("year", 2000L, "count(*)", 3L)));
+        // endemic tuples also have the subset count
+        assertTrue(proc.process(tuple("taxonConceptID", "urn:lsid:3", "count1", 4L, "count(*)", 4L)));
+        assertTrue(proc.flush());
+
+        Map<String, Long> expected = new LinkedHashMap<>();
+        expected.put("urn:lsid:1", 10L);
+        expected.put("2000", 3L);
+        expected.put("urn:lsid:3", 4L);
+        assertEquals(expected, output);
+    }
+
+    @Test
+    public void testMissingCount() {
+        Map<String, Long> output = new HashMap<>();
+        ProcessFacetValues proc = new ProcessFacetValues(output::put);
+
+        assertFalse(proc.process(tuple("taxonConceptID", "urn:lsid:1")));
+        assertTrue(output.isEmpty());
+    }
+
+    private static Tuple tuple(Object... keyValues) {
+        Map<Object, Object> fields = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            fields.put(keyValues[i], keyValues[i + 1]);
+        }
+        return new Tuple(fields);
+    }
+}
@@ -0,0 +1,90 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dto.ScatterplotDensityDTO;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScatterplotDensityTest {
+
+    @Test
+    public void testBinning() {
+        // 10 x 10 pixels over x 0..100, y 0..10
+        ScatterplotDensityDTO histogram = new ScatterplotDensityDTO(0, 100, 0, 10, 10, 10);
+        ScatterplotDensity proc = new ScatterplotDensity(histogram, "x", "y");
+
+        assertTrue(proc.process(tuple("x", 5.0, "y", 9.5, "count(*)", 3L)));
+        assertTrue(proc.process(tuple("x", 55L, "y", 0.5, "count(*)", 2L)));
+        // maximum values are in the last bin
+        assertTrue(proc.process(tuple("x", 100.0, "y", 0.0, "count(*)", 1L)));
+        // missing count is a single record
+        assertTrue(proc.process(tuple("x", 5.0, "y", 9.9)));
+        // missing value is ignored
+        assertTrue(proc.process(tuple("x", 5.0, "count(*)", 7L)));
+        assertTrue(proc.flush());
+
+        assertEquals(7, histogram.getTotal());
+        assertEquals(4, histogram.getMaxCount());
+        // top left
+        assertEquals(4, histogram.getCount(0, 0));
+        // bottom row
+        assertEquals(2, histogram.getCount(5, 9));
+        assertEquals(1, histogram.getCount(9, 9));
+    }
+
+    @Test
+    public void testSelection() {
+        ScatterplotDensityDTO histogram = new ScatterplotDensityDTO(0, 100, 0, 10, 10, 10);
+        histogram.add(5, 9.5, 3);
+        histogram.add(55, 0.5, 2);
+        histogram.add(100, 0, 1);
+
+        // corners in any order, inclusive
+        assertEquals(3, histogram.getCount(9, 9, 5, 9));
+        assertEquals(6, histogram.getCount(0, 0, 9, 9));
+        // clamped to the image
+        assertEquals(6, histogram.getCount(-5, -5, 50, 50));
+        assertEquals(0, histogram.getCount(1, 0, 4, 8));
+
+        assertEquals(0, histogram.getX(0), 1e-9);
+        assertEquals(50, histogram.getX(5), 1e-9);
+        assertEquals(100, histogram.getX(10), 1e-9);
+        assertEquals(10, histogram.getY(0), 1e-9);
+        assertEquals(0, histogram.getY(10), 1e-9);
+    }
+
+    @Test
+    public void testSingleValue() {
+        // all values are the same
+        ScatterplotDensityDTO histogram = new ScatterplotDensityDTO(5, 5, 2, 2, 4, 4);
+        histogram.add(5, 2, 10);
+
+        assertEquals(10, histogram.getCount(0, 0));
+        assertEquals(10, histogram.getTotal());
+    }
+
+    @Test
+    public void testSaturatedBin() {
+        ScatterplotDensityDTO histogram = new ScatterplotDensityDTO(0, 1, 0, 1, 2, 2);
+        histogram.add(0, 1, Integer.MAX_VALUE);
+        histogram.add(0, 1, 5);
+
+        // a bin saturates but the total does not
+        assertEquals(Integer.MAX_VALUE, histogram.getCount(0, 0));
+        assertEquals(Integer.MAX_VALUE, histogram.getMaxCount());
+        assertEquals(Integer.MAX_VALUE + 5L, histogram.getTotal());
+    }
+
+    private static Tuple tuple(Object... keyValues) {
+        Map<Object, Object> fields = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            fields.put(keyValues[i], keyValues[i + 1]);
+        }
+        return new Tuple(fields);
+    }
+}
@@ -0,0 +1,74 @@
+package au.org.ala.biocache.stream;
+
+import org.apache.solr.client.solrj.io.Tuple;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamCoordinatesTest {
+
+    @Test
+    public void testLatLng() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamCoordinates proc = new StreamCoordinates(out, "lat_long");
+
+        proc.process(tuple("lat_long", "-35.1234,149.1234", "count(*)", 10L));
+        proc.process(tuple("lat_long", "-35.1,149.1", "count(*)", 2L));
+        proc.flush();
+
+        assertEquals("latitude,longitude\n-35.1234,149.1234\n-35.1,149.1\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPrecision() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamCoordinates proc = new StreamCoordinates(out, "decimalLatitude", "decimalLongitude", 1);
+
+        // ascending latitude, then longitude
+        proc.process(tuple("decimalLatitude", -35.14, "decimalLongitude", 149.12));
+        proc.process(tuple("decimalLatitude", -35.14, "decimalLongitude", 149.34));
+        proc.process(tuple("decimalLatitude", -35.13, "decimalLongitude", 149.11));
+        proc.process(tuple("decimalLatitude", -35.12, "decimalLongitude", 149.3));
+        proc.process(tuple("decimalLatitude", -0.01, "decimalLongitude", 0.04));
+        proc.flush();
+
+        assertEquals("latitude,longitude\n-35.1,149.1\n-35.1,149.3\n0.0,0.0\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNearZero() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamCoordinates proc = new StreamCoordinates(out, "decimalLatitude", "decimalLongitude", 4);
+
+        proc.process(tuple("decimalLatitude", 0.0001, "decimalLongitude", -0.00049));
+        proc.process(tuple("decimalLatitude", 0.00123, "decimalLongitude", 12.3));
+        proc.flush();
+
+        // no scientific notation
+        assertEquals("latitude,longitude\n0.0001,-0.0005\n0.0012,12.3\n", out.toString(StandardCharsets.UTF_8));
+        assertEquals("0.0", StreamCoordinates.format(0.0));
+        assertEquals("-0.00012345", StreamCoordinates.format(-1.2345E-4));
+    }
+
+    @Test
+    public void testEmpty() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamCoordinates proc = new StreamCoordinates(out, "lat_long");
+        proc.flush();
+
+        assertEquals(0, out.size());
+    }
+
+    private static Tuple tuple(Object... keyValues) {
+        Map<Object, Object> fields = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            fields.put(keyValues[i], keyValues[i + 1]);
+        }
+        return new Tuple(fields);
+    }
+}
@@ -0,0 +1,120 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.dao.SearchDAOImpl;
+import au.org.ala.biocache.dto.FacetResultDTO;
+import au.org.ala.biocache.dto.FieldResultDTO;
+import au.org.ala.biocache.dto.OccurrenceIndex;
+import au.org.ala.biocache.dto.SearchResultDTO;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.solr.common.SolrDocument;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class StreamSearchAsJSONTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    @Test
+    public void testSameAsSearchResultDTO() throws Exception {
+        SolrDocument doc1 = new SolrDocument();
+        doc1.setField("id", "1");
+        doc1.setField("scientificName", "Acacia");
+        SolrDocument doc2 = new SolrDocument();
+        doc2.setField("id", "2");
+        doc2.setField("sensitive_decimalLatitude", -35.0);
+
+        SearchResultDTO head = new SearchResultDTO();
+        head.setPageSize(2);
+        head.setStatus("OK");
+        head.setQuery("?q=*:*");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamSearchAsJSON stream = new StreamSearchAsJSON(mock(SearchDAOImpl.class), head, OccurrenceIndex.class, objectMapper, out);
+        stream.streamDocListInfo(10, 0, null);
+        stream.streamSolrDocument(doc1);
+        stream.streamSolrDocument(doc2);
+
+        SearchResultDTO complete = complete(new ArrayList<>());
+        stream.finish(complete);
+
+        OccurrenceIndex oi1 = new OccurrenceIndex();
+        oi1.setUuid("1");
+        oi1.setScientificName("Acacia");
+        OccurrenceIndex oi2 = new OccurrenceIndex();
+        oi2.setUuid("2");
+        SearchResultDTO expected = complete(Arrays.asList(oi1, oi2));
+
+        JsonNode actual = objectMapper.readTree(out.toByteArray());
+        assertEquals(objectMapper.valueToTree(expected), actual);
+    }
+
+    @Test
+    public void testNoDocList() throws Exception {
+        SearchResultDTO head = new SearchResultDTO();
+        head.setStatus("OK");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamSearchAsJSON stream = new StreamSearchAsJSON(mock(SearchDAOImpl.class), head, OccurrenceIndex.class, objectMapper, out);
+
+        SearchResultDTO complete = complete(new ArrayList<>());
+        stream.finish(complete);
+
+        assertEquals(objectMapper.valueToTree(complete), objectMapper.readTree(out.toByteArray()));
+    }
+
+    @Test
+    public void testNullProperties() throws Exception {
+        // the default object mapper writes null properties
+        ObjectMapper nullMapper = new ObjectMapper();
+
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "1");
+
+        SearchResultDTO head = new SearchResultDTO();
+        head.setStatus("OK");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamSearchAsJSON stream = new StreamSearchAsJSON(mock(SearchDAOImpl.class), head, OccurrenceIndex.class, nullMapper, out);
+        stream.streamDocListInfo(1, 0, null);
+        stream.streamSolrDocument(doc);
+
+        SearchResultDTO complete = new SearchResultDTO();
+        complete.setStatus("OK");
+        complete.setTotalRecords(1);
+        complete.setOccurrences(new ArrayList<>());
+        stream.finish(complete);
+
+        OccurrenceIndex oi = new OccurrenceIndex();
+        oi.setUuid("1");
+        complete.setOccurrences(Collections.singletonList(oi));
+
+        JsonNode expected = nullMapper.valueToTree(complete);
+        assertTrue(expected.has("queryTitle") && expected.get("queryTitle").isNull());
+        assertEquals(expected, nullMapper.readTree(out.toByteArray()));
+    }
+
+    private static SearchResultDTO complete(List<OccurrenceIndex> occurrences) {
+        SearchResultDTO result = new SearchResultDTO();
+        result.setPageSize(2);
+        result.setStatus("OK");
+        result.setQuery("?q=*:*");
+        result.setTotalRecords(10);
+        result.setStartIndex(0);
+        result.setOccurrences(occurrences);
+        result.setQueryTitle("all records");
+        result.setFacetResults(Collections.singletonList(new FacetResultDTO("year",
+                Collections.singletonList(new FieldResultDTO("2000", "year.2000", 10)))));
+        return result;
+    }
+}
@@ -0,0 +1,117 @@
+package au.org.ala.biocache.stream;
+
+import au.org.ala.biocache.service.SpeciesLookupService;
+import au.org.ala.biocache.writer.CSVRecordWriter;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class TaxonDetailsWriterTest {
+
+    private SpeciesLookupService speciesLookupService;
+    private CSVRecordWriter writer;
+    private final List<Integer> batchSizes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        speciesLookupService = mock(SpeciesLookupService.class);
+        writer = mock(CSVRecordWriter.class);
+
+        // one row of guid and count per guid, fails for any batch with "bad" in it or of more than 7 guids
+        when(speciesLookupService.getSpeciesDetails(anyList(), anyList(), anyBoolean(), anyBoolean(), anyBoolean())).thenAnswer(invocation -> {
+            List<String> guids = invocation.getArgument(0);
+            List<Long> counts = invocation.getArgument(1);
+            synchronized (batchSizes) {
+                batchSizes.add(guids.size());
+            }
+            if (guids.contains("bad") || guids.size() > 7) {
+                throw new RuntimeException("lookup failed");
+            }
+            List<String[]> rows = new ArrayList<>();
+            for (int i = 0; i < guids.size(); i++) {
+                rows.add(new String[]{guids.get(i), String.valueOf(counts.get(i))});
+            }
+            return rows;
+        });
+    }
+
+    @Test
+    public void testRowsInOrder() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TaxonDetailsWriter taxonDetailsWriter = new TaxonDetailsWriter(speciesLookupService, executor, 3, 2, 8,
+                    true, false, false, writer);
+            for (int i = 0; i < 100; i++) {
+                taxonDetailsWriter.add("g" + i, (long) i);
+            }
+            taxonDetailsWriter.flush();
+        } finally {
+            executor.shutdown();
+        }
+
+        List<String[]> rows = writtenRows();
+        assertEquals(100, rows.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("g" + i, rows.get(i)[0]);
+            assertEquals(String.valueOf(i), rows.get(i)[1]);
+        }
+
+        // fast lookups grow the batch size up to the maximum
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 8));
+        assertTrue(batchSizes.contains(8));
+    }
+
+    @Test
+    public void testFailedBatchIsSplit() {
+        TaxonDetailsWriter taxonDetailsWriter = new TaxonDetailsWriter(speciesLookupService, null, 1, 8, 8,
+                true, false, false, writer);
+        for (int i = 0; i < 8; i++) {
+            taxonDetailsWriter.add(i == 5 ? "bad" : "g" + i, (long) i);
+        }
+        taxonDetailsWriter.flush();
+
+        // only the failing guid is lost
+        List<String> guids = writtenRows().stream().map(row -> row[0]).collect(Collectors.toList());
+        assertEquals(7, guids.size());
+        assertEquals("g0", guids.get(0));
+        assertEquals("g4", guids.get(4));
+        assertEquals("g6", guids.get(5));
+        assertEquals("7", writtenRows().get(6)[1]);
+
+        // 8 fails, then 4 and 4 (fails), 2 (fails), 1 and 1 (fails), 2
+        assertEquals(7, batchSizes.size());
+    }
+
+    @Test
+    public void testFailedSizeIsNotRepeated() {
+        TaxonDetailsWriter taxonDetailsWriter = new TaxonDetailsWriter(speciesLookupService, null, 1, 2, 16,
+                true, false, false, writer);
+        for (int i = 0; i < 100; i++) {
+            taxonDetailsWriter.add("g" + i, (long) i);
+        }
+        taxonDetailsWriter.flush();
+
+        assertEquals(100, writtenRows().size());
+
+        // grows 2, 4, 8 (fails), then stays below 8
+        assertEquals(1, batchSizes.stream().filter(size -> size > 7).count());
+        assertEquals(7, taxonDetailsWriter.getBatchSize());
+    }
+
+    private List<String[]> writtenRows() {
+        ArgumentCaptor<String[]> captor = ArgumentCaptor.forClass(String[].class);
+        verify(writer, atLeast(0)).write(captor.capture());
+        return captor.getAllValues();
+    }
+}
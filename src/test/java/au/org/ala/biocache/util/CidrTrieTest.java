@@ -0,0 +1,48 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CidrTrieTest {
+
+    @Test
+    public void testIpv4() {
+        CidrTrie trie = new CidrTrie("10.0.0.0/8", "192.168.1.0/24", "172.16.0.1");
+
+        assertTrue(trie.matches("10.0.0.1"));
+        assertTrue(trie.matches("10.255.255.255"));
+        assertTrue(trie.matches("192.168.1.200"));
+        assertTrue(trie.matches("172.16.0.1"));
+
+        assertFalse(trie.matches("11.0.0.1"));
+        assertFalse(trie.matches("192.168.2.1"));
+        assertFalse(trie.matches("172.16.0.2"));
+        assertFalse(trie.matches(null));
+        assertFalse(trie.matches("not.an.ip.address"));
+        assertFalse(trie.matches("10.0.0.256"));
+        assertFalse(trie.matches("10.0.0"));
+    }
+
+    @Test
+    public void testIpv6() {
+        CidrTrie trie = new CidrTrie("2001:db8::/32", "0.0.0.0/0");
+
+        assertTrue(trie.matches("2001:db8::1"));
+        assertFalse(trie.matches("2001:db9::1"));
+        assertTrue(trie.matches("255.255.255.255"));
+        assertTrue(trie.matches("8.8.8.8"));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(new CidrTrie().isEmpty());
+        assertFalse(new CidrTrie().matches("10.0.0.1"));
+        assertFalse(new CidrTrie("10.0.0.0/8").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMask() {
+        new CidrTrie("10.0.0.0/33");
+    }
+}
@@ -0,0 +1,54 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CircleGridTest {
+
+    @Test
+    public void testInteriorCells() throws Exception {
+        Geometry area = new WKTReader().read("POLYGON((0 0, 0.35 0, 0.35 0.25, 0 0.25, 0 0))");
+        CircleGrid grid = CircleGrid.create(area, 0.1, 100);
+
+        List<int[]> cells = grid.getInteriorCells();
+        assertEquals(6, cells.size());
+        assertArrayEquals(new int[]{0, 0}, cells.get(0));
+        assertArrayEquals(new int[]{1, 2}, cells.get(5));
+
+        assertEquals("decimalLatitude:[0.1 TO 0.2} AND decimalLongitude:[0.2 TO 0.3}", grid.getCellQuery(cells.get(5)));
+        assertEquals("0.1:1:2", grid.getCellKey(cells.get(5)));
+
+        // consecutive cells of a row are merged
+        assertEquals("-((decimalLatitude:[0 TO 0.1} AND decimalLongitude:[0 TO 0.3})"
+                + " OR (decimalLatitude:[0.1 TO 0.2} AND decimalLongitude:[0 TO 0.3}))", grid.getBorderFq());
+    }
+
+    @Test
+    public void testNegativeCells() throws Exception {
+        Geometry area = new WKTReader().read("POLYGON((-0.2 -0.2, 0 -0.2, 0 0, -0.2 0, -0.2 -0.2))");
+        CircleGrid grid = CircleGrid.create(area, 0.1, 100);
+
+        assertEquals(4, grid.getInteriorCells().size());
+        assertEquals("decimalLatitude:[-0.2 TO -0.1} AND decimalLongitude:[-0.2 TO -0.1}", grid.getCellQuery(grid.getInteriorCells().get(0)));
+    }
+
+    @Test
+    public void testNotUsable() throws Exception {
+        // too many cells
+        Geometry area = new WKTReader().read("POLYGON((0 0, 0.35 0, 0.35 0.25, 0 0.25, 0 0))");
+        assertNull(CircleGrid.create(area, 0.1, 5));
+
+        // across the date line
+        area = new WKTReader().read("POLYGON((179.9 0, 180.1 0, 180.1 0.1, 179.9 0.1, 179.9 0))");
+        assertNull(CircleGrid.create(area, 0.1, 100));
+
+        // smaller than a cell
+        area = new WKTReader().read("POLYGON((0.01 0.01, 0.05 0.01, 0.05 0.05, 0.01 0.05, 0.01 0.01))");
+        assertTrue(CircleGrid.create(area, 0.1, 100).getInteriorCells().isEmpty());
+    }
+}
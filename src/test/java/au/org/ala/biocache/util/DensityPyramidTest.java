@@ -0,0 +1,74 @@
+package au.org.ala.biocache.util;
+
+import au.org.ala.biocache.dto.HeatmapDTO;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DensityPyramidTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 8x8 grid at level 3, 45 x 22.5 degree cells
+     */
+    private DensityPyramid pyramid() throws Exception {
+        int[] counts = new int[64];
+        counts[0] = 1;          // row 0, column 0: -180 to -135, 67.5 to 90
+        counts[7] = 2;          // row 0, column 7: 135 to 180
+        counts[5 * 8 + 6] = 3;  // row 5, column 6: 90 to 135, -45 to -22.5
+        counts[5 * 8 + 7] = 4;
+
+        File file = folder.newFile();
+        DensityPyramid.write(file, 42L, 3, counts);
+        return DensityPyramid.open(file);
+    }
+
+    @Test
+    public void testLevels() throws Exception {
+        DensityPyramid pyramid = pyramid();
+
+        assertEquals(42L, pyramid.getIndexVersion());
+        assertTrue(pyramid.hasGridLevel(1));
+        assertTrue(pyramid.hasGridLevel(3));
+        assertFalse(pyramid.hasGridLevel(4));
+
+        HeatmapDTO world = pyramid.getHeatmap(1, -180, -90, 180, 90, null, 1);
+        assertEquals(2, (int) world.rows);
+        assertEquals(2, (int) world.columns);
+        assertEquals(Arrays.asList(1, 2), world.layers.get(0).get(0));
+        assertEquals(Arrays.asList(0, 7), world.layers.get(0).get(1));
+    }
+
+    @Test
+    public void testExtents() throws Exception {
+        HeatmapDTO heatmap = pyramid().getHeatmap(3, 100, -40, 170, -30, null, 1);
+
+        assertEquals(90, heatmap.minx, 0);
+        assertEquals(180, heatmap.maxx, 0);
+        assertEquals(-45, heatmap.miny, 0);
+        assertEquals(-22.5, heatmap.maxy, 0);
+        assertEquals(Arrays.asList(3, 4), heatmap.layers.get(0).get(0));
+    }
+
+    @Test
+    public void testDateLine() throws Exception {
+        HeatmapDTO heatmap = pyramid().getHeatmap(3, 170, 70, -170, 80, null, 1);
+
+        assertEquals(135, heatmap.minx, 0);
+        assertEquals(225, heatmap.maxx, 0);
+        List<List<Integer>> rows = heatmap.layers.get(0);
+        assertEquals(1, rows.size());
+        assertEquals(Arrays.asList(2, 1), rows.get(0));
+
+        // empty rows are null
+        assertNull(pyramid().getHeatmap(3, -180, -10, 180, 10, null, 1).layers.get(0).get(0));
+    }
+}
@@ -0,0 +1,120 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class PngEncoderTest {
+
+    @Test
+    public void testIndexedImage() throws Exception {
+        ImgObj imgObj = ImgObj.create(256, 256);
+        imgObj.g.setPaint(new Color(0x80ff0000, true));
+        imgObj.g.fillOval(10, 10, 100, 100);
+        imgObj.g.setPaint(Color.BLUE);
+        imgObj.g.fillRect(120, 120, 50, 50);
+        imgObj.g.dispose();
+
+        byte[] png = encode(imgObj.img, null);
+
+        // colour type 3, indexed
+        assertEquals(3, png[25]);
+        assertSamePixels(imgObj.img, ImageIO.read(new ByteArrayInputStream(png)));
+    }
+
+    @Test
+    public void testTrueColourImage() throws Exception {
+        BufferedImage img = new BufferedImage(300, 200, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < 300; x++) {
+            for (int y = 0; y < 200; y++) {
+                img.setRGB(x, y, (x * 7 + y) << 8 | (y & 0xff) << 24 | x & 0xff);
+            }
+        }
+
+        byte[] png = encode(img, null);
+
+        // colour type 6, RGBA
+        assertEquals(6, png[25]);
+        assertSamePixels(img, ImageIO.read(new ByteArrayInputStream(png)));
+    }
+
+    @Test
+    public void testOpaqueImage() throws Exception {
+        BufferedImage img = new BufferedImage(20, 30, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 20; x++) {
+            for (int y = 0; y < 30; y++) {
+                img.setRGB(x, y, x * 100 + y * 3000);
+            }
+        }
+
+        byte[] png = encode(img, null);
+
+        // colour type 2, RGB
+        assertEquals(2, png[25]);
+        assertSamePixels(img, ImageIO.read(new ByteArrayInputStream(png)));
+    }
+
+    @Test
+    public void testBlankImage() throws Exception {
+        byte[] blank = new byte[]{1, 2, 3};
+        BufferedImage img = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+
+        assertArrayEquals(blank, encode(img, blank));
+        assertSamePixels(img, ImageIO.read(new ByteArrayInputStream(encode(img, null))));
+    }
+
+    @Test
+    public void testConcurrentEncoding() throws Exception {
+        BufferedImage img = new BufferedImage(600, 600, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < 600; x++) {
+            img.setRGB(x, x, 0xff000000 | x * 1000);
+        }
+
+        // more encoders than are pooled, larger than the retained buffers
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                results.add(executor.submit(() -> encode(img, null)));
+            }
+            for (Future<byte[]> result : results) {
+                assertSamePixels(img, ImageIO.read(new ByteArrayInputStream(result.get())));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private byte[] encode(BufferedImage img, byte[] blank) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngEncoder.write(img, out, blank);
+        return out.toByteArray();
+    }
+
+    private void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int x = 0; x < expected.getWidth(); x++) {
+            for (int y = 0; y < expected.getHeight(); y++) {
+                int e = expected.getRGB(x, y);
+                int a = actual.getRGB(x, y);
+                if ((e >>> 24) == 0) {
+                    assertEquals(0, a >>> 24);
+                } else {
+                    assertEquals("pixel " + x + "," + y, e, a);
+                }
+            }
+        }
+    }
+}
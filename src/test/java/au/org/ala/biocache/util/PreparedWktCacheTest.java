@@ -0,0 +1,123 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import static org.junit.Assert.*;
+
+public class PreparedWktCacheTest {
+
+    @Test
+    public void testSimplifiedWktResolvesToSameGeometry() throws Exception {
+        PreparedWktCache preparedWktCache = new PreparedWktCache();
+        preparedWktCache.maxWktPoints = 1000;
+
+        String wkt = readTextWkt();
+        PreparedWkt preparedWkt = preparedWktCache.get(wkt);
+
+        assertTrue(preparedWkt.getGeometry().getNumPoints() < 2000);
+        assertSame(preparedWkt, preparedWktCache.get(wkt));
+        assertSame(preparedWkt, preparedWktCache.get(preparedWkt.getWkt()));
+    }
+
+    @Test
+    public void testSmallWktIsUnchanged() throws Exception {
+        PreparedWktCache preparedWktCache = new PreparedWktCache();
+
+        String wkt = "POLYGON((140 -37,151 -37,151 -26,140 -26,140 -37))";
+        PreparedWkt preparedWkt = preparedWktCache.get(wkt);
+
+        assertEquals(wkt, preparedWkt.getWkt());
+        assertTrue(preparedWkt.intersects(145, -30));
+        assertFalse(preparedWkt.intersects(130, -30));
+        assertArrayEquals(new double[]{140, -37, 151, -26}, preparedWkt.getBbox(), 0);
+    }
+
+    @Test
+    public void testWktQuery() throws Exception {
+        PreparedWktCache preparedWktCache = new PreparedWktCache();
+
+        // small WKT is used as supplied
+        String rectangle = "POLYGON((140 -37,151 -37,151 -26,140 -26,140 -37))";
+        assertEquals("geohash:\"Intersects(" + rectangle + ")\"", preparedWktCache.getWKTQuery("geohash", rectangle));
+
+        assertEquals("(geohash:\"Intersects(POINT (1 2))\" OR geohash:\"Intersects(POLYGON ((0 0, 1 0, 1 1, 0 1, 0 0)))\")",
+                preparedWktCache.getWKTQuery("geohash", "GEOMETRYCOLLECTION(POINT(1 2),POLYGON((0 0,1 0,1 1,0 1,0 0)))"));
+
+        // simplified WKT is written from the prepared geometry
+        preparedWktCache.maxWktPoints = 3;
+        assertEquals("geohash:\"Intersects(ENVELOPE(140.0, 151.0, -26.0, -37.0))\"",
+                preparedWktCache.getWKTQuery("geohash", rectangle));
+    }
+
+    @Test
+    public void testCachedWktIsLookedUp() throws Exception {
+        PreparedWktCache preparedWktCache = new PreparedWktCache();
+        preparedWktCache.maxWktPoints = 1000;
+
+        // the simplified WKT stored by a qid is below qid.wkt.maxPoints and uses the cached geometry
+        String wkt = readTextWkt();
+        String simplified = preparedWktCache.fixWkt(wkt);
+        PreparedWkt preparedWkt = preparedWktCache.get(wkt);
+        assertEquals(preparedWkt.getWkt(), simplified);
+        assertEquals(simplified, preparedWktCache.fixWkt(simplified));
+        assertEquals(preparedWkt.getQuery("geohash"), preparedWktCache.getWKTQuery("geohash", simplified));
+
+        // a small cached WKT
+        String rectangle = "POLYGON((140 -37,151 -37,151 -26,140 -26,140 -37))";
+        preparedWktCache.get(rectangle);
+        assertEquals("geohash:\"Intersects(ENVELOPE(140.0, 151.0, -26.0, -37.0))\"",
+                preparedWktCache.getWKTQuery("geohash", rectangle));
+    }
+
+    @Test
+    public void testCountPoints() {
+        // 5 + 5 points of a polygon with a hole, 4 of a second polygon, 11 commas
+        String wkt = "MULTIPOLYGON(((0 0,10 0,10 10,0 10,0 0),(2 2, 3 2, 3 3, 2 3, 2 2)),((20 20,21 20,21 21,20 20)))";
+        assertEquals(14, PreparedWktCache.countPoints(wkt, 100));
+        assertEquals(2, PreparedWktCache.countPoints("MULTIPOINT((1 2),(-3.5 4e1))", 100));
+        assertEquals(1, PreparedWktCache.countPoints("POINT (1 2 3)", 100));
+
+        PreparedWktCache preparedWktCache = new PreparedWktCache();
+        preparedWktCache.maxWktPoints = 12;
+        assertTrue(preparedWktCache.isSimplified(wkt));
+        preparedWktCache.maxWktPoints = 14;
+        assertFalse(preparedWktCache.isSimplified(wkt));
+    }
+
+    @Test
+    public void testSmallInvalidWktIsPassedThrough() throws Exception {
+        PreparedWktCache preparedWktCache = new PreparedWktCache();
+
+        // not closed
+        String wkt = "POLYGON((140 -37,151 -37,151 -26,140 -26))";
+        assertEquals(wkt, preparedWktCache.fixWkt(wkt));
+        assertEquals("geohash:\"Intersects(" + wkt + ")\"", preparedWktCache.getWKTQuery("geohash", wkt));
+        assertNull(preparedWktCache.fixWkt(null));
+    }
+
+    @Test
+    public void testCacheBoundedByPoints() throws Exception {
+        PreparedWktCache preparedWktCache = new PreparedWktCache();
+        preparedWktCache.maxCachePoints = 12;
+
+        // 5 points each
+        PreparedWkt first = preparedWktCache.get("POLYGON((0 0,1 0,1 1,0 1,0 0))");
+        PreparedWkt second = preparedWktCache.get("POLYGON((0 0,2 0,2 2,0 2,0 0))");
+        assertSame(first, preparedWktCache.get("POLYGON((0 0,1 0,1 1,0 1,0 0))"));
+
+        // the least recently used is evicted
+        preparedWktCache.get("POLYGON((0 0,3 0,3 3,0 3,0 0))");
+        assertSame(first, preparedWktCache.get("POLYGON((0 0,1 0,1 1,0 1,0 0))"));
+        assertNotSame(second, preparedWktCache.get("POLYGON((0 0,2 0,2 2,0 2,0 0))"));
+    }
+
+    private String readTextWkt() throws Exception {
+        InputStream wktIn = getClass().getResourceAsStream("simplify-wkt-input.wkt");
+        InputStreamReader reader = new InputStreamReader(wktIn, "UTF-8");
+        return FileCopyUtils.copyToString(reader);
+    }
+}
@@ -0,0 +1,34 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ProjectionTest {
+
+    @Test
+    public void testWebMercator() throws Exception {
+        double[] coords = new double[]{180, 0, 0, 85.0511287798066, 151.2, -33.9};
+        Projection.WGS84_TO_WEB_MERCATOR.transform(coords, 3);
+
+        assertEquals(20037508.342789244, coords[0], 1e-6);
+        assertEquals(0, coords[1], 1e-6);
+        assertEquals(0, coords[2], 1e-6);
+        assertEquals(20037508.342789244, coords[3], 1e-3);
+        assertEquals(16831507.01, coords[4], 1e-2);
+        assertEquals(-4015382.36, coords[5], 1e-2);
+
+        Projection.WEB_MERCATOR_TO_WGS84.transform(coords, 3);
+        assertArrayEquals(new double[]{180, 0, 0, 85.0511287798066, 151.2, -33.9}, coords, 1e-9);
+    }
+
+    @Test
+    public void testTransformWithOffsets() throws Exception {
+        double[] src = new double[]{-1, -1, 0, 0, 180, 0};
+        double[] dst = new double[6];
+        Projection.WGS84_TO_WEB_MERCATOR.transform(src, 2, dst, 0, 2);
+
+        assertArrayEquals(new double[]{0, 0, 20037508.342789244, 0, 0, 0}, dst, 1e-6);
+    }
+}
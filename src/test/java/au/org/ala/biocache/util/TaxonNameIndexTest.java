@@ -0,0 +1,93 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TaxonNameIndexTest {
+
+    private TaxonNameIndex index() {
+        TaxonNameIndex.Builder builder = new TaxonNameIndex.Builder();
+        int genus = builder.addTaxon("urn:genus", "Eucalyptus", 6000, 1000, "genus");
+        int species = builder.addTaxon("urn:species", "Eucalyptus globulus", 7000, 100, "species");
+        builder.addName(species, "Tasmanian Blue Gum", TaxonNameIndex.MATCH_VERNACULAR_NAME);
+        builder.addName(species, "Eucalyptus globulosa", TaxonNameIndex.MATCH_SYNONYM);
+        int other = builder.addTaxon("urn:other", "Eucryphia lucida", 7000, 10, "other");
+        builder.addName(other, "Leatherwood", TaxonNameIndex.MATCH_VERNACULAR_NAME);
+        builder.addTaxon("urn:accent", "\u0108af\u00e9a", 7000, 1, "accent");
+        return builder.build();
+    }
+
+    @Test
+    public void testPrefixRanking() {
+        TaxonNameIndex index = index();
+
+        List<TaxonNameIndex.Match> matches = index.search("Euc", 10, false);
+        assertEquals(3, matches.size());
+        // higher rank first, then count
+        assertEquals("urn:genus", index.getLsid(matches.get(0).taxon));
+        assertEquals("urn:species", index.getLsid(matches.get(1).taxon));
+        assertEquals("urn:other", index.getLsid(matches.get(2).taxon));
+        assertEquals("species", index.getValue(matches.get(1).taxon));
+
+        // exact match first
+        matches = index.search("eucalyptus globulus", 10, false);
+        assertEquals(1, matches.size());
+        assertEquals(TaxonNameIndex.SCORE_EXACT, matches.get(0).score);
+
+        assertEquals(1, index.search("euc", 1, false).size());
+    }
+
+    @Test
+    public void testWordsAndVernacularNames() {
+        TaxonNameIndex index = index();
+
+        List<TaxonNameIndex.Match> matches = index.search("blue", 10, false);
+        assertEquals(1, matches.size());
+        assertEquals("urn:species", index.getLsid(matches.get(0).taxon));
+        assertEquals(TaxonNameIndex.MATCH_VERNACULAR_NAME, matches.get(0).match);
+        assertEquals("Tasmanian Blue Gum", matches.get(0).label);
+
+        matches = index.search("glob", 10, false);
+        assertEquals(1, matches.size());
+        assertEquals(TaxonNameIndex.MATCH_SCIENTIFIC_NAME, matches.get(0).match);
+
+        assertEquals(1, index.search("cafe", 10, false).size());
+        assertEquals(0, index.search("zzz", 10, false).size());
+        assertEquals(0, index.search(" ", 10, false).size());
+    }
+
+    @Test
+    public void testExactNameBeforeWord() {
+        TaxonNameIndex.Builder builder = new TaxonNameIndex.Builder();
+        builder.addTaxon("urn:species", "Eucryphia lucida", 7000, 1000, "species");
+        builder.addTaxon("urn:subspecies", "Lucida", 8000, 1, "subspecies");
+        builder.addTaxon("urn:prefix", "Lucidaria", 6000, 1, "prefix");
+        TaxonNameIndex index = builder.build();
+
+        // the whole name first, then the last word, then a prefix, regardless of rank and count
+        List<TaxonNameIndex.Match> matches = index.search("lucida", 10, false);
+        assertEquals(3, matches.size());
+        assertEquals("urn:subspecies", index.getLsid(matches.get(0).taxon));
+        assertEquals(TaxonNameIndex.SCORE_EXACT, matches.get(0).score);
+        assertEquals("urn:species", index.getLsid(matches.get(1).taxon));
+        assertEquals(TaxonNameIndex.SCORE_WORD, matches.get(1).score);
+        assertEquals("urn:prefix", index.getLsid(matches.get(2).taxon));
+        assertEquals(TaxonNameIndex.SCORE_PREFIX, matches.get(2).score);
+    }
+
+    @Test
+    public void testSynonyms() {
+        TaxonNameIndex index = index();
+
+        assertEquals(0, index.search("eucalyptus globulo", 10, false).size());
+
+        List<TaxonNameIndex.Match> matches = index.search("eucalyptus globulo", 10, true);
+        assertEquals(1, matches.size());
+        assertEquals("urn:species", index.getLsid(matches.get(0).taxon));
+        assertEquals(TaxonNameIndex.MATCH_SYNONYM, matches.get(0).match);
+        assertEquals("Eucalyptus globulosa", matches.get(0).label);
+    }
+}
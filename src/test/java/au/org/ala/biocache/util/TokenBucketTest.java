@@ -0,0 +1,59 @@
+package au.org.ala.biocache.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstAndRefill() {
+        TokenBucket bucket = new TokenBucket(5, 10000);
+        AtomicLong state = bucket.newState();
+        long now = 1000 * SECOND;
+
+        assertEquals(0, bucket.getRetryAfterMillis(state, now));
+        for (int i = 4; i >= 0; i--) {
+            assertEquals(i, bucket.tryConsume(state, now));
+        }
+        assertEquals(-1, bucket.tryConsume(state, now));
+        assertEquals(2000, bucket.getRetryAfterMillis(state, now), 1);
+
+        // one token every 2 seconds
+        assertEquals(-1, bucket.tryConsume(state, now + SECOND));
+        assertEquals(0, bucket.tryConsume(state, now + 2 * SECOND));
+        assertEquals(-1, bucket.tryConsume(state, now + 2 * SECOND));
+
+        // never more than capacity
+        assertEquals(4, bucket.tryConsume(state, now + 1000 * SECOND));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        TokenBucket bucket = new TokenBucket(1000, 3600000);
+        AtomicLong state = bucket.newState();
+        long now = System.nanoTime();
+        AtomicLong accepted = new AtomicLong();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.tryConsume(state, now) >= 0) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1000, accepted.get());
+    }
+}
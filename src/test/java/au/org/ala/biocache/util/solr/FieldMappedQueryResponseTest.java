@@ -0,0 +1,90 @@
+package au.org.ala.biocache.util.solr;
+
+import org.apache.solr.client.solrj.response.FacetField;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FieldMappedQueryResponseTest {
+
+    @Test
+    public void testNoRenamedFields() {
+        Map<String, String[]> inverseTranslations = new HashMap<>();
+        inverseTranslations.put("scientificName", new String[]{"scientificName"});
+        inverseTranslations.put(null, new String[]{"deleted"});
+
+        assertNull(FieldMappedQueryResponse.FieldNameMapping.of(null));
+        assertNull(FieldMappedQueryResponse.FieldNameMapping.of(inverseTranslations));
+    }
+
+    @Test
+    public void testRenamedFields() {
+        Map<String, String[]> inverseTranslations = new HashMap<>();
+        inverseTranslations.put("scientificName", new String[]{"taxon_name"});
+        inverseTranslations.put("vernacularName", new String[]{"common_name", "vernacularName"});
+        inverseTranslations.put("id", new String[]{"id"});
+
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", "1");
+        fields.put("scientificName", "Acacia");
+        fields.put("vernacularName", "Wattle");
+
+        Map<String, Object> view = new FieldMappedQueryResponse.RenamedFieldMap(fields,
+                FieldMappedQueryResponse.FieldNameMapping.of(inverseTranslations));
+
+        assertEquals(Arrays.asList("id", "taxon_name", "common_name", "vernacularName"), new ArrayList<>(view.keySet()));
+        assertEquals(4, view.size());
+        assertEquals("Acacia", view.get("taxon_name"));
+        assertNull(view.get("scientificName"));
+        assertFalse(view.containsKey("scientificName"));
+        assertEquals("Wattle", view.get("common_name"));
+        assertEquals("Wattle", view.get("vernacularName"));
+
+        // the view is read only
+        try {
+            view.put("taxon_name", "Eucalyptus");
+            fail("the view is read only");
+        } catch (UnsupportedOperationException e) {
+            assertEquals("Acacia", fields.get("scientificName"));
+        }
+        try {
+            view.entrySet().iterator().next().setValue("2");
+            fail("the view is read only");
+        } catch (UnsupportedOperationException e) {
+            assertEquals("1", fields.get("id"));
+        }
+
+        // a copy can be changed without changing the original fields
+        Map<String, Object> copy = new LinkedHashMap<>(view);
+        copy.put("taxon_name", "Eucalyptus");
+        assertEquals("Acacia", fields.get("scientificName"));
+        assertEquals(3, fields.size());
+    }
+
+    @Test
+    public void testRenamedFacetField() {
+        FacetField facetField = new FacetField("occurrenceYear", "+10YEAR", new Date());
+        facetField.add("1990-01-01T00:00:00Z", 5);
+        facetField.add("2000-01-01T00:00:00Z", 3);
+
+        FacetField renamed = new FieldMappedQueryResponse.RenamedFacetField("occurrence_year", facetField);
+
+        assertEquals("occurrence_year", renamed.getName());
+        assertEquals(2, renamed.getValueCount());
+        for (FacetField.Count count : renamed.getValues()) {
+            assertSame(renamed, count.getFacetField());
+            assertEquals("occurrence_year", count.getAsFilterQuery().substring(0, "occurrence_year".length()));
+        }
+        assertEquals("1990-01-01T00:00:00Z", renamed.getValues().get(0).getName());
+        assertEquals(5, renamed.getValues().get(0).getCount());
+
+        // counts added later are included
+        renamed.add("2010-01-01T00:00:00Z", 1);
+        assertEquals(3, renamed.getValues().size());
+        assertEquals(3, facetField.getValueCount());
+
+        assertEquals("occurrence_year", renamed.getLimitingFields(4).getName());
+    }
+}
@@ -0,0 +1,200 @@
+package au.org.ala.biocache.web;
+
+import au.org.ala.biocache.dao.IndexDAO;
+import au.org.ala.biocache.dao.SearchDAO;
+import au.org.ala.biocache.dto.*;
+import au.org.ala.biocache.util.solr.FieldMappingUtil;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ChartControllerTest {
+
+    private static final String DEFAULT_STAT_TYPE = "min,max,mean,missing,stddev,count,sum";
+
+    private ChartController controller;
+
+    // the json.facet of the last request and the response to it
+    private Map<String, Object> jsonFacet;
+    private SimpleOrderedMap<Object> facets;
+
+    @Before
+    public void setUp() throws Exception {
+        controller = new ChartController();
+        controller.searchDAO = mock(SearchDAO.class);
+        controller.indexDao = mock(IndexDAO.class);
+        controller.fieldMappingUtil = mock(FieldMappingUtil.class);
+        ReflectionTestUtils.setField(controller, "maxSeriesFacets", 5);
+        ReflectionTestUtils.setField(controller, "maxStringFacets", 50);
+        ReflectionTestUtils.setField(controller, "maxNumberFacets", 50);
+        ReflectionTestUtils.setField(controller, "avoidRanges", Arrays.asList("month", "year", "decade"));
+
+        when(controller.fieldMappingUtil.translateFieldName(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(controller.fieldMappingUtil.translateQueryFields(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        IndexFieldDTO elevation = new IndexFieldDTO();
+        elevation.setName("elevation");
+        elevation.setDataType("double");
+        when(controller.indexDao.getIndexedFieldsMap()).thenReturn(Collections.singletonMap("elevation", elevation));
+        when(controller.indexDao.getIndexedFields()).thenReturn(Collections.singleton(elevation));
+
+        // fewer x values than charts.facets.string.max, there are no xranges
+        SearchResultDTO searchResult = new SearchResultDTO();
+        searchResult.setFacetResults(Collections.emptyList());
+        when(controller.searchDAO.findByFulltextSpatialQuery(any(), anyBoolean(), any())).thenReturn(searchResult);
+
+        when(controller.searchDAO.createFacetFieldResult(anyString(), any(), anyLong())).thenAnswer(invocation -> {
+            String field = invocation.getArgument(0);
+            String value = invocation.getArgument(1);
+            long count = invocation.getArgument(2);
+            return value == null ? new FieldResultDTO("", field + ".novalue", count, "-" + field + ":*")
+                    : new FieldResultDTO(value, field + "." + value, count, field + ":\"" + value + "\"");
+        });
+
+        when(controller.searchDAO.searchJsonFacet(any(), any())).thenAnswer(invocation -> {
+            jsonFacet = invocation.getArgument(1);
+            return facets;
+        });
+    }
+
+    @Test
+    public void testTermsFacet() throws Exception {
+        facets = series(map("x", map("buckets", Arrays.asList(map("val", "HumanObservation", "count", 5L),
+                map("val", "PreservedSpecimen", "count", 3L)), "missing", map("count", 2L))));
+
+        Map result = chart("basisOfRecord", null, null, DEFAULT_STAT_TYPE, true);
+
+        Map terms = facet("x");
+        assertEquals("terms", terms.get("type"));
+        assertEquals("basisOfRecord", terms.get("field"));
+        assertEquals(50, terms.get("limit"));
+        assertEquals("index asc", terms.get("sort"));
+        assertEquals(true, terms.get("missing"));
+        assertNull(terms.get("facet"));
+
+        List<FieldResultDTO> data = data(result);
+        assertEquals(3, data.size());
+        assertEquals("HumanObservation", data.get(0).getLabel());
+        assertEquals(5, data.get(0).getCount());
+        // the records without a value
+        assertEquals("basisOfRecord.novalue", data.get(2).getI18nCode());
+        assertEquals(2, data.get(2).getCount());
+    }
+
+    @Test
+    public void testTermsFacetWithoutMissing() throws Exception {
+        facets = series(map("x", map("buckets", Collections.singletonList(map("val", "HumanObservation", "count", 5L)))));
+
+        Map result = chart("basisOfRecord", null, null, DEFAULT_STAT_TYPE, false);
+
+        assertEquals(false, facet("x").get("missing"));
+        assertEquals(1, data(result).size());
+    }
+
+    @Test
+    public void testStatsOfTerms() throws Exception {
+        facets = series(map("x", map("buckets", Collections.singletonList(map("val", "HumanObservation", "count", 5L,
+                "stat_min", 1.0, "stat_max", 10.0)), "missing", map("count", 2L, "stat_min", 3.0, "stat_max", 4.0))));
+
+        Map result = chart("basisOfRecord", null, "elevation", "min,max", true);
+
+        Map terms = facet("x");
+        assertEquals("terms", terms.get("type"));
+        assertEquals(-1, terms.get("limit"));
+        assertEquals(true, terms.get("missing"));
+        Map stats = (Map) terms.get("facet");
+        assertEquals(2, stats.size());
+        assertEquals("min(elevation)", stats.get("stat_min"));
+        assertEquals("max(elevation)", stats.get("stat_max"));
+
+        List<FieldStatsItem> data = data(result);
+        assertEquals(2, data.size());
+        assertEquals("basisOfRecord:\"HumanObservation\"", data.get(0).getFq());
+        assertEquals(10.0, data.get(0).getMax());
+        assertEquals("-basisOfRecord:*", data.get(1).getFq());
+        assertEquals(3.0, data.get(1).getMin());
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        facets = series(map("stat_mean", 4.5, "stat_count", 8L));
+
+        Map result = chart(null, null, "elevation", "mean,count", true);
+
+        Map stats = (Map) ((Map) jsonFacet.get("s0")).get("facet");
+        assertEquals(2, stats.size());
+        assertEquals("avg(elevation)", stats.get("stat_mean"));
+        assertEquals("countvals(elevation)", stats.get("stat_count"));
+
+        List<FieldStatsItem> data = data(result);
+        assertEquals(1, data.size());
+        assertEquals(4.5, data.get(0).getMean());
+        assertEquals(Long.valueOf(8), data.get(0).getCount());
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        facets = series(map("r0", map("count", 4L), "r1", map("count", 6L)));
+
+        Map result = chart("elevation", "0,10,20", null, DEFAULT_STAT_TYPE, true);
+
+        assertEquals("query", facet("r0").get("type"));
+        assertEquals("elevation:[0 TO 10]", facet("r0").get("q"));
+        assertEquals("elevation:[10 TO 20] AND -(elevation:10)", facet("r1").get("q"));
+
+        List<FieldResultDTO> data = data(result);
+        assertEquals(2, data.size());
+        assertEquals("0 - 10", data.get(0).getLabel());
+        assertEquals(4, data.get(0).getCount());
+        assertEquals(6, data.get(1).getCount());
+    }
+
+    @Test
+    public void testUnsupportedStatType() throws Exception {
+        try {
+            chart("basisOfRecord", null, "elevation", "min,percentiles", true);
+            fail("percentiles is not supported");
+        } catch (ResponseStatusException e) {
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+        }
+        verify(controller.searchDAO, never()).searchJsonFacet(any(), any());
+    }
+
+    private Map chart(String x, String xranges, String stats, String statType, boolean xmissing) throws Exception {
+        SpatialSearchRequestParams params = new SpatialSearchRequestParams();
+        params.setQ("*:*");
+        return controller.chart(params, x, xranges, stats, statType, null, null, false, true, false, xmissing, "index");
+    }
+
+    /**
+     * @return the json.facet sub-facet of the single series
+     */
+    private Map facet(String name) {
+        return (Map) ((Map) ((Map) jsonFacet.get("s0")).get("facet")).get(name);
+    }
+
+    private static List data(Map result) {
+        return (List) ((Map) ((List) result.get("data")).get(0)).get("data");
+    }
+
+    private static SimpleOrderedMap<Object> series(SimpleOrderedMap<Object> facet) {
+        return map("s0", facet);
+    }
+
+    private static SimpleOrderedMap<Object> map(Object... keyValues) {
+        SimpleOrderedMap<Object> map = new SimpleOrderedMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            map.add((String) keyValues[i], keyValues[i + 1]);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,74 @@
+package au.org.ala.biocache.web;
+
+import au.org.ala.biocache.dto.PointCountsDTO;
+import au.org.ala.biocache.util.Projection;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class WMSControllerHexbinTest {
+
+    private static final int TILE_SIZE = 256;
+    private static final double HEX_CELL_WIDTH = TILE_SIZE / 16.0;
+    private static final double HEX_CELL_HEIGHT = 1.1547005 * HEX_CELL_WIDTH;
+    private static final double X_OVERLAP = HEX_CELL_WIDTH / (1.0 + Math.sin(Math.PI / 2.0) / Math.sin(Math.PI / 6.0));
+
+    private final WMSController controller = new WMSController();
+
+    @Test
+    public void testHexbinBlock() {
+        double[] block = controller.hexbinBlock(new double[]{10, -20, 12, -18});
+        assertArrayEquals(new double[]{8.4375, -22.5, 14.0625, -16.875}, block, 1e-9);
+
+        // a neighbouring tile at the same zoom shares the block
+        assertArrayEquals(block, controller.hexbinBlock(new double[]{11, -19, 13, -17}), 1e-9);
+
+        // the whole world
+        assertArrayEquals(new double[]{-180, -90, 180, 90}, controller.hexbinBlock(new double[]{-180, -90, 180, 90}), 1e-9);
+    }
+
+    @Test
+    public void testBinning() {
+        double[] bbox = new double[]{0, 0, 10, 10};
+        PointCountsDTO points = new PointCountsDTO();
+        points.add(1, 9, 3);
+        points.add(1.01, 9.01, 4);
+        points.add(9, 1, 5);
+        // outside of the extents
+        points.add(20, 20, 100);
+
+        int[][] grid = bin(points, bbox, 0, points.size());
+        assertEquals(12, sum(grid));
+        assertEquals(7, max(grid));
+
+        // chunks binned separately and summed are the same as a single chunk
+        int[][] chunked = bin(points, bbox, 0, 2);
+        int[][] second = bin(points, bbox, 2, points.size());
+        for (int i = 0; i < chunked.length; i++) {
+            for (int j = 0; j < chunked[i].length; j++) {
+                chunked[i][j] += second[i][j];
+            }
+        }
+        for (int i = 0; i < grid.length; i++) {
+            assertArrayEquals(grid[i], chunked[i]);
+        }
+    }
+
+    private int[][] bin(PointCountsDTO points, double[] bbox, int start, int end) {
+        int[][] grid = new int[16 + 3][(int) Math.ceil(TILE_SIZE / HEX_CELL_HEIGHT) + 3];
+        controller.binHexChunk(grid, points, start, end, bbox, Projection.IDENTITY, bbox, TILE_SIZE, TILE_SIZE,
+                HEX_CELL_WIDTH, HEX_CELL_HEIGHT, X_OVERLAP, 0);
+        return grid;
+    }
+
+    private static int sum(int[][] grid) {
+        return Arrays.stream(grid).flatMapToInt(Arrays::stream).sum();
+    }
+
+    private static int max(int[][] grid) {
+        return Arrays.stream(grid).flatMapToInt(Arrays::stream).max().orElse(0);
+    }
+}
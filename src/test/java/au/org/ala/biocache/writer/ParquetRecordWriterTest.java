@@ -0,0 +1,162 @@
+package au.org.ala.biocache.writer;
+
+import au.org.ala.biocache.stream.OptionalZipOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static au.org.ala.biocache.writer.ParquetRecordWriter.ColumnType.*;
+import static org.junit.Assert.*;
+
+public class ParquetRecordWriterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testTypedColumns() throws Exception {
+        File file = tempFolder.newFile("test.parquet");
+        List<String> miscLabels = new ArrayList<>(Arrays.asList("habitat"));
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            ParquetRecordWriter writer = new ParquetRecordWriter(out,
+                    new String[]{"id", "year", "decimalLatitude", "geospatialKosher", "id"},
+                    new ParquetRecordWriter.ColumnType[]{STRING, LONG, DOUBLE, BOOLEAN, STRING},
+                    miscLabels, 1024 * 1024);
+            writer.initialise();
+            writer.write(new String[]{"a", "2000", "-35.5", "true", "x", "forest"});
+            writer.write(new String[]{"b", "", "not a number", "false", "y"});
+            writer.write(new String[]{"c", "2001", "-36", "yes", "z"});
+            writer.finalise();
+
+            assertFalse(writer.hasError());
+        }
+
+        try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), new Path(file.getAbsolutePath())).build()) {
+            Group first = reader.read();
+            assertEquals("a", first.getString("id", 0));
+            assertEquals(2000L, first.getLong("year", 0));
+            assertEquals(-35.5, first.getDouble("decimalLatitude", 0), 0);
+            assertTrue(first.getBoolean("geospatialKosher", 0));
+            assertEquals("x", first.getString("id_2", 0));
+            assertEquals("{\"habitat\":\"forest\"}", first.getString(ParquetRecordWriter.MISC_COLUMN, 0));
+
+            // empty and invalid values are null
+            Group second = reader.read();
+            assertEquals("b", second.getString("id", 0));
+            assertEquals(0, second.getFieldRepetitionCount("year"));
+            assertEquals(0, second.getFieldRepetitionCount("decimalLatitude"));
+            assertFalse(second.getBoolean("geospatialKosher", 0));
+            assertEquals(0, second.getFieldRepetitionCount(ParquetRecordWriter.MISC_COLUMN));
+
+            // a boolean other than true or false is null, not false
+            Group third = reader.read();
+            assertEquals("c", third.getString("id", 0));
+            assertEquals(0, third.getFieldRepetitionCount("geospatialKosher"));
+
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        File file = tempFolder.newFile("empty.parquet");
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            ParquetRecordWriter writer = new ParquetRecordWriter(out, new String[]{"id"},
+                    new ParquetRecordWriter.ColumnType[]{STRING}, null, 1024 * 1024);
+            writer.initialise();
+            writer.finalise();
+        }
+
+        try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), new Path(file.getAbsolutePath())).build()) {
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void testMiscColumnRenamed() throws Exception {
+        File file = tempFolder.newFile("misc.parquet");
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            ParquetRecordWriter writer = new ParquetRecordWriter(out, new String[]{"id", "misc"},
+                    new ParquetRecordWriter.ColumnType[]{STRING, STRING}, new ArrayList<>(Arrays.asList("habitat")), 1024 * 1024);
+            writer.initialise();
+            writer.write(new String[]{"a", "m", "forest"});
+            writer.finalise();
+        }
+
+        try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), new Path(file.getAbsolutePath())).build()) {
+            Group first = reader.read();
+            assertEquals("m", first.getString("misc", 0));
+            assertEquals("{\"habitat\":\"forest\"}", first.getString("misc_2", 0));
+        }
+    }
+
+    @Test
+    public void testSplitWithoutMoreRows() throws Exception {
+        File file = tempFolder.newFile("split.zip");
+        AtomicBoolean split = new AtomicBoolean(false);
+        Random random = new Random(1);
+
+        int rows = 0;
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            OptionalZipOutputStream zipOut = new OptionalZipOutputStream(OptionalZipOutputStream.Type.zipped, out, 1) {
+                @Override
+                public boolean isNewFile(Object writer, long length) throws IOException {
+                    boolean isNewFile = super.isNewFile(writer, length);
+                    split.compareAndSet(false, isNewFile);
+                    return isNewFile;
+                }
+            };
+            zipOut.putNextEntry("data.parquet");
+
+            ParquetRecordWriter writer = new ParquetRecordWriter(zipOut, new String[]{"id", "value"},
+                    new ParquetRecordWriter.ColumnType[]{STRING, STRING}, null, 64 * 1024);
+            writer.initialise();
+            // stop at the first split, so there are no rows for the next file
+            while (!split.get() && rows < 100000) {
+                byte[] value = new byte[500];
+                random.nextBytes(value);
+                writer.write(new String[]{String.valueOf(rows), Base64.getEncoder().encodeToString(value)});
+                rows++;
+            }
+            writer.finalise();
+            assertFalse(writer.hasError());
+            zipOut.close();
+        }
+        assertTrue(split.get());
+
+        // there is no empty entry and each entry is a complete Parquet file
+        List<String> names = new ArrayList<>();
+        int read = 0;
+        try (ZipFile zipFile = new ZipFile(file)) {
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                names.add(entry.getName());
+                File entryFile = tempFolder.newFile(entry.getName());
+                Files.copy(zipFile.getInputStream(entry), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), new Path(entryFile.getAbsolutePath())).build()) {
+                    while (reader.read() != null) {
+                        read++;
+                    }
+                }
+            }
+        }
+        assertEquals(Arrays.asList("data.parquet"), names);
+        assertEquals(rows, read);
+    }
+}